@@ -0,0 +1,117 @@
+package io.apigee.trireme.apptests;
+
+import io.apigee.trireme.core.AsyncPoolStatistics;
+import io.apigee.trireme.core.NodeEnvironment;
+import io.apigee.trireme.core.NodeException;
+import io.apigee.trireme.core.NodeScript;
+import io.apigee.trireme.core.Sandbox;
+import io.apigee.trireme.core.ScriptStatus;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measure parallel "fs.readFile" throughput with each kind of async pool.
+ */
+public class AsyncPoolBenchmarkTest
+{
+    private static final int FILE_SIZE = 64 * 1024;
+    private static final int CONCURRENCY = 256;
+    private static final int DURATION = 3000;
+
+    private static final String SCRIPT =
+        "var fs = require('fs');\n" +
+        "var file = process.argv[2];\n" +
+        "var concurrent = parseInt(process.argv[3]);\n" +
+        "var duration = parseInt(process.argv[4]);\n" +
+        "var reads = 0;\n" +
+        "var done = false;\n" +
+        "setTimeout(function() { done = true; }, duration);\n" +
+        "process.on('exit', function() { console.log(reads); });\n" +
+        "function read() {\n" +
+        "  fs.readFile(file, function(err, data) {\n" +
+        "    if (err) { throw err; }\n" +
+        "    reads++;\n" +
+        "    if (!done) { read(); }\n" +
+        "  });\n" +
+        "}\n" +
+        "for (var i = 0; i < concurrent; i++) { read(); }";
+
+    private static File dataFile;
+
+    @BeforeClass
+    public static void init()
+        throws IOException
+    {
+        // Same switch as the benchmarks in "nodetests"
+        Assume.assumeTrue(Boolean.getBoolean("runBenchmarks"));
+        dataFile = File.createTempFile("trireme-readfile", ".dat");
+        FileOutputStream out = new FileOutputStream(dataFile);
+        try {
+            out.write(new byte[FILE_SIZE]);
+        } finally {
+            out.close();
+        }
+    }
+
+    @AfterClass
+    public static void cleanup()
+    {
+        if (dataFile != null) {
+            dataFile.delete();
+        }
+    }
+
+    private void runReadFile(NodeEnvironment.AsyncPoolType type)
+        throws NodeException, InterruptedException, ExecutionException
+    {
+        NodeEnvironment env = new NodeEnvironment();
+        env.setAsyncPoolType(type);
+
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        Sandbox sb = new Sandbox();
+        sb.setStdout(stdout);
+        env.setSandbox(sb);
+
+        NodeScript script = env.createScript("readfile.js", SCRIPT,
+                                             new String[] { dataFile.getPath(), String.valueOf(CONCURRENCY),
+                                                            String.valueOf(DURATION) });
+        ScriptStatus status = script.execute().get();
+        assertEquals(0, status.getExitCode());
+
+        long reads = Long.parseLong(new String(stdout.toByteArray()).trim());
+        AsyncPoolStatistics stats = env.getAsyncPoolStatistics();
+        System.out.println(type + ": " + (reads * 1000L / DURATION) + " reads/second. " + stats);
+        env.close();
+    }
+
+    @Test
+    public void testBounded()
+        throws NodeException, InterruptedException, ExecutionException
+    {
+        runReadFile(NodeEnvironment.AsyncPoolType.BOUNDED);
+    }
+
+    @Test
+    public void testVirtual()
+        throws NodeException, InterruptedException, ExecutionException
+    {
+        runReadFile(NodeEnvironment.AsyncPoolType.VIRTUAL);
+    }
+
+    @Test
+    public void testForkJoin()
+        throws NodeException, InterruptedException, ExecutionException
+    {
+        runReadFile(NodeEnvironment.AsyncPoolType.FORK_JOIN);
+    }
+}
@@ -0,0 +1,118 @@
+package io.apigee.trireme.apptests;
+
+import io.apigee.trireme.core.NodeEnvironment;
+import io.apigee.trireme.core.NodeException;
+import io.apigee.trireme.core.NodeScript;
+import io.apigee.trireme.core.ScriptFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Run an HTTP server using the "cluster" module, which runs each worker in its own script in the same JVM,
+ * using both the round-robin and the shared-handle scheduling policies. Both are also run with every script
+ * on one shared event loop. There, with the shared-handle policy, the workers take turns accepting connections,
+ * and with round-robin, the master hands each connection to a worker that uses the same selector.
+ */
+@RunWith(Parameterized.class)
+public class ClusterTest
+{
+    private static final int PORT = 33350;
+    private static final int REQUESTS = 40;
+    // This must match server.js
+    private static final int WORKERS = 4;
+
+    private final String policy;
+    private final int sharedLoops;
+    private final int port;
+    private NodeEnvironment env;
+    private ScriptFuture scriptFuture;
+
+    @Parameterized.Parameters
+    public static Collection<Object[]> getParameters()
+    {
+        return Arrays.asList(new Object[][]{{"rr", 0, 0}, {"none", 0, 1}, {"none", 1, 2}, {"rr", 1, 3}});
+    }
+
+    public ClusterTest(String policy, int sharedLoops, int portOffset)
+    {
+        this.policy = policy;
+        this.sharedLoops = sharedLoops;
+        this.port = PORT + portOffset;
+    }
+
+    private int getPort()
+    {
+        return port;
+    }
+
+    @Before
+    public void start()
+        throws NodeException, IOException, InterruptedException
+    {
+        env = new NodeEnvironment();
+        env.setSharedEventLoops(sharedLoops);
+        NodeScript script = env.createScript("server.js", new File("./target/test-classes/cluster/server.js"),
+                                             new String[] { String.valueOf(getPort()), policy });
+        script.setNodeVersion("0.12");
+        scriptFuture = script.execute();
+        Utils.awaitPortOpen(getPort());
+    }
+
+    @After
+    public void stop()
+        throws ExecutionException, InterruptedException
+    {
+        scriptFuture.cancel(true);
+        try {
+            scriptFuture.get();
+        } catch (CancellationException ok) {
+        }
+        env.close();
+    }
+
+    @Test
+    public void testRequests()
+        throws IOException
+    {
+        if (sharedLoops > 0) {
+            // The port opens when the first worker listens, so wait until the others are listening too
+            HashSet<String> seen = new HashSet<String>();
+            for (int i = 0; (i < REQUESTS * 10) && (seen.size() < WORKERS); i++) {
+                seen.add(Utils.getString("http://localhost:" + getPort() + "/", 200));
+            }
+            assertEquals(WORKERS, seen.size());
+        }
+
+        HashMap<String, Integer> workers = new HashMap<String, Integer>();
+        for (int i = 0; i < REQUESTS; i++) {
+            String id = Utils.getString("http://localhost:" + getPort() + "/", 200);
+            Integer count = workers.get(id);
+            workers.put(id, (count == null) ? 1 : count + 1);
+        }
+
+        if ((sharedLoops > 0) && "none".equals(policy)) {
+            // The workers share one acceptor, which hands out connections in turn
+            assertEquals(WORKERS, workers.size());
+            for (Integer count : workers.values()) {
+                assertEquals(REQUESTS / WORKERS, count.intValue());
+            }
+        } else {
+            // Either the master hands out connections in turn, or all the workers race to accept them
+            assertTrue(workers.size() > 1);
+        }
+    }
+}
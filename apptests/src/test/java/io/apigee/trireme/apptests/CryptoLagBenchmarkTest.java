@@ -0,0 +1,110 @@
+package io.apigee.trireme.apptests;
+
+import io.apigee.trireme.core.NodeEnvironment;
+import io.apigee.trireme.core.NodeException;
+import io.apigee.trireme.core.NodeScript;
+import io.apigee.trireme.core.Sandbox;
+import io.apigee.trireme.core.ScriptStatus;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Measure how late a short interval timer fires while a script runs many PBKDF2 calls, with the work
+ * done in the crypto pool ("pbkdf2") and in the script thread ("pbkdf2Sync").
+ */
+public class CryptoLagBenchmarkTest
+{
+    private static final int CALLS = 200;
+    private static final int ITERATIONS = 10000;
+
+    private static final String SCRIPT =
+        "var crypto = require('crypto');\n" +
+        "var sync = (process.argv[2] === 'sync');\n" +
+        "var calls = parseInt(process.argv[3]);\n" +
+        "var iterations = parseInt(process.argv[4]);\n" +
+        "var INTERVAL = 5;\n" +
+        "var last = Date.now();\n" +
+        "var maxLag = 0;\n" +
+        "var totalLag = 0;\n" +
+        "var ticks = 0;\n" +
+        "var timer = setInterval(function() {\n" +
+        "  var now = Date.now();\n" +
+        "  var lag = Math.max(0, now - last - INTERVAL);\n" +
+        "  maxLag = Math.max(maxLag, lag);\n" +
+        "  totalLag += lag;\n" +
+        "  ticks++;\n" +
+        "  last = now;\n" +
+        "}, INTERVAL);\n" +
+        "var done = 0;\n" +
+        "function finish() {\n" +
+        "  if (++done === calls) {\n" +
+        "    clearInterval(timer);\n" +
+        "    console.log(maxLag + ' ' + (ticks === 0 ? 0 : Math.round(totalLag / ticks)));\n" +
+        "  }\n" +
+        "}\n" +
+        "var started = 0;\n" +
+        "function next() {\n" +
+        "  if (started++ >= calls) { return; }\n" +
+        "  if (sync) {\n" +
+        "    crypto.pbkdf2Sync('password', 'salt', iterations, 32);\n" +
+        "    finish();\n" +
+        "  } else {\n" +
+        "    crypto.pbkdf2('password', 'salt', iterations, 32, function(err) {\n" +
+        "      if (err) { throw err; }\n" +
+        "      finish();\n" +
+        "    });\n" +
+        "  }\n" +
+        "  setImmediate(next);\n" +
+        "}\n" +
+        "next();";
+
+    private void runLag(String mode)
+        throws NodeException, InterruptedException, ExecutionException
+    {
+        NodeEnvironment env = new NodeEnvironment();
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        Sandbox sb = new Sandbox();
+        sb.setStdout(stdout);
+        env.setSandbox(sb);
+
+        long start = System.nanoTime();
+        NodeScript script = env.createScript("cryptolag.js", SCRIPT,
+                                             new String[] { mode, String.valueOf(CALLS),
+                                                            String.valueOf(ITERATIONS) });
+        ScriptStatus status = script.execute().get();
+        long elapsed = System.nanoTime() - start;
+        assertEquals(0, status.getExitCode());
+
+        String[] lag = new String(stdout.toByteArray()).trim().split(" ");
+        System.out.println(mode + ": " + CALLS + " x PBKDF2(" + ITERATIONS + ") in " + (elapsed / 1000000L) +
+                           " ms. Max loop lag " + lag[0] + " ms, average " + lag[1] + " ms. Crypto pool: " +
+                           env.getCryptoPoolStatistics());
+        env.close();
+    }
+
+    @Before
+    public void checkEnabled()
+    {
+        Assume.assumeTrue(Boolean.getBoolean("runBenchmarks"));
+    }
+
+    @Test
+    public void testAsync()
+        throws NodeException, InterruptedException, ExecutionException
+    {
+        runLag("async");
+    }
+
+    @Test
+    public void testSync()
+        throws NodeException, InterruptedException, ExecutionException
+    {
+        runLag("sync");
+    }
+}
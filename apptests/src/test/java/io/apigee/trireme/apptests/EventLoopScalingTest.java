@@ -0,0 +1,132 @@
+package io.apigee.trireme.apptests;
+
+import io.apigee.trireme.core.NodeEnvironment;
+import io.apigee.trireme.core.NodeException;
+import io.apigee.trireme.core.NodeScript;
+import io.apigee.trireme.core.ScriptFuture;
+import io.apigee.trireme.core.ScriptStatus;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compare running many small scripts with one thread per script against running them on a few
+ * shared event loops.
+ */
+public class EventLoopScalingTest
+{
+    private static final int[] SCRIPT_COUNTS = { 10, 100, 500 };
+    private static final int SHARED_LOOPS = 2;
+    private static final int ITERATIONS = 1000;
+
+    private static final String BUSY_SCRIPT =
+        "var count = 0;\n" +
+        "function next() {\n" +
+        "  if (++count < " + ITERATIONS + ") { setImmediate(next); }\n" +
+        "}\n" +
+        "setImmediate(next);";
+
+    private static final String IDLE_SCRIPT =
+        "setInterval(function() {}, 60000);";
+
+    private long getMemoryUsed()
+    {
+        System.gc();
+        Runtime r = Runtime.getRuntime();
+        return r.totalMemory() - r.freeMemory();
+    }
+
+    private NodeEnvironment makeEnvironment(int loops)
+    {
+        NodeEnvironment env = new NodeEnvironment();
+        env.setSharedEventLoops(loops);
+        return env;
+    }
+
+    private void runThroughput(int loops, int numScripts)
+        throws NodeException, InterruptedException, ExecutionException
+    {
+        NodeEnvironment env = makeEnvironment(loops);
+        ArrayList<ScriptFuture> futures = new ArrayList<ScriptFuture>(numScripts);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < numScripts; i++) {
+            NodeScript script = env.createScript("busy" + i + ".js", BUSY_SCRIPT, null);
+            futures.add(script.execute());
+        }
+        for (ScriptFuture f : futures) {
+            ScriptStatus status = f.get();
+            assertEquals(0, status.getExitCode());
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.println((loops == 0 ? "Dedicated" : "Shared (" + loops + ")") + ": " +
+                           numScripts + " scripts x " + ITERATIONS + " iterations in " +
+                           (elapsed / 1000000L) + " ms");
+        env.close();
+    }
+
+    private void runIdle(int loops, int numScripts)
+        throws NodeException, InterruptedException, ExecutionException
+    {
+        long before = getMemoryUsed();
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        NodeEnvironment env = makeEnvironment(loops);
+        ArrayList<NodeScript> scripts = new ArrayList<NodeScript>(numScripts);
+        ArrayList<ScriptFuture> futures = new ArrayList<ScriptFuture>(numScripts);
+        for (int i = 0; i < numScripts; i++) {
+            NodeScript script = env.createScript("idle" + i + ".js", IDLE_SCRIPT, null);
+            futures.add(script.execute());
+            scripts.add(script);
+        }
+        // Returns only once each script has started
+        for (NodeScript s : scripts) {
+            s._getRuntime();
+        }
+
+        long after = getMemoryUsed();
+        int threadsAfter = ManagementFactory.getThreadMXBean().getThreadCount();
+        System.out.println((loops == 0 ? "Dedicated" : "Shared (" + loops + ")") + ": " +
+                           numScripts + " idle scripts use " + ((after - before) / 1024L) + " KB and " +
+                           (threadsAfter - threadsBefore) + " threads");
+
+        for (ScriptFuture f : futures) {
+            f.cancel(true);
+        }
+        env.close();
+    }
+
+    @Before
+    public void checkEnabled()
+    {
+        // Starts a great many scripts, so only run it when benchmarking
+        Assume.assumeTrue(Boolean.getBoolean("runBenchmarks"));
+    }
+
+    @Test
+    public void testThroughput()
+        throws NodeException, InterruptedException, ExecutionException
+    {
+        for (int n : SCRIPT_COUNTS) {
+            runThroughput(0, n);
+            runThroughput(SHARED_LOOPS, n);
+        }
+    }
+
+    @Test
+    public void testIdleFootprint()
+        throws NodeException, InterruptedException, ExecutionException
+    {
+        for (int n : SCRIPT_COUNTS) {
+            runIdle(0, n);
+            runIdle(SHARED_LOOPS, n);
+        }
+    }
+}
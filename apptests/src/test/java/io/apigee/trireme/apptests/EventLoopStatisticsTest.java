@@ -0,0 +1,95 @@
+package io.apigee.trireme.apptests;
+
+import io.apigee.trireme.core.EventLoopListener;
+import io.apigee.trireme.core.EventLoopStatistics;
+import io.apigee.trireme.core.NodeEnvironment;
+import io.apigee.trireme.core.NodeException;
+import io.apigee.trireme.core.NodeScript;
+import io.apigee.trireme.core.ScriptStatus;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class EventLoopStatisticsTest
+{
+    private static final String SCRIPT =
+        "var count = 0;\n" +
+        "function next() {\n" +
+        "  if (++count < 100) { setImmediate(next); } else { setTimeout(function() {}, 10); }\n" +
+        "}\n" +
+        "setImmediate(next);";
+
+    private void runScript(NodeEnvironment env, NodeScript script)
+        throws NodeException, InterruptedException, ExecutionException
+    {
+        ScriptStatus status = script.execute().get();
+        assertEquals(0, status.getExitCode());
+
+        EventLoopStatistics stats = script.getEventLoopStatistics();
+        assertNotNull(stats);
+        assertTrue(stats.getIterationCount() >= 100L);
+        assertEquals(stats.getIterationCount(), stats.getImmediateTimes().getCount());
+        assertTrue(stats.getLag().getCount() >= 1L);
+        assertEquals(0, stats.getTimerQueueDepth());
+        assertTrue(stats.getCpuTime() != 0L);
+        script.close();
+        env.close();
+    }
+
+    @Test
+    public void testStatistics()
+        throws NodeException, InterruptedException, ExecutionException
+    {
+        NodeEnvironment env = new NodeEnvironment();
+        env.setEventLoopStatistics(true);
+        runScript(env, env.createScript("stats.js", SCRIPT, null));
+    }
+
+    @Test
+    public void testSharedLoopStatistics()
+        throws NodeException, InterruptedException, ExecutionException
+    {
+        NodeEnvironment env = new NodeEnvironment();
+        env.setEventLoopStatistics(true);
+        env.setSharedEventLoops(1);
+        runScript(env, env.createScript("stats.js", SCRIPT, null));
+    }
+
+    @Test
+    public void testListener()
+        throws NodeException, InterruptedException, ExecutionException
+    {
+        NodeEnvironment env = new NodeEnvironment();
+        final AtomicLong iterations = new AtomicLong();
+        final AtomicLong immediateTime = new AtomicLong();
+
+        NodeScript script = env.createScript("listener.js", SCRIPT, null);
+        script.setEventLoopListener(new EventLoopListener() {
+            @Override
+            public void onIteration(NodeScript s, long[] phaseTimes)
+            {
+                iterations.incrementAndGet();
+                immediateTime.addAndGet(phaseTimes[EventLoopStatistics.Phase.IMMEDIATE.ordinal()]);
+            }
+        });
+        runScript(env, script);
+
+        assertEquals(script.getEventLoopStatistics().getIterationCount(), iterations.get());
+        assertTrue(immediateTime.get() > 0L);
+    }
+
+    @Test
+    public void testDisabled()
+        throws NodeException, InterruptedException, ExecutionException
+    {
+        NodeEnvironment env = new NodeEnvironment();
+        NodeScript script = env.createScript("disabled.js", SCRIPT, null);
+        assertEquals(0, script.execute().get().getExitCode());
+        assertNull(script.getEventLoopStatistics());
+        script.close();
+        env.close();
+    }
+}
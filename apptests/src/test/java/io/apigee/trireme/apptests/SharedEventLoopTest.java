@@ -0,0 +1,146 @@
+package io.apigee.trireme.apptests;
+
+import io.apigee.trireme.core.NodeEnvironment;
+import io.apigee.trireme.core.NodeException;
+import io.apigee.trireme.core.NodeScript;
+import io.apigee.trireme.core.ScriptFuture;
+import io.apigee.trireme.core.ScriptStatus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Run several different kinds of scripts at once on a single shared event loop, and make sure that scripts
+ * that exit or fail part way through don't affect the others.
+ */
+public class SharedEventLoopTest
+{
+    private static final int COPIES = 3;
+    private static final long TIMEOUT_SECS = 60L;
+
+    // Exits with 3 if the timers fire out of order
+    private static final String TIMER_SCRIPT =
+        "var order = [];\n" +
+        "[300, 100, 200].forEach(function(d) {\n" +
+        "  setTimeout(function() { order.push(d); }, d);\n" +
+        "});\n" +
+        "var ticks = 0;\n" +
+        "var iv = setInterval(function() { ticks++; }, 10);\n" +
+        "setTimeout(function() {\n" +
+        "  clearInterval(iv);\n" +
+        "  if ((order.join(',') !== '100,200,300') || (ticks < 5)) { process.exit(3); }\n" +
+        "}, 400);";
+
+    // Exits with 4 if the echoed data doesn't match
+    private static final String SOCKET_SCRIPT =
+        "var net = require('net');\n" +
+        "var server = net.createServer(function(c) { c.pipe(c); });\n" +
+        "server.listen(0, function() {\n" +
+        "  var client = net.connect(server.address().port, function() {\n" +
+        "    setTimeout(function() { client.end('Hello, shared loop!'); }, 150);\n" +
+        "  });\n" +
+        "  var data = '';\n" +
+        "  client.setEncoding('utf8');\n" +
+        "  client.on('data', function(d) { data += d; });\n" +
+        "  client.on('end', function() {\n" +
+        "    server.close();\n" +
+        "    if (data !== 'Hello, shared loop!') { process.exit(4); }\n" +
+        "  });\n" +
+        "});";
+
+    // Exits with 7 part way through the others, with a timer still pending
+    private static final String EXIT_SCRIPT =
+        "setTimeout(function() { process.exit(7); }, 50);\n" +
+        "setTimeout(function() {}, 10000);";
+
+    // Fails part way through the others, with a timer still pending
+    private static final String THROW_SCRIPT =
+        "setTimeout(function() { throw new Error('Expected failure'); }, 50);\n" +
+        "setTimeout(function() {}, 10000);";
+
+    private NodeEnvironment env;
+
+    @Before
+    public void createEnvironment()
+    {
+        env = new NodeEnvironment();
+        env.setSharedEventLoops(1);
+    }
+
+    @After
+    public void closeEnvironment()
+    {
+        env.close();
+    }
+
+    private ScriptFuture start(String name, String source)
+        throws NodeException
+    {
+        NodeScript script = env.createScript(name, source, null);
+        return script.execute();
+    }
+
+    private int getExitCode(ScriptFuture f)
+        throws InterruptedException, ExecutionException, TimeoutException
+    {
+        ScriptStatus status = f.get(TIMEOUT_SECS, TimeUnit.SECONDS);
+        return status.getExitCode();
+    }
+
+    @Test
+    public void testMixedScripts()
+        throws NodeException, InterruptedException, ExecutionException, TimeoutException
+    {
+        ArrayList<ScriptFuture> timers = new ArrayList<ScriptFuture>();
+        ArrayList<ScriptFuture> sockets = new ArrayList<ScriptFuture>();
+        ArrayList<ScriptFuture> exits = new ArrayList<ScriptFuture>();
+        ArrayList<ScriptFuture> throwers = new ArrayList<ScriptFuture>();
+
+        for (int i = 0; i < COPIES; i++) {
+            timers.add(start("timers" + i + ".js", TIMER_SCRIPT));
+            exits.add(start("exit" + i + ".js", EXIT_SCRIPT));
+            sockets.add(start("sockets" + i + ".js", SOCKET_SCRIPT));
+            throwers.add(start("throw" + i + ".js", THROW_SCRIPT));
+        }
+
+        for (ScriptFuture f : exits) {
+            assertEquals(7, getExitCode(f));
+        }
+        for (ScriptFuture f : throwers) {
+            try {
+                assertTrue(getExitCode(f) != 0);
+            } catch (ExecutionException ee) {
+                // Also a failure, with the exception attached
+            }
+        }
+        for (ScriptFuture f : timers) {
+            assertEquals(0, getExitCode(f));
+        }
+        for (ScriptFuture f : sockets) {
+            assertEquals(0, getExitCode(f));
+        }
+    }
+
+    @Test
+    public void testCancel()
+        throws NodeException, InterruptedException, ExecutionException, TimeoutException
+    {
+        ScriptFuture forever = start("forever.js", "setInterval(function() {}, 10);");
+        ScriptFuture timer = start("timers.js", TIMER_SCRIPT);
+
+        Thread.sleep(100L);
+        forever.cancel(true);
+        assertTrue(forever.isCancelled());
+        assertEquals(0, getExitCode(timer));
+
+        // The loop still runs new scripts afterwards
+        assertEquals(0, getExitCode(start("after.js", "setTimeout(function() {}, 10);")));
+    }
+}
@@ -0,0 +1,72 @@
+package io.apigee.trireme.apptests;
+
+import io.apigee.trireme.core.NodeEnvironment;
+import io.apigee.trireme.core.NodeException;
+import io.apigee.trireme.core.NodeScript;
+import io.apigee.trireme.core.Sandbox;
+import io.apigee.trireme.core.ScriptStatus;
+import io.apigee.trireme.core.StandbyPoolStatistics;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.*;
+
+public class StandbyPoolTest
+{
+    private static final int SCRIPTS = 5;
+
+    // Exits with 2 if it can see anything that an earlier script left behind in its global scope
+    private static final String SCRIPT =
+        "if ((typeof leaked !== 'undefined') || String.prototype.leaked || process.leaked) { process.exit(2); }\n" +
+        "global.leaked = true;\n" +
+        "String.prototype.leaked = true;\n" +
+        "process.leaked = true;\n" +
+        "var util = require('util');\n" +
+        "setTimeout(function() {\n" +
+        "  console.log(util.format('%s %d %j %s', process.argv[2], [1, 2, 3].length, { a: 'b' }, process.env.STANDBY_ID));\n" +
+        "}, 1);";
+
+    private String runScript(NodeEnvironment env, int i)
+        throws NodeException, InterruptedException, ExecutionException
+    {
+        NodeScript script = env.createScript("standby.js", SCRIPT, new String[] { "standby" });
+        // "process" may have been created in the standby pool, before the script's environment was known
+        script.addEnvironment("STANDBY_ID", String.valueOf(i));
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        script.setSandbox(new Sandbox().setStdout(stdout));
+
+        // The pool refills in the background, so give it a chance to catch up for every script after the first
+        StandbyPoolStatistics stats = env.getStandbyPoolStatistics();
+        assertNotNull(stats);
+        long deadline = System.currentTimeMillis() + 10000L;
+        while ((i > 0) && (stats.getIdleCount() == 0) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(10L);
+        }
+
+        ScriptStatus status = script.execute().get();
+        assertEquals(0, status.getExitCode());
+        script.close();
+        return new String(stdout.toByteArray());
+    }
+
+    @Test
+    public void testStandbyScripts()
+        throws NodeException, InterruptedException, ExecutionException
+    {
+        NodeEnvironment env = new NodeEnvironment();
+        env.setStandbyScriptCount(2);
+        try {
+            for (int i = 0; i < SCRIPTS; i++) {
+                assertEquals("standby 3 {\"a\":\"b\"} " + i, runScript(env, i).trim());
+            }
+
+            StandbyPoolStatistics stats = env.getStandbyPoolStatistics();
+            assertTrue(stats.getHitCount() > 0L);
+            assertEquals(SCRIPTS, stats.getHitCount() + stats.getMissCount());
+        } finally {
+            env.close();
+        }
+    }
+}
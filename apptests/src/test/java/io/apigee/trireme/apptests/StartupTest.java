@@ -4,6 +4,8 @@ import io.apigee.trireme.core.NodeEnvironment;
 import io.apigee.trireme.core.NodeException;
 import io.apigee.trireme.core.NodeScript;
 import io.apigee.trireme.core.ScriptFuture;
+import io.apigee.trireme.core.internal.DiskClassCache;
+import org.junit.Assume;
 import org.junit.Test;
 
 import java.io.File;
@@ -13,6 +15,8 @@ import java.lang.management.MemoryPoolMXBean;
 import java.util.ArrayList;
 import java.util.List;
 
+import static org.junit.Assert.*;
+
 public class StartupTest
 {
     private static final int PORT = 33333;
@@ -123,4 +127,43 @@ public class StartupTest
             f.cancel(true);
         }
     }
+
+    private long startWithDiskCache(File cacheDir, int port)
+        throws NodeException, InterruptedException, IOException
+    {
+        NodeEnvironment env = new NodeEnvironment();
+        env.setDiskClassCache(cacheDir, DiskClassCache.DEFAULT_MAX_SIZE);
+
+        long start = System.nanoTime();
+        NodeScript script = env.createScript("server.js", new File("./target/test-classes/dogs/server.js"),
+                                             new String[] { String.valueOf(port) });
+        ScriptFuture future = script.execute();
+        Utils.awaitPortOpen(port);
+        long elapsed = System.nanoTime() - start;
+
+        DiskClassCache cache = (DiskClassCache)env.getClassCache();
+        System.out.println("Started in " + (elapsed / 1000000L) + " ms. " + cache.getWarmUpReport());
+        future.cancel(true);
+        env.close();
+        return cache.getStored();
+    }
+
+    @Test
+    public void testAppStartupWithDiskCache()
+        throws NodeException, InterruptedException, IOException
+    {
+        // Prints timings and starts the server twice. DiskClassCacheTest covers the cache itself.
+        Assume.assumeTrue(Boolean.getBoolean("runBenchmarks"));
+        File cacheDir = new File("./target/classcache");
+        File[] old = cacheDir.listFiles();
+        if (old != null) {
+            for (File f : old) {
+                f.delete();
+            }
+        }
+
+        assertTrue(startWithDiskCache(cacheDir, PORT + 100) > 0);
+        // The second time around everything should come from disk
+        assertEquals(0L, startWithDiskCache(cacheDir, PORT + 101));
+    }
 }
@@ -0,0 +1,19 @@
+var cluster = require('cluster');
+var http = require('http');
+
+var NUM_WORKERS = 4;
+
+var port = parseInt(process.argv[2]);
+
+if (cluster.isMaster) {
+  cluster.schedulingPolicy = (process.argv[3] === 'none' ? cluster.SCHED_NONE : cluster.SCHED_RR);
+  for (var i = 0; i < NUM_WORKERS; i++) {
+    cluster.fork();
+  }
+} else {
+  // Each worker says who it is, so that the test can see the load being spread out
+  http.createServer(function(req, resp) {
+    resp.setHeader('Connection', 'close');
+    resp.end(String(cluster.worker.id));
+  }).listen(port);
+}
@@ -0,0 +1,381 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.rhino.compiler;
+
+import org.mozilla.javascript.CompilerEnvirons;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.RhinoException;
+import org.mozilla.javascript.optimizer.ClassCompiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.regex.Pattern;
+
+/**
+ * Compile all the JavaScript in an application directory, including its "node_modules," to a jar of classes
+ * that implement the Script interface. At runtime, "NodeEnvironment.addPrecompiledScripts" makes the jar
+ * available, and "require" runs the precompiled class for any module whose source matches, rather than
+ * parsing and compiling the source again.
+ * <p>
+ * The precompiled classes are found using a hash of the module source exactly as "require" passes it to the
+ * compiler, so this class must wrap the source the same way that "module.js" and "NativeModule.wrap" do,
+ * and must name classes the same way as "ScriptUtils.makeClassName" in the "core" module.
+ * </p>
+ * <p>
+ * This class may be run from the command line, or from the "compile-app" Maven goal.
+ * </p>
+ */
+
+public class AppCompiler
+{
+    public static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** This must match "ScriptUtils.CACHED_CLASS_PREFIX" in the core module. */
+    public static final String CLASS_PREFIX = "io.apigee.trireme.cached.Script_";
+    /** These must match "NativeModule.WRAP_PREFIX" and "WRAP_POSTFIX" in the core module. */
+    public static final String WRAP_PREFIX = "(function (exports, require, module, __filename, __dirname) {";
+    public static final String WRAP_POSTFIX = "\n});";
+    /**
+     * These must match "PrecompiledScripts.OPT_LEVEL_ATTRIBUTE" and "OBSERVER_COUNT_ATTRIBUTE" in the core module.
+     * They record how the scripts were compiled, so that the runtime only uses them with the same settings.
+     */
+    public static final String OPT_LEVEL_ATTRIBUTE = "Trireme-Optimization-Level";
+    public static final String OBSERVER_COUNT_ATTRIBUTE = "Trireme-Instruction-Count";
+
+    public static final int DEFAULT_OPT_LEVEL = 9;
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final Pattern SHEBANG = Pattern.compile("^#![^\\n\\r\\u2028\\u2029]*");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private int optimizationLevel = DEFAULT_OPT_LEVEL;
+    private boolean debugInfo;
+    private boolean generateSource = true;
+    private boolean generateObserverCount;
+    private String fileNamePrefix;
+
+    private int compiledCount;
+    private int skippedCount;
+
+    public static void main(String[] args)
+    {
+        AppCompiler compiler = new AppCompiler();
+        File appDir = null;
+        File jarFile = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if ("-o".equals(arg)) {
+                    jarFile = new File(args[++i]);
+                } else if ("-O".equals(arg)) {
+                    compiler.setOptimizationLevel(Integer.parseInt(args[++i]));
+                } else if ("-g".equals(arg)) {
+                    compiler.setDebugInfo(true);
+                } else if ("-c".equals(arg)) {
+                    compiler.setGenerateObserverCount(true);
+                } else if ("-p".equals(arg)) {
+                    compiler.setFileNamePrefix(args[++i]);
+                } else if (appDir == null) {
+                    appDir = new File(arg);
+                } else {
+                    printUsage();
+                    System.exit(2);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            printUsage();
+            System.exit(2);
+        } catch (NumberFormatException e) {
+            printUsage();
+            System.exit(2);
+        }
+
+        if ((appDir == null) || (jarFile == null)) {
+            printUsage();
+            System.exit(2);
+        }
+
+        try {
+            compiler.compile(appDir, jarFile);
+            System.out.println("Compiled " + compiler.getCompiledCount() + " scripts to " + jarFile.getPath() +
+                               " (" + compiler.getSkippedCount() + " skipped)");
+        } catch (IOException ioe) {
+            System.err.println("Error compiling " + appDir.getPath() + ": " + ioe);
+            System.exit(1);
+        }
+    }
+
+    private static void printUsage()
+    {
+        System.err.println("Usage: AppCompiler -o <jar file> [-O <opt level>] [-g] [-c] [-p <file name prefix>] <app directory>");
+        System.err.println("  -o: The jar file to create");
+        System.err.println("  -O: The Rhino optimization level. This should match \"NodeEnvironment.setOptLevel\"");
+        System.err.println("  -g: Generate debug information");
+        System.err.println("  -c: Generate instruction counts. This is necessary if scripts will run with a time limit");
+        System.err.println("  -p: Prepend this to the file name of each script, for stack traces");
+    }
+
+    public int getOptimizationLevel() {
+        return optimizationLevel;
+    }
+
+    public void setOptimizationLevel(int optimizationLevel) {
+        this.optimizationLevel = optimizationLevel;
+    }
+
+    public boolean isDebugInfo() {
+        return debugInfo;
+    }
+
+    public void setDebugInfo(boolean debugInfo) {
+        this.debugInfo = debugInfo;
+    }
+
+    public boolean isGenerateSource() {
+        return generateSource;
+    }
+
+    /**
+     * Include the source in the generated classes. This must be true for "Function.prototype.toString" to work,
+     * which some modules rely on, so it is the default.
+     */
+    public void setGenerateSource(boolean generateSource) {
+        this.generateSource = generateSource;
+    }
+
+    public boolean isGenerateObserverCount() {
+        return generateObserverCount;
+    }
+
+    /**
+     * Generate the instruction counting that "NodeEnvironment.setScriptTimeLimit" relies on.
+     */
+    public void setGenerateObserverCount(boolean generateObserverCount) {
+        this.generateObserverCount = generateObserverCount;
+    }
+
+    public String getFileNamePrefix() {
+        return fileNamePrefix;
+    }
+
+    /**
+     * Set the prefix for the file name that is compiled into each script and which appears in stack traces.
+     * By default, the file name is the script's path relative to the application directory.
+     */
+    public void setFileNamePrefix(String fileNamePrefix) {
+        this.fileNamePrefix = fileNamePrefix;
+    }
+
+    public int getCompiledCount() {
+        return compiledCount;
+    }
+
+    public int getSkippedCount() {
+        return skippedCount;
+    }
+
+    /**
+     * Log an informational message. The command-line tool logs nothing, and the Maven goal overrides this.
+     */
+    protected void info(String msg)
+    {
+    }
+
+    /**
+     * Log a warning. By default, warnings go to standard error.
+     */
+    protected void warn(String msg)
+    {
+        System.err.println(msg);
+    }
+
+    private CompilerEnvirons createEnvironment()
+    {
+        CompilerEnvirons env = new CompilerEnvirons();
+        env.setLanguageVersion(Context.VERSION_1_8);
+        env.setGenerateDebugInfo(debugInfo);
+        env.setOptimizationLevel(optimizationLevel);
+        env.setGeneratingSource(generateSource);
+        env.setRecordingComments(false);
+        env.setRecoverFromErrors(false);
+        env.setGenerateObserverCount(generateObserverCount);
+        return env;
+    }
+
+    /**
+     * Compile every ".js" file underneath "appDir" into "jarFile," replacing it if it exists. Scripts that
+     * fail to compile are skipped with a warning, since many modules ship tests and examples that are never
+     * loaded. At runtime, any script that is not in the jar is compiled as usual.
+     */
+    public void compile(File appDir, File jarFile)
+        throws IOException
+    {
+        if (!appDir.isDirectory()) {
+            throw new IOException(appDir.getPath() + " is not a directory");
+        }
+
+        ArrayList<String> fileNames = new ArrayList<String>();
+        findScripts(appDir, "", fileNames);
+
+        ClassCompiler compiler = new ClassCompiler(createEnvironment());
+        HashSet<String> classNames = new HashSet<String>();
+        compiledCount = 0;
+        skippedCount = 0;
+
+        if (jarFile.getParentFile() != null) {
+            jarFile.getParentFile().mkdirs();
+        }
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().putValue(OPT_LEVEL_ATTRIBUTE, String.valueOf(optimizationLevel));
+        manifest.getMainAttributes().putValue(OBSERVER_COUNT_ATTRIBUTE, String.valueOf(generateObserverCount));
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jarFile), manifest);
+
+        try {
+            for (String fn : fileNames) {
+                String wrapped = wrapModule(readSource(new File(appDir, fn)));
+                String className = makeClassName(wrapped);
+                if (!classNames.add(className)) {
+                    // Many packages carry identical copies of the same file, and one class serves them all
+                    continue;
+                }
+
+                Object[] classes;
+                try {
+                    String scriptName = (fileNamePrefix == null ? fn : fileNamePrefix + fn);
+                    classes = compiler.compileToClassFiles(wrapped, scriptName, 1, className);
+                } catch (RhinoException re) {
+                    warn("Skipping " + fn + ":" + re.lineNumber() + ": " + re.details());
+                    skippedCount++;
+                    continue;
+                } catch (RuntimeException re) {
+                    // Typically because the generated class would be too large
+                    warn("Skipping " + fn + ": " + re);
+                    skippedCount++;
+                    continue;
+                }
+
+                info("Compiled " + fn + " to " + className);
+                for (int i = 0; (i + 1) < classes.length; i += 2) {
+                    String name = (String)classes[i];
+                    out.putNextEntry(new JarEntry(name.replace('.', '/') + ".class"));
+                    out.write((byte[])classes[i + 1]);
+                    out.closeEntry();
+                }
+                compiledCount++;
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private void findScripts(File dir, String prefix, List<String> fileNames)
+    {
+        String[] names = dir.list();
+        if (names == null) {
+            return;
+        }
+        // Sort so that the jar is the same from one build to the next
+        Arrays.sort(names);
+
+        for (String name : names) {
+            File f = new File(dir, name);
+            if (f.isDirectory()) {
+                findScripts(f, prefix + name + '/', fileNames);
+            } else if (name.endsWith(".js")) {
+                fileNames.add(prefix + name);
+            }
+        }
+    }
+
+    private static String readSource(File f)
+        throws IOException
+    {
+        FileInputStream in = new FileInputStream(f);
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream((int)f.length());
+            byte[] buf = new byte[8192];
+            int r;
+            do {
+                r = in.read(buf);
+                if (r > 0) {
+                    bos.write(buf, 0, r);
+                }
+            } while (r >= 0);
+            return new String(bos.toByteArray(), UTF8);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Turn the contents of a file into the code that "require" compiles: first the byte order mark and
+     * the "#!" line are removed, and then the source is wrapped in a function.
+     */
+    public static String wrapModule(String source)
+    {
+        String content = source;
+        if (!content.isEmpty() && (content.charAt(0) == '\ufeff')) {
+            content = content.substring(1);
+        }
+        content = SHEBANG.matcher(content).replaceFirst("");
+        return WRAP_PREFIX + content + WRAP_POSTFIX;
+    }
+
+    /**
+     * Return the name of the class for the specified code. The runtime names classes after the hex form of
+     * the SHA-256 hash of the code's UTF-8 bytes, so we must do the same.
+     */
+    public static String makeClassName(String code)
+    {
+        byte[] hash;
+        try {
+            MessageDigest md = MessageDigest.getInstance(HASH_ALGORITHM);
+            hash = md.digest(code.getBytes(UTF8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+
+        StringBuilder name = new StringBuilder(CLASS_PREFIX.length() + (hash.length * 2));
+        name.append(CLASS_PREFIX);
+        for (byte b : hash) {
+            name.append(HEX[(b >> 4) & 0xf]);
+            name.append(HEX[b & 0xf]);
+        }
+        return name.toString();
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.rhino.compiler;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Compile a Node.js application directory, including its "node_modules," into a jar of precompiled
+ * scripts that may be passed to "NodeEnvironment.addPrecompiledScripts." See AppCompiler for details.
+ */
+
+@Mojo(name="compile-app")
+public class AppCompilerMojo
+    extends AbstractMojo
+{
+    /**
+     * The directory that contains the application. Defaults to src/main/node.
+     */
+    @Parameter(defaultValue = "${basedir}/src/main/node")
+    private String directory = "${basedir}/src/main/node";
+
+    /**
+     * The jar file to create.
+     */
+    @Parameter(defaultValue = "${project.build.directory}/${project.build.finalName}-scripts.jar")
+    private String jarFile;
+
+    /**
+     * This should match the optimization level set on the NodeEnvironment, which defaults to 9.
+     */
+    @Parameter
+    private int optimizationLevel = AppCompiler.DEFAULT_OPT_LEVEL;
+
+    @Parameter
+    private boolean debugInfo;
+
+    @Parameter
+    private boolean generateSource = true;
+
+    /**
+     * This must be set if the scripts will run with a time limit.
+     */
+    @Parameter
+    private boolean generateObserverCount;
+
+    /**
+     * Prepended to each script's relative path to make the file name that appears in stack traces.
+     */
+    @Parameter
+    private String fileNamePrefix;
+
+    @Override
+    public void execute()
+        throws MojoExecutionException, MojoFailureException
+    {
+        final Log log = getLog();
+        File baseDir = new File(directory);
+        if (!baseDir.isDirectory()) {
+            log.info("Ignoring non-existent directory " + baseDir.getPath());
+            return;
+        }
+
+        AppCompiler compiler = new AppCompiler() {
+            @Override
+            protected void info(String msg)
+            {
+                if (log.isDebugEnabled()) {
+                    log.debug(msg);
+                }
+            }
+
+            @Override
+            protected void warn(String msg)
+            {
+                log.warn(msg);
+            }
+        };
+        compiler.setOptimizationLevel(optimizationLevel);
+        compiler.setDebugInfo(debugInfo);
+        compiler.setGenerateSource(generateSource);
+        compiler.setGenerateObserverCount(generateObserverCount);
+        compiler.setFileNamePrefix(fileNamePrefix);
+
+        File output = new File(jarFile);
+        try {
+            compiler.compile(baseDir, output);
+        } catch (IOException ioe) {
+            throw new MojoExecutionException("Error compiling " + baseDir.getPath() + ": " + ioe, ioe);
+        }
+        log.info("Compiled " + compiler.getCompiledCount() + " scripts to " + output.getPath() +
+                 " (" + compiler.getSkippedCount() + " skipped)");
+    }
+}
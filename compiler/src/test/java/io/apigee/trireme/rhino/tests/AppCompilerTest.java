@@ -0,0 +1,91 @@
+package io.apigee.trireme.rhino.tests;
+
+import io.apigee.trireme.rhino.compiler.AppCompiler;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import static org.junit.Assert.*;
+
+public class AppCompilerTest
+{
+    private static final String MODULE = "module.exports = 1;";
+    private static final String MODULE_CLASS =
+        "io.apigee.trireme.cached.Script_27f0359e396d7a8b4c7011e17fd759bca5c373d0c0d9c553d4b9cbd425d527a4";
+
+    @Test
+    public void testWrap()
+    {
+        String wrapped = AppCompiler.WRAP_PREFIX + MODULE + AppCompiler.WRAP_POSTFIX;
+        assertEquals(wrapped, AppCompiler.wrapModule(MODULE));
+        assertEquals(wrapped, AppCompiler.wrapModule("\ufeff" + MODULE));
+
+        // Only the shebang itself is removed, so that line numbers stay the same
+        assertEquals(AppCompiler.WRAP_PREFIX + "\n" + MODULE + AppCompiler.WRAP_POSTFIX,
+                     AppCompiler.wrapModule("#!/usr/bin/env node\n" + MODULE));
+        assertEquals(AppCompiler.WRAP_PREFIX + "\n#!not\n" + AppCompiler.WRAP_POSTFIX,
+                     AppCompiler.wrapModule("\n#!not\n"));
+    }
+
+    @Test
+    public void testClassName()
+    {
+        assertEquals(MODULE_CLASS, AppCompiler.makeClassName(AppCompiler.wrapModule(MODULE)));
+    }
+
+    @Test
+    public void testCompileApp()
+        throws IOException
+    {
+        File appDir = new File("target/apptest");
+        writeFile(new File(appDir, "server.js"), "var m = require('mod');\nconsole.log(m);\n");
+        writeFile(new File(appDir, "node_modules/mod/index.js"), MODULE);
+        writeFile(new File(appDir, "node_modules/other/node_modules/mod/index.js"), MODULE);
+        writeFile(new File(appDir, "node_modules/mod/test/broken.js"), "function (");
+        writeFile(new File(appDir, "node_modules/mod/package.json"), "{}");
+        File jar = new File("target/apptest.jar");
+
+        AppCompiler compiler = new AppCompiler();
+        compiler.setOptimizationLevel(1);
+        compiler.setGenerateObserverCount(true);
+        compiler.compile(appDir, jar);
+        assertEquals(2, compiler.getCompiledCount());
+        assertEquals(1, compiler.getSkippedCount());
+
+        HashSet<String> entries = new HashSet<String>();
+        JarFile jf = new JarFile(jar);
+        try {
+            // The runtime only uses the scripts if these match its own settings
+            Attributes attrs = jf.getManifest().getMainAttributes();
+            assertEquals("1", attrs.getValue(AppCompiler.OPT_LEVEL_ATTRIBUTE));
+            assertEquals("true", attrs.getValue(AppCompiler.OBSERVER_COUNT_ATTRIBUTE));
+
+            Enumeration<JarEntry> e = jf.entries();
+            while (e.hasMoreElements()) {
+                entries.add(e.nextElement().getName());
+            }
+        } finally {
+            jf.close();
+        }
+        assertTrue(entries.contains(MODULE_CLASS.replace('.', '/') + ".class"));
+    }
+
+    private static void writeFile(File f, String contents)
+        throws IOException
+    {
+        f.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(f);
+        try {
+            out.write(contents.getBytes(AppCompiler.UTF8));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.core;
+
+/**
+ * This interface reports what the "async pool" is doing. That pool runs blocking operations such as
+ * filesystem calls, DNS lookups, and some TLS work on behalf of scripts. It is returned by
+ * NodeEnvironment.getAsyncPoolStatistics().
+ */
+
+public interface AsyncPoolStatistics
+{
+    /**
+     * The total number of tasks that have been handed to the pool.
+     */
+    long getSubmittedCount();
+
+    /**
+     * The number of tasks that have finished running.
+     */
+    long getCompletedCount();
+
+    /**
+     * The number of tasks that were rejected by the pool. With the "BOUNDED" pool type these tasks ran
+     * in the script thread instead, which means that the script was blocked while they ran.
+     */
+    long getRejectedCount();
+
+    /**
+     * The number of tasks that are running right now.
+     */
+    int getActiveCount();
+
+    /**
+     * The number of tasks that have been submitted but have not yet started to run.
+     */
+    int getQueueDepth();
+
+    /**
+     * The largest value that "getQueueDepth" has ever returned.
+     */
+    int getMaxQueueDepth();
+}
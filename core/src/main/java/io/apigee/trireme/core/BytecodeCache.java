@@ -0,0 +1,41 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.core;
+
+/**
+ * This is a ClassCache that can also store the bytecode that Rhino generates for a script. Bytecode, unlike a
+ * Script object, can be saved outside the JVM, so an implementation may use it to avoid compiling the same code
+ * again after a restart. When the ClassCache for an environment implements this interface, Trireme compiles
+ * each script to bytecode itself and passes the result to "putCachedBytecode" before it calls
+ * "putCachedScript." The implementation is then responsible for turning the bytecode back into a Script in
+ * "getCachedScript."
+ */
+
+public interface BytecodeCache
+    extends ClassCache
+{
+    /**
+     * Store the bytecode for the single class that the script with the given key compiled to. The implementation
+     * will be invoked simultaneously from multiple threads, possibly with the same key.
+     */
+    void putCachedBytecode(String key, String className, byte[] bytecode);
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.core;
+
+/**
+ * This interface reports how well a ClassCache is working. It is returned by
+ * NodeEnvironment.getClassCacheStatistics() when the cache supports it, and it is also registered with
+ * JMX, so all of the properties may be watched from a JMX console.
+ */
+
+public interface ClassCacheStatistics
+{
+    /**
+     * The number of times that a script was found in the cache.
+     */
+    long getHitCount();
+
+    /**
+     * The number of times that a script was not found in the cache and had to be compiled.
+     */
+    long getMissCount();
+
+    /**
+     * The fraction of lookups that were hits, between 0 and 1.
+     */
+    double getHitRate();
+
+    /**
+     * The number of scripts that were removed from the cache to make room for others.
+     */
+    long getEvictionCount();
+
+    /**
+     * The number of scripts that the cache had compiled on behalf of a caller.
+     */
+    long getLoadCount();
+
+    /**
+     * The number of times that a caller waited for another thread to compile the same script rather than
+     * compiling it again.
+     */
+    long getCoalescedLoadCount();
+
+    /**
+     * The total time, in milliseconds, spent compiling scripts for the cache.
+     */
+    long getTotalLoadTime();
+
+    /**
+     * The number of scripts in the cache right now.
+     */
+    int getEntryCount();
+
+    /**
+     * The estimated total size of all the scripts in the cache.
+     */
+    long getWeight();
+
+    /**
+     * The largest estimated size that the cache may grow to.
+     */
+    long getMaxWeight();
+}
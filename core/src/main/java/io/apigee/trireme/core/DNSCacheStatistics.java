@@ -0,0 +1,77 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.core;
+
+/**
+ * This interface reports how well the DNS cache is working. The cache is shared by every script in a
+ * NodeEnvironment, and is used by the functions in the "dns" module that send queries, such as
+ * "resolve4" and "resolveSrv." It is returned by NodeEnvironment.getDNSCacheStatistics().
+ */
+
+public interface DNSCacheStatistics
+{
+    /**
+     * The number of queries that were answered from the cache.
+     */
+    long getHitCount();
+
+    /**
+     * The number of cache hits that returned a cached "not found" or "no data" answer.
+     */
+    long getNegativeHitCount();
+
+    /**
+     * The number of queries that were not in the cache.
+     */
+    long getMissCount();
+
+    /**
+     * The fraction of queries that were answered from the cache, from 0 to 1.
+     */
+    double getHitRate();
+
+    /**
+     * The number of cache misses that waited for an identical query that was already in flight,
+     * possibly from another script, rather than sending their own.
+     */
+    long getCoalescedCount();
+
+    /**
+     * The number of queries that were sent in the background to refresh answers that were about to expire.
+     */
+    long getRefreshCount();
+
+    /**
+     * The number of answers that were removed because the cache was full.
+     */
+    long getEvictionCount();
+
+    /**
+     * The number of answers in the cache right now.
+     */
+    int getSize();
+
+    /**
+     * The most answers that the cache will hold.
+     */
+    int getMaxEntries();
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.core;
+
+/**
+ * This interface reports what the event loop of a single script is doing. It is returned by
+ * NodeScript.getEventLoopStatistics() once the script is running, and while the script runs it is also
+ * registered with JMX as an MXBean, so all of the properties may be watched from a JMX console.
+ * <p>
+ * Statistics are only collected when "NodeEnvironment.setEventLoopStatistics" is enabled, or when an
+ * EventLoopListener is set on the script. Collecting them costs a few reads of the system clock per trip
+ * through the loop, which is small enough to leave on in production.
+ * </p>
+ */
+
+public interface EventLoopStatistics
+{
+    /**
+     * The phases of each iteration of the event loop, in the order in which they run.
+     */
+    enum Phase
+    {
+        /** Callbacks scheduled by "process.nextTick". */
+        NEXT_TICK,
+        /** Tasks submitted to the script from Java code, and callbacks from asynchronous I/O. */
+        TASKS,
+        /** Callbacks scheduled by "setImmediate". */
+        IMMEDIATE,
+        /** Waiting for network I/O. This is not measured for scripts that run on a shared event loop. */
+        POLL,
+        /** Callbacks for network I/O. */
+        NETWORK,
+        /** Expired timers. */
+        TIMERS
+    }
+
+    /**
+     * The number of times that the event loop has run.
+     */
+    long getIterationCount();
+
+    /**
+     * The rate at which the event loop has run since the last time that this method was called, or since
+     * the script started if it has not been called before.
+     */
+    double getIterationsPerSecond();
+
+    LoopTiming getNextTickTimes();
+
+    LoopTiming getTaskTimes();
+
+    LoopTiming getImmediateTimes();
+
+    LoopTiming getPollTimes();
+
+    LoopTiming getNetworkTimes();
+
+    LoopTiming getTimerTimes();
+
+    /**
+     * How late timers fired compared to when they were scheduled. This is the best measure of how
+     * long the script made other work wait.
+     */
+    LoopTiming getLag();
+
+    /**
+     * The number of tasks waiting to be run from Java code. This is expensive to calculate.
+     */
+    int getTaskQueueDepth();
+
+    /**
+     * The number of timers that have not fired yet.
+     */
+    int getTimerQueueDepth();
+
+    /**
+     * The number of sockets, files, and other handles that the script has open.
+     */
+    int getOpenHandleCount();
+
+    /**
+     * The number of things, such as listening servers and pending I/O, that keep the script running.
+     */
+    int getPinCount();
+
+    /**
+     * The total CPU time, in nanoseconds, that the script's thread has used, or -1 if the JVM does not
+     * support it. For scripts that run on a shared event loop, this only includes the time spent running
+     * this script.
+     */
+    long getCpuTime();
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.core;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * A summary of a set of measured times, as reported by EventLoopStatistics. All times are in microseconds.
+ * Percentiles are estimates, accurate to within about 25 percent.
+ */
+
+public class LoopTiming
+{
+    private final long count;
+    private final long total;
+    private final long mean;
+    private final long median;
+    private final long percentile99;
+    private final long max;
+
+    @ConstructorProperties({ "count", "total", "mean", "median", "percentile99", "max" })
+    public LoopTiming(long count, long total, long mean, long median, long percentile99, long max)
+    {
+        this.count = count;
+        this.total = total;
+        this.mean = mean;
+        this.median = median;
+        this.percentile99 = percentile99;
+        this.max = max;
+    }
+
+    /**
+     * The number of times measured.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * The sum of all the times.
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    public long getMean() {
+        return mean;
+    }
+
+    public long getMedian() {
+        return median;
+    }
+
+    public long getPercentile99() {
+        return percentile99;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "count=" + count + " mean=" + mean + "us median=" + median + "us 99%=" + percentile99 +
+               "us max=" + max + "us";
+    }
+}
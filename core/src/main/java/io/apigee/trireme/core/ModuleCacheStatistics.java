@@ -0,0 +1,91 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.core;
+
+/**
+ * This interface reports how well the module cache is working. The cache is shared by every script in a
+ * NodeEnvironment, and is used by "require" to find out which files exist and to read the source of
+ * modules, so that scripts that load the same modules don't all stat and read the same files. It is
+ * returned by NodeEnvironment.getModuleCacheStatistics().
+ */
+
+public interface ModuleCacheStatistics
+{
+    /**
+     * The number of times that "require" asked whether a file or directory exists, and was answered
+     * without touching the filesystem.
+     */
+    long getStatsAvoided();
+
+    /**
+     * The number of calls made to the filesystem to list directories, check modification times, and
+     * find out whether files are directories.
+     */
+    long getStatCount();
+
+    /**
+     * The number of module sources that were returned from the cache without reading the file.
+     */
+    long getSourceHitCount();
+
+    /**
+     * The number of module sources that had to be read from the filesystem.
+     */
+    long getSourceMissCount();
+
+    /**
+     * The fraction of module sources that were returned from the cache, from 0 to 1.
+     */
+    double getSourceHitRate();
+
+    /**
+     * The number of directory listings and sources that were thrown away because the file or directory
+     * was modified.
+     */
+    long getInvalidationCount();
+
+    /**
+     * An estimate, in milliseconds, of the time that scripts would have spent on the stats and reads that
+     * the cache avoided. It is based on the average time of the ones that it did not avoid.
+     */
+    long getTimeSaved();
+
+    /**
+     * The number of directory listings in the cache right now.
+     */
+    int getDirectoryCount();
+
+    /**
+     * The total number of characters of module source in the cache right now.
+     */
+    long getSourceSize();
+
+    /**
+     * The most characters of module source that the cache will hold.
+     */
+    long getMaxSourceSize();
+
+    /**
+     * Whether the cache assumes that modules never change once they have been read.
+     */
+    boolean isImmutable();
+}
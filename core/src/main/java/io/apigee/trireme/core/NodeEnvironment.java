@@ -21,30 +21,50 @@
  */
 package io.apigee.trireme.core;
 
+import io.apigee.trireme.core.internal.AsyncPoolFactory;
+import io.apigee.trireme.core.internal.BoundedClassCache;
+import io.apigee.trireme.core.internal.DiskClassCache;
+import io.apigee.trireme.core.internal.InstrumentedExecutorService;
+import io.apigee.trireme.core.internal.MBeans;
+import io.apigee.trireme.core.internal.ModuleCache;
 import io.apigee.trireme.core.internal.RootModuleRegistry;
 import io.apigee.trireme.core.internal.RhinoContextFactory;
+import io.apigee.trireme.core.internal.PrecompiledScripts;
+import io.apigee.trireme.core.internal.SSLContextCache;
+import io.apigee.trireme.core.internal.SharedDNSCache;
+import io.apigee.trireme.core.internal.StandbyPool;
+import io.apigee.trireme.core.internal.SharedEventLoop;
+import io.apigee.trireme.core.internal.SharedZlibPool;
 import io.apigee.trireme.core.internal.SoftClassCache;
 import io.apigee.trireme.kernel.VersionMatcher;
 import io.apigee.trireme.core.spi.NodeImplementation;
 import io.apigee.trireme.kernel.NodeVersion;
+import io.apigee.trireme.kernel.dns.DNSCache;
+import io.apigee.trireme.kernel.http.HTTPParsingMachine;
+import io.apigee.trireme.kernel.zip.ZlibPool;
 import io.apigee.trireme.net.spi.HttpServerContainer;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ContextFactory;
 import org.mozilla.javascript.RhinoException;
+import org.mozilla.javascript.Script;
 import org.mozilla.javascript.StackStyle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.ObjectName;
 import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.ServiceLoader;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
 
 /**
  * This class is the root of all script processing. Typically it will be created once per process
@@ -65,23 +85,101 @@ public class
     public static final int MAX_POOL_SIZE     = 100;
     public static final int POOL_QUEUE_SIZE   = 32;
     public static final long POOL_TIMEOUT_SECS = 60L;
+    public static final int CRYPTO_POOL_QUEUE_SIZE = 1024;
+    public static final int DEFAULT_BLOCKING_POOL_SIZE = 10;
 
     public static final int DEFAULT_JS_VERSION = Context.VERSION_1_8;
     // Level 1 and up compiles to byte code -- we always want that.
     // Level 9 adds additional integer optimizations.
     public static final int DEFAULT_OPT_LEVEL = 9;
 
+    /**
+     * The data structure that each script uses to keep track of timers.
+     */
+    public enum TimerType
+    {
+        /**
+         * A priority queue. Each new timer costs O(log n) and cancelled timers stay in the queue until
+         * they would have fired. This is the default.
+         */
+        HEAP,
+        /**
+         * A hierarchical timer wheel. New timers are O(1) and cancelled timers are removed right away,
+         * which is better for scripts that create and cancel a lot of timers, such as idle timeouts on sockets.
+         */
+        WHEEL
+    }
+
+    /**
+     * The kind of thread pool that runs blocking operations, like filesystem calls and DNS lookups,
+     * on behalf of scripts.
+     */
+    public enum AsyncPoolType
+    {
+        /**
+         * A thread pool with a fixed maximum size and a short queue. When it is full, tasks run in the script
+         * thread instead, which slows the script down until the pool catches up. This is the default.
+         */
+        BOUNDED,
+        /**
+         * A new virtual thread for every task. This requires a version of Java that supports virtual threads.
+         * On older versions, the "BOUNDED" pool is used instead.
+         */
+        VIRTUAL,
+        /**
+         * A work-stealing ForkJoinPool with the maximum pool size as its parallelism. Tasks are queued without
+         * limit rather than run in the script thread.
+         */
+        FORK_JOIN
+    }
+
     private boolean             initialized;
     private final Object        initializationLock = new Object();
     private ExecutorService     asyncPool;
+    private InstrumentedExecutorService asyncPoolStats;
+    private ExecutorService     cryptoPool;
+    private InstrumentedExecutorService cryptoPoolStats;
+    private InstrumentedExecutorService blockingPool;
+    private ObjectName          blockingPoolMBean;
+    private int                 blockingPoolSize = DEFAULT_BLOCKING_POOL_SIZE;
     private ExecutorService     scriptPool;
     private HttpServerContainer httpContainer;
     private Sandbox             sandbox;
     private RhinoContextFactory contextFactory;
     private long                scriptTimeLimit;
     private ClassCache          classCache;
+    private ObjectName          classCacheMBean;
+    private SharedDNSCache      dnsCache;
+    private ObjectName          dnsCacheMBean;
+    private int                 dnsCacheSize = DNSCache.DEFAULT_MAX_ENTRIES;
+    private ModuleCache         moduleCache;
+    private ObjectName          moduleCacheMBean;
+    private long                moduleCacheSize;
+    private long                moduleCheckInterval = ModuleCache.DEFAULT_CHECK_INTERVAL;
+    private boolean             immutableModules;
+    private SSLContextCache     tlsCache;
+    private ObjectName          tlsCacheMBean;
+    private int                 tlsContextCacheSize = SSLContextCache.DEFAULT_MAX_CONTEXTS;
+    private int                 tlsSessionCacheSize = -1;
+    private int                 tlsSessionTimeout = -1;
+    private int                 standbyCount;
+    private StandbyPool         standbyPool;
+    private ObjectName          standbyPoolMBean;
+    private SharedZlibPool      zlibPool;
+    private ObjectName          zlibPoolMBean;
+    private int                 zlibPoolSize = ZlibPool.DEFAULT_MAX_IDLE;
+    private int                 parallelGzipThreshold = ZlibPool.DEFAULT_PARALLEL_THRESHOLD;
+    private boolean             asyncFileIO;
+    private final PrecompiledScripts precompiledScripts = new PrecompiledScripts();
     private String              defaultNodeVersion;
     private int                 maxAsyncPoolSize = MAX_POOL_SIZE;
+    private int                 cryptoPoolSize = Runtime.getRuntime().availableProcessors();
+    private TimerType           timerType = TimerType.HEAP;
+    private HTTPParsingMachine.ScanMode httpScanMode = HTTPParsingMachine.ScanMode.REGEX;
+    private AsyncPoolType       asyncPoolType = AsyncPoolType.BOUNDED;
+    private int                 sharedEventLoops;
+    private boolean             eventLoopStatistics;
+    private SharedEventLoop[]   eventLoops;
 
     private int                 optLevel = DEFAULT_OPT_LEVEL;
 
@@ -122,6 +220,36 @@ public class
      */
     public void close()
     {
+        MBeans.unregister(classCacheMBean);
+        classCacheMBean = null;
+        synchronized (initializationLock) {
+            MBeans.unregister(dnsCacheMBean);
+            dnsCacheMBean = null;
+            MBeans.unregister(moduleCacheMBean);
+            moduleCacheMBean = null;
+            MBeans.unregister(tlsCacheMBean);
+            tlsCacheMBean = null;
+            MBeans.unregister(blockingPoolMBean);
+            blockingPoolMBean = null;
+            if (standbyPool != null) {
+                MBeans.unregister(standbyPoolMBean);
+                standbyPoolMBean = null;
+                standbyPool.close();
+                standbyPool = null;
+            }
+            if (zlibPool != null) {
+                MBeans.unregister(zlibPoolMBean);
+                zlibPoolMBean = null;
+                zlibPool.close();
+                zlibPool = null;
+            }
+            if (eventLoops != null) {
+                for (SharedEventLoop loop : eventLoops) {
+                    loop.close();
+                }
+                eventLoops = null;
+            }
+        }
     }
 
     /**
@@ -314,7 +442,13 @@ public class
      * in PermGen space for large environments. The user must implement the interface.
      */
     public void setClassCache(ClassCache cache) {
+        MBeans.unregister(classCacheMBean);
         this.classCache = cache;
+        if (cache instanceof ClassCacheStatistics) {
+            classCacheMBean = MBeans.register((ClassCacheStatistics)cache, ClassCacheStatistics.class, "ClassCache");
+        } else {
+            classCacheMBean = null;
+        }
     }
 
     /**
@@ -322,13 +456,129 @@ public class
      * uses a hash map of SoftReference objects.
      */
     public void setDefaultClassCache() {
-        this.classCache = new SoftClassCache();
+        setClassCache(new SoftClassCache());
+    }
+
+    /**
+     * Create an instance of the class cache that holds at most "maxWeight" worth of compiled scripts, where each
+     * script is weighted by the length of its source code. Rather than dropping everything when memory runs low,
+     * this cache evicts the scripts that are least likely to be used again. If several scripts compile the same
+     * code at once, only one compiles it. The cache's statistics are available from "getClassCacheStatistics"
+     * and from JMX.
+     */
+    public void setBoundedClassCache(long maxWeight) {
+        setClassCache(new BoundedClassCache(maxWeight));
+    }
+
+    /**
+     * Create an instance of the class cache that writes compiled bytecode to the specified directory, so that
+     * scripts are not compiled again after a restart. Once the directory contains more than "maxSize" bytes,
+     * the least-recently-used scripts are removed. Many environments and processes may share the same directory.
+     */
+    public void setDiskClassCache(File directory, long maxSize)
+        throws IOException
+    {
+        setClassCache(new DiskClassCache(directory, maxSize));
     }
 
     public ClassCache getClassCache() {
         return classCache;
     }
 
+    /**
+     * Return statistics about the class cache, or null if there is no cache or if it does not keep statistics.
+     */
+    public ClassCacheStatistics getClassCacheStatistics() {
+        return (classCache instanceof ClassCacheStatistics) ? (ClassCacheStatistics)classCache : null;
+    }
+
+    /**
+     * Set the most secure contexts that the TLS cache will hold. Scripts in this environment that set up
+     * a secure context with the same keys, certificates and options share one SSLContext, and therefore
+     * one session cache. The default is 100. It must be called before "execute" is called on the first script.
+     */
+    public NodeEnvironment setTLSContextCacheSize(int size) {
+        this.tlsContextCacheSize = size;
+        return this;
+    }
+
+    public int getTLSContextCacheSize() {
+        return tlsContextCacheSize;
+    }
+
+    /**
+     * Set the size and timeout of the session cache of each cached SSLContext. By default the JDK's settings
+     * are used. It must be called before "execute" is called on the first script.
+     */
+    public NodeEnvironment setTLSSessionCache(int size, long timeout, TimeUnit unit) {
+        this.tlsSessionCacheSize = size;
+        this.tlsSessionTimeout = (int)unit.toSeconds(timeout);
+        return this;
+    }
+
+    public int getTLSSessionCacheSize() {
+        return tlsSessionCacheSize;
+    }
+
+    /**
+     * Return the session timeout set above, in seconds, or -1 if the JDK default is used.
+     */
+    public int getTLSSessionTimeout() {
+        return tlsSessionTimeout;
+    }
+
+    /**
+     * Return statistics about how TLS contexts and sessions are re-used by the scripts in this environment.
+     * Returns null if no scripts have been created yet.
+     */
+    public TLSCacheStatistics getTLSCacheStatistics() {
+        return tlsCache;
+    }
+
+    /**
+     * Internal: Get the cache of TLS contexts and key material that is shared by all scripts.
+     */
+    public SSLContextCache getTLSCache() {
+        return tlsCache;
+    }
+
+    /**
+     * Add a jar of scripts that were compiled ahead of time by the "compile-app" goal of the "rhino-compiler"
+     * Maven plugin, or by its "AppCompiler" class from the command line. When a module's source matches
+     * a script in the jar, "require" runs the precompiled class and never parses or compiles the source.
+     * Modules that are not in the jar are compiled as usual. The jar's manifest records the optimization level
+     * and whether instruction counting was generated, and its scripts are only used when those match the
+     * settings that scripts run with, so a jar built without instruction counting is ignored if a script time
+     * limit is set. Throws IOException if the manifest doesn't record the settings.
+     */
+    public void addPrecompiledScripts(File jarFile)
+        throws IOException
+    {
+        Manifest manifest;
+        JarFile jar = new JarFile(jarFile);
+        try {
+            manifest = jar.getManifest();
+        } finally {
+            jar.close();
+        }
+        URL url = jarFile.toURI().toURL();
+        precompiledScripts.addLoader(new URLClassLoader(new URL[] { url }, Script.class.getClassLoader()), manifest);
+    }
+
+    /**
+     * Search the specified class loader for scripts that were compiled ahead of time, as described above.
+     * The settings are read from the first manifest that the loader can see that has them.
+     */
+    public void addPrecompiledScripts(ClassLoader loader)
+        throws IOException
+    {
+        precompiledScripts.addLoader(loader);
+    }
+
+    public PrecompiledScripts getPrecompiledScripts() {
+        return precompiledScripts;
+    }
+
     /**
      * Set the maximum thread pool size of the "async pool," which will be used for running
      * short-duration blocking tasks like file I/O, DNS lookups, and some TLS operations. The default is 100.
@@ -343,6 +593,342 @@ public class
         return maxAsyncPoolSize;
     }
 
+    /**
+     * Set the number of threads in the "crypto pool," which runs CPU-heavy operations like PBKDF2 and
+     * "randomBytes" with a callback, so that they don't hold up the script thread or wait behind file I/O
+     * in the async pool. The default is the number of processors. When the pool and its queue are
+     * full, the operation runs in the script thread instead. It must be called before "execute" is called
+     * on the first script, and it is ignored if the Sandbox supplies its own async thread pool.
+     */
+    public void setCryptoPoolSize(int size) {
+        this.cryptoPoolSize = size;
+    }
+
+    public int getCryptoPoolSize() {
+        return cryptoPoolSize;
+    }
+
+    /**
+     * Set the number of threads in the "blocking pool," which runs calls that may block for a long time, like
+     * JDBC queries, so that a slow database doesn't hold up file I/O and DNS lookups in the async pool.
+     * The default is 10. When every thread is busy, new work waits in the queue -- it never runs in the
+     * script thread. It must be called before "execute" is called on the first script.
+     */
+    public NodeEnvironment setBlockingPoolSize(int size) {
+        this.blockingPoolSize = size;
+        return this;
+    }
+
+    public int getBlockingPoolSize() {
+        return blockingPoolSize;
+    }
+
+    /**
+     * Set the number of answers kept by the DNS cache that is shared by all the scripts in this environment.
+     * Answers are kept for as long as their TTL says, "not found" answers are kept for a short time, and
+     * only one query for the same name is in flight at once. Set it to zero to turn off the cache. It must
+     * be called before "execute" is called on the first script.
+     */
+    public void setDNSCacheSize(int size) {
+        this.dnsCacheSize = size;
+    }
+
+    public int getDNSCacheSize() {
+        return dnsCacheSize;
+    }
+
+    /**
+     * Turn on the module cache, which is shared by all the scripts in this environment, and set the most
+     * characters of module source that it will hold. "require" uses it to find out which files exist without
+     * calling "stat" for every possible name, and to read modules that another script has already read.
+     * It is off by default. It must be called before "execute" is called on the first script.
+     */
+    public NodeEnvironment setModuleCacheSize(long maxChars) {
+        this.moduleCacheSize = maxChars;
+        return this;
+    }
+
+    public long getModuleCacheSize() {
+        return moduleCacheSize;
+    }
+
+    /**
+     * Set how often the module cache checks whether a directory or a module that it has cached has been
+     * modified. A change to a module may not be seen by new scripts for this long. The default is one second.
+     */
+    public NodeEnvironment setModuleCheckInterval(long interval, TimeUnit unit) {
+        this.moduleCheckInterval = unit.toMillis(interval);
+        return this;
+    }
+
+    public long getModuleCheckInterval() {
+        return moduleCheckInterval;
+    }
+
+    /**
+     * Tell the module cache that modules are never modified once they are deployed, so that it never checks
+     * whether they have changed. Replacing a module will not be seen until the environment is re-created.
+     */
+    public NodeEnvironment setImmutableModules(boolean immutable) {
+        this.immutableModules = immutable;
+        return this;
+    }
+
+    public boolean isImmutableModules() {
+        return immutableModules;
+    }
+
+    /**
+     * Keep this many global scopes ready for each version of Node.js that scripts use, so that new scripts,
+     * including child processes created by "spawn" and "fork," don't have to wait while the standard
+     * JavaScript objects, "trireme.js," and the "process" object are set up. A background thread replaces
+     * each one that is used. The default is zero, which turns this off. It must be called before "execute"
+     * is called on the first script.
+     */
+    public NodeEnvironment setStandbyScriptCount(int count) {
+        this.standbyCount = count;
+        return this;
+    }
+
+    public int getStandbyScriptCount() {
+        return standbyCount;
+    }
+
+    /**
+     * Set the number of idle Deflater and Inflater objects of each kind that the "zlib" module keeps for
+     * re-use by other streams in this environment. Set it to zero to create a new one for every stream, which
+     * also turns off parallel GZIP compression. It must be called before "execute" is called on the first script.
+     */
+    public NodeEnvironment setZlibPoolSize(int size) {
+        this.zlibPoolSize = size;
+        return this;
+    }
+
+    public int getZlibPoolSize() {
+        return zlibPoolSize;
+    }
+
+    /**
+     * Set the smallest buffer, in bytes, that "zlib" will split in to blocks and compress in parallel using
+     * the crypto pool when it is GZIPped all at once, as "gzipSync" does. The default is one megabyte.
+     * Set it to zero to turn off parallel compression.
+     */
+    public NodeEnvironment setParallelGzipThreshold(int bytes) {
+        this.parallelGzipThreshold = bytes;
+        return this;
+    }
+
+    public int getParallelGzipThreshold() {
+        return parallelGzipThreshold;
+    }
+
+    /**
+     * Choose whether "fs.read" and "fs.write," and therefore the file streams, as well as "fs.readFile" of
+     * files smaller than a megabyte, use asynchronous file channels that call back when the I/O is done,
+     * instead of running each one as a task on the async pool. Those channels use the async pool as well, so
+     * on Linux, where the JDK does the I/O on that pool anyway, this mostly helps on Windows. Synchronous
+     * calls are not affected. The default is false. It has no effect on Java 6, or on versions of Node.js
+     * that don't support it.
+     */
+    public NodeEnvironment setAsyncFileIO(boolean async) {
+        this.asyncFileIO = async;
+        return this;
+    }
+
+    public boolean isAsyncFileIO() {
+        return asyncFileIO;
+    }
+
+    /**
+     * Choose how scripts keep track of timers created by "setTimeout," "setInterval," and by Trireme
+     * itself. The default is "HEAP." It must be called before "execute" is called on a script
+     * in order to have any effect on that script.
+     */
+    public NodeEnvironment setTimerType(TimerType type) {
+        this.timerType = type;
+        return this;
+    }
+
+    public TimerType getTimerType() {
+        return timerType;
+    }
+
+    /**
+     * Choose how the "http" module parses request and response headers when no HTTP adapter is in use.
+     * "REGEX" matches each line with regular expressions, and "BYTES" scans each line in place without
+     * making intermediate strings. The default is "REGEX." It affects each HTTP parser that is created
+     * after it is called.
+     */
+    public NodeEnvironment setHttpScanMode(HTTPParsingMachine.ScanMode mode) {
+        this.httpScanMode = mode;
+        return this;
+    }
+
+    public HTTPParsingMachine.ScanMode getHttpScanMode() {
+        return httpScanMode;
+    }
+
+    /**
+     * Measure the event loop of every script: the time spent in each phase, how late timers fire, queue
+     * depths, and CPU time. While each script runs, its statistics are registered with JMX, and they are
+     * also available from "NodeScript.getEventLoopStatistics." The default is false. It must be called
+     * before "execute" is called on a script in order to have any effect on that script.
+     */
+    public NodeEnvironment setEventLoopStatistics(boolean enabled) {
+        this.eventLoopStatistics = enabled;
+        return this;
+    }
+
+    public boolean isEventLoopStatistics() {
+        return eventLoopStatistics;
+    }
+
+    /**
+     * <p>
+     * Run scripts on a fixed number of shared event loop threads, rather than giving each script its own
+     * thread. Each script still has its own global scope, timers, and module registry, but many scripts
+     * take turns on the same thread and share a single NIO selector. This uses a lot less memory and fewer threads
+     * when running hundreds or thousands of scripts that spend most of their time waiting on I/O or timers.
+     * However, a script that blocks its thread will hold up all the other scripts on the same loop.
+     * </p>
+     * <p>
+     * The default is zero, which means that each script gets its own thread. Scripts that are spawned
+     * as child processes by other scripts always get their own thread. This must be called before the first
+     * script is created in order to have any effect.
+     * </p>
+     */
+    public NodeEnvironment setSharedEventLoops(int threads) {
+        this.sharedEventLoops = threads;
+        return this;
+    }
+
+    public int getSharedEventLoops() {
+        return sharedEventLoops;
+    }
+
+    /**
+     * Internal: Get the shared event loop that is running the fewest scripts, or null if shared event
+     * loops are not enabled.
+     */
+    public SharedEventLoop getSharedEventLoop()
+    {
+        SharedEventLoop[] loops = eventLoops;
+        if (loops == null) {
+            return null;
+        }
+        SharedEventLoop best = loops[0];
+        for (int i = 1; i < loops.length; i++) {
+            if (loops[i].getScriptCount() < best.getScriptCount()) {
+                best = loops[i];
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Choose the kind of thread pool that is used for blocking operations. The default is "BOUNDED."
+     * It must be called before the first script is created, or it will have no effect. It is also ignored
+     * if the Sandbox supplies its own async thread pool.
+     */
+    public NodeEnvironment setAsyncPoolType(AsyncPoolType type) {
+        this.asyncPoolType = type;
+        return this;
+    }
+
+    public AsyncPoolType getAsyncPoolType() {
+        return asyncPoolType;
+    }
+
+    /**
+     * Return statistics about the async pool, such as the queue depth and the number of rejected tasks.
+     * Returns null if no scripts have been created yet, or if the Sandbox supplies its own async pool.
+     */
+    public AsyncPoolStatistics getAsyncPoolStatistics() {
+        return asyncPoolStats;
+    }
+
+    /**
+     * Return statistics about the crypto pool. Returns null if no scripts have been created yet, or if the
+     * Sandbox supplies its own async pool.
+     */
+    public AsyncPoolStatistics getCryptoPoolStatistics() {
+        return cryptoPoolStats;
+    }
+
+    /**
+     * Return statistics about the blocking pool. Returns null if no scripts have been created yet.
+     */
+    public AsyncPoolStatistics getBlockingPoolStatistics() {
+        return blockingPool;
+    }
+
+    /**
+     * Return statistics about the DNS cache. Returns null if no scripts have been created yet, or if the
+     * cache is turned off.
+     */
+    public DNSCacheStatistics getDNSCacheStatistics() {
+        return dnsCache;
+    }
+
+    /**
+     * Internal: Get the DNS cache that is shared by all scripts, or null if there isn't one.
+     */
+    public DNSCache getDNSCache() {
+        return dnsCache;
+    }
+
+    /**
+     * Return statistics about the module cache. Returns null if no scripts have been created yet, or if the
+     * cache is turned off.
+     */
+    public ModuleCacheStatistics getModuleCacheStatistics() {
+        return moduleCache;
+    }
+
+    /**
+     * Internal: Get the module cache that is shared by all scripts, or null if there isn't one.
+     */
+    public ModuleCache getModuleCache() {
+        return moduleCache;
+    }
+
+    /**
+     * Return statistics about the standby pool. Returns null if no scripts have been created yet, or if the
+     * pool is turned off.
+     */
+    public StandbyPoolStatistics getStandbyPoolStatistics() {
+        return standbyPool;
+    }
+
+    /**
+     * Internal: Get the pool of global scopes that are ready for new scripts, or null if there isn't one.
+     */
+    public StandbyPool getStandbyPool() {
+        return standbyPool;
+    }
+
+    /**
+     * Return statistics about the zlib pool. Returns null if no scripts have been created yet, or if the
+     * pool is turned off.
+     */
+    public ZlibPoolStatistics getZlibPoolStatistics() {
+        return zlibPool;
+    }
+
+    /**
+     * Internal: Get the pool of Deflaters and Inflaters that is shared by all scripts, or null if there isn't one.
+     */
+    public ZlibPool getZlibPool() {
+        return zlibPool;
+    }
+
+    /**
+     * Internal: Get the thread pool for CPU-intensive crypto operations.
+     */
+    public ExecutorService getCryptoPool() {
+        return cryptoPool;
+    }
+
     /**
      * Internal: Get the thread pool for async tasks.
      */
@@ -350,6 +936,16 @@ public class
         return asyncPool;
     }
 
+    /**
+     * Get the thread pool for tasks that may block for a long time, as described in "setBlockingPoolSize."
+     * Modules that make blocking calls, such as the JDBC module, should run them here and deliver the
+     * results back to the script using "enqueueTask" on the NodeRuntime. Returns null if no scripts
+     * have been created yet.
+     */
+    public ExecutorService getBlockingPool() {
+        return blockingPool;
+    }
+
     /**
      * Internal: Get the thread pool for running script threads.
      */
@@ -385,6 +981,7 @@ public class
             if (sandbox != null) {
                 if (sandbox.getAsyncThreadPool() != null) {
                     asyncPool = sandbox.getAsyncThreadPool();
+                    cryptoPool = asyncPool;
                 }
             }
 
@@ -392,14 +989,70 @@ public class
                 // This pool is used for operations that must appear async to JavaScript but are synchronous
                 // in Java. Right now this means file I/O, at least in Java 6, plus DNS queries and certain
                 // SSLEngine functions.
-                int coreSize = Math.min(maxAsyncPoolSize, CORE_POOL_SIZE);
-                ThreadPoolExecutor pool =
-                    new ThreadPoolExecutor(coreSize, maxAsyncPoolSize, POOL_TIMEOUT_SECS, TimeUnit.SECONDS,
-                                           new ArrayBlockingQueue<Runnable>(POOL_QUEUE_SIZE),
-                                           new PoolNameFactory("Trireme Async Pool"),
-                                           new ThreadPoolExecutor.CallerRunsPolicy());
-                pool.allowCoreThreadTimeOut(true);
-                asyncPool = pool;
+                ExecutorService pool = null;
+                if (asyncPoolType == AsyncPoolType.VIRTUAL) {
+                    pool = AsyncPoolFactory.newVirtualThreadPool();
+                    if (pool == null) {
+                        log.info("Virtual threads are not supported by this version of Java. " +
+                                 "Using a bounded async pool instead.");
+                    }
+                } else if (asyncPoolType == AsyncPoolType.FORK_JOIN) {
+                    pool = AsyncPoolFactory.newForkJoinPool(maxAsyncPoolSize, "Trireme Async Pool");
+                }
+
+                if (pool == null) {
+                    int coreSize = Math.min(maxAsyncPoolSize, CORE_POOL_SIZE);
+                    pool = AsyncPoolFactory.newBoundedPool(coreSize, maxAsyncPoolSize, POOL_TIMEOUT_SECS,
+                                                           POOL_QUEUE_SIZE,
+                                                           new PoolNameFactory("Trireme Async Pool"));
+                    // Run rejected tasks in the script thread, but count them.
+                    asyncPoolStats = new InstrumentedExecutorService(pool, true);
+                } else {
+                    asyncPoolStats = new InstrumentedExecutorService(pool, false);
+                }
+                asyncPool = asyncPoolStats;
+            }
+
+            if (cryptoPool == null) {
+                // This pool is for crypto that is CPU-bound rather than blocking, so it is only as big as the
+                // number of processors, but it queues more so that a burst doesn't spill on to the script thread.
+                ExecutorService pool =
+                    AsyncPoolFactory.newBoundedPool(cryptoPoolSize, cryptoPoolSize, POOL_TIMEOUT_SECS,
+                                                    CRYPTO_POOL_QUEUE_SIZE,
+                                                    new PoolNameFactory("Trireme Crypto Pool"));
+                cryptoPoolStats = new InstrumentedExecutorService(pool, true);
+                cryptoPool = cryptoPoolStats;
+            }
+
+            // This pool is for calls like JDBC that block for longer than we want to tie up the async pool.
+            // Work queues up when it is busy rather than running in the script thread.
+            blockingPool =
+                new InstrumentedExecutorService(
+                    AsyncPoolFactory.newQueuingPool(blockingPoolSize, POOL_TIMEOUT_SECS,
+                                                    new PoolNameFactory("Trireme Blocking Pool")),
+                    false);
+            blockingPoolMBean = MBeans.register((AsyncPoolStatistics)blockingPool, AsyncPoolStatistics.class,
+                                                "BlockingPool");
+
+            if (dnsCacheSize > 0) {
+                dnsCache = new SharedDNSCache(dnsCacheSize);
+                dnsCacheMBean = MBeans.register((DNSCacheStatistics)dnsCache, DNSCacheStatistics.class, "DNSCache");
+            }
+
+            tlsCache = new SSLContextCache(tlsContextCacheSize, tlsSessionCacheSize, tlsSessionTimeout);
+            tlsCacheMBean = MBeans.register(tlsCache, TLSCacheStatistics.class, "TLSCache");
+
+            if (zlibPoolSize > 0) {
+                // Parallel compression is CPU-bound, so it uses the crypto pool
+                zlibPool = new SharedZlibPool(zlibPoolSize, cryptoPool, cryptoPoolSize);
+                zlibPool.setParallelThreshold(parallelGzipThreshold);
+                zlibPoolMBean = MBeans.register((ZlibPoolStatistics)zlibPool, ZlibPoolStatistics.class, "ZlibPool");
+            }
+
+            if (moduleCacheSize > 0L) {
+                moduleCache = new ModuleCache(moduleCacheSize, moduleCheckInterval, TimeUnit.MILLISECONDS,
+                                              immutableModules);
+                moduleCacheMBean = MBeans.register(moduleCache, ModuleCacheStatistics.class, "ModuleCache");
             }
 
             // This pool is used to run scripts. As a cached thread pool it will grow as necessary and shrink
@@ -413,6 +1066,31 @@ public class
             contextFactory.setCountOperations(scriptTimeLimit > 0L);
             contextFactory.setExtraClassShutter(getSandbox() == null ? null : getSandbox().getExtraClassShutter());
 
+            if (standbyCount > 0) {
+                ExecutorService refiller =
+                    Executors.newSingleThreadExecutor(new PoolNameFactory("Trireme Standby Pool"));
+                standbyPool = new StandbyPool(standbyCount, contextFactory, refiller);
+                standbyPoolMBean = MBeans.register(standbyPool, StandbyPoolStatistics.class, "StandbyPool");
+                // Most scripts will use the default version, so get it ready now
+                RootModuleRegistry defaultRegistry = getRegistry(getDefaultNodeVersion());
+                if (defaultRegistry != null) {
+                    standbyPool.warm(defaultRegistry);
+                }
+            }
+
+            if (sharedEventLoops > 0) {
+                PoolNameFactory loopFactory = new PoolNameFactory("Trireme Event Loop");
+                eventLoops = new SharedEventLoop[sharedEventLoops];
+                for (int i = 0; i < sharedEventLoops; i++) {
+                    try {
+                        eventLoops[i] = new SharedEventLoop(contextFactory);
+                    } catch (IOException ioe) {
+                        throw new AssertionError(ioe);
+                    }
+                    loopFactory.newThread(eventLoops[i]).start();
+                }
+            }
+
             initialized = true;
         }
     }
@@ -53,11 +53,13 @@ public class NodeScript
     private TriremeProcess parentProcess;
     private boolean childProcess;
     private boolean pin;
+    private boolean module;
     private boolean forceRepl;
     private boolean printEval;
     private String workingDir;
     private Map<String, String> environment;
     private String nodeVersion;
+    private EventLoopListener loopListener;
 
     NodeScript(NodeEnvironment env, String scriptName, File script, String[] args)
     {
@@ -124,7 +126,11 @@ public class NodeScript
             runner.pin();
         }
 
-        env.getScriptPool().execute(future);
+        if (runner.getEventLoop() == null) {
+            env.getScriptPool().execute(future);
+        } else {
+            runner.getEventLoop().submit(runner);
+        }
         return future;
     }
 
@@ -161,8 +167,13 @@ public class NodeScript
         ScriptFuture future = new ScriptFuture(runner);
         runner.setFuture(future);
         runner.pin();
+        module = true;
 
-        env.getScriptPool().execute(future);
+        if (runner.getEventLoop() == null) {
+            env.getScriptPool().execute(future);
+        } else {
+            runner.getEventLoop().submit(runner);
+        }
         return future;
     }
 
@@ -193,6 +204,33 @@ public class NodeScript
             "runtime.loaded(suppliedModule);";
     }
 
+    /**
+     * Create a new script that runs the same code, with the same arguments and settings, as this one.
+     * The copy has not been executed. Containers use this to run several replicas of one script.
+     */
+    public NodeScript copy()
+    {
+        NodeScript c;
+        if (scriptFile != null) {
+            c = new NodeScript(env, scriptName, scriptFile, args);
+        } else if (script != null) {
+            c = new NodeScript(env, scriptName, script, args);
+        } else {
+            c = new NodeScript(env, args, forceRepl);
+        }
+        c.displayName = displayName;
+        c.attachment = attachment;
+        c.sandbox = sandbox;
+        c.pin = pin;
+        c.module = module;
+        c.printEval = printEval;
+        c.workingDir = workingDir;
+        c.environment = (environment == null ? null : new HashMap<String, String>(environment));
+        c.nodeVersion = nodeVersion;
+        c.loopListener = loopListener;
+        return c;
+    }
+
     /**
      * Callers should close the script when done to clean up resources.
      */
@@ -236,6 +274,32 @@ public class NodeScript
         this.attachment = attachment;
     }
 
+    /**
+     * Set a listener that is called at the end of every iteration of the script's event loop with the
+     * time spent in each phase. This must be called before the script is executed.
+     */
+    public void setEventLoopListener(EventLoopListener listener)
+    {
+        this.loopListener = listener;
+    }
+
+    public EventLoopListener getEventLoopListener()
+    {
+        return loopListener;
+    }
+
+    /**
+     * Return statistics about the script's event loop, or null if the script has not been executed, or if
+     * neither "NodeEnvironment.setEventLoopStatistics" nor an EventLoopListener was set.
+     */
+    public EventLoopStatistics getEventLoopStatistics()
+    {
+        if (runner == null) {
+            return null;
+        }
+        return runner.getEventLoopStatistics();
+    }
+
     /**
      * Pin the script before running it -- this ensures that the script will never exit unless process.exit
      * is called or the future is explicitly cancelled. Used to run the "repl".
@@ -250,6 +314,15 @@ public class NodeScript
         return pin;
     }
 
+    /**
+     * Return true if the script was started using "executeModule" rather than "execute." A copy of the
+     * script returns the same value, so that it may be started the same way.
+     */
+    public boolean isModule()
+    {
+        return module;
+    }
+
     /**
      * If the script was passed as a string when the script was created, print the result at the end.
      */
@@ -170,6 +170,15 @@ public class ScriptFuture
         notifyAll();
     }
 
+    /**
+     * An internal method to set the final status of a script that was run outside of "run," such as on
+     * a shared event loop.
+     */
+    public void _setStatus(ScriptStatus status)
+    {
+        set(status);
+    }
+
     public synchronized void setModuleResult(Scriptable result)
     {
         moduleResult = result;
@@ -0,0 +1,61 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.core;
+
+/**
+ * This interface reports how well the standby pool is working. The pool keeps global scopes for each
+ * version of Node.js that have been set up ahead of time, so that a new script can start without waiting
+ * for them. It is returned by NodeEnvironment.getStandbyPoolStatistics().
+ */
+
+public interface StandbyPoolStatistics
+{
+    /**
+     * The number of scripts that started using a scope from the pool.
+     */
+    long getHitCount();
+
+    /**
+     * The number of scripts that had to set up their own scope because the pool was empty.
+     */
+    long getMissCount();
+
+    /**
+     * The fraction of scripts that started using a scope from the pool, from 0 to 1.
+     */
+    double getHitRate();
+
+    /**
+     * The number of scopes, for all versions of Node.js, that are ready to use right now.
+     */
+    int getIdleCount();
+
+    /**
+     * The number of scopes that the pool tries to keep ready for each version of Node.js.
+     */
+    int getStandbyCount();
+
+    /**
+     * The total time, in milliseconds, spent setting up scopes in the background.
+     */
+    long getTotalPrepareTime();
+}
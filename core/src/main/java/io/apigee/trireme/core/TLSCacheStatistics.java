@@ -0,0 +1,104 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.core;
+
+/**
+ * This interface reports how well TLS contexts and sessions are being re-used. Secure contexts that are
+ * created with the same keys, certificates, CAs and cipher settings share one SSLContext, and
+ * therefore one session cache, so that repeated connections to the same host and port can resume a
+ * session instead of doing a full handshake. It is returned by NodeEnvironment.getTLSCacheStatistics()
+ * and it is also registered with JMX.
+ */
+
+public interface TLSCacheStatistics
+{
+    /**
+     * The number of times that a secure context found an SSLContext that was already set up.
+     */
+    long getContextHitCount();
+
+    /**
+     * The number of times that a secure context had to set up a new SSLContext.
+     */
+    long getContextMissCount();
+
+    /**
+     * The fraction of secure contexts that re-used an SSLContext, between 0 and 1.
+     */
+    double getContextHitRate();
+
+    /**
+     * The number of SSLContexts that were removed from the cache to make room for others.
+     */
+    long getContextEvictionCount();
+
+    /**
+     * The number of SSLContexts in the cache right now.
+     */
+    int getContextCount();
+
+    /**
+     * The largest number of SSLContexts that the cache will hold.
+     */
+    int getMaxContexts();
+
+    /**
+     * The number of times that a key or certificate was found already parsed.
+     */
+    long getMaterialHitCount();
+
+    /**
+     * The number of times that a key or certificate had to be parsed.
+     */
+    long getMaterialMissCount();
+
+    /**
+     * The number of handshakes that negotiated a new session.
+     */
+    long getFullHandshakeCount();
+
+    /**
+     * The number of handshakes that resumed a cached session.
+     */
+    long getResumedHandshakeCount();
+
+    /**
+     * The fraction of handshakes that resumed a cached session, between 0 and 1.
+     */
+    double getSessionResumptionRate();
+
+    /**
+     * The average length of a full handshake, in milliseconds.
+     */
+    double getAverageFullHandshakeTime();
+
+    /**
+     * The average length of a resumed handshake, in milliseconds.
+     */
+    double getAverageResumedHandshakeTime();
+
+    /**
+     * An estimate of the total time, in milliseconds, that was saved by resuming sessions instead
+     * of doing full handshakes.
+     */
+    long getHandshakeTimeSaved();
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.core;
+
+/**
+ * This interface reports how well the zlib pool is working. The pool holds the Deflater and Inflater objects
+ * that the "zlib" module uses, so that every stream does not have to create its own, and it compresses large
+ * GZIP buffers in parallel. It is returned by NodeEnvironment.getZlibPoolStatistics().
+ */
+
+public interface ZlibPoolStatistics
+{
+    /**
+     * The number of times that a Deflater was taken from the pool.
+     */
+    long getDeflaterHitCount();
+
+    /**
+     * The number of times that a new Deflater had to be created.
+     */
+    long getDeflaterMissCount();
+
+    /**
+     * The number of times that an Inflater was taken from the pool.
+     */
+    long getInflaterHitCount();
+
+    /**
+     * The number of times that a new Inflater had to be created.
+     */
+    long getInflaterMissCount();
+
+    /**
+     * The fraction of Deflaters and Inflaters that came from the pool, from 0 to 1.
+     */
+    double getHitRate();
+
+    /**
+     * The number of idle Deflaters and Inflaters in the pool right now.
+     */
+    int getIdleCount();
+
+    /**
+     * The most idle instances of each kind that the pool will hold.
+     */
+    int getMaxIdle();
+
+    /**
+     * The number of GZIP buffers that were compressed in parallel.
+     */
+    long getParallelCount();
+
+    /**
+     * The total number of blocks that those buffers were split in to.
+     */
+    long getParallelBlockCount();
+}
@@ -33,6 +33,7 @@ import org.mozilla.javascript.ScriptableObject;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 
 import static io.apigee.trireme.core.ArgUtils.intArg;
 import static io.apigee.trireme.core.ArgUtils.octalOrHexIntArg;
@@ -83,6 +84,17 @@ public abstract class AbstractProcess
         this.env = env;
     }
 
+    /**
+     * Connect a process object that was created ahead of time to the script that will use it, and fill in
+     * its environment.
+     */
+    public void attach(NodeRuntime runner, Map<String, String> scriptEnv)
+    {
+        setRunner(runner);
+        ((ProcessEnvironment)env).initialize(scriptEnv);
+        startTime = System.currentTimeMillis();
+    }
+
     /**
      * Immediately and synchronously invoke the specified function and arguments.
      * This works around Rhino issues with some types of anonymous functions.
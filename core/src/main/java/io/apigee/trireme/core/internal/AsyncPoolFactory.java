@@ -0,0 +1,115 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.core.internal;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class creates the different kinds of thread pools that NodeEnvironment may use for its "async pool."
+ * It is separate from NodeEnvironment so that classes that only exist in newer versions of Java are
+ * not loaded unless they are actually used.
+ */
+
+public class AsyncPoolFactory
+{
+    private AsyncPoolFactory()
+    {
+    }
+
+    /**
+     * Create a pool with a fixed maximum size and queue. When the pool is full it rejects tasks, so it should be
+     * wrapped in an InstrumentedExecutorService with "callerRuns" set.
+     */
+    public static ExecutorService newBoundedPool(int coreSize, int maxSize, long timeoutSecs, int queueSize,
+                                                 ThreadFactory threadFactory)
+    {
+        ThreadPoolExecutor pool =
+            new ThreadPoolExecutor(coreSize, maxSize, timeoutSecs, TimeUnit.SECONDS,
+                                   new ArrayBlockingQueue<Runnable>(queueSize),
+                                   threadFactory,
+                                   new ThreadPoolExecutor.AbortPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Create a pool with a fixed maximum size and a queue with no limit. It never rejects tasks unless it has
+     * been shut down, so tasks wait for a thread rather than running in the caller.
+     */
+    public static ExecutorService newQueuingPool(int size, long timeoutSecs, ThreadFactory threadFactory)
+    {
+        ThreadPoolExecutor pool =
+            new ThreadPoolExecutor(size, size, timeoutSecs, TimeUnit.SECONDS,
+                                   new LinkedBlockingQueue<Runnable>(),
+                                   threadFactory);
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Create a work-stealing pool. Tasks are taken in FIFO order, since async tasks are never joined.
+     */
+    public static ExecutorService newForkJoinPool(int parallelism, final String threadName)
+    {
+        return new ForkJoinPool(parallelism, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            @Override
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool)
+            {
+                ForkJoinWorkerThread t = new ForkJoinWorkerThread(pool) {};
+                t.setName(threadName);
+                t.setDaemon(true);
+                return t;
+            }
+        }, null, true);
+    }
+
+    /**
+     * Create an executor that starts a new virtual thread for every task, or return null if this version
+     * of Java does not support virtual threads.
+     */
+    public static ExecutorService newVirtualThreadPool()
+    {
+        if (!JavaVersion.get().hasVirtualThreads()) {
+            return null;
+        }
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService)m.invoke(null);
+        } catch (NoSuchMethodException nsme) {
+            return null;
+        } catch (IllegalAccessException iae) {
+            return null;
+        } catch (InvocationTargetException ite) {
+            return null;
+        }
+    }
+}
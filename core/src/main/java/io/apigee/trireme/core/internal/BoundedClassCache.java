@@ -0,0 +1,517 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.core.internal;
+
+import io.apigee.trireme.core.ClassCache;
+import io.apigee.trireme.core.ClassCacheStatistics;
+import org.mozilla.javascript.Script;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This is a class cache with a fixed maximum size. Unlike SoftClassCache, which loses everything at once
+ * when memory runs low, it removes scripts one at a time using the "W-TinyLFU" policy:
+ * <ul>
+ *     <li>New scripts go into a small LRU "window."</li>
+ *     <li>Scripts that fall out of the window must compete to get into the "main" area, which is a
+ *     segmented LRU. A script gets in only if it has been asked for more often than the script that
+ *     would be evicted to make room for it. A small counting sketch keeps track of how often each key
+ *     has been asked for, including keys that are no longer cached.</li>
+ *     <li>Scripts in the main area that are used a second time move from the "probation" segment to the
+ *     "protected" segment, so that a burst of one-time scripts can't push them out.</li>
+ * </ul>
+ * Each script is weighted by an estimate of the size of its class, which is based on the length of its
+ * source code.
+ * <p>
+ * Callers that use "getCachedScript" with a compiler get one more feature: if several threads ask for
+ * the same script at the same time, only one of them compiles it and the rest wait for the result.
+ * </p>
+ */
+public class BoundedClassCache
+    implements ClassCache, ClassCacheStatistics
+{
+    /** The default maximum weight, in characters of source code. */
+    public static final long DEFAULT_MAX_WEIGHT = 32L * 1024L * 1024L;
+
+    /** The weight of a script that is added without a size estimate. */
+    public static final int DEFAULT_WEIGHT = 8192;
+
+    private static final int WINDOW_PERCENT = 1;
+    private static final int PROTECTED_PERCENT = 80;
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private final long maxWeight;
+    private final long windowMax;
+    private final long protectedMax;
+
+    // All of these are guarded by "this"
+    private final HashMap<String, Node> data = new HashMap<String, Node>();
+    private final NodeQueue window = new NodeQueue();
+    private final NodeQueue probation = new NodeQueue();
+    private final NodeQueue protectedQueue = new NodeQueue();
+    private final FrequencySketch sketch;
+    private long totalWeight;
+
+    private final ConcurrentHashMap<String, Load> loading = new ConcurrentHashMap<String, Load>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong coalescedLoads = new AtomicLong();
+    private final AtomicLong loadNanos = new AtomicLong();
+
+    /**
+     * This is how the cache compiles a script on behalf of its caller.
+     */
+    public interface ScriptCompiler
+    {
+        /**
+         * Compile the script, or return null if it can't be compiled and should be interpreted instead.
+         */
+        Script compile();
+    }
+
+    public BoundedClassCache(long maxWeight)
+    {
+        this.maxWeight = maxWeight;
+        this.windowMax = Math.max(1L, (maxWeight * WINDOW_PERCENT) / 100L);
+        this.protectedMax = ((maxWeight - windowMax) * PROTECTED_PERCENT) / 100L;
+        this.sketch = new FrequencySketch((int)Math.min(1 << 20, Math.max(64L, maxWeight / DEFAULT_WEIGHT)));
+    }
+
+    public BoundedClassCache()
+    {
+        this(DEFAULT_MAX_WEIGHT);
+    }
+
+    @Override
+    public Script getCachedScript(String key)
+    {
+        Script s = lookup(key);
+        if (s == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return s;
+    }
+
+    @Override
+    public void putCachedScript(String key, Script script)
+    {
+        put(key, script, DEFAULT_WEIGHT);
+    }
+
+    /**
+     * Return the script from the cache, or compile it using the compiler and add it with the given weight.
+     * If another thread is already compiling the same key, then wait for it instead. Like the compiler,
+     * this returns null if the script could not be compiled.
+     */
+    public Script getCachedScript(String key, int weight, ScriptCompiler compiler)
+    {
+        Script s = lookup(key);
+        if (s != null) {
+            hits.incrementAndGet();
+            return s;
+        }
+        misses.incrementAndGet();
+
+        Load load = new Load();
+        Load existing = loading.putIfAbsent(key, load);
+        if (existing != null) {
+            coalescedLoads.incrementAndGet();
+            return existing.await();
+        }
+
+        try {
+            // Another thread may have finished between our lookup and registering the load
+            s = lookup(key);
+            if (s == null) {
+                long start = System.nanoTime();
+                s = compiler.compile();
+                loadNanos.addAndGet(System.nanoTime() - start);
+                loads.incrementAndGet();
+                if (s != null) {
+                    put(key, s, weight);
+                }
+            }
+            return s;
+        } finally {
+            loading.remove(key);
+            load.complete(s);
+        }
+    }
+
+    private synchronized Script lookup(String key)
+    {
+        sketch.increment(key.hashCode());
+        Node n = data.get(key);
+        if (n == null) {
+            return null;
+        }
+        onAccess(n);
+        return n.script;
+    }
+
+    private synchronized void put(String key, Script script, int weight)
+    {
+        Node n = data.get(key);
+        if (n != null) {
+            n.script = script;
+            queueFor(n).weight += (weight - n.weight);
+            totalWeight += (weight - n.weight);
+            n.weight = weight;
+            onAccess(n);
+        } else {
+            n = new Node(key, script, weight);
+            data.put(key, n);
+            n.region = WINDOW;
+            window.add(n);
+            totalWeight += weight;
+        }
+        evict();
+    }
+
+    private NodeQueue queueFor(Node n)
+    {
+        switch (n.region) {
+        case WINDOW:
+            return window;
+        case PROBATION:
+            return probation;
+        case PROTECTED:
+            return protectedQueue;
+        default:
+            throw new AssertionError();
+        }
+    }
+
+    private void onAccess(Node n)
+    {
+        switch (n.region) {
+        case WINDOW:
+            window.moveToTail(n);
+            break;
+        case PROBATION:
+            // Used again, so it's worth protecting
+            probation.remove(n);
+            n.region = PROTECTED;
+            protectedQueue.add(n);
+            while ((protectedQueue.weight > protectedMax) && (protectedQueue.head != n)) {
+                Node demoted = protectedQueue.head;
+                protectedQueue.remove(demoted);
+                demoted.region = PROBATION;
+                probation.add(demoted);
+            }
+            break;
+        case PROTECTED:
+            protectedQueue.moveToTail(n);
+            break;
+        default:
+            throw new AssertionError();
+        }
+    }
+
+    /**
+     * Move scripts that have fallen out of the window into the probation segment as "candidates," then
+     * evict until we fit. When there is a candidate, it competes with the least-recently-used script in
+     * the main area, and the one that has been asked for less often loses.
+     */
+    private void evict()
+    {
+        int candidates = 0;
+        while (window.weight > windowMax) {
+            Node n = window.head;
+            window.remove(n);
+            n.region = PROBATION;
+            probation.add(n);
+            candidates++;
+        }
+
+        while (totalWeight > maxWeight) {
+            Node candidate = (candidates > 0 ? probation.tail : null);
+            Node victim = probation.head;
+            if ((victim == null) || (victim == candidate)) {
+                victim = (protectedQueue.head == null ? window.head : protectedQueue.head);
+            }
+
+            if ((victim != null) && (victim.region == PROBATION) && (probation.count <= candidates)) {
+                // Everything left in probation is a candidate, including the victim
+                candidates--;
+            }
+
+            if (candidate == null) {
+                remove(victim);
+            } else if (victim == null) {
+                remove(candidate);
+                candidates--;
+            } else if (sketch.frequency(candidate.key.hashCode()) > sketch.frequency(victim.key.hashCode())) {
+                remove(victim);
+            } else {
+                remove(candidate);
+                candidates--;
+            }
+        }
+    }
+
+    private void remove(Node n)
+    {
+        queueFor(n).remove(n);
+        data.remove(n.key);
+        totalWeight -= n.weight;
+        evictions.incrementAndGet();
+    }
+
+    @Override
+    public long getHitCount()
+    {
+        return hits.get();
+    }
+
+    @Override
+    public long getMissCount()
+    {
+        return misses.get();
+    }
+
+    @Override
+    public double getHitRate()
+    {
+        long h = hits.get();
+        long total = h + misses.get();
+        return (total == 0L ? 0.0 : (double)h / (double)total);
+    }
+
+    @Override
+    public long getEvictionCount()
+    {
+        return evictions.get();
+    }
+
+    @Override
+    public long getLoadCount()
+    {
+        return loads.get();
+    }
+
+    @Override
+    public long getCoalescedLoadCount()
+    {
+        return coalescedLoads.get();
+    }
+
+    @Override
+    public long getTotalLoadTime()
+    {
+        return loadNanos.get() / 1000000L;
+    }
+
+    @Override
+    public synchronized int getEntryCount()
+    {
+        return data.size();
+    }
+
+    @Override
+    public synchronized long getWeight()
+    {
+        return totalWeight;
+    }
+
+    @Override
+    public long getMaxWeight()
+    {
+        return maxWeight;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "BoundedClassCache [ hits = " + hits + " misses = " + misses + " evictions = " + evictions +
+            " loads = " + loads + " coalesced = " + coalescedLoads + " entries = " + getEntryCount() +
+            " weight = " + getWeight() + " ]";
+    }
+
+    private static final class Node
+    {
+        final String key;
+        Script script;
+        int weight;
+        int region;
+        Node prev;
+        Node next;
+
+        Node(String key, Script script, int weight)
+        {
+            this.key = key;
+            this.script = script;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * A doubly-linked LRU list of nodes that keeps track of its total weight.
+     */
+    private static final class NodeQueue
+    {
+        Node head;
+        Node tail;
+        long weight;
+        int count;
+
+        void add(Node n)
+        {
+            n.prev = tail;
+            n.next = null;
+            if (tail == null) {
+                head = n;
+            } else {
+                tail.next = n;
+            }
+            tail = n;
+            weight += n.weight;
+            count++;
+        }
+
+        void remove(Node n)
+        {
+            if (n.prev == null) {
+                head = n.next;
+            } else {
+                n.prev.next = n.next;
+            }
+            if (n.next == null) {
+                tail = n.prev;
+            } else {
+                n.next.prev = n.prev;
+            }
+            n.prev = n.next = null;
+            weight -= n.weight;
+            count--;
+        }
+
+        void moveToTail(Node n)
+        {
+            if (tail != n) {
+                remove(n);
+                add(n);
+            }
+        }
+    }
+
+    /**
+     * A count-min sketch of 4-bit counters, sixteen to a long, that estimates how often each key has been
+     * seen. All the counters are halved periodically so that old popularity fades away.
+     */
+    static final class FrequencySketch
+    {
+        private static final int[] SEEDS = { 0x97cb3127, 0xb492b66f, 0x9ae16a3b, 0xc3a5c85c };
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int size;
+
+        FrequencySketch(int maxEntries)
+        {
+            int len = 1;
+            while (len < maxEntries) {
+                len <<= 1;
+            }
+            table = new long[len];
+            mask = len - 1;
+            sampleSize = len * 10;
+        }
+
+        private static int rehash(int hash, int i)
+        {
+            int h = (hash ^ SEEDS[i]) * 0x9e3779b9;
+            return h ^ (h >>> 15);
+        }
+
+        int frequency(int hash)
+        {
+            int freq = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                int h = rehash(hash, i);
+                int shift = ((h >>> 24) & 15) << 2;
+                int count = (int)((table[h & mask] >>> shift) & 15L);
+                freq = Math.min(freq, count);
+            }
+            return freq;
+        }
+
+        void increment(int hash)
+        {
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int h = rehash(hash, i);
+                int index = h & mask;
+                int shift = ((h >>> 24) & 15) << 2;
+                if (((table[index] >>> shift) & 15L) != 15L) {
+                    table[index] += (1L << shift);
+                    added = true;
+                }
+            }
+            if (added && (++size >= sampleSize)) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & RESET_MASK;
+                }
+                size /= 2;
+            }
+        }
+    }
+
+    /**
+     * A compilation that is in progress, which other threads may wait for.
+     */
+    private static final class Load
+    {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Script result;
+
+        void complete(Script s)
+        {
+            result = s;
+            done.countDown();
+        }
+
+        Script await()
+        {
+            try {
+                done.await();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            return result;
+        }
+    }
+}
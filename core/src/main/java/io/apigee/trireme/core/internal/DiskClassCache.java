@@ -0,0 +1,463 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.core.internal;
+
+import io.apigee.trireme.core.BytecodeCache;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Script;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This is a class cache that writes the bytecode for each compiled script to a directory, so that the
+ * compiled code survives both garbage collection and restarts. Each file is named after the SHA-256 key
+ * of the source code. The total size of the directory is bounded, and the least-recently-used files are
+ * removed when it grows too large. The file modification time records the last use, so the LRU order
+ * survives a restart as well.
+ * <p>
+ * Scripts that have already been loaded are also kept in memory using soft references, just like
+ * SoftClassCache. Many threads, and even many processes, may share the same directory. Files are written
+ * to a temporary name and then renamed, so a reader never sees a partial file.
+ * </p>
+ */
+public class DiskClassCache
+    implements BytecodeCache
+{
+    private static final Logger log = LoggerFactory.getLogger(DiskClassCache.class);
+
+    public static final long DEFAULT_MAX_SIZE = 256L * 1024L * 1024L;
+
+    public static final String FILE_SUFFIX = ".jsclass";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final int FILE_MAGIC = 0x54524d43;
+    private static final int FILE_VERSION = 1;
+
+    /** Don't delete temporary files that may still be being written by another process. */
+    private static final long STALE_TEMP_AGE = 60L * 60L * 1000L;
+
+    private static final String RHINO_VERSION;
+
+    static {
+        Package p = Script.class.getPackage();
+        String v = (p == null ? null : p.getImplementationVersion());
+        RHINO_VERSION = (v == null ? "unknown" : v);
+    }
+
+    private final File directory;
+    private final long maxSize;
+
+    private final ConcurrentHashMap<String, SoftReference<Script>> loaded =
+        new ConcurrentHashMap<String, SoftReference<Script>>();
+
+    /** File name to size, in order of access. Guarded by itself. */
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<String, Long>(256, 0.75f, true);
+    private long totalSize;
+
+    private final long initialEntries;
+    private final long initialSize;
+
+    private final AtomicLong totalOps = new AtomicLong();
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong stored = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong bytesLoaded = new AtomicLong();
+    private final AtomicLong loadNanos = new AtomicLong();
+
+    /**
+     * Create a cache in the specified directory, which will be created if necessary, and read the list
+     * of what is already there.
+     */
+    public DiskClassCache(File directory, long maxSize)
+        throws IOException
+    {
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Cannot create class cache directory " + directory.getPath());
+        }
+        this.directory = directory;
+        this.maxSize = maxSize;
+
+        synchronized (index) {
+            readIndex();
+            initialEntries = index.size();
+            initialSize = totalSize;
+            evict();
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Class cache in {} starts with {} scripts ({} bytes)",
+                      directory.getPath(), initialEntries, initialSize);
+        }
+    }
+
+    public DiskClassCache(File directory)
+        throws IOException
+    {
+        this(directory, DEFAULT_MAX_SIZE);
+    }
+
+    private void readIndex()
+    {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        final long[] modified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            modified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+
+        // Oldest first, so that the most-recently-used files are at the end of the LRU list
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b)
+            {
+                if (modified[a] < modified[b]) {
+                    return -1;
+                }
+                return (modified[a] > modified[b]) ? 1 : 0;
+            }
+        });
+
+        for (Integer i : order) {
+            File f = files[i];
+            String name = f.getName();
+            if (name.endsWith(FILE_SUFFIX)) {
+                long len = f.length();
+                index.put(name, len);
+                totalSize += len;
+            } else if (name.endsWith(TEMP_SUFFIX) && ((now - modified[i]) > STALE_TEMP_AGE)) {
+                f.delete();
+            }
+        }
+    }
+
+    /**
+     * Remove the least-recently-used files until we fit. Caller must hold the lock on "index."
+     */
+    private void evict()
+    {
+        Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+        while ((totalSize > maxSize) && it.hasNext()) {
+            Map.Entry<String, Long> e = it.next();
+            it.remove();
+            totalSize -= e.getValue();
+            evicted.incrementAndGet();
+            File f = new File(directory, e.getKey());
+            if (!f.delete() && f.exists()) {
+                log.debug("Cannot delete cached class {}", f.getPath());
+            }
+        }
+    }
+
+    private static String getFileName(String key)
+    {
+        return ScriptUtils.makeHexKey(key) + FILE_SUFFIX;
+    }
+
+    @Override
+    public Script getCachedScript(String key)
+    {
+        totalOps.incrementAndGet();
+        SoftReference<Script> ref = loaded.get(key);
+        if (ref != null) {
+            Script s = ref.get();
+            if (s != null) {
+                memoryHits.incrementAndGet();
+                return s;
+            }
+            loaded.remove(key);
+        }
+
+        String fileName = getFileName(key);
+        File f = new File(directory, fileName);
+        boolean known;
+        synchronized (index) {
+            known = (index.get(fileName) != null);
+        }
+        if (!known) {
+            // Another process may have written it since we read the directory
+            long len = f.length();
+            if ((len == 0L) || !f.isFile()) {
+                misses.incrementAndGet();
+                return null;
+            }
+            synchronized (index) {
+                Long old = index.put(fileName, len);
+                if (old != null) {
+                    totalSize -= old;
+                }
+                totalSize += len;
+                evict();
+            }
+        }
+
+        long start = System.nanoTime();
+        Script s = null;
+        try {
+            s = loadScript(f);
+        } catch (FileNotFoundException fnfe) {
+            // Another process evicted it
+            log.debug("Cached class {} has disappeared", f.getPath());
+            forget(fileName);
+        } catch (IOException ioe) {
+            log.debug("Cannot read cached class {}: {}", f.getPath(), ioe);
+            errors.incrementAndGet();
+            forget(fileName);
+            f.delete();
+        } catch (ClassFormatError cfe) {
+            log.debug("Cannot load cached class {}: {}", f.getPath(), cfe);
+            errors.incrementAndGet();
+            forget(fileName);
+            f.delete();
+        }
+
+        if (s == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        // Record the use so that the next process sees the same LRU order that we do
+        f.setLastModified(System.currentTimeMillis());
+        loaded.put(key, new SoftReference<Script>(s));
+        diskHits.incrementAndGet();
+        loadNanos.addAndGet(System.nanoTime() - start);
+        return s;
+    }
+
+    private void forget(String fileName)
+    {
+        synchronized (index) {
+            Long len = index.remove(fileName);
+            if (len != null) {
+                totalSize -= len;
+            }
+        }
+    }
+
+    /**
+     * Read the file and turn it into a script, or return null if the file was written by a different
+     * version of Rhino or with different compiler settings than the current ones.
+     */
+    private Script loadScript(File f)
+        throws IOException
+    {
+        byte[] contents = readFile(f);
+        bytesLoaded.addAndGet(contents.length);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(contents));
+        if ((in.readInt() != FILE_MAGIC) || (in.readInt() != FILE_VERSION)) {
+            throw new IOException("Invalid cache file format");
+        }
+        String rhinoVersion = in.readUTF();
+        String settings = in.readUTF();
+        if (!RHINO_VERSION.equals(rhinoVersion) || !getCompilerSettings().equals(settings)) {
+            // Not an error -- the script will be compiled again and replaced
+            return null;
+        }
+
+        String className = in.readUTF();
+        int len = in.readInt();
+        if ((len < 0) || (len > in.available())) {
+            throw new IOException("Invalid cache file length");
+        }
+        byte[] bytecode = new byte[len];
+        in.readFully(bytecode);
+        return ScriptUtils.loadBytecode(className, bytecode);
+    }
+
+    private static String getCompilerSettings()
+    {
+        return ScriptUtils.getCompilerSettings(Context.getCurrentContext());
+    }
+
+    private static byte[] readFile(File f)
+        throws IOException
+    {
+        FileInputStream in = new FileInputStream(f);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int)Math.max(f.length(), 1024L));
+            byte[] buf = new byte[8192];
+            int r;
+            while ((r = in.read(buf)) > 0) {
+                out.write(buf, 0, r);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public void putCachedScript(String key, Script script)
+    {
+        loaded.put(key, new SoftReference<Script>(script));
+    }
+
+    @Override
+    public void putCachedBytecode(String key, String className, byte[] bytecode)
+    {
+        String fileName = getFileName(key);
+        File f = new File(directory, fileName);
+
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(bytecode.length + 256);
+            DataOutputStream out = new DataOutputStream(bos);
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeUTF(RHINO_VERSION);
+            out.writeUTF(getCompilerSettings());
+            out.writeUTF(className);
+            out.writeInt(bytecode.length);
+            out.write(bytecode);
+            out.flush();
+
+            // Write to a temporary file and rename so that other threads and processes never see part of a file
+            File tmp = File.createTempFile(fileName, TEMP_SUFFIX, directory);
+            FileOutputStream fos = new FileOutputStream(tmp);
+            try {
+                bos.writeTo(fos);
+            } finally {
+                fos.close();
+            }
+            if (!tmp.renameTo(f)) {
+                // On some platforms we can't rename over an existing file -- but then someone else wrote it
+                tmp.delete();
+            }
+
+            long len = bos.size();
+            synchronized (index) {
+                Long old = index.put(fileName, len);
+                if (old != null) {
+                    totalSize -= old;
+                }
+                totalSize += len;
+                evict();
+            }
+            stored.incrementAndGet();
+
+        } catch (IOException ioe) {
+            log.debug("Cannot write cached class {}: {}", f.getPath(), ioe);
+            errors.incrementAndGet();
+        }
+    }
+
+    public File getDirectory()
+    {
+        return directory;
+    }
+
+    public long getMaxSize()
+    {
+        return maxSize;
+    }
+
+    public int getEntries()
+    {
+        synchronized (index) {
+            return index.size();
+        }
+    }
+
+    public long getSize()
+    {
+        synchronized (index) {
+            return totalSize;
+        }
+    }
+
+    public long getMemoryHits()
+    {
+        return memoryHits.get();
+    }
+
+    public long getDiskHits()
+    {
+        return diskHits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    public long getStored()
+    {
+        return stored.get();
+    }
+
+    public long getEvicted()
+    {
+        return evicted.get();
+    }
+
+    public long getErrors()
+    {
+        return errors.get();
+    }
+
+    /**
+     * Return a summary of how much of the work of starting up was saved by the cache: how many scripts
+     * were found on disk rather than compiled, and how long it took to load them.
+     */
+    public String getWarmUpReport()
+    {
+        long ops = totalOps.get();
+        long hits = memoryHits.get() + diskHits.get();
+        return "Class cache " + directory.getPath() + ": started with " + initialEntries + " scripts (" +
+            initialSize + " bytes). " + hits + " of " + ops + " lookups hit (" +
+            diskHits.get() + " from disk, " + bytesLoaded.get() + " bytes in " +
+            (loadNanos.get() / 1000000L) + " ms). " + stored.get() + " scripts compiled and stored, " +
+            evicted.get() + " evicted, " + errors.get() + " errors.";
+    }
+
+    @Override
+    public String toString()
+    {
+        return "DiskClassCache [ ops = " + totalOps + " memory hits = " + memoryHits +
+            " disk hits = " + diskHits + " misses = " + misses + " stored = " + stored +
+            " evicted = " + evicted + " ]";
+    }
+}
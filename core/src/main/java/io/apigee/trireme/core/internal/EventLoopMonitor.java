@@ -0,0 +1,250 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.core.internal;
+
+import io.apigee.trireme.core.EventLoopListener;
+import io.apigee.trireme.core.EventLoopStatistics;
+import io.apigee.trireme.core.LoopTiming;
+import io.apigee.trireme.core.NodeScript;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class measures the event loop of a single script. The script thread calls "startIteration," then
+ * "endPhase" after each phase, and then "endIteration," and any other thread may read the results.
+ * Each call reads System.nanoTime() once, and nothing is allocated.
+ */
+public class EventLoopMonitor
+    implements EventLoopStatistics
+{
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private static final long NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1L);
+    private static final int NUM_PHASES = Phase.values().length;
+
+    private final ScriptRunner runner;
+    private final NodeScript script;
+    private final EventLoopListener listener;
+    private final LoopClock clock;
+    private final boolean sharedThread;
+    private final boolean cpuSupported;
+
+    private final LoopHistogram[] phases = new LoopHistogram[NUM_PHASES];
+    private final LoopHistogram lag = new LoopHistogram();
+    private final long[] phaseTimes = new long[NUM_PHASES];
+    private int phasesEnded;
+    private long mark;
+    private long cpuStart;
+
+    private volatile long iterations;
+    private volatile long threadId = -1L;
+    private volatile long cpuTime;
+    private volatile boolean stopped;
+
+    private long lastRateTime = System.nanoTime();
+    private long lastRateCount;
+
+    public EventLoopMonitor(ScriptRunner runner, NodeScript script, EventLoopListener listener,
+                            LoopClock clock, boolean sharedThread)
+    {
+        this.runner = runner;
+        this.script = script;
+        this.listener = listener;
+        this.clock = clock;
+        this.sharedThread = sharedThread;
+
+        boolean supported;
+        try {
+            supported = threads.isCurrentThreadCpuTimeSupported() && threads.isThreadCpuTimeEnabled();
+        } catch (UnsupportedOperationException e) {
+            supported = false;
+        }
+        this.cpuSupported = supported;
+
+        for (int i = 0; i < NUM_PHASES; i++) {
+            phases[i] = new LoopHistogram();
+        }
+    }
+
+    /**
+     * Called from the script thread before the script starts running.
+     */
+    public void start()
+    {
+        if (!sharedThread) {
+            threadId = Thread.currentThread().getId();
+        }
+    }
+
+    /**
+     * Called from the script thread after the script has left its event loop.
+     */
+    public void stop()
+    {
+        if (!sharedThread && cpuSupported) {
+            cpuTime = threads.getCurrentThreadCpuTime();
+        }
+        stopped = true;
+    }
+
+    public void startIteration()
+    {
+        if (sharedThread && cpuSupported) {
+            cpuStart = threads.getCurrentThreadCpuTime();
+        }
+        Arrays.fill(phaseTimes, 0L);
+        phasesEnded = 0;
+        mark = System.nanoTime();
+    }
+
+    public void endPhase(Phase phase)
+    {
+        long now = System.nanoTime();
+        phaseTimes[phase.ordinal()] += now - mark;
+        phasesEnded |= (1 << phase.ordinal());
+        mark = now;
+    }
+
+    public void endIteration()
+    {
+        for (int i = 0; i < NUM_PHASES; i++) {
+            if ((phasesEnded & (1 << i)) != 0) {
+                phases[i].record(phaseTimes[i]);
+            }
+        }
+        if (sharedThread && cpuSupported) {
+            cpuTime += threads.getCurrentThreadCpuTime() - cpuStart;
+        }
+        iterations++;
+
+        if (listener != null) {
+            listener.onIteration(script, phaseTimes);
+        }
+    }
+
+    /**
+     * Called when a timer fires that was supposed to fire at "expiration," which is a timestamp from
+     * the loop clock.
+     */
+    public void timerFired(long expiration)
+    {
+        lag.record(clock.currentNanoTime() - (expiration * NANOS_PER_MILLI));
+    }
+
+    @Override
+    public long getIterationCount()
+    {
+        return iterations;
+    }
+
+    @Override
+    public synchronized double getIterationsPerSecond()
+    {
+        long now = System.nanoTime();
+        long count = iterations;
+        double seconds = (double)(now - lastRateTime) / TimeUnit.SECONDS.toNanos(1L);
+        double rate = (seconds <= 0.0) ? 0.0 : (count - lastRateCount) / seconds;
+        lastRateTime = now;
+        lastRateCount = count;
+        return rate;
+    }
+
+    @Override
+    public LoopTiming getNextTickTimes()
+    {
+        return phases[Phase.NEXT_TICK.ordinal()].snapshot();
+    }
+
+    @Override
+    public LoopTiming getTaskTimes()
+    {
+        return phases[Phase.TASKS.ordinal()].snapshot();
+    }
+
+    @Override
+    public LoopTiming getImmediateTimes()
+    {
+        return phases[Phase.IMMEDIATE.ordinal()].snapshot();
+    }
+
+    @Override
+    public LoopTiming getPollTimes()
+    {
+        return phases[Phase.POLL.ordinal()].snapshot();
+    }
+
+    @Override
+    public LoopTiming getNetworkTimes()
+    {
+        return phases[Phase.NETWORK.ordinal()].snapshot();
+    }
+
+    @Override
+    public LoopTiming getTimerTimes()
+    {
+        return phases[Phase.TIMERS.ordinal()].snapshot();
+    }
+
+    @Override
+    public LoopTiming getLag()
+    {
+        return lag.snapshot();
+    }
+
+    @Override
+    public int getTaskQueueDepth()
+    {
+        return runner.getTaskQueueDepth();
+    }
+
+    @Override
+    public int getTimerQueueDepth()
+    {
+        return runner.getTimerQueueDepth();
+    }
+
+    @Override
+    public int getOpenHandleCount()
+    {
+        return runner.getOpenHandleCount();
+    }
+
+    @Override
+    public int getPinCount()
+    {
+        return runner.getPinCount();
+    }
+
+    @Override
+    public long getCpuTime()
+    {
+        if (!cpuSupported) {
+            return -1L;
+        }
+        if (sharedThread || stopped || (threadId < 0L)) {
+            return cpuTime;
+        }
+        return threads.getThreadCpuTime(threadId);
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.core.internal;
+
+import java.util.PriorityQueue;
+
+/**
+ * This is the original timer implementation, which keeps all timers in a priority queue. Inserts cost
+ * O(log n), and cancelled timers stay in the queue until they expire.
+ */
+public class HeapTimerScheduler
+    implements TimerScheduler
+{
+    private final PriorityQueue<ScriptRunner.Activity> queue = new PriorityQueue<ScriptRunner.Activity>();
+
+    @Override
+    public void schedule(ScriptRunner.Activity timer)
+    {
+        queue.add(timer);
+    }
+
+    @Override
+    public void cancel(ScriptRunner.Activity timer)
+    {
+        // Removing from the middle of the heap is O(n), so leave it for "pollExpired" to discard.
+    }
+
+    @Override
+    public ScriptRunner.Activity pollExpired(long now)
+    {
+        ScriptRunner.Activity next = queue.peek();
+        if ((next != null) && (next.timeout <= now)) {
+            return queue.poll();
+        }
+        return null;
+    }
+
+    @Override
+    public long getNextExpiration()
+    {
+        ScriptRunner.Activity next = queue.peek();
+        return (next == null ? Long.MAX_VALUE : next.timeout);
+    }
+
+    @Override
+    public int size()
+    {
+        return queue.size();
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.core.internal;
+
+import io.apigee.trireme.core.AsyncPoolStatistics;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This is a wrapper for any ExecutorService that keeps track of how many tasks are queued, running, finished,
+ * and rejected, regardless of what kind of executor is underneath. If "callerRuns" is set, then rejected
+ * tasks run in the calling thread, just like ThreadPoolExecutor.CallerRunsPolicy, but they are still counted.
+ */
+
+public class InstrumentedExecutorService
+    extends AbstractExecutorService
+    implements AsyncPoolStatistics
+{
+    private final ExecutorService delegate;
+    private final boolean callerRuns;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger maxQueued = new AtomicInteger();
+
+    public InstrumentedExecutorService(ExecutorService delegate, boolean callerRuns)
+    {
+        this.delegate = delegate;
+        this.callerRuns = callerRuns;
+    }
+
+    public ExecutorService getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public void execute(final Runnable command)
+    {
+        submitted.incrementAndGet();
+        int depth = queued.incrementAndGet();
+        int max = maxQueued.get();
+        while ((depth > max) && !maxQueued.compareAndSet(max, depth)) {
+            max = maxQueued.get();
+        }
+
+        Runnable task = new Runnable() {
+            @Override
+            public void run()
+            {
+                queued.decrementAndGet();
+                active.incrementAndGet();
+                try {
+                    command.run();
+                } finally {
+                    active.decrementAndGet();
+                    completed.incrementAndGet();
+                }
+            }
+        };
+
+        try {
+            delegate.execute(task);
+        } catch (RejectedExecutionException ree) {
+            rejected.incrementAndGet();
+            if (callerRuns && !delegate.isShutdown()) {
+                task.run();
+            } else {
+                queued.decrementAndGet();
+                throw ree;
+            }
+        }
+    }
+
+    @Override
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    @Override
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    @Override
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    @Override
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    @Override
+    public int getMaxQueueDepth() {
+        return maxQueued.get();
+    }
+
+    @Override
+    public void shutdown()
+    {
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow()
+    {
+        return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown()
+    {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated()
+    {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit)
+        throws InterruptedException
+    {
+        return delegate.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Submitted: " + submitted.get() + " Completed: " + completed.get() +
+               " Rejected: " + rejected.get() + " Active: " + active.get() +
+               " Queued: " + queued.get() + " Max queued: " + maxQueued.get();
+    }
+}
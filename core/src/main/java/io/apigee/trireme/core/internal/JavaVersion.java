@@ -33,6 +33,8 @@ public class JavaVersion
 
     private boolean hasAsyncFileIO;
     private boolean hasFlushFlags;
+    private boolean hasBufferZip;
+    private boolean hasVirtualThreads;
 
     private JavaVersion()
     {
@@ -40,6 +42,10 @@ public class JavaVersion
         hasFlushFlags = hasMethod("java.util.zip.Deflater", "deflate",
                                   new Class<?>[] { byte[].class, Integer.TYPE,
                                                    Integer.TYPE, Integer.TYPE });
+        hasBufferZip = hasMethod("java.util.zip.Inflater", "inflate",
+                                 new Class<?>[] { java.nio.ByteBuffer.class });
+        hasVirtualThreads = hasMethod("java.util.concurrent.Executors", "newVirtualThreadPerTaskExecutor",
+                                      new Class<?>[0]);
     }
 
     public static JavaVersion get() {
@@ -54,6 +60,14 @@ public class JavaVersion
         return hasFlushFlags;
     }
 
+    public boolean hasBufferZip() {
+        return hasBufferZip;
+    }
+
+    public boolean hasVirtualThreads() {
+        return hasVirtualThreads;
+    }
+
     private boolean hasClass(String name)
     {
         try {
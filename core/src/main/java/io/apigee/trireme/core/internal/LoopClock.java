@@ -0,0 +1,138 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.core.internal;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * This is the clock for the event loop of a single script. It is based on System.nanoTime() so that
+ * timers are not affected when the wall clock is adjusted, and it is read only once per trip
+ * through the loop so that timers, "Timer.now()," and everything else that needs the time in the
+ * script thread gets the same value without making a system call each time.
+ * </p>
+ * <p>
+ * Timestamps are in milliseconds since the clock was created. They are not related to wall-clock time
+ * and must only be compared to other timestamps from the same clock.
+ * </p>
+ */
+public class LoopClock
+{
+    private static final long NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1L);
+
+    private final long origin = System.nanoTime();
+
+    private long nanos;
+    private long millis;
+
+    /**
+     * Read the system clock and cache the result. This should be called once per loop iteration,
+     * from the script thread only.
+     */
+    public long update()
+    {
+        nanos = System.nanoTime() - origin;
+        millis = nanos / NANOS_PER_MILLI;
+        return millis;
+    }
+
+    /**
+     * Return the timestamp, in milliseconds, from the last time that "update" was called.
+     */
+    public long getTimestamp()
+    {
+        return millis;
+    }
+
+    /**
+     * Return the timestamp, in nanoseconds, from the last time that "update" was called.
+     */
+    public long getNanoTime()
+    {
+        return nanos;
+    }
+
+    /**
+     * Read the system clock without changing the cached value. Unlike the other methods, this may
+     * be called from any thread.
+     */
+    public long currentTimestamp()
+    {
+        return currentNanoTime() / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Like "currentTimestamp," but in nanoseconds.
+     */
+    public long currentNanoTime()
+    {
+        return System.nanoTime() - origin;
+    }
+
+    /**
+     * Create an object that tracks the script time limit for each tick.
+     */
+    public Deadline createDeadline(long limit, TimeUnit unit)
+    {
+        return new Deadline(unit.toNanos(limit));
+    }
+
+    /**
+     * This keeps track of how long the current tick has been running so that the script time limit can be
+     * enforced. The tick starts at the loop's cached timestamp when "arm" is called, so arming costs nothing,
+     * and the clock is only read when Rhino calls "isExpired," which it does every few thousand instructions.
+     * Each time it does, it updates the cached timestamp, so a long tick does not leave a stale timestamp for
+     * the ticks that come after it. A tick may still be charged for short ticks that ran earlier in the same
+     * phase of the loop, since those don't read the clock.
+     */
+    public final class Deadline
+    {
+        private final long limit;
+        private long expiration;
+        private boolean armed;
+
+        Deadline(long limit)
+        {
+            this.limit = limit;
+        }
+
+        public void arm()
+        {
+            expiration = nanos + limit;
+            armed = true;
+        }
+
+        public void disarm()
+        {
+            armed = false;
+        }
+
+        public boolean isExpired()
+        {
+            if (!armed) {
+                return false;
+            }
+            update();
+            return ((nanos - expiration) > 0L);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.core.internal;
+
+import io.apigee.trireme.core.LoopTiming;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of times in nanoseconds. There are four buckets for each power of two, so percentiles are
+ * accurate to within 25 percent, and recording a value takes a few instructions and no allocation.
+ * <p>
+ * Only one thread, normally the script thread, may record values. Any thread may read a snapshot,
+ * although the snapshot may be missing values that are being recorded at the same time.
+ * </p>
+ */
+public class LoopHistogram
+{
+    private static final int SUB_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int NUM_BUCKETS = 64 * SUB_BUCKETS;
+    private static final long NANOS_PER_MICRO = TimeUnit.MICROSECONDS.toNanos(1L);
+
+    private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+    private volatile long count;
+    private volatile long total;
+    private volatile long max;
+
+    public void record(long nanos)
+    {
+        long v = (nanos < 0L) ? 0L : nanos;
+        int ix = bucketIndex(v);
+        // Only one thread writes, so there is no need for a compare-and-set
+        buckets.lazySet(ix, buckets.get(ix) + 1L);
+        total += v;
+        if (v > max) {
+            max = v;
+        }
+        count++;
+    }
+
+    public long getCount()
+    {
+        return count;
+    }
+
+    /**
+     * Return the smallest recorded value such that at least "fraction" of all values are no larger.
+     * The result is the top of the bucket that holds that value, or the maximum if that is smaller.
+     */
+    public long getPercentile(double fraction)
+    {
+        long[] counts = new long[NUM_BUCKETS];
+        long n = 0L;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            n += counts[i];
+        }
+        if (n == 0L) {
+            return 0L;
+        }
+
+        long target = (long)Math.ceil(n * fraction);
+        if (target < 1L) {
+            target = 1L;
+        }
+        long seen = 0L;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(bucketTop(i), max);
+            }
+        }
+        return max;
+    }
+
+    public LoopTiming snapshot()
+    {
+        long c = count;
+        long t = total;
+        return new LoopTiming(c, t / NANOS_PER_MICRO,
+                              (c == 0L) ? 0L : (t / c) / NANOS_PER_MICRO,
+                              getPercentile(0.5) / NANOS_PER_MICRO,
+                              getPercentile(0.99) / NANOS_PER_MICRO,
+                              max / NANOS_PER_MICRO);
+    }
+
+    static int bucketIndex(long v)
+    {
+        if (v < SUB_BUCKETS) {
+            return (int)v;
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(v);
+        int shift = msb - SUB_BITS;
+        int sub = (int)((v >>> shift) & (SUB_BUCKETS - 1));
+        return ((shift + 1) * SUB_BUCKETS) + sub;
+    }
+
+    static long bucketTop(int ix)
+    {
+        if (ix < SUB_BUCKETS) {
+            return ix;
+        }
+        int shift = (ix / SUB_BUCKETS) - 1;
+        int sub = ix % SUB_BUCKETS;
+        long bottom = ((long)(SUB_BUCKETS + sub)) << shift;
+        return bottom + (1L << shift) - 1L;
+    }
+}
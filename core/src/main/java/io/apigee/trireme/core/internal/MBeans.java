@@ -0,0 +1,95 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.core.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Register and unregister Trireme objects with the platform MBean server. Failures are logged and otherwise
+ * ignored, because monitoring should never stop a script from running.
+ */
+public class MBeans
+{
+    private static final Logger log = LoggerFactory.getLogger(MBeans.class);
+
+    public static final String DOMAIN = "io.apigee.trireme";
+
+    private static final AtomicInteger lastId = new AtomicInteger();
+
+    private MBeans()
+    {
+    }
+
+    /**
+     * Register "impl" using the getters on "iface" as its attributes, under a unique name with the given type.
+     * Return the name, or null if it could not be registered.
+     */
+    public static <T> ObjectName register(T impl, Class<T> iface, String type)
+    {
+        return register(impl, iface, type, false);
+    }
+
+    private static <T> ObjectName register(T impl, Class<T> iface, String type, boolean mxBean)
+    {
+        try {
+            ObjectName name = new ObjectName(DOMAIN + ":type=" + type + ",id=" + lastId.incrementAndGet());
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(new StandardMBean(impl, iface, mxBean), name);
+            if (log.isDebugEnabled()) {
+                log.debug("Registered MBean {}", name);
+            }
+            return name;
+        } catch (JMException e) {
+            log.debug("Cannot register MBean of type {}: {}", type, e);
+            return null;
+        }
+    }
+
+    /**
+     * Register "impl" as an MXBean, so that getters on "iface" that return beans are turned into
+     * composite values that any JMX console can display.
+     */
+    public static <T> ObjectName registerMXBean(T impl, Class<T> iface, String type)
+    {
+        return register(impl, iface, type, true);
+    }
+
+    public static void unregister(ObjectName name)
+    {
+        if (name == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        } catch (JMException e) {
+            log.debug("Cannot unregister MBean {}: {}", name, e);
+        }
+    }
+}
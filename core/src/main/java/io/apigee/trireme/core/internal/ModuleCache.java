@@ -0,0 +1,438 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.core.internal;
+
+import io.apigee.trireme.core.ModuleCacheStatistics;
+import io.apigee.trireme.kernel.Charsets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This is a cache of the things that "require" finds out from the filesystem, shared by all the scripts in
+ * a NodeEnvironment. When lots of scripts load the same modules, each one would otherwise stat every
+ * candidate file name and extension while searching "node_modules," and read every module that it finds.
+ * <p>
+ * To find out whether a file exists, the cache lists its parent directory once and keeps the names. The
+ * listing is thrown away when the directory's modification time changes. Module sources are kept along
+ * with the modification time and length of the file, and thrown away when either changes. Both are checked
+ * at most once per "check interval" -- so a change may take that long to be noticed -- or never if the
+ * cache is "immutable," which is appropriate when modules are deployed and never modified in place.
+ * </p>
+ * <p>
+ * Everything is keyed by the real paths of the files, after the sandbox's root and mounts have been
+ * applied, so scripts in different sandboxes may share it safely. The total size of the sources is bounded,
+ * and the least-recently-used ones are removed when there is too much. Since the names in a directory
+ * are small, the directory listings are not bounded by size, but the whole set starts over if there
+ * are too many of them.
+ * </p>
+ */
+public class ModuleCache
+    implements ModuleCacheStatistics
+{
+    public static final int NOT_FOUND = 0;
+    public static final int FILE = 1;
+    public static final int DIRECTORY = 2;
+
+    /** The number of milliseconds between checks of the modification time of each directory and file. */
+    public static final long DEFAULT_CHECK_INTERVAL = 1000L;
+    public static final int MAX_DIRECTORIES = 10000;
+
+    /**
+     * Some filesystems only keep modification times to the second, so a file that was modified less than
+     * this many milliseconds ago might be modified again without its modification time changing.
+     */
+    private static final long MTIME_RESOLUTION = 2000L;
+    private static final long UNKNOWN_MTIME = -1L;
+
+    private final long maxSourceSize;
+    private final long checkInterval;
+    private final boolean immutable;
+
+    private final ConcurrentHashMap<String, Directory> directories = new ConcurrentHashMap<String, Directory>();
+    // Guarded by "this"
+    private final LinkedHashMap<String, Source> sources = new LinkedHashMap<String, Source>(16, 0.75f, true);
+    private long sourceSize;
+
+    private final AtomicLong statsAvoided = new AtomicLong();
+    private final AtomicLong stats = new AtomicLong();
+    private final AtomicLong statNanos = new AtomicLong();
+    private final AtomicLong sourceHits = new AtomicLong();
+    private final AtomicLong sourceHitChars = new AtomicLong();
+    private final AtomicLong sourceMisses = new AtomicLong();
+    private final AtomicLong readChars = new AtomicLong();
+    private final AtomicLong readNanos = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public ModuleCache(long maxSourceSize, long checkInterval, TimeUnit unit, boolean immutable)
+    {
+        this.maxSourceSize = maxSourceSize;
+        this.checkInterval = unit.toNanos(checkInterval);
+        this.immutable = immutable;
+    }
+
+    /**
+     * Used to find out what time it is, in nanoseconds. Tests may replace it.
+     */
+    protected long now()
+    {
+        return System.nanoTime();
+    }
+
+    /**
+     * Return NOT_FOUND, FILE, or DIRECTORY depending on what is at the specified path.
+     */
+    public int getKind(File f)
+    {
+        File parent = f.getParentFile();
+        String name = f.getName();
+        if ((parent == null) || ".".equals(name) || "..".equals(name)) {
+            return statKind(f);
+        }
+
+        Directory dir = getDirectory(parent);
+        if (dir.names == null) {
+            // The parent is not there, or is not a directory
+            statsAvoided.incrementAndGet();
+            return NOT_FOUND;
+        }
+        if (!dir.names.contains(name)) {
+            if (dir.lowerNames.contains(name.toLowerCase(Locale.US))) {
+                // The name is there with a different case, which is a match if the filesystem is not
+                // case-sensitive, so ask the filesystem.
+                return statKind(f);
+            }
+            statsAvoided.incrementAndGet();
+            return NOT_FOUND;
+        }
+
+        Integer kind = dir.kinds.get(name);
+        if (kind == null) {
+            kind = statKind(f);
+            dir.kinds.put(name, kind);
+        } else {
+            statsAvoided.incrementAndGet();
+        }
+        return kind;
+    }
+
+    /**
+     * Return the contents of the specified file as a UTF-8 string, or null if it cannot be read because
+     * it does not exist, is a directory, or for any other reason.
+     */
+    public String readSource(File f)
+    {
+        String key = f.getPath();
+        long now = now();
+        Source src;
+        synchronized (this) {
+            src = sources.get(key);
+        }
+
+        if (src != null) {
+            if (isFresh(src.checked, now)) {
+                return sourceHit(src);
+            }
+            long start = System.nanoTime();
+            long modified = f.lastModified();
+            long length = f.length();
+            recordStats(2, start);
+            if ((modified == src.modified) && (length == src.length)) {
+                src.checked = now;
+                return sourceHit(src);
+            }
+            invalidations.incrementAndGet();
+            removeSource(key, src);
+        }
+
+        if (getKind(f) != FILE) {
+            return null;
+        }
+
+        long start = System.nanoTime();
+        long modified = f.lastModified();
+        long length = f.length();
+        String content;
+        try {
+            content = readFile(f);
+        } catch (IOException ioe) {
+            return null;
+        }
+        readNanos.addAndGet(System.nanoTime() - start);
+        readChars.addAndGet(content.length());
+        sourceMisses.incrementAndGet();
+
+        if (content.length() <= maxSourceSize) {
+            addSource(key, new Source(content, trustedMtime(modified), length, now));
+        }
+        return content;
+    }
+
+    /**
+     * Throw away everything.
+     */
+    public void clear()
+    {
+        directories.clear();
+        synchronized (this) {
+            sources.clear();
+            sourceSize = 0L;
+        }
+    }
+
+    private boolean isFresh(long checked, long now)
+    {
+        return (immutable || (now - checked < checkInterval));
+    }
+
+    private long trustedMtime(long modified)
+    {
+        if (System.currentTimeMillis() - modified < MTIME_RESOLUTION) {
+            // Too new to tell whether the next change will show up, so check again next time
+            return UNKNOWN_MTIME;
+        }
+        return modified;
+    }
+
+    private Directory getDirectory(File dir)
+    {
+        String key = dir.getPath();
+        long now = now();
+        Directory d = directories.get(key);
+        if (d != null) {
+            if (isFresh(d.checked, now)) {
+                return d;
+            }
+            long start = System.nanoTime();
+            long modified = dir.lastModified();
+            recordStats(1, start);
+            if ((modified == d.modified) && (modified != UNKNOWN_MTIME)) {
+                d.checked = now;
+                return d;
+            }
+            invalidations.incrementAndGet();
+        }
+
+        long start = System.nanoTime();
+        long modified = dir.lastModified();
+        String[] list = dir.list();
+        recordStats(2, start);
+
+        d = new Directory(list, trustedMtime(modified), now);
+        if (directories.size() >= MAX_DIRECTORIES) {
+            directories.clear();
+        }
+        directories.put(key, d);
+        return d;
+    }
+
+    private int statKind(File f)
+    {
+        long start = System.nanoTime();
+        int kind;
+        if (f.isDirectory()) {
+            kind = DIRECTORY;
+        } else if (f.exists()) {
+            kind = FILE;
+        } else {
+            kind = NOT_FOUND;
+        }
+        recordStats((kind == DIRECTORY) ? 1 : 2, start);
+        return kind;
+    }
+
+    private void recordStats(int count, long start)
+    {
+        stats.addAndGet(count);
+        statNanos.addAndGet(System.nanoTime() - start);
+    }
+
+    private String sourceHit(Source src)
+    {
+        sourceHits.incrementAndGet();
+        sourceHitChars.addAndGet(src.content.length());
+        return src.content;
+    }
+
+    private synchronized void addSource(String key, Source src)
+    {
+        Source old = sources.put(key, src);
+        if (old != null) {
+            sourceSize -= old.content.length();
+        }
+        sourceSize += src.content.length();
+
+        Iterator<Source> it = sources.values().iterator();
+        while ((sourceSize > maxSourceSize) && it.hasNext()) {
+            sourceSize -= it.next().content.length();
+            it.remove();
+        }
+    }
+
+    private synchronized void removeSource(String key, Source src)
+    {
+        if (sources.get(key) == src) {
+            sources.remove(key);
+            sourceSize -= src.content.length();
+        }
+    }
+
+    private static String readFile(File f)
+        throws IOException
+    {
+        FileInputStream in = new FileInputStream(f);
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream((int)Math.min(f.length(), Integer.MAX_VALUE));
+            byte[] buf = new byte[8192];
+            int r;
+            do {
+                r = in.read(buf);
+                if (r > 0) {
+                    bos.write(buf, 0, r);
+                }
+            } while (r >= 0);
+            return new String(bos.toByteArray(), Charsets.UTF8);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public long getStatsAvoided() {
+        return statsAvoided.get();
+    }
+
+    @Override
+    public long getStatCount() {
+        return stats.get();
+    }
+
+    @Override
+    public long getSourceHitCount() {
+        return sourceHits.get();
+    }
+
+    @Override
+    public long getSourceMissCount() {
+        return sourceMisses.get();
+    }
+
+    @Override
+    public double getSourceHitRate()
+    {
+        long h = sourceHits.get();
+        long total = h + sourceMisses.get();
+        return (total == 0L) ? 0.0 : ((double)h / (double)total);
+    }
+
+    @Override
+    public long getInvalidationCount() {
+        return invalidations.get();
+    }
+
+    @Override
+    public long getTimeSaved()
+    {
+        double saved = 0.0;
+        long statCount = stats.get();
+        if (statCount > 0L) {
+            saved += (double)statsAvoided.get() * statNanos.get() / statCount;
+        }
+        long chars = readChars.get();
+        if (chars > 0L) {
+            saved += (double)sourceHitChars.get() * readNanos.get() / chars;
+        }
+        return TimeUnit.NANOSECONDS.toMillis((long)saved);
+    }
+
+    @Override
+    public int getDirectoryCount() {
+        return directories.size();
+    }
+
+    @Override
+    public synchronized long getSourceSize() {
+        return sourceSize;
+    }
+
+    @Override
+    public long getMaxSourceSize() {
+        return maxSourceSize;
+    }
+
+    @Override
+    public boolean isImmutable() {
+        return immutable;
+    }
+
+    private static final class Directory
+    {
+        final Set<String> names;
+        final Set<String> lowerNames;
+        final ConcurrentHashMap<String, Integer> kinds = new ConcurrentHashMap<String, Integer>();
+        final long modified;
+        volatile long checked;
+
+        Directory(String[] list, long modified, long checked)
+        {
+            if (list == null) {
+                names = null;
+                lowerNames = null;
+            } else {
+                names = new HashSet<String>(list.length * 2);
+                lowerNames = new HashSet<String>(list.length * 2);
+                for (String n : list) {
+                    names.add(n);
+                    lowerNames.add(n.toLowerCase(Locale.US));
+                }
+            }
+            this.modified = modified;
+            this.checked = checked;
+        }
+    }
+
+    private static final class Source
+    {
+        final String content;
+        final long modified;
+        final long length;
+        volatile long checked;
+
+        Source(String content, long modified, long length, long checked)
+        {
+            this.content = content;
+            this.modified = modified;
+            this.length = length;
+            this.checked = checked;
+        }
+    }
+}
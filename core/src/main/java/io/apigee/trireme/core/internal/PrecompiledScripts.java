@@ -0,0 +1,202 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.core.internal;
+
+import org.mozilla.javascript.CompilerEnvirons;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Script;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+/**
+ * This class finds scripts that were compiled ahead of time by the "AppCompiler" in the "rhino-compiler"
+ * module. Each class is named after the hash of the code that it was compiled from, using
+ * "ScriptUtils.makeClassName," so a script may be found using the same cache key as the ClassCache.
+ * <p>
+ * AppCompiler records the optimization level and whether it generated instruction counts in the jar's
+ * manifest. Like DiskClassCache, scripts are only used if those match the settings of the Context that
+ * asks for them, so that a jar built without instruction counting can't defeat a script time limit.
+ * </p>
+ */
+
+public class PrecompiledScripts
+{
+    private static final Logger log = LoggerFactory.getLogger(PrecompiledScripts.class);
+
+    /** These must match "AppCompiler.OPT_LEVEL_ATTRIBUTE" and "OBSERVER_COUNT_ATTRIBUTE." */
+    public static final String OPT_LEVEL_ATTRIBUTE = "Trireme-Optimization-Level";
+    public static final String OBSERVER_COUNT_ATTRIBUTE = "Trireme-Instruction-Count";
+
+    /** Stored in the map so that we don't search the class path for the same missing class again. */
+    private static final Object NOT_FOUND = new Object();
+
+    private final CopyOnWriteArrayList<Loader> loaders = new CopyOnWriteArrayList<Loader>();
+    private final ConcurrentHashMap<String, Object> scripts = new ConcurrentHashMap<String, Object>();
+
+    /**
+     * Add a class loader that will be searched for precompiled scripts, using the settings from the
+     * specified manifest. Its parent must be able to load Rhino's classes. Throw IOException if the manifest
+     * doesn't say how the scripts were compiled.
+     */
+    public void addLoader(ClassLoader loader, Manifest manifest)
+        throws IOException
+    {
+        Attributes attrs = (manifest == null ? null : manifest.getMainAttributes());
+        String opt = (attrs == null ? null : attrs.getValue(OPT_LEVEL_ATTRIBUTE));
+        String counting = (attrs == null ? null : attrs.getValue(OBSERVER_COUNT_ATTRIBUTE));
+        if ((opt == null) || (counting == null)) {
+            throw new IOException("Precompiled scripts were not built by a version of AppCompiler " +
+                                  "that records the compiler settings");
+        }
+
+        try {
+            loaders.add(new Loader(loader, Integer.parseInt(opt), Boolean.parseBoolean(counting)));
+        } catch (NumberFormatException nfe) {
+            throw new IOException("Invalid " + OPT_LEVEL_ATTRIBUTE + " in manifest: " + opt);
+        }
+        // Scripts that were missing before may be found now
+        scripts.clear();
+    }
+
+    /**
+     * Add a class loader, finding the settings in the first manifest that it can see that has them.
+     */
+    public void addLoader(ClassLoader loader)
+        throws IOException
+    {
+        Enumeration<URL> urls = loader.getResources("META-INF/MANIFEST.MF");
+        while (urls.hasMoreElements()) {
+            Manifest m = readManifest(urls.nextElement());
+            if (m.getMainAttributes().getValue(OPT_LEVEL_ATTRIBUTE) != null) {
+                addLoader(loader, m);
+                return;
+            }
+        }
+        addLoader(loader, null);
+    }
+
+    private static Manifest readManifest(URL url)
+        throws IOException
+    {
+        InputStream in = url.openStream();
+        try {
+            return new Manifest(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    public boolean isEmpty()
+    {
+        return loaders.isEmpty();
+    }
+
+    /**
+     * Return an instance of the precompiled script for the specified cache key, or null if there is none
+     * that was compiled with the same settings as "cx." Since compiled scripts are immutable, the same
+     * instance is returned every time.
+     */
+    public Script getScript(Context cx, String cacheKey)
+    {
+        CompilerEnvirons env = new CompilerEnvirons();
+        env.initFromContext(cx);
+        int optLevel = env.getOptimizationLevel();
+        boolean counting = env.isGenerateObserverCount();
+
+        String key = optLevel + (counting ? ",c:" : ":") + cacheKey;
+        Object s = scripts.get(key);
+        if (s == null) {
+            s = loadScript(ScriptUtils.makeClassName(cacheKey), optLevel, counting);
+            scripts.put(key, s);
+        }
+        return (s == NOT_FOUND) ? null : (Script)s;
+    }
+
+    private Object loadScript(String className, int optLevel, boolean counting)
+    {
+        for (Loader l : loaders) {
+            if (!l.matches(optLevel, counting)) {
+                continue;
+            }
+
+            Class<?> klass;
+            try {
+                klass = l.loader.loadClass(className);
+            } catch (ClassNotFoundException cnfe) {
+                continue;
+            }
+
+            try {
+                Script script = (Script)klass.newInstance();
+                if (log.isDebugEnabled()) {
+                    log.debug("Loaded precompiled script {}", className);
+                }
+                return script;
+            } catch (InstantiationException e) {
+                log.warn("Error creating precompiled script {}: {}", className, e);
+            } catch (IllegalAccessException e) {
+                log.warn("Error creating precompiled script {}: {}", className, e);
+            } catch (ClassCastException e) {
+                log.warn("Precompiled script {} is not a Script: {}", className, e);
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    private static final class Loader
+    {
+        final ClassLoader loader;
+        final int optLevel;
+        final boolean counting;
+        private volatile boolean warned;
+
+        Loader(ClassLoader loader, int optLevel, boolean counting)
+        {
+            this.loader = loader;
+            this.optLevel = optLevel;
+            this.counting = counting;
+        }
+
+        boolean matches(int opt, boolean count)
+        {
+            if ((opt == optLevel) && (count == counting)) {
+                return true;
+            }
+            if (!warned) {
+                warned = true;
+                log.warn("Not using precompiled scripts built with optimization level {} and " +
+                         "instruction counting {}, because scripts run with {} and {}",
+                         optLevel, counting, opt, count);
+            }
+            return false;
+        }
+    }
+}
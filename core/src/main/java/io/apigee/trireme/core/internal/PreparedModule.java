@@ -0,0 +1,47 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.core.internal;
+
+import io.apigee.trireme.core.NodeRuntime;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * This is implemented by the few modules that every script loads before anything else, so that StandbyPool
+ * can create their exports in a standby scope before it knows which script will use them. When a script
+ * starts, ScriptRunner attaches those exports to itself instead of calling "registerExports."
+ */
+public interface PreparedModule
+{
+    /**
+     * Create the exports in the global scope, without a runtime.
+     */
+    Scriptable prepareExports(Context cx, Scriptable scope)
+        throws InvocationTargetException, IllegalAccessException, InstantiationException;
+
+    /**
+     * Connect exports that "prepareExports" created to the script that will use them.
+     */
+    void attachExports(Context cx, Scriptable exports, NodeRuntime runner);
+}
@@ -65,17 +65,17 @@ public class RhinoContextFactory
 
     /**
      * Rhino will call this every "instruction observer threshold" bytecode instructions. We will look
-     * on the current thread stack and if the expiration time is set, then we will
+     * on the current thread stack and if the tick deadline is set and has passed, then we will stop the script.
      */
     @Override
     protected void observeInstructionCount(Context cx, int count)
     {
-        Object timeoutObj = cx.getThreadLocal(ScriptRunner.TIMEOUT_TIMESTAMP_KEY);
-        if (timeoutObj == null) {
+        Object deadline = cx.getThreadLocal(ScriptRunner.TIMEOUT_TIMESTAMP_KEY);
+        if (deadline == null) {
             return;
         }
 
-        if (System.currentTimeMillis() > (Long)timeoutObj) {
+        if (((LoopClock.Deadline)deadline).isExpired()) {
             throw new JavaScriptException("Script timed out");
         }
     }
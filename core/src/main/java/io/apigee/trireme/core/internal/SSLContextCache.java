@@ -0,0 +1,402 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.core.internal;
+
+import io.apigee.trireme.core.TLSCacheStatistics;
+import io.apigee.trireme.kernel.BiCallback;
+import io.apigee.trireme.kernel.Charsets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.X509TrustManager;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This is a cache of the expensive parts of setting up TLS, shared by all the scripts in a NodeEnvironment. Secure contexts are keyed by a SHA-256
+ * hash of everything that went in to them -- the protocol, keys, certificates, CAs, CRLs and ciphers -- so
+ * that scripts that create the same context over and over, as an HTTPS client usually does, share a single
+ * SSLContext. That saves parsing keys and setting up key managers, and more importantly it means that
+ * they share the SSLContext's session cache. Client engines are created with the host and port of the
+ * server, so the JDK can resume a session with that server instead of doing a full handshake.
+ * <p>
+ * The number of contexts is bounded, and the least-recently-used one is removed when there are too many.
+ * The limit, and the size and timeout of each context's session cache, are set on the NodeEnvironment.
+ * A negative session cache size or timeout means that the JDK default is used.
+ * </p>
+ */
+public class SSLContextCache
+    implements TLSCacheStatistics
+{
+    private static final Logger log = LoggerFactory.getLogger(SSLContextCache.class);
+
+    public static final int DEFAULT_MAX_CONTEXTS = 100;
+    private static final int MATERIAL_FACTOR = 4;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final int maxContexts;
+    private final int sessionCacheSize;
+    private final int sessionTimeout;
+
+    // Both maps are guarded by "this"
+    private final LinkedHashMap<String, Entry> contexts;
+    private final LinkedHashMap<String, Object> material;
+
+    private final AtomicLong contextHits = new AtomicLong();
+    private final AtomicLong contextMisses = new AtomicLong();
+    private final AtomicLong contextEvictions = new AtomicLong();
+    private final AtomicLong materialHits = new AtomicLong();
+    private final AtomicLong materialMisses = new AtomicLong();
+    private final AtomicLong fullHandshakes = new AtomicLong();
+    private final AtomicLong fullHandshakeNanos = new AtomicLong();
+    private final AtomicLong resumedHandshakes = new AtomicLong();
+    private final AtomicLong resumedHandshakeNanos = new AtomicLong();
+
+    private final BiCallback<Long, Boolean> handshakeRecorder = new BiCallback<Long, Boolean>()
+    {
+        @Override
+        public void call(Long nanos, Boolean resumed)
+        {
+            recordHandshake(nanos, resumed);
+        }
+    };
+
+    public SSLContextCache(int maxContexts)
+    {
+        this(maxContexts, -1, -1);
+    }
+
+    /**
+     * Create a cache of up to "maxContexts" contexts. Each context's session cache holds up to
+     * "sessionCacheSize" sessions for "sessionTimeout" seconds, or uses the JDK default if either is negative.
+     */
+    public SSLContextCache(final int maxContexts, int sessionCacheSize, int sessionTimeout)
+    {
+        this.maxContexts = maxContexts;
+        this.sessionCacheSize = sessionCacheSize;
+        this.sessionTimeout = sessionTimeout;
+        this.contexts = new LinkedHashMap<String, Entry>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+            {
+                if (size() > maxContexts) {
+                    contextEvictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.material = new LinkedHashMap<String, Object>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Object> eldest)
+            {
+                return (size() > (maxContexts * MATERIAL_FACTOR));
+            }
+        };
+    }
+
+    /**
+     * Return the SHA-256 hash, in hex, of all the strings, which may be null.
+     */
+    public static String digest(String... parts)
+    {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM must support SHA-256
+            throw new AssertionError(e);
+        }
+        for (String p : parts) {
+            if (p != null) {
+                md.update(p.getBytes(Charsets.UTF8));
+            }
+            // Separate the parts so that "ab", "c" and "a", "bc" are different
+            md.update((byte)0);
+        }
+        return toHex(md.digest());
+    }
+
+    /**
+     * Return the SHA-256 hash, in hex, of part of a byte array and an optional string.
+     */
+    public static String digest(byte[] buf, int offset, int length, String extra)
+    {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+        md.update(buf, offset, length);
+        md.update((byte)0);
+        if (extra != null) {
+            md.update(extra.getBytes(Charsets.UTF8));
+        }
+        return toHex(md.digest());
+    }
+
+    private static String toHex(byte[] hash)
+    {
+        char[] out = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            out[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+            out[(i * 2) + 1] = HEX[hash[i] & 0xf];
+        }
+        return new String(out);
+    }
+
+    /**
+     * Return the context that was set up with the given key, or null if there isn't one.
+     */
+    public Entry getContext(String key)
+    {
+        Entry e;
+        synchronized (this) {
+            e = contexts.get(key);
+        }
+        if (e == null) {
+            contextMisses.incrementAndGet();
+        } else {
+            contextHits.incrementAndGet();
+        }
+        return e;
+    }
+
+    /**
+     * Add a context to the cache and return the entry that callers should use. If another thread
+     * added the same key first, then its entry wins so that everyone shares the same session cache.
+     */
+    public Entry putContext(String key, SSLContext context, X509TrustManager trustManager)
+    {
+        configureSessions(context);
+        synchronized (this) {
+            Entry existing = contexts.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            Entry e = new Entry(context, trustManager);
+            contexts.put(key, e);
+            if (log.isDebugEnabled()) {
+                log.debug("Cached SSLContext {}. {} contexts are cached", key, contexts.size());
+            }
+            return e;
+        }
+    }
+
+    private void configureSessions(SSLContext context)
+    {
+        configureSessions(context.getClientSessionContext());
+        configureSessions(context.getServerSessionContext());
+    }
+
+    private void configureSessions(SSLSessionContext sc)
+    {
+        if (sc == null) {
+            return;
+        }
+        if (sessionCacheSize >= 0) {
+            sc.setSessionCacheSize(sessionCacheSize);
+        }
+        if (sessionTimeout >= 0) {
+            sc.setSessionTimeout(sessionTimeout);
+        }
+    }
+
+    /**
+     * Return a parsed key, certificate, or other immutable object that was cached using the hash of
+     * its encoded form, or null if there isn't one.
+     */
+    public Object getMaterial(String key)
+    {
+        Object m;
+        synchronized (this) {
+            m = material.get(key);
+        }
+        if (m == null) {
+            materialMisses.incrementAndGet();
+        } else {
+            materialHits.incrementAndGet();
+        }
+        return m;
+    }
+
+    public synchronized void putMaterial(String key, Object m)
+    {
+        material.put(key, m);
+    }
+
+    /**
+     * Return a callback that may be passed to TLSConnection.setHandshakeTimingCallback.
+     */
+    public BiCallback<Long, Boolean> getHandshakeRecorder() {
+        return handshakeRecorder;
+    }
+
+    void recordHandshake(long nanos, boolean resumed)
+    {
+        if (resumed) {
+            resumedHandshakes.incrementAndGet();
+            resumedHandshakeNanos.addAndGet(nanos);
+        } else {
+            fullHandshakes.incrementAndGet();
+            fullHandshakeNanos.addAndGet(nanos);
+        }
+    }
+
+    @Override
+    public long getContextHitCount()
+    {
+        return contextHits.get();
+    }
+
+    @Override
+    public long getContextMissCount()
+    {
+        return contextMisses.get();
+    }
+
+    @Override
+    public double getContextHitRate()
+    {
+        long h = contextHits.get();
+        long total = h + contextMisses.get();
+        return (total == 0L ? 0.0 : (double)h / (double)total);
+    }
+
+    @Override
+    public long getContextEvictionCount()
+    {
+        return contextEvictions.get();
+    }
+
+    @Override
+    public synchronized int getContextCount()
+    {
+        return contexts.size();
+    }
+
+    @Override
+    public int getMaxContexts()
+    {
+        return maxContexts;
+    }
+
+    @Override
+    public long getMaterialHitCount()
+    {
+        return materialHits.get();
+    }
+
+    @Override
+    public long getMaterialMissCount()
+    {
+        return materialMisses.get();
+    }
+
+    @Override
+    public long getFullHandshakeCount()
+    {
+        return fullHandshakes.get();
+    }
+
+    @Override
+    public long getResumedHandshakeCount()
+    {
+        return resumedHandshakes.get();
+    }
+
+    @Override
+    public double getSessionResumptionRate()
+    {
+        long r = resumedHandshakes.get();
+        long total = r + fullHandshakes.get();
+        return (total == 0L ? 0.0 : (double)r / (double)total);
+    }
+
+    private static double average(AtomicLong nanos, AtomicLong count)
+    {
+        long c = count.get();
+        return (c == 0L ? 0.0 : (nanos.get() / 1000000.0) / c);
+    }
+
+    @Override
+    public double getAverageFullHandshakeTime()
+    {
+        return average(fullHandshakeNanos, fullHandshakes);
+    }
+
+    @Override
+    public double getAverageResumedHandshakeTime()
+    {
+        return average(resumedHandshakeNanos, resumedHandshakes);
+    }
+
+    @Override
+    public long getHandshakeTimeSaved()
+    {
+        if (fullHandshakes.get() == 0L) {
+            return 0L;
+        }
+        double savedEach = getAverageFullHandshakeTime() - getAverageResumedHandshakeTime();
+        return (savedEach <= 0.0 ? 0L : (long)(savedEach * resumedHandshakes.get()));
+    }
+
+    @Override
+    public String toString()
+    {
+        return "SSLContextCache [ hits = " + contextHits + " misses = " + contextMisses +
+            " evictions = " + contextEvictions + " contexts = " + getContextCount() +
+            " full handshakes = " + fullHandshakes + " resumed = " + resumedHandshakes + " ]";
+    }
+
+    /**
+     * An SSLContext along with the trust manager that was built from the same settings.
+     */
+    public static final class Entry
+    {
+        private final SSLContext context;
+        private final X509TrustManager trustManager;
+
+        Entry(SSLContext context, X509TrustManager trustManager)
+        {
+            this.context = context;
+            this.trustManager = trustManager;
+        }
+
+        public SSLContext getContext() {
+            return context;
+        }
+
+        public X509TrustManager getTrustManager() {
+            return trustManager;
+        }
+    }
+}
@@ -22,6 +22,7 @@
 package io.apigee.trireme.core.internal;
 
 import io.apigee.trireme.core.ArgUtils;
+import io.apigee.trireme.core.EventLoopStatistics;
 import io.apigee.trireme.core.NodeEnvironment;
 import io.apigee.trireme.core.NodeException;
 import io.apigee.trireme.core.NodeModule;
@@ -40,6 +41,7 @@ import io.apigee.trireme.kernel.fs.AdvancedFilesystem;
 import io.apigee.trireme.kernel.fs.BasicFilesystem;
 import io.apigee.trireme.kernel.net.NetworkPolicy;
 import io.apigee.trireme.kernel.net.SelectorHandler;
+import io.apigee.trireme.kernel.util.ReadBufferPool;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ContextAction;
 import org.mozilla.javascript.EcmaError;
@@ -56,6 +58,8 @@ import org.mozilla.javascript.Undefined;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.management.ObjectName;
+
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
@@ -64,6 +68,8 @@ import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.util.ArrayList;
@@ -73,7 +79,6 @@ import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
@@ -99,7 +104,11 @@ public class ScriptRunner
     public static final String TIMEOUT_TIMESTAMP_KEY = "_tickTimeout";
 
     private final  NodeEnvironment env;
-    private        long            now;
+    private final  LoopClock       clock;
+    private final  SharedEventLoop eventLoop;
+    private        Context         loopContext;
+    private        boolean         startupFailed;
+    private        LoopClock.Deadline tickDeadline;
     private        AbstractModuleRegistry registry;
     private        File            scriptFile;
     private        String          script;
@@ -116,10 +125,15 @@ public class ScriptRunner
         new IdentityHashMap<Closeable, Closeable>();
 
     private final  ConcurrentLinkedQueue<Activity> tickFunctions = new ConcurrentLinkedQueue<Activity>();
-    private final  PriorityQueue<Activity>       timerQueue    = new PriorityQueue<Activity>();
+    // Set in "startScript" on the loop thread, which owns the clock the timer wheel starts from
+    private volatile TimerScheduler              timers;
     private final  Selector                      selector;
+    private final  ArrayList<SelectionKey>       pendingKeys = new ArrayList<SelectionKey>();
+    private final  ReadBufferPool                readPool = new ReadBufferPool();
     private        int                           timerSequence;
     private final  AtomicInteger                 pinCount      = new AtomicInteger(0);
+    private final  EventLoopMonitor              loopMonitor;
+    private        ObjectName                    loopMBean;
     private        BasicFilesystem               filesystem;
 
     // Globals that are set up for the process
@@ -131,6 +145,8 @@ public class ScriptRunner
     private boolean             forceRepl;
 
     private ScriptableObject    scope;
+    /** Module exports from the standby pool, which are only used while "initGlobals" runs. */
+    private Map<String, Scriptable> standbyModules;
 
     public ScriptRunner(NodeScript so, NodeEnvironment env, Sandbox sandbox,
                         File scriptFile, String[] args)
@@ -200,15 +216,42 @@ public class ScriptRunner
             }
         }
 
-        try {
-            this.selector = Selector.open();
-        } catch (IOException ioe) {
-            throw new AssertionError(ioe);
+        // Child processes that are marked before they start, as node10 does, get their own thread, since the
+        // parent may block waiting for them to start. node12 children only mark themselves once they are running,
+        // so they, including cluster workers, may share the parent's loop.
+        if (!so._isChildProcess()) {
+            this.eventLoop = env.getSharedEventLoop();
+        } else {
+            this.eventLoop = null;
+        }
+
+        if (eventLoop == null) {
+            this.clock = new LoopClock();
+            try {
+                this.selector = Selector.open();
+            } catch (IOException ioe) {
+                throw new AssertionError(ioe);
+            }
+        } else {
+            this.clock = eventLoop.getClock();
+            this.selector = eventLoop.getSelector();
+        }
+
+        if (env.isEventLoopStatistics() || (so.getEventLoopListener() != null)) {
+            this.loopMonitor = new EventLoopMonitor(this, so, so.getEventLoopListener(), clock, eventLoop != null);
+        } else {
+            this.loopMonitor = null;
         }
     }
 
     public void close()
     {
+        MBeans.unregister(loopMBean);
+        loopMBean = null;
+        if (eventLoop != null) {
+            // The selector belongs to the loop.
+            return;
+        }
         try {
             selector.close();
         } catch (IOException ioe) {
@@ -228,8 +271,56 @@ public class ScriptRunner
         return env;
     }
 
+    /**
+     * Return the time, in milliseconds, at which the current iteration of the event loop started. This is based on
+     * a monotonic clock that is read once per iteration -- it has nothing to do with the wall-clock time and it
+     * only makes sense to compare it with other values returned by this method.
+     */
     public long getLoopTimestamp() {
-        return now;
+        return clock.getTimestamp();
+    }
+
+    public LoopClock getLoopClock() {
+        return clock;
+    }
+
+    /**
+     * Return statistics about the event loop, or null if they are not being collected.
+     */
+    public EventLoopStatistics getEventLoopStatistics() {
+        return loopMonitor;
+    }
+
+    int getTaskQueueDepth() {
+        return tickFunctions.size();
+    }
+
+    int getTimerQueueDepth() {
+        TimerScheduler t = timers;
+        return (t == null ? 0 : t.size());
+    }
+
+    int getOpenHandleCount() {
+        return openHandles.size();
+    }
+
+    int getPinCount() {
+        return pinCount.get();
+    }
+
+    /**
+     * Return the shared event loop that runs this script, or null if the script has its own thread.
+     */
+    public SharedEventLoop getEventLoop() {
+        return eventLoop;
+    }
+
+    Context getLoopContext() {
+        return loopContext;
+    }
+
+    void setLoopContext(Context cx) {
+        this.loopContext = cx;
     }
 
     public AbstractModuleRegistry getRegistry() {
@@ -285,6 +376,22 @@ public class ScriptRunner
         return selector;
     }
 
+    @Override
+    public ReadBufferPool getReadBufferPool() {
+        return readPool;
+    }
+
+    @Override
+    public SelectionKey registerChannel(SelectableChannel channel, int ops, SelectorHandler handler)
+        throws ClosedChannelException
+    {
+        if (eventLoop == null) {
+            return channel.register(selector, ops, handler);
+        }
+        // The loop needs to know which script each key belongs to.
+        return channel.register(selector, ops, new SharedEventLoop.Registration(this, handler));
+    }
+
     /**
      * This thread pool is a thread pool that has a fixed maximum size and a queue. It is intended to be used
      * for tasks that would block the main thread, but that have a reasonable chance of completing in a
@@ -552,7 +659,7 @@ public class ScriptRunner
     }
 
     /**
-     * This method puts the task directly on the timer queue, which is unsynchronized. If it is ever used
+     * This method puts the task directly on the timer schedule, which is unsynchronized. If it is ever used
      * outside the context of the "TimerWrap" module then we need to check for synchronization, add an
      * assertion check, or synchronize the timer queue.
      */
@@ -560,7 +667,7 @@ public class ScriptRunner
                                 Scriptable scope)
     {
         Task t = new Task(task, scope);
-        long timeout = System.currentTimeMillis() + delay;
+        long timeout = clock.getTimestamp() + delay;
         int seq = timerSequence++;
 
         if (log.isDebugEnabled()) {
@@ -572,11 +679,21 @@ public class ScriptRunner
             t.setInterval(repeatInterval);
             t.setRepeating(true);
         }
-        timerQueue.add(t);
+        timers.schedule(t);
         selector.wakeup();
         return t;
     }
 
+    /**
+     * Cancel a timer created by "createTimer," and remove it from the schedule if the scheduler supports it.
+     * Like "createTimer," this must only be called from the script thread.
+     */
+    public void cancelTimer(Activity timer)
+    {
+        timer.setCancelled(true);
+        timers.cancel(timer);
+    }
+
     /**
      * This is a more generic way of creating a timer that can be used in the kernel, and which
      * works even if we are not in the main thread.
@@ -585,7 +702,7 @@ public class ScriptRunner
     {
         final RunnableTask t = new RunnableTask(r);
         t.setDomain((Scriptable) domain);
-        t.setTimeout(System.currentTimeMillis() + unit.toMillis(delay));
+        t.setTimeout(clock.currentTimestamp() + unit.toMillis(delay));
         t.setRepeating(repeating);
         if (repeating) {
             t.setInterval(delay);
@@ -598,7 +715,7 @@ public class ScriptRunner
             {
                 if (!t.isCancelled()) {
                     t.setId(timerSequence++);
-                    timerQueue.add(t);
+                    timers.schedule(t);
                     selector.wakeup();
                 }
             }
@@ -707,8 +824,6 @@ public class ScriptRunner
 
     protected ScriptStatus runScript(Context cx)
     {
-        ScriptStatus status;
-
         if (scriptObject.getDisplayName() != null) {
             try {
                 Thread.currentThread().setName("Trireme: " + scriptObject.getDisplayName());
@@ -716,15 +831,64 @@ public class ScriptRunner
             }
         }
 
+        ScriptStatus status = startScript(cx);
+        if (status == null) {
+            try {
+                status = mainLoop(cx);
+            } catch (NodeExitException ne) {
+                // This exception is thrown by process.exit()
+                status = ne.getStatus();
+            } catch (IOException ioe) {
+                log.debug("I/O exception processing script: {}", ioe);
+                status = new ScriptStatus(ioe);
+            } catch (Throwable t) {
+                log.debug("Unexpected script error: {}", t);
+                status = new ScriptStatus(t);
+            }
+        }
+        return finishScript(cx, status);
+    }
+
+    /**
+     * Set up the global scope and run the main script. Return null if the script should now enter
+     * its event loop, or the final status if it is already done.
+     */
+    ScriptStatus startScript(Context cx)
+    {
         cx.putThreadLocal(RUNNER, this);
-        now = System.currentTimeMillis();
+        clock.update();
+        if (env.getTimerType() == NodeEnvironment.TimerType.WHEEL) {
+            timers = new TimerWheelScheduler(clock.getTimestamp());
+        } else {
+            timers = new HeapTimerScheduler();
+        }
+        if (loopMonitor != null) {
+            loopMonitor.start();
+            if (env.isEventLoopStatistics()) {
+                loopMBean = MBeans.registerMXBean(loopMonitor, EventLoopStatistics.class, "EventLoop");
+            }
+        }
+        if (env.getScriptTimeLimit() > 0L) {
+            tickDeadline = clock.createDeadline(env.getScriptTimeLimit(), TimeUnit.MILLISECONDS);
+            cx.putThreadLocal(TIMEOUT_TIMESTAMP_KEY, tickDeadline);
+        }
 
         try {
             // All scripts get their own global scope. This is a lot safer than sharing them in case a script wants
             // to add to the prototype of String or Date or whatever (as they often do)
             // This uses a bit more memory and in theory slows down script startup but in practice it is
             // a drop in the bucket.
-            scope = cx.initStandardObjects();
+            // If the environment has a standby pool, then the scope may already be set up.
+            StandbyPool.Prepared prepared = null;
+            if (env.getStandbyPool() != null) {
+                prepared = env.getStandbyPool().take(env.getRegistry(registry.getImplementation().getVersion()));
+            }
+            if (prepared == null) {
+                scope = cx.initStandardObjects();
+            } else {
+                scope = prepared.getScope();
+                standbyModules = prepared.getModules();
+            }
 
             // Lazy first-time init of the node version.
             registry.loadRoot(cx);
@@ -732,8 +896,10 @@ public class ScriptRunner
             try {
                 initGlobals(cx);
             } catch (NodeException ne) {
+                startupFailed = true;
                 return new ScriptStatus(ne);
             } finally {
+                standbyModules = null;
                 initialized.countDown();
             }
 
@@ -754,9 +920,16 @@ public class ScriptRunner
 
             // Run "trireme.js," which is our equivalent of "node.js". It returns a function that takes
             // "process". When done, we may have ticks to execute.
-            Script mainScript = registry.getMainScript();
-            Function main = (Function)mainScript.exec(cx, scope);
+            Function main;
+            if (prepared == null) {
+                Script mainScript = registry.getMainScript();
+                main = (Function)mainScript.exec(cx, scope);
+            } else {
+                main = prepared.getMain();
+            }
 
+            // Setting up the globals may have taken a while, and the time limit starts from the cached clock
+            clock.update();
             boolean timing = startTiming(cx);
             try {
                 main.call(cx, scope, scope, new Object[] { process });
@@ -770,18 +943,25 @@ public class ScriptRunner
                     endTiming(cx);
                 }
             }
-
-            status = mainLoop(cx);
+            return null;
 
         } catch (NodeExitException ne) {
             // This exception is thrown by process.exit()
-            status = ne.getStatus();
-        } catch (IOException ioe) {
-            log.debug("I/O exception processing script: {}", ioe);
-            status = new ScriptStatus(ioe);
+            return ne.getStatus();
         } catch (Throwable t) {
             log.debug("Unexpected script error: {}", t);
-            status = new ScriptStatus(t);
+            return new ScriptStatus(t);
+        }
+    }
+
+    /**
+     * Fire the "exit" event and clean up after the script has left its event loop.
+     */
+    ScriptStatus finishScript(Context cx, ScriptStatus status)
+    {
+        stopMonitoring();
+        if (startupFailed) {
+            return status;
         }
 
         log.debug("Script exiting with exit code {}", status.getExitCode());
@@ -818,6 +998,15 @@ public class ScriptRunner
         return status;
     }
 
+    private void stopMonitoring()
+    {
+        if (loopMonitor != null) {
+            loopMonitor.stop();
+        }
+        MBeans.unregister(loopMBean);
+        loopMBean = null;
+    }
+
     /**
      * Process args the way that "node" does -- the "args" array must be the args that any Node.js
      * interpreter can accept, minus "node" at the beginning.
@@ -894,39 +1083,21 @@ public class ScriptRunner
     {
         // Exit if there's no work do to but only if we're not pinned by a module.
         // We might exit if there are events on the timer queue if they are not also pinned.
-        while (!tickFunctions.isEmpty() || (pinCount.get() > 0) ||
-                process.isTickTaskPending() || process.isImmediateTaskPending()) {
+        while (isLoopAlive()) {
             try {
                 if ((future != null) && future.isCancelled()) {
                     return ScriptStatus.CANCELLED;
                 }
+                if (loopMonitor != null) {
+                    loopMonitor.startIteration();
+                }
 
-                // Call tick functions scheduled by process.nextTick. Node.js docs for
-                // process.nextTick say that these things run before anything else in the event loop
-                executeNextTicks(cx);
-
-                // Call tick functions scheduled by Java code.
-                executeTicks(cx);
-
-                // If necessary, call into the timer module to fire all the tasks set up with "setImmediate."
-                // Again, like regular Node, the docs say that these run before all I/O activity and all timers.
-                executeImmediateCallbacks(cx);
+                executeImmediateWork(cx);
 
                 // Calculate how long we will wait in the call to select, taking into consideration
                 // what is on the timer queue and if there are pending ticks or immediate tasks.
-                now = System.currentTimeMillis();
-                long pollTimeout;
-                if (!tickFunctions.isEmpty() || process.isTickTaskPending() ||
-                    process.isImmediateTaskPending() || (pinCount.get() == 0)) {
-                    // Immediate work -- need to keep spinning
-                    // Also keep spinning if we have no reason to keep the loop open
-                    pollTimeout = 0L;
-                } else if (timerQueue.isEmpty()) {
-                    pollTimeout = DEFAULT_DELAY;
-                } else {
-                    Activity nextActivity = timerQueue.peek();
-                    pollTimeout = (nextActivity.timeout - now);
-                }
+                long now = clock.update();
+                long pollTimeout = getPollTimeout(now);
 
                 // Check for network I/O and also sleep if necessary.
                 // Any new timer or tick will wake up the selector immediately
@@ -938,12 +1109,25 @@ public class ScriptRunner
                 } else {
                     selector.selectNow();
                 }
+                // Read the clock again now that we're awake. Timers and the script time limit both start
+                // from this value, so callbacks aren't charged for the time we spent in select.
+                now = clock.update();
+                if (loopMonitor != null) {
+                    loopMonitor.endPhase(EventLoopStatistics.Phase.POLL);
+                }
 
                 // Fire any selected I/O functions
-                executeNetworkCallbacks(cx);
+                executeNetworkCallbacks(cx, selector.selectedKeys().iterator());
+                if (loopMonitor != null) {
+                    loopMonitor.endPhase(EventLoopStatistics.Phase.NETWORK);
+                }
 
                 // Check the timer queue for all expired timers
                 executeTimerTasks(cx, now);
+                if (loopMonitor != null) {
+                    loopMonitor.endPhase(EventLoopStatistics.Phase.TIMERS);
+                    loopMonitor.endIteration();
+                }
 
             } catch (NodeExitException ne) {
                 // This exception is thrown by process.exit()
@@ -957,6 +1141,109 @@ public class ScriptRunner
         return ScriptStatus.OK;
     }
 
+    /**
+     * Run one iteration of the event loop on behalf of a SharedEventLoop, which has already done the "select"
+     * and read the clock. Return null if the script should keep running, or its final status.
+     */
+    ScriptStatus runTurn(Context cx, long now)
+    {
+        try {
+            if ((future != null) && future.isCancelled()) {
+                return ScriptStatus.CANCELLED;
+            }
+            if (!isLoopAlive()) {
+                return ScriptStatus.OK;
+            }
+
+            if (loopMonitor != null) {
+                loopMonitor.startIteration();
+            }
+            executeImmediateWork(cx);
+            executeNetworkCallbacks(cx, pendingKeys.iterator());
+            if (loopMonitor != null) {
+                loopMonitor.endPhase(EventLoopStatistics.Phase.NETWORK);
+            }
+            executeTimerTasks(cx, now);
+            if (loopMonitor != null) {
+                loopMonitor.endPhase(EventLoopStatistics.Phase.TIMERS);
+                loopMonitor.endIteration();
+            }
+
+            return (isLoopAlive() ? null : ScriptStatus.OK);
+
+        } catch (NodeExitException ne) {
+            return ne.getStatus();
+        } catch (RhinoException re) {
+            return new ScriptStatus(re);
+        } catch (Throwable t) {
+            log.debug("Unexpected script error: {}", t);
+            return new ScriptStatus(t);
+        }
+    }
+
+    /**
+     * Return true if a SharedEventLoop should call "runTurn" for this script right now.
+     */
+    boolean needsTurn(long now)
+    {
+        return !pendingKeys.isEmpty() || (getPollTimeout(now) <= 0L) ||
+               ((future != null) && future.isCancelled());
+    }
+
+    /**
+     * Called by a SharedEventLoop when one of the channels registered by this script is selected.
+     */
+    void addSelectedKey(SelectionKey key)
+    {
+        pendingKeys.add(key);
+    }
+
+    private boolean isLoopAlive()
+    {
+        return !tickFunctions.isEmpty() || (pinCount.get() > 0) ||
+               process.isTickTaskPending() || process.isImmediateTaskPending();
+    }
+
+    private void executeImmediateWork(Context cx)
+    {
+        // Call tick functions scheduled by process.nextTick. Node.js docs for
+        // process.nextTick say that these things run before anything else in the event loop
+        executeNextTicks(cx);
+        if (loopMonitor != null) {
+            loopMonitor.endPhase(EventLoopStatistics.Phase.NEXT_TICK);
+        }
+
+        // Call tick functions scheduled by Java code.
+        executeTicks(cx);
+        if (loopMonitor != null) {
+            loopMonitor.endPhase(EventLoopStatistics.Phase.TASKS);
+        }
+
+        // If necessary, call into the timer module to fire all the tasks set up with "setImmediate."
+        // Again, like regular Node, the docs say that these run before all I/O activity and all timers.
+        executeImmediateCallbacks(cx);
+        if (loopMonitor != null) {
+            loopMonitor.endPhase(EventLoopStatistics.Phase.IMMEDIATE);
+        }
+    }
+
+    /**
+     * Return how long the event loop may sleep before this script has more work to do.
+     */
+    long getPollTimeout(long now)
+    {
+        if (!tickFunctions.isEmpty() || process.isTickTaskPending() ||
+            process.isImmediateTaskPending() || (pinCount.get() == 0)) {
+            // Immediate work -- need to keep spinning
+            // Also keep spinning if we have no reason to keep the loop open
+            return 0L;
+        }
+        if (timers.size() == 0) {
+            return DEFAULT_DELAY;
+        }
+        return (timers.getNextExpiration() - now);
+    }
+
     private Scriptable makeError(Context cx, RhinoException re)
     {
         if ((re instanceof JavaScriptException) &&
@@ -1086,10 +1373,9 @@ public class ScriptRunner
     /**
      * Execute everything that the selector has told is is ready.
      */
-    private void executeNetworkCallbacks(Context cx)
+    private void executeNetworkCallbacks(Context cx, Iterator<SelectionKey> keys)
         throws RhinoException
     {
-        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
         while (keys.hasNext()) {
             SelectionKey selKey = keys.next();
             keys.remove();
@@ -1112,10 +1398,12 @@ public class ScriptRunner
     private void executeTimerTasks(Context cx, long now)
         throws RhinoException
     {
-        Activity timed = timerQueue.peek();
-        while ((timed != null) && (timed.timeout <= now)) {
-            timerQueue.poll();
+        Activity timed = timers.pollExpired(now);
+        while (timed != null) {
             if (!timed.cancelled) {
+                if (loopMonitor != null) {
+                    loopMonitor.timerFired(timed.timeout);
+                }
                 boolean timing = startTiming(cx);
                 try {
                     if (log.isDebugEnabled()) {
@@ -1137,10 +1425,10 @@ public class ScriptRunner
                     if (log.isDebugEnabled()) {
                         log.debug("Re-registering {} to fire at {}", timed.id, timed.timeout);
                     }
-                    timerQueue.add(timed);
+                    timers.schedule(timed);
                 }
             }
-            timed = timerQueue.peek();
+            timed = timers.pollExpired(now);
         }
     }
 
@@ -1152,7 +1440,10 @@ public class ScriptRunner
     {
         if (JavaVersion.get().hasAsyncFileIO()) {
             // Java 7 and up -- use new filesystem
-            filesystem = new AdvancedFilesystem();
+            AdvancedFilesystem afs = new AdvancedFilesystem();
+            afs.setAsyncIO(env.isAsyncFileIO());
+            afs.setAsyncExecutor(asyncPool);
+            filesystem = afs;
         } else {
             filesystem = new BasicFilesystem();
         }
@@ -1235,6 +1526,14 @@ public class ScriptRunner
         if (mod == null) {
             return null;
         }
+        if ((standbyModules != null) && (type == AbstractModuleRegistry.ModuleType.PUBLIC)) {
+            // The standby pool already created the exports in this scope
+            Scriptable prepared = standbyModules.remove(modName);
+            if ((prepared != null) && (mod instanceof PreparedModule)) {
+                ((PreparedModule)mod).attachExports(cx, prepared, this);
+                return prepared;
+            }
+        }
         Object exp = mod.registerExports(cx, scope, this);
         if (exp == null) {
             throw new AssertionError("Module " + modName + " returned a null export");
@@ -1309,22 +1608,21 @@ public class ScriptRunner
 
     private boolean startTiming(Context cx)
     {
-        if (env != null) {
-            long tl = env.getScriptTimeLimit();
-            if (tl > 0L) {
-                cx.putThreadLocal(TIMEOUT_TIMESTAMP_KEY, System.currentTimeMillis() + tl);
-                return true;
-            }
+        if (tickDeadline != null) {
+            tickDeadline.arm();
+            return true;
         }
         return false;
     }
 
     private void endTiming(Context cx)
     {
-        cx.removeThreadLocal(TIMEOUT_TIMESTAMP_KEY);
+        if (tickDeadline != null) {
+            tickDeadline.disarm();
+        }
     }
 
-    public abstract class Activity
+    public abstract static class Activity
         implements Comparable<Activity>
     {
         protected int id;
@@ -1334,6 +1632,11 @@ public class ScriptRunner
         protected boolean cancelled;
         protected Scriptable domain;
 
+        // Used by the TimerScheduler implementations to link timers together without allocating
+        Activity timerNext;
+        Activity timerPrev;
+        int timerSlot = -1;
+
         abstract void execute(Context cx);
 
         int getId() {
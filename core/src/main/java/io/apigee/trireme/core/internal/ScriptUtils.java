@@ -21,13 +21,29 @@
  */
 package io.apigee.trireme.core.internal;
 
+import io.apigee.trireme.core.BytecodeCache;
+import io.apigee.trireme.core.ClassCache;
+import io.apigee.trireme.core.NodeEnvironment;
+import io.apigee.trireme.core.Utils;
+import io.apigee.trireme.kernel.Charsets;
+import org.mozilla.javascript.CompilerEnvirons;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.EvaluatorException;
 import org.mozilla.javascript.Script;
 import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.optimizer.ClassCompiler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.regex.Pattern;
 
 /**
@@ -49,6 +65,21 @@ public class ScriptUtils
      */
     private static final int MAX_COMPILED_SCRIPT_LENGTH = 128 * 1024;
 
+    /** Scripts that are compiled for a BytecodeCache get class names that start with this. */
+    public static final String CACHED_CLASS_PREFIX = "io.apigee.trireme.cached.Script_";
+
+    public static final String CACHE_KEY_HASH = "SHA-256";
+
+    /**
+     * Scripts that are being compiled for each ClassCache that can't coalesce compilation itself, so that
+     * threads that need the same script at the same time only compile it once. Each cache has its own map,
+     * so that the result always lands in the cache of the thread that waited for it, and each map is keyed
+     * by the compiler settings as well as the cache key, so that an environment with a script time limit
+     * never gets a script that was compiled without instruction counting.
+     */
+    private static final Map<ClassCache, ConcurrentHashMap<String, FutureTask<Script>>> compiling =
+        new WeakHashMap<ClassCache, ConcurrentHashMap<String, FutureTask<Script>>>();
+
     /**
      * Try to compile the script, and return null if the script is too large.
      * However, throw if compilation fails.
@@ -82,6 +113,280 @@ public class ScriptUtils
         }
     }
 
+    /**
+     * Compile the script using the environment's precompiled scripts and ClassCache, if it has them.
+     * The script is cached using a hash of its source code, so scripts with the same code but a different
+     * file name share the same compiled class. Return null if the script is too large to compile, and throw
+     * if compilation fails.
+     */
+    public static Script getCompiledScript(Context cx, NodeEnvironment env, String code, String fileName)
+    {
+        return getCompiledScript(cx, env, code, fileName, false);
+    }
+
+    /**
+     * Compile the script like "getCompiledScript," except that the script is cached using a hash of both
+     * its file name and its source code, so that each file name gets its own compiled class and stack traces
+     * always show the right one.
+     */
+    public static Script getCompiledNamedScript(Context cx, NodeEnvironment env, String code, String fileName)
+    {
+        return getCompiledScript(cx, env, code, fileName, true);
+    }
+
+    private static Script getCompiledScript(final Context cx, NodeEnvironment env,
+                                            final String code, final String fileName,
+                                            boolean keyByName)
+    {
+        ClassCache cache = env.getClassCache();
+        PrecompiledScripts precompiled = env.getPrecompiledScripts();
+
+        if ((cache == null) && precompiled.isEmpty()) {
+            return tryCompile(cx, code, fileName);
+        }
+
+        // Precompiled scripts are always found by the hash of the code alone
+        String codeKey = null;
+        if (!precompiled.isEmpty()) {
+            codeKey = makeCacheKey(code);
+            if (codeKey != null) {
+                Script script = precompiled.getScript(cx, codeKey);
+                if (script != null) {
+                    return script;
+                }
+            }
+        }
+        if (cache == null) {
+            return tryCompile(cx, code, fileName);
+        }
+
+        final String cacheKey;
+        if (keyByName) {
+            cacheKey = makeCacheKey(fileName, code);
+        } else if (codeKey != null) {
+            cacheKey = codeKey;
+        } else {
+            cacheKey = makeCacheKey(code);
+        }
+        if (cacheKey == null) {
+            return tryCompile(cx, code, fileName);
+        }
+
+        if (cache instanceof BoundedClassCache) {
+            // This cache compiles for us, so that threads compiling the same code at once only do it once
+            return ((BoundedClassCache)cache).getCachedScript(cacheKey, code.length(),
+                new BoundedClassCache.ScriptCompiler() {
+                    @Override
+                    public Script compile()
+                    {
+                        return tryCompile(cx, code, fileName);
+                    }
+                });
+        }
+
+        Script compiled = cache.getCachedScript(cacheKey);
+        if (compiled != null) {
+            return compiled;
+        }
+        return compileCoalesced(cx, cache, code, fileName, cacheKey);
+    }
+
+    /**
+     * Compile the script and add it to the cache, unless another thread is already compiling the same key,
+     * in which case wait for it instead.
+     */
+    private static Script compileCoalesced(final Context cx, final ClassCache cache,
+                                           final String code, final String fileName, final String cacheKey)
+    {
+        FutureTask<Script> task = new FutureTask<Script>(new Callable<Script>()
+        {
+            @Override
+            public Script call()
+            {
+                Script compiled;
+                if (cache instanceof BytecodeCache) {
+                    compiled = compileBytecode(cx, code, fileName, cacheKey, (BytecodeCache)cache);
+                } else {
+                    compiled = tryCompile(cx, code, fileName);
+                }
+                if (compiled != null) {
+                    cache.putCachedScript(cacheKey, compiled);
+                }
+                // Still may be null at this point...
+                return compiled;
+            }
+        });
+
+        ConcurrentHashMap<String, FutureTask<Script>> inFlight = getCompiling(cache);
+        String taskKey = getCompilerSettings(cx) + ':' + cacheKey;
+        FutureTask<Script> existing = inFlight.putIfAbsent(taskKey, task);
+        if (existing == null) {
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(taskKey, task);
+            }
+            existing = task;
+        }
+
+        try {
+            return existing.get();
+        } catch (ExecutionException ee) {
+            // Compile it again so that the error is reported in the right place
+            return tryCompile(cx, code, fileName);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return tryCompile(cx, code, fileName);
+        }
+    }
+
+    private static ConcurrentHashMap<String, FutureTask<Script>> getCompiling(ClassCache cache)
+    {
+        synchronized (compiling) {
+            ConcurrentHashMap<String, FutureTask<Script>> m = compiling.get(cache);
+            if (m == null) {
+                m = new ConcurrentHashMap<String, FutureTask<Script>>();
+                compiling.put(cache, m);
+            }
+            return m;
+        }
+    }
+
+    /**
+     * Describe the compiler settings that affect the bytecode, so that a script compiled for a different
+     * optimization level, language version, or without the instruction counting needed for script
+     * timeouts, is never used in place of one compiled with the current settings.
+     */
+    public static String getCompilerSettings(Context cx)
+    {
+        if (cx == null) {
+            return "";
+        }
+        CompilerEnvirons env = new CompilerEnvirons();
+        env.initFromContext(cx);
+        return "opt=" + env.getOptimizationLevel() + ",version=" + env.getLanguageVersion() +
+            ",observer=" + env.isGenerateObserverCount() + ",debug=" + env.isGenerateDebugInfo();
+    }
+
+    /**
+     * Compile the script ourselves so that the cache gets a copy of the bytecode as well as the script.
+     */
+    private static Script compileBytecode(Context cx, String code, String fileName,
+                                          String cacheKey, BytecodeCache cache)
+    {
+        String className = makeClassName(cacheKey);
+        byte[] bytecode = tryCompileToBytecode(cx, code, fileName, className);
+        if (bytecode == null) {
+            return null;
+        }
+        cache.putCachedBytecode(cacheKey, className, bytecode);
+        return loadBytecode(className, bytecode);
+    }
+
+    /**
+     * Make the key used to cache a script, which is a base64-encoded hash of its source code. Return null
+     * if the hash is not available.
+     */
+    public static String makeCacheKey(String code)
+    {
+        return makeCacheKey(null, code);
+    }
+
+    /**
+     * Make the key used to cache a script from its file name as well as its source code.
+     */
+    public static String makeCacheKey(String fileName, String code)
+    {
+        try {
+            MessageDigest md = MessageDigest.getInstance(CACHE_KEY_HASH);
+            if (fileName != null) {
+                md.update(Utils.stringToBuffer(fileName, Charsets.UTF8));
+                md.update((byte)0);
+            }
+            md.update(Utils.stringToBuffer(code, Charsets.UTF8));
+            ByteBuffer keyBuf = ByteBuffer.wrap(md.digest());
+            return Utils.bufferToString(keyBuf, Charsets.BASE64);
+
+        } catch (NoSuchAlgorithmException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Can't calculate cache key for source code: " + e);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Make a class name for a script from its cache key, which is a base64-encoded hash. The name is in hex
+     * so that it is safe to use as a file name on a case-insensitive file system.
+     */
+    public static String makeClassName(String cacheKey)
+    {
+        return CACHED_CLASS_PREFIX + makeHexKey(cacheKey);
+    }
+
+    /**
+     * Turn a base64-encoded cache key into hex.
+     */
+    public static String makeHexKey(String cacheKey)
+    {
+        return Utils.bufferToString(Utils.stringToBuffer(cacheKey, Charsets.BASE64), Charsets.NODE_HEX);
+    }
+
+    /**
+     * Compile the script to bytecode the same way that "tryCompile" does, but return the bytecode of the
+     * generated class rather than loading it. Return null if the script is too large.
+     */
+    public static byte[] tryCompileToBytecode(Context cx, String code, String fileName, String className)
+    {
+        if (code.length() > MAX_COMPILED_SCRIPT_LENGTH) {
+            return null;
+        }
+
+        CompilerEnvirons env = new CompilerEnvirons();
+        env.initFromContext(cx);
+        ClassCompiler compiler = new ClassCompiler(env);
+        try {
+            Object[] classes = compiler.compileToClassFiles(code, fileName, 1, className);
+            if (classes.length != 2) {
+                // We only know how to cache scripts that produce exactly one class
+                return null;
+            }
+            return (byte[])classes[1];
+
+        } catch (EvaluatorException ee) {
+            if (BYTECODE_SIZE_MESSAGE.matcher(ee.getMessage()).matches()) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Source code for {} is too large -- running later in interpreted mode", fileName);
+                }
+                return null;
+            } else {
+                throw ee;
+            }
+        } catch (IllegalArgumentException ie) {
+            if (log.isDebugEnabled()) {
+                log.debug("Source code for {} failed compilation, possibly too large", fileName);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Turn bytecode produced by "tryCompileToBytecode" back into a script. Each class gets its own class
+     * loader so that it may be garbage-collected once nothing refers to the script. Throws ClassFormatError
+     * if the bytecode is not valid.
+     */
+    public static Script loadBytecode(String className, byte[] bytecode)
+    {
+        try {
+            Class<?> klass = new BytecodeLoader().define(className, bytecode);
+            return (Script)klass.newInstance();
+        } catch (InstantiationException e) {
+            throw new ClassFormatError("Cannot create cached script " + className + ": " + e);
+        } catch (IllegalAccessException e) {
+            throw new ClassFormatError("Cannot create cached script " + className + ": " + e);
+        }
+    }
+
     /**
      * Execute the script in interpreted mode.
      */
@@ -99,4 +404,20 @@ public class ScriptUtils
             cx.setOptimizationLevel(oldOpt);
         }
     }
+
+    private static final class BytecodeLoader
+        extends ClassLoader
+    {
+        BytecodeLoader()
+        {
+            super(Script.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] bytecode)
+        {
+            Class<?> c = defineClass(name, bytecode, 0, bytecode.length);
+            resolveClass(c);
+            return c;
+        }
+    }
 }
@@ -0,0 +1,267 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.core.internal;
+
+import io.apigee.trireme.core.ScriptStatus;
+import io.apigee.trireme.kernel.net.SelectorHandler;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * This is an event loop that runs many scripts on a single thread. All the scripts share one NIO Selector
+ * and one LoopClock. On each trip through the loop, we select, hand each selected key to the script that
+ * registered it, and then give every script that has work to do one "turn," which is the same as one
+ * iteration of the regular ScriptRunner main loop.
+ * </p>
+ * <p>
+ * Each script keeps its own Rhino Context, global scope, module registry, and timers. We enter the script's
+ * Context before each turn and exit it afterwards, so a script never sees state from another script.
+ * However, a script that blocks the thread (for instance, with a long computation or a synchronous
+ * file operation) delays every other script on the same loop, so this mode is meant for many small scripts.
+ * </p>
+ */
+public class SharedEventLoop
+    implements Runnable
+{
+    private static final Logger log = LoggerFactory.getLogger(SharedEventLoop.class);
+
+    private static final long DEFAULT_DELAY = Integer.MAX_VALUE;
+
+    private final ContextFactory contextFactory;
+    private final Selector selector;
+    private final LoopClock clock = new LoopClock();
+    private final ConcurrentLinkedQueue<ScriptRunner> newScripts = new ConcurrentLinkedQueue<ScriptRunner>();
+    private final ArrayList<ScriptRunner> scripts = new ArrayList<ScriptRunner>();
+    private final AtomicInteger scriptCount = new AtomicInteger();
+
+    private volatile boolean closed;
+
+    public SharedEventLoop(ContextFactory contextFactory)
+        throws IOException
+    {
+        this.contextFactory = contextFactory;
+        this.selector = Selector.open();
+    }
+
+    public Selector getSelector() {
+        return selector;
+    }
+
+    public LoopClock getClock() {
+        return clock;
+    }
+
+    /**
+     * Return the number of scripts that have been submitted to this loop and have not yet exited.
+     * This may be called from any thread.
+     */
+    public int getScriptCount() {
+        return scriptCount.get();
+    }
+
+    /**
+     * Start running the script on this loop. This may be called from any thread.
+     */
+    public void submit(ScriptRunner runner)
+    {
+        scriptCount.incrementAndGet();
+        newScripts.offer(runner);
+        selector.wakeup();
+    }
+
+    /**
+     * Stop the loop. Any scripts that are still running will be cancelled.
+     */
+    public void close()
+    {
+        closed = true;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run()
+    {
+        long pollTimeout = 0L;
+        try {
+            while (!closed) {
+                if (pollTimeout > 0L) {
+                    selector.select(pollTimeout);
+                } else {
+                    selector.selectNow();
+                }
+
+                // Every script uses this value, and it is only read again after a script has had a turn.
+                long now = clock.update();
+
+                startNewScripts();
+                dispatchSelectedKeys();
+                pollTimeout = runTurns(now);
+            }
+        } catch (IOException ioe) {
+            log.error("Error in shared event loop: {}", ioe);
+        } finally {
+            for (ScriptRunner runner : scripts) {
+                finishScript(runner, ScriptStatus.CANCELLED);
+            }
+            scripts.clear();
+            ScriptRunner runner;
+            while ((runner = newScripts.poll()) != null) {
+                scriptCount.decrementAndGet();
+                runner.getFuture()._setStatus(ScriptStatus.CANCELLED);
+            }
+            try {
+                selector.close();
+            } catch (IOException ioe) {
+                log.debug("Error closing selector", ioe);
+            }
+        }
+    }
+
+    private void startNewScripts()
+    {
+        ScriptRunner runner;
+        while ((runner = newScripts.poll()) != null) {
+            ScriptStatus status;
+            try {
+                // A new Context is created because none is associated with this thread right now.
+                Context cx = contextFactory.enterContext();
+                try {
+                    runner.setLoopContext(cx);
+                    status = runner.startScript(cx);
+                } finally {
+                    Context.exit();
+                }
+            } catch (RuntimeException re) {
+                // Only fail this script, and not the others on the loop
+                log.error("Error starting script on shared event loop: {}", re);
+                status = new ScriptStatus(re);
+            }
+
+            if (status == null) {
+                scripts.add(runner);
+            } else {
+                finishScript(runner, status);
+            }
+        }
+    }
+
+    private void dispatchSelectedKeys()
+    {
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            ((Registration)key.attachment()).runner.addSelectedKey(key);
+        }
+    }
+
+    /**
+     * Give each script that has work to do one trip through its event loop, and return the amount of time
+     * that we may wait before one of them needs another turn.
+     */
+    private long runTurns(long now)
+    {
+        long pollTimeout = DEFAULT_DELAY;
+        Iterator<ScriptRunner> it = scripts.iterator();
+        while (it.hasNext()) {
+            ScriptRunner runner = it.next();
+            ScriptStatus status = null;
+
+            try {
+                if (runner.needsTurn(now)) {
+                    Context cx = contextFactory.enterContext(runner.getLoopContext());
+                    try {
+                        status = runner.runTurn(cx, now);
+                    } finally {
+                        Context.exit();
+                    }
+
+                    // The next script's time limit starts from the cached clock, so don't charge it for this turn
+                    now = clock.update();
+                }
+
+                if (status == null) {
+                    pollTimeout = Math.min(pollTimeout, runner.getPollTimeout(now));
+                    continue;
+                }
+            } catch (RuntimeException re) {
+                // Only fail this script, and not the others on the loop
+                log.error("Error running script on shared event loop: {}", re);
+                status = new ScriptStatus(re);
+                now = clock.update();
+            }
+
+            it.remove();
+            finishScript(runner, status);
+        }
+        return pollTimeout;
+    }
+
+    private void finishScript(ScriptRunner runner, ScriptStatus status)
+    {
+        Context cx = contextFactory.enterContext(runner.getLoopContext());
+        try {
+            status = runner.finishScript(cx, status);
+        } catch (Throwable t) {
+            log.debug("Error finishing script: {}", t);
+            status = new ScriptStatus(t);
+        } finally {
+            Context.exit();
+        }
+
+        scriptCount.decrementAndGet();
+        runner.getFuture()._setStatus(status);
+    }
+
+    /**
+     * This is attached to each SelectionKey so that we know which script it belongs to.
+     */
+    static final class Registration
+        implements SelectorHandler
+    {
+        final ScriptRunner runner;
+        final SelectorHandler handler;
+
+        Registration(ScriptRunner runner, SelectorHandler handler)
+        {
+            this.runner = runner;
+            this.handler = handler;
+        }
+
+        @Override
+        public void selected(SelectionKey key)
+        {
+            handler.selected(key);
+        }
+    }
+}
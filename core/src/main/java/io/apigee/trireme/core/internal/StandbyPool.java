@@ -0,0 +1,293 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.core.internal;
+
+import io.apigee.trireme.core.NodeModule;
+import io.apigee.trireme.core.StandbyPoolStatistics;
+import io.apigee.trireme.core.modules.NativeModule;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextAction;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.EvaluatorException;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This is a pool of global scopes that are ready for new scripts, so that they don't have to wait for them
+ * to be set up. For each version of Node.js, the pool keeps a few scopes that already have the standard
+ * JavaScript objects in them, along with the function that "trireme.js" returns when it is run in that scope,
+ * and the exports of the "native_module" and "process" modules, which every script loads first.
+ * When a script takes one, a background thread makes another.
+ * <p>
+ * Those exports are created without a runtime. When the script starts, ScriptRunner attaches them to
+ * itself, which fills in the parts that depend on the script, such as the environment variables.
+ * The arguments, the filesystem, and the rest of the modules are still set up when the script starts.
+ * </p>
+ */
+public class StandbyPool
+    implements StandbyPoolStatistics
+{
+    private static final Logger log = LoggerFactory.getLogger(StandbyPool.class);
+
+    private static final String PROCESS_MODULE = "process";
+
+    private final int standbyCount;
+    private final ContextFactory contextFactory;
+    private final ExecutorService refiller;
+    private final ConcurrentHashMap<Object, VersionPool> pools = new ConcurrentHashMap<Object, VersionPool>();
+    private volatile boolean closed;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong prepareNanos = new AtomicLong();
+
+    public StandbyPool(int standbyCount, ContextFactory contextFactory, ExecutorService refiller)
+    {
+        this.standbyCount = standbyCount;
+        this.contextFactory = contextFactory;
+        this.refiller = refiller;
+    }
+
+    /**
+     * Start filling the pool for the version of Node.js that the registry implements, so that the first
+     * scripts don't miss.
+     */
+    public void warm(AbstractModuleRegistry registry)
+    {
+        getVersionPool(registry).refill();
+    }
+
+    /**
+     * Return a global scope that is ready to use for the version of Node.js that the registry implements,
+     * or null if there isn't one, in which case the caller must set one up itself.
+     */
+    public Prepared take(AbstractModuleRegistry registry)
+    {
+        VersionPool s = getVersionPool(registry);
+        Prepared r = s.ready.poll();
+        if (r == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        s.refill();
+        return r;
+    }
+
+    /**
+     * Stop filling the pool and throw away everything in it.
+     */
+    public void close()
+    {
+        closed = true;
+        for (VersionPool s : pools.values()) {
+            s.ready.clear();
+        }
+        refiller.shutdown();
+    }
+
+    private VersionPool getVersionPool(AbstractModuleRegistry registry)
+    {
+        Object key = registry.getImplementation();
+        VersionPool s = pools.get(key);
+        if (s == null) {
+            s = new VersionPool(registry);
+            VersionPool existing = pools.putIfAbsent(key, s);
+            if (existing != null) {
+                s = existing;
+            }
+        }
+        return s;
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    @Override
+    public double getHitRate()
+    {
+        long h = hits.get();
+        long total = h + misses.get();
+        return (total == 0L) ? 0.0 : ((double)h / (double)total);
+    }
+
+    @Override
+    public int getIdleCount()
+    {
+        int count = 0;
+        for (VersionPool s : pools.values()) {
+            count += s.ready.size();
+        }
+        return count;
+    }
+
+    @Override
+    public int getStandbyCount() {
+        return standbyCount;
+    }
+
+    @Override
+    public long getTotalPrepareTime() {
+        return TimeUnit.NANOSECONDS.toMillis(prepareNanos.get());
+    }
+
+    /**
+     * A global scope that is ready to run "trireme.js."
+     */
+    public static final class Prepared
+    {
+        private final ScriptableObject scope;
+        private final Function main;
+        private final Map<String, Scriptable> modules;
+
+        Prepared(ScriptableObject scope, Function main, Map<String, Scriptable> modules)
+        {
+            this.scope = scope;
+            this.main = main;
+            this.modules = modules;
+        }
+
+        public ScriptableObject getScope() {
+            return scope;
+        }
+
+        /**
+         * The function returned by "trireme.js," which takes "process" and starts the script.
+         */
+        public Function getMain() {
+            return main;
+        }
+
+        /**
+         * Exports that were created by PreparedModule.prepareExports, by module name.
+         */
+        public Map<String, Scriptable> getModules() {
+            return modules;
+        }
+    }
+
+    private final class VersionPool
+        implements Runnable
+    {
+        private final AbstractModuleRegistry registry;
+        final LinkedBlockingQueue<Prepared> ready = new LinkedBlockingQueue<Prepared>(standbyCount);
+        private final AtomicBoolean filling = new AtomicBoolean();
+
+        VersionPool(AbstractModuleRegistry registry)
+        {
+            this.registry = registry;
+        }
+
+        void refill()
+        {
+            if (closed || (ready.size() >= standbyCount) || !filling.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                refiller.execute(this);
+            } catch (RejectedExecutionException ree) {
+                filling.set(false);
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            try {
+                contextFactory.call(new ContextAction()
+                {
+                    @Override
+                    public Object run(Context cx)
+                    {
+                        try {
+                            fill(cx);
+                        } catch (InvocationTargetException e) {
+                            throw new EvaluatorException(e.toString());
+                        } catch (IllegalAccessException e) {
+                            throw new EvaluatorException(e.toString());
+                        } catch (InstantiationException e) {
+                            throw new EvaluatorException(e.toString());
+                        }
+                        return null;
+                    }
+                });
+            } catch (Throwable t) {
+                // Scripts will just set up their own scopes
+                log.debug("Error preparing a standby scope: {}", t);
+                return;
+            } finally {
+                filling.set(false);
+            }
+            // A script may have taken one after we finished but before we said so
+            refill();
+        }
+
+        private void fill(Context cx)
+            throws InvocationTargetException, IllegalAccessException, InstantiationException
+        {
+            registry.loadRoot(cx);
+            while (!closed && (ready.size() < standbyCount)) {
+                long start = System.nanoTime();
+                ScriptableObject scope = cx.initStandardObjects();
+                Function main = (Function)registry.getMainScript().exec(cx, scope);
+                // In the same order as ScriptRunner.initGlobals
+                HashMap<String, Scriptable> modules = new HashMap<String, Scriptable>();
+                prepareModule(cx, scope, NativeModule.MODULE_NAME, modules);
+                prepareModule(cx, scope, PROCESS_MODULE, modules);
+                prepareNanos.addAndGet(System.nanoTime() - start);
+                if (!ready.offer(new Prepared(scope, main, modules))) {
+                    break;
+                }
+            }
+        }
+
+        private void prepareModule(Context cx, Scriptable scope, String name, Map<String, Scriptable> modules)
+            throws InvocationTargetException, IllegalAccessException, InstantiationException
+        {
+            NodeModule mod = registry.get(name);
+            if (mod instanceof PreparedModule) {
+                modules.put(name, ((PreparedModule)mod).prepareExports(cx, scope));
+            }
+        }
+    }
+}
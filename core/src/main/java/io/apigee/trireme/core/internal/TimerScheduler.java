@@ -0,0 +1,59 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.core.internal;
+
+/**
+ * This interface abstracts the data structure that ScriptRunner uses to keep track of timers. All methods
+ * are called only from the script thread, so implementations need not be synchronized.
+ */
+public interface TimerScheduler
+{
+    /**
+     * Add a timer to the schedule. It will become eligible to fire once the loop time reaches
+     * its "timeout" value.
+     */
+    void schedule(ScriptRunner.Activity timer);
+
+    /**
+     * Remove a timer that was cancelled before it fired. Implementations that cannot remove an
+     * arbitrary entry cheaply may leave it in place, since cancelled timers are skipped when they expire.
+     */
+    void cancel(ScriptRunner.Activity timer);
+
+    /**
+     * Remove and return the next timer whose timeout is less than or equal to "now," or null if
+     * no timers have expired.
+     */
+    ScriptRunner.Activity pollExpired(long now);
+
+    /**
+     * Return the time at which the loop should next check for expired timers, or Long.MAX_VALUE
+     * if there are no timers. The result may be earlier than the actual timeout of the next timer,
+     * but it must never be later.
+     */
+    long getNextExpiration();
+
+    /**
+     * Return the number of timers that are currently scheduled.
+     */
+    int size();
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.core.internal;
+
+/**
+ * <p>
+ * This is a hierarchical timer wheel, similar to the one in the Linux kernel. There are four levels of
+ * 64 slots each. A slot on level 0 covers one millisecond, a slot on level 1 covers 64 milliseconds, and
+ * so on, so the whole wheel covers about 4.6 hours. Timers that are further out than that are placed
+ * on the top level and simply re-inserted each time that the wheel comes around to them.
+ * </p>
+ * <p>
+ * Each slot is a doubly-linked list that is threaded through the Activity objects themselves, so inserting
+ * a timer and cancelling it are both O(1) and do not allocate. A bitmap of occupied slots per level lets us
+ * find the next slot that needs attention without scanning, and lets us jump over idle periods without
+ * stepping through every millisecond. When the wheel reaches a slot on a higher level, every timer in it
+ * is "cascaded" down to a lower level.
+ * </p>
+ */
+public class TimerWheelScheduler
+    implements TimerScheduler
+{
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    // The last list holds timers that have already expired but have not been returned yet
+    private static final int EXPIRED = LEVELS * SLOTS;
+
+    private final ScriptRunner.Activity[] heads = new ScriptRunner.Activity[EXPIRED + 1];
+    private final ScriptRunner.Activity[] tails = new ScriptRunner.Activity[EXPIRED + 1];
+    private final long[] occupied = new long[LEVELS];
+
+    private long currentTick;
+    private int size;
+
+    /**
+     * Create a new wheel. "now" must come from the same clock that is used to set the timeouts of the
+     * timers and that is passed to "pollExpired".
+     */
+    public TimerWheelScheduler(long now)
+    {
+        this.currentTick = now;
+    }
+
+    @Override
+    public void schedule(ScriptRunner.Activity timer)
+    {
+        insert(timer);
+        size++;
+    }
+
+    @Override
+    public void cancel(ScriptRunner.Activity timer)
+    {
+        if (timer.timerSlot >= 0) {
+            unlink(timer);
+            size--;
+        }
+    }
+
+    @Override
+    public ScriptRunner.Activity pollExpired(long now)
+    {
+        while (heads[EXPIRED] == null) {
+            if (size == 0) {
+                if (now > currentTick) {
+                    currentTick = now;
+                }
+                return null;
+            }
+
+            long next = getNextTick();
+            if (next > now) {
+                // Nothing can change until "next," so it's safe to skip ahead
+                if (now > currentTick) {
+                    currentTick = now;
+                }
+                return null;
+            }
+            currentTick = next;
+            processTick();
+        }
+
+        ScriptRunner.Activity timer = heads[EXPIRED];
+        unlink(timer);
+        size--;
+        return timer;
+    }
+
+    @Override
+    public long getNextExpiration()
+    {
+        if (heads[EXPIRED] != null) {
+            return currentTick;
+        }
+        if (size == 0) {
+            return Long.MAX_VALUE;
+        }
+        return getNextTick();
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    private void insert(ScriptRunner.Activity timer)
+    {
+        long delta = timer.timeout - currentTick;
+        if (delta <= 0L) {
+            link(EXPIRED, timer);
+            return;
+        }
+
+        int level = 0;
+        while ((level < (LEVELS - 1)) && (delta >= (1L << (SLOT_BITS * (level + 1))))) {
+            level++;
+        }
+        int index = (int)((timer.timeout >> (SLOT_BITS * level)) & SLOT_MASK);
+        link((level * SLOTS) + index, timer);
+        occupied[level] |= (1L << index);
+    }
+
+    /**
+     * Return the next tick at which an occupied slot on any level must be processed. For level 0, this
+     * is the exact expiration time of the timers in the slot. For higher levels, it's the time at which
+     * the slot must be cascaded.
+     */
+    private long getNextTick()
+    {
+        long next = Long.MAX_VALUE;
+        for (int level = 0; level < LEVELS; level++) {
+            if (occupied[level] == 0L) {
+                continue;
+            }
+            int shift = SLOT_BITS * level;
+            long base = currentTick >> shift;
+            int current = (int)(base & SLOT_MASK);
+            // Rotate so that the slot after the current one is bit zero. The current slot itself, if
+            // occupied, belongs to the next trip around the wheel.
+            long rotated = Long.rotateRight(occupied[level], (current + 1) & SLOT_MASK);
+            long tick = (base + Long.numberOfTrailingZeros(rotated) + 1) << shift;
+            if (tick < next) {
+                next = tick;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Handle the arrival of the wheel at "currentTick." Cascade higher levels first so that any timers that
+     * land on level 0 for this tick are expired in the same pass.
+     */
+    private void processTick()
+    {
+        for (int level = LEVELS - 1; level > 0; level--) {
+            int shift = SLOT_BITS * level;
+            if ((currentTick & ((1L << shift) - 1L)) == 0L) {
+                int slot = (level * SLOTS) + (int)((currentTick >> shift) & SLOT_MASK);
+                ScriptRunner.Activity timer = detach(slot);
+                while (timer != null) {
+                    ScriptRunner.Activity next = timer.timerNext;
+                    timer.timerNext = null;
+                    timer.timerPrev = null;
+                    insert(timer);
+                    timer = next;
+                }
+            }
+        }
+
+        ScriptRunner.Activity timer = detach((int)(currentTick & SLOT_MASK));
+        while (timer != null) {
+            ScriptRunner.Activity next = timer.timerNext;
+            timer.timerNext = null;
+            timer.timerPrev = null;
+            link(EXPIRED, timer);
+            timer = next;
+        }
+    }
+
+    private ScriptRunner.Activity detach(int slot)
+    {
+        ScriptRunner.Activity head = heads[slot];
+        heads[slot] = null;
+        tails[slot] = null;
+        occupied[slot >> SLOT_BITS] &= ~(1L << (slot & SLOT_MASK));
+        return head;
+    }
+
+    private void link(int slot, ScriptRunner.Activity timer)
+    {
+        ScriptRunner.Activity tail = tails[slot];
+        timer.timerSlot = slot;
+        timer.timerPrev = tail;
+        timer.timerNext = null;
+        if (tail == null) {
+            heads[slot] = timer;
+        } else {
+            tail.timerNext = timer;
+        }
+        tails[slot] = timer;
+    }
+
+    private void unlink(ScriptRunner.Activity timer)
+    {
+        int slot = timer.timerSlot;
+        if (timer.timerPrev == null) {
+            heads[slot] = timer.timerNext;
+        } else {
+            timer.timerPrev.timerNext = timer.timerNext;
+        }
+        if (timer.timerNext == null) {
+            tails[slot] = timer.timerPrev;
+        } else {
+            timer.timerNext.timerPrev = timer.timerPrev;
+        }
+        timer.timerNext = null;
+        timer.timerPrev = null;
+        timer.timerSlot = -1;
+
+        if ((slot < EXPIRED) && (heads[slot] == null)) {
+            occupied[slot >> SLOT_BITS] &= ~(1L << (slot & SLOT_MASK));
+        }
+    }
+}
@@ -26,8 +26,10 @@ import io.apigee.trireme.kernel.Charsets;
 import io.apigee.trireme.kernel.crypto.CryptoAlgorithms;
 import io.apigee.trireme.kernel.crypto.CryptoService;
 import io.apigee.trireme.core.InternalNodeModule;
+import io.apigee.trireme.core.ScriptTask;
 import io.apigee.trireme.core.Utils;
 import io.apigee.trireme.core.NodeRuntime;
+import io.apigee.trireme.core.internal.ScriptRunner;
 import io.apigee.trireme.core.modules.crypto.CipherImpl;
 import io.apigee.trireme.core.modules.crypto.ConnectionImpl;
 import io.apigee.trireme.core.modules.crypto.DHGroupImpl;
@@ -60,6 +62,8 @@ import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.Random;
 import java.util.ServiceLoader;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 import static io.apigee.trireme.core.ArgUtils.*;
 
@@ -168,8 +172,24 @@ public class Crypto
     {
         public static final String CLASS_NAME = "_cryptoClass";
 
-        private static final SecureRandom secureRandom = new SecureRandom();
-        private static final Random pseudoRandom = new Random();
+        // SecureRandom and Random are both thread-safe, but they synchronize on every call, so give each
+        // thread its own rather than have every script and pool thread contend for one.
+        private static final ThreadLocal<Random> secureRandom = new ThreadLocal<Random>()
+        {
+            @Override
+            protected Random initialValue()
+            {
+                return new SecureRandom();
+            }
+        };
+        private static final ThreadLocal<Random> pseudoRandom = new ThreadLocal<Random>()
+        {
+            @Override
+            protected Random initialValue()
+            {
+                return new Random();
+            }
+        };
 
         private NodeRuntime runtime;
 
@@ -179,6 +199,52 @@ public class Crypto
             return CLASS_NAME;
         }
 
+        /**
+         * Return the pool that runs CPU-intensive crypto operations that were given a callback.
+         */
+        private static ExecutorService getCryptoPool(NodeRuntime runtime)
+        {
+            ExecutorService pool = runtime.getEnvironment().getCryptoPool();
+            return (pool == null ? runtime.getAsyncPool() : pool);
+        }
+
+        /**
+         * Run the work in the crypto pool, keeping the script pinned until it is done. If the pool won't
+         * take it, for instance because the environment is shutting down, unpin the script and pass the
+         * error to the callback in the script thread instead.
+         */
+        private static void executeInPool(final NodeRuntime runtime, Object domain,
+                                          final Function callback, final Scriptable thisObj,
+                                          final Runnable work)
+        {
+            runtime.pin();
+            try {
+                getCryptoPool(runtime).execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try {
+                            work.run();
+                        } finally {
+                            runtime.unPin();
+                        }
+                    }
+                });
+            } catch (final RejectedExecutionException ree) {
+                runtime.unPin();
+                runtime.enqueueTask(new ScriptTask()
+                {
+                    @Override
+                    public void execute(Context cx, Scriptable scope)
+                    {
+                        callback.call(cx, thisObj, null,
+                                      new Object[] { Utils.makeErrorObject(cx, thisObj, ree.toString()) });
+                    }
+                }, domain);
+            }
+        }
+
         @JSFunction
         @SuppressWarnings("unused")
         public static Object randomBytes(Context cx, Scriptable thisObj, Object[] args, Function func)
@@ -193,7 +259,8 @@ public class Crypto
             return randomBytesCommon(cx, thisObj, args, func, pseudoRandom);
         }
 
-        private static Object randomBytesCommon(Context cx, Scriptable thisObj, Object[] args, Function func, Random randomImpl) {
+        private static Object randomBytesCommon(Context cx, final Scriptable thisObj, Object[] args, Function func,
+                                                final ThreadLocal<Random> randomImpl) {
             CryptoImpl thisClass = (CryptoImpl) func.getParentScope();
 
             // the tests are picky about what can be passed in as size -- only a valid number
@@ -210,20 +277,38 @@ public class Crypto
                 }
             }
 
-            Function callback = objArg(args, 1, Function.class, false);
-
-            byte[] randomBytes = new byte[sizeNum.intValue()];
-            randomImpl.nextBytes(randomBytes);
-            Buffer.BufferImpl randomBytesBuffer = Buffer.BufferImpl.newBuffer(cx, thisObj, randomBytes);
+            final Function callback = objArg(args, 1, Function.class, false);
+            final int size = sizeNum.intValue();
 
-            if (callback != null) {
-                // TODO: what exception can be returned here?
-                thisClass.runtime.enqueueCallback(callback, callback, thisObj, thisClass.runtime.getDomain(),
-                        new Object[] { null, randomBytesBuffer });
-                return Undefined.instance;
-            } else {
-                return randomBytesBuffer;
+            if (callback == null) {
+                byte[] randomBytes = new byte[size];
+                randomImpl.get().nextBytes(randomBytes);
+                return Buffer.BufferImpl.newBuffer(cx, thisObj, randomBytes);
             }
+
+            // Generate the bytes in the crypto pool and only create the buffer back in the script thread
+            final NodeRuntime runtime = thisClass.runtime;
+            final Object domain = runtime.getDomain();
+            executeInPool(runtime, domain, callback, thisObj, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    final byte[] randomBytes = new byte[size];
+                    randomImpl.get().nextBytes(randomBytes);
+                    runtime.enqueueTask(new ScriptTask()
+                    {
+                        @Override
+                        public void execute(Context cx, Scriptable scope)
+                        {
+                            Buffer.BufferImpl randomBytesBuffer =
+                                Buffer.BufferImpl.newBuffer(cx, thisObj, randomBytes);
+                            callback.call(cx, callback, thisObj, new Object[] { null, randomBytesBuffer });
+                        }
+                    }, domain);
+                }
+            });
+            return Undefined.instance;
         }
 
         @JSFunction
@@ -240,48 +325,107 @@ public class Crypto
             return cx.newArray(thisObj, HashImpl.SUPPORTED_ALGORITHMS.toArray());
         }
 
+        /**
+         * hash(algorithm, data, inputEncoding, outputEncoding): Hash a string or buffer in one call.
+         */
         @JSFunction
         @SuppressWarnings("unused")
-        public static Scriptable PBKDF2(Context cx, Scriptable thisObj, Object[] args, Function func)
+        public static Object hash(Context cx, Scriptable thisObj, Object[] args, Function func)
+        {
+            String algorithm = stringArg(args, 0);
+            ensureArg(args, 1);
+            String encoding = stringArg(args, 2, null);
+            String outputEncoding = stringArg(args, 3, null);
+            return HashImpl.hash(cx, thisObj, algorithm, args[1], encoding, outputEncoding);
+        }
+
+        @JSFunction
+        @SuppressWarnings("unused")
+        public static Scriptable PBKDF2(Context cx, final Scriptable thisObj, Object[] args, Function func)
         {
             String pw = stringArg(args, 0);
             String saltStr = stringArg(args, 1);
-            int iterations = intArg(args, 2);
-            int keyLen = intArg(args, 3);
-            Function callback = functionArg(args, 4, false);
-            SecretKey key;
+            final int iterations = intArg(args, 2);
+            final int keyLen = intArg(args, 3);
+            final Function callback = functionArg(args, 4, false);
 
-            try {
-                SecretKeyFactory kf = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-                char[] passphrase = pw.toCharArray();
-                byte[] salt = saltStr.getBytes(Charsets.UTF8);
-                PBEKeySpec spec = new PBEKeySpec(passphrase, salt, iterations, keyLen * 8);
+            // Check arguments here like Node does, so that bad ones throw rather than go to the callback
+            if (iterations < 0) {
+                throw Utils.makeTypeError(cx, thisObj, "Bad iterations");
+            }
+            if (keyLen < 0) {
+                throw Utils.makeTypeError(cx, thisObj, "Bad key length");
+            }
 
-                try {
-                    key = kf.generateSecret(spec);
-                } finally {
-                    Arrays.fill(passphrase, '\0');
-                }
+            final char[] passphrase = pw.toCharArray();
+            final byte[] salt = saltStr.getBytes(Charsets.UTF8);
 
-            } catch (GeneralSecurityException gse) {
-                if (callback == null) {
+            if (callback == null) {
+                try {
+                    byte[] key = deriveKey(passphrase, salt, iterations, keyLen);
+                    return Buffer.BufferImpl.newBuffer(cx, thisObj, key);
+                } catch (GeneralSecurityException gse) {
                     throw Utils.makeError(cx, thisObj, gse.toString());
-                } else {
-                    callback.call(cx, thisObj, null,
-                                  new Object[] { Utils.makeErrorObject(cx, thisObj, gse.toString()) });
-                    return null;
                 }
             }
 
-            Buffer.BufferImpl keyBuf = Buffer.BufferImpl.newBuffer(cx, thisObj, key.getEncoded());
-            if (callback == null) {
-                return keyBuf;
-            }
-            callback.call(cx, thisObj, null,
-                          new Object[] { Context.getUndefinedValue(), keyBuf });
+            // Thousands of iterations can take a long time, so derive the key in the crypto pool and
+            // deliver the result back in the script thread.
+            final NodeRuntime runtime = (NodeRuntime)cx.getThreadLocal(ScriptRunner.RUNNER);
+            final Object domain = runtime.getDomain();
+            executeInPool(runtime, domain, callback, thisObj, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    byte[] key = null;
+                    String err = null;
+                    try {
+                        key = deriveKey(passphrase, salt, iterations, keyLen);
+                    } catch (GeneralSecurityException gse) {
+                        err = gse.toString();
+                    } catch (RuntimeException re) {
+                        err = re.toString();
+                    }
+
+                    final byte[] result = key;
+                    final String errMsg = err;
+                    runtime.enqueueTask(new ScriptTask()
+                    {
+                        @Override
+                        public void execute(Context cx, Scriptable scope)
+                        {
+                            if (errMsg == null) {
+                                Buffer.BufferImpl keyBuf = Buffer.BufferImpl.newBuffer(cx, thisObj, result);
+                                callback.call(cx, thisObj, null,
+                                              new Object[] { Context.getUndefinedValue(), keyBuf });
+                            } else {
+                                callback.call(cx, thisObj, null,
+                                              new Object[] { Utils.makeErrorObject(cx, thisObj, errMsg) });
+                            }
+                        }
+                    }, domain);
+                }
+            });
             return null;
         }
 
+        /**
+         * Derive a key using PBKDF2 with HMAC-SHA1, and clear the passphrase when done.
+         */
+        private static byte[] deriveKey(char[] passphrase, byte[] salt, int iterations, int keyLen)
+            throws GeneralSecurityException
+        {
+            try {
+                SecretKeyFactory kf = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
+                PBEKeySpec spec = new PBEKeySpec(passphrase, salt, iterations, keyLen * 8);
+                SecretKey key = kf.generateSecret(spec);
+                return key.getEncoded();
+            } finally {
+                Arrays.fill(passphrase, '\0');
+            }
+        }
+
         private void setRuntime(NodeRuntime runtime) {
             this.runtime = runtime;
         }
@@ -21,12 +21,10 @@
  */
 package io.apigee.trireme.core.modules;
 
-import io.apigee.trireme.core.ClassCache;
 import io.apigee.trireme.core.NodeRuntime;
 import io.apigee.trireme.core.InternalNodeModule;
 import io.apigee.trireme.core.Utils;
 import io.apigee.trireme.core.internal.ScriptUtils;
-import io.apigee.trireme.kernel.Charsets;
 import io.apigee.trireme.core.internal.ScriptRunner;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.Function;
@@ -40,9 +38,6 @@ import org.slf4j.LoggerFactory;
 import static io.apigee.trireme.core.ArgUtils.*;
 
 import java.lang.reflect.InvocationTargetException;
-import java.nio.ByteBuffer;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 
 /**
  * This implements the same "evals" module as regular Node. It's used by the "module" module
@@ -55,7 +50,7 @@ public class Evals
 {
     protected static final Logger log = LoggerFactory.getLogger(Evals.class);
 
-    public static final String CACHE_KEY_HASH = "SHA-256";
+    public static final String CACHE_KEY_HASH = ScriptUtils.CACHE_KEY_HASH;
 
     private static final Object CODE_KEY = "_compiledCode";
     private static final Object FILE_NAME_KEY = "_codeFileName";
@@ -225,41 +220,7 @@ public class Evals
         private static Script getCompiledScript(Context cx, String code, String fileName)
         {
             ScriptRunner runner = (ScriptRunner)cx.getThreadLocal(ScriptRunner.RUNNER);
-            ClassCache cache = runner.getEnvironment().getClassCache();
-
-            if (cache == null) {
-                return ScriptUtils.tryCompile(cx, code, fileName);
-            }
-
-            String cacheKey = makeCacheKey(code);
-            Script compiled = cache.getCachedScript(cacheKey);
-            if (compiled == null) {
-                compiled = ScriptUtils.tryCompile(cx, code, fileName);
-                if (compiled != null) {
-                    cache.putCachedScript(cacheKey, compiled);
-                }
-            }
-            // Still may be null at this point...
-            return compiled;
-        }
-
-
-
-        private static String makeCacheKey(String code)
-        {
-            try {
-                MessageDigest md = MessageDigest.getInstance(CACHE_KEY_HASH);
-                ByteBuffer codeBuf = Utils.stringToBuffer(code, Charsets.UTF8);
-                md.update(codeBuf);
-                ByteBuffer keyBuf = ByteBuffer.wrap(md.digest());
-                return Utils.bufferToString(keyBuf, Charsets.BASE64);
-
-            } catch (NoSuchAlgorithmException e) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Can't calculate cache key for source code: " + e);
-                }
-                return null;
-            }
+            return ScriptUtils.getCompiledScript(cx, runner.getEnvironment(), code, fileName);
         }
     }
 }
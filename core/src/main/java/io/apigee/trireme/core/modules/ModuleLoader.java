@@ -23,20 +23,24 @@ package io.apigee.trireme.core.modules;
 
 import io.apigee.trireme.core.NodeRuntime;
 import io.apigee.trireme.core.InternalNodeModule;
+import io.apigee.trireme.core.internal.ModuleCache;
 import io.apigee.trireme.core.internal.ScriptRunner;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.Function;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ScriptableObject;
 import org.mozilla.javascript.annotations.JSFunction;
+import org.mozilla.javascript.annotations.JSGetter;
 
 import static io.apigee.trireme.core.ArgUtils.*;
 
+import java.io.File;
 import java.lang.reflect.InvocationTargetException;
 
 /**
  * This internal module is used when using the "executeModule" method of NodeScript, so
- * that we can notify the runtime when the module that we're running is ready.
+ * that we can notify the runtime when the module that we're running is ready. It is also used
+ * by "module.js" to reach the module cache that is shared by all the scripts in the environment.
  */
 
 public class ModuleLoader
@@ -64,6 +68,7 @@ public class ModuleLoader
         public static final String CLASS_NAME = "_moduleLoader";
 
         private ScriptRunner runner;
+        private ModuleCache cache;
 
         @Override
         public String getClassName()
@@ -74,6 +79,46 @@ public class ModuleLoader
         void initialize(NodeRuntime runtime)
         {
             this.runner = (ScriptRunner)runtime;
+            this.cache = runner.getEnvironment().getModuleCache();
+        }
+
+        @JSGetter("cacheEnabled")
+        @SuppressWarnings("unused")
+        public boolean isCacheEnabled() {
+            return (cache != null);
+        }
+
+        /**
+         * Return 0 if the path does not exist, 1 if it is a file, and 2 if it is a directory.
+         */
+        @JSFunction
+        @SuppressWarnings("unused")
+        public static int statKind(Context cx, Scriptable thisObj, Object[] args, Function func)
+        {
+            String path = stringArg(args, 0);
+            LoaderImpl self = (LoaderImpl)thisObj;
+            File f = self.runner.translatePath(path);
+            if (f == null) {
+                return ModuleCache.NOT_FOUND;
+            }
+            return self.cache.getKind(f);
+        }
+
+        /**
+         * Return the source of the module as a string, or null if it can't be read, in which case the
+         * caller should read it the usual way so that it gets the right error.
+         */
+        @JSFunction
+        @SuppressWarnings("unused")
+        public static Object readSource(Context cx, Scriptable thisObj, Object[] args, Function func)
+        {
+            String path = stringArg(args, 0);
+            LoaderImpl self = (LoaderImpl)thisObj;
+            File f = self.runner.translatePath(path);
+            if (f == null) {
+                return null;
+            }
+            return self.cache.readSource(f);
         }
 
         @JSFunction
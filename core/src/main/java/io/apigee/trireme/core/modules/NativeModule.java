@@ -24,6 +24,7 @@ package io.apigee.trireme.core.modules;
 import io.apigee.trireme.core.NodeModule;
 import io.apigee.trireme.core.NodeRuntime;
 import io.apigee.trireme.core.internal.AbstractModuleRegistry;
+import io.apigee.trireme.core.internal.PreparedModule;
 import io.apigee.trireme.core.internal.ScriptRunner;
 import io.apigee.trireme.core.Utils;
 import org.mozilla.javascript.Context;
@@ -50,7 +51,7 @@ import java.lang.reflect.InvocationTargetException;
  * any internal modules.
  */
 public class NativeModule
-    implements NodeModule
+    implements NodeModule, PreparedModule
 {
     protected static final Logger log = LoggerFactory.getLogger(NativeModule.class);
 
@@ -68,14 +69,30 @@ public class NativeModule
     @Override
     public Scriptable registerExports(Context cx, Scriptable scope, NodeRuntime runner)
         throws InvocationTargetException, IllegalAccessException, InstantiationException
+    {
+        Scriptable nat = prepareExports(cx, scope);
+        attachExports(cx, nat, runner);
+        return nat;
+    }
+
+    @Override
+    public Scriptable prepareExports(Context cx, Scriptable scope)
+        throws InvocationTargetException, IllegalAccessException, InstantiationException
     {
         ScriptableObject.defineClass(scope, NativeImpl.class);
         ScriptableObject.defineClass(scope, ModuleImpl.class);
         NativeImpl nat = (NativeImpl)cx.newObject(scope, NativeImpl.CLASS_NAME);
-        nat.initialize(cx, runner);
+        nat.initialize(cx);
         return nat;
     }
 
+    @Override
+    public void attachExports(Context cx, Scriptable exports, NodeRuntime runner)
+    {
+        // This is an internal-only module and it's OK to use the internal interface here.
+        ((NativeImpl)exports).runner = (ScriptRunner)runner;
+    }
+
     private static ScriptRunner getRunner(Context cx)
     {
         return (ScriptRunner)cx.getThreadLocal(ScriptRunner.RUNNER);
@@ -98,10 +115,8 @@ public class NativeModule
         private boolean    loaded;
         private Scriptable cache;
 
-        void initialize(Context cx, NodeRuntime runner)
+        void initialize(Context cx)
         {
-            // This is an internal-only module and it's OK to use the internal interface here.
-            this.runner = (ScriptRunner)runner;
             this.cache = cx.newObject(this);
         }
 
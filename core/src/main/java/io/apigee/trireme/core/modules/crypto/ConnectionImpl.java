@@ -160,6 +160,7 @@ public class ConnectionImpl
         self.processor.init(ctx, self.context.getCiphers(),
                             self.context.getTrustManager());
         self.processor.setVerificationMode(self.requestCert, self.rejectUnauthorized);
+        self.processor.setHandshakeTimingCallback(self.runtime.getEnvironment().getTLSCache().getHandshakeRecorder());
     }
 
     /**
@@ -467,7 +468,8 @@ public class ConnectionImpl
     @SuppressWarnings("unused")
     public static boolean isSessionReused(Context cx, Scriptable thisObj, Object[] args, Function func)
     {
-        return false;
+        ConnectionImpl self = (ConnectionImpl)thisObj;
+        return self.processor.isSessionReused();
     }
 
     @JSFunction
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.core.modules.crypto;
+
+import io.apigee.trireme.core.Utils;
+import io.apigee.trireme.kernel.Charsets;
+
+import javax.crypto.Mac;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared code for HashImpl and MacImpl. "getInstance" searches the list of security providers every time that
+ * it is called, which costs a lot more than the hash itself for small inputs. So we look up each algorithm once,
+ * keep the result as a "prototype" that is never updated, and hand out clones of it. Implementations that
+ * can't be cloned are remembered so that we go straight to "getInstance" for them next time.
+ */
+
+class DigestSupport
+{
+    private static final Object NOT_CLONEABLE = new Object();
+
+    private static final ConcurrentHashMap<String, Object> digests = new ConcurrentHashMap<String, Object>();
+    private static final ConcurrentHashMap<String, Object> macs = new ConcurrentHashMap<String, Object>();
+
+    private DigestSupport()
+    {
+    }
+
+    static MessageDigest newDigest(String algorithm)
+        throws NoSuchAlgorithmException
+    {
+        Object proto = digests.get(algorithm);
+        if (proto instanceof MessageDigest) {
+            try {
+                return (MessageDigest)((MessageDigest)proto).clone();
+            } catch (CloneNotSupportedException e) {
+                digests.put(algorithm, NOT_CLONEABLE);
+            }
+        } else if (proto == null) {
+            // Throws if the algorithm doesn't exist, in which case we cache nothing
+            MessageDigest md = MessageDigest.getInstance(algorithm);
+            try {
+                digests.putIfAbsent(algorithm, md.clone());
+            } catch (CloneNotSupportedException e) {
+                digests.putIfAbsent(algorithm, NOT_CLONEABLE);
+            }
+            return md;
+        }
+        return MessageDigest.getInstance(algorithm);
+    }
+
+    static Mac newMac(String algorithm)
+        throws NoSuchAlgorithmException
+    {
+        Object proto = macs.get(algorithm);
+        if (proto instanceof Mac) {
+            try {
+                return (Mac)((Mac)proto).clone();
+            } catch (CloneNotSupportedException e) {
+                macs.put(algorithm, NOT_CLONEABLE);
+            }
+        } else if (proto == null) {
+            Mac mac = Mac.getInstance(algorithm);
+            try {
+                macs.putIfAbsent(algorithm, mac.clone());
+            } catch (CloneNotSupportedException e) {
+                macs.putIfAbsent(algorithm, NOT_CLONEABLE);
+            }
+            return mac;
+        }
+        return Mac.getInstance(algorithm);
+    }
+
+    /**
+     * Encode a string to be hashed. "binary," which is what Node uses when no encoding is given, is just
+     * the low byte of each character, so it is done directly rather than by going through a CharsetEncoder.
+     */
+    static byte[] encodeString(String str, String encoding)
+    {
+        Charset cs = Charsets.get().resolveCharset(encoding);
+        if (Charsets.NODE_BINARY.equals(cs)) {
+            int len = str.length();
+            byte[] bytes = new byte[len];
+            for (int i = 0; i < len; i++) {
+                bytes[i] = (byte)(str.charAt(i) & 0xff);
+            }
+            return bytes;
+        }
+
+        ByteBuffer bb = Utils.stringToBuffer(str, cs);
+        if ((bb.arrayOffset() == 0) && (bb.position() == 0) && (bb.limit() == bb.array().length)) {
+            return bb.array();
+        }
+        return Arrays.copyOfRange(bb.array(), bb.arrayOffset() + bb.position(), bb.arrayOffset() + bb.limit());
+    }
+}
@@ -83,16 +83,46 @@ public class HashImpl
     {
         String nodeAlgorithm = stringArg(args, 0);
 
+        try {
+            messageDigest = makeDigest(nodeAlgorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw Utils.makeError(cx, ctorObj, "Digest method not supported");
+        }
+    }
+
+    private static MessageDigest makeDigest(String nodeAlgorithm)
+        throws NoSuchAlgorithmException
+    {
         String jceAlgorithm = MD_ALGORITHMS.get(nodeAlgorithm);
         if (jceAlgorithm == null) {
             jceAlgorithm = nodeAlgorithm;
         }
+        return DigestSupport.newDigest(jceAlgorithm);
+    }
 
+    /**
+     * Hash a string or buffer all at once, without creating a Hash object. This is the "hash" function in the
+     * "crypto" module.
+     */
+    public static Object hash(Context cx, Scriptable scope, String nodeAlgorithm, Object data,
+                              String encoding, String outputEncoding)
+    {
+        MessageDigest md;
         try {
-            messageDigest = MessageDigest.getInstance(jceAlgorithm);
+            md = makeDigest(nodeAlgorithm);
         } catch (NoSuchAlgorithmException e) {
-            throw Utils.makeError(cx, ctorObj, "Digest method not supported");
+            throw Utils.makeError(cx, scope, "Digest method not supported");
+        }
+
+        if (data instanceof String) {
+            md.update(DigestSupport.encodeString((String)data, encoding));
+        } else if (data instanceof Buffer.BufferImpl) {
+            Buffer.BufferImpl buf = (Buffer.BufferImpl)data;
+            md.update(buf.getArray(), buf.getArrayOffset(), buf.getLength());
+        } else {
+            throw Utils.makeTypeError(cx, scope, "Data must be a string or a buffer");
         }
+        return encodeDigest(cx, scope, md.digest(), outputEncoding);
     }
 
     @JSFunction
@@ -104,11 +134,7 @@ public class HashImpl
         String encoding = stringArg(args, 1, null);
 
         if (args[0] instanceof String) {
-            ByteBuffer bb =
-                Utils.stringToBuffer(stringArg(args, 0),
-                                     Charsets.get().resolveCharset(encoding));
-            thisClass.messageDigest.update(bb.array(), bb.arrayOffset(),
-                                           bb.limit());
+            thisClass.messageDigest.update(DigestSupport.encodeString((String)args[0], encoding));
         } else {
             Buffer.BufferImpl buf = objArg(args, 0, Buffer.BufferImpl.class, true);
             thisClass.messageDigest.update(buf.getArray(), buf.getArrayOffset(), buf.getLength());
@@ -122,9 +148,13 @@ public class HashImpl
         HashImpl thisClass = (HashImpl) thisObj;
         String encoding = stringArg(args, 0, null);
 
-        byte[] digest = thisClass.messageDigest.digest();
+        return encodeDigest(cx, thisObj, thisClass.messageDigest.digest(), encoding);
+    }
+
+    static Object encodeDigest(Context cx, Scriptable scope, byte[] digest, String encoding)
+    {
         if ((encoding == null) || "buffer".equals(encoding)) {
-            return Buffer.BufferImpl.newBuffer(cx, thisObj, digest);
+            return Buffer.BufferImpl.newBuffer(cx, scope, digest);
         }
 
         ByteBuffer bb = ByteBuffer.wrap(digest);
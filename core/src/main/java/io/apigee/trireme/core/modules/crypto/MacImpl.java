@@ -22,7 +22,6 @@
 package io.apigee.trireme.core.modules.crypto;
 
 import io.apigee.trireme.core.Utils;
-import io.apigee.trireme.kernel.Charsets;
 import io.apigee.trireme.core.modules.Buffer;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.Function;
@@ -32,7 +31,6 @@ import org.mozilla.javascript.annotations.JSFunction;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
-import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
@@ -77,7 +75,7 @@ public class MacImpl
         }
 
         try {
-            self.digest = Mac.getInstance(jceAlgorithm);
+            self.digest = DigestSupport.newMac(jceAlgorithm);
         } catch (NoSuchAlgorithmException e) {
             throw Utils.makeError(cx, thisObj, "Digest method not supported: \"" + jceAlgorithm + '\"');
         }
@@ -102,11 +100,7 @@ public class MacImpl
         String encoding = stringArg(args, 1, null);
 
         if (args[0] instanceof String) {
-            ByteBuffer bb =
-                Utils.stringToBuffer(stringArg(args, 0),
-                                     Charsets.get().resolveCharset(encoding));
-            thisClass.digest.update(bb.array(), bb.arrayOffset(),
-                                    bb.limit());
+            thisClass.digest.update(DigestSupport.encodeString((String)args[0], encoding));
         } else {
             Buffer.BufferImpl buf = objArg(args, 0, Buffer.BufferImpl.class, true);
             thisClass.digest.update(buf.getArray(), buf.getArrayOffset(), buf.getLength());
@@ -120,14 +114,7 @@ public class MacImpl
         MacImpl thisClass = (MacImpl) thisObj;
         String encoding = stringArg(args, 0, null);
 
-        byte[] digest = thisClass.digest.doFinal();
-        if ((encoding == null) || "buffer".equals(encoding)) {
-            return Buffer.BufferImpl.newBuffer(cx, thisObj, digest);
-        }
-
-        ByteBuffer bb = ByteBuffer.wrap(digest);
-        return Utils.bufferToString(bb,
-                                    Charsets.get().resolveCharset(encoding));
+        return HashImpl.encodeDigest(cx, thisObj, thisClass.digest.doFinal(), encoding);
     }
 }
 
@@ -22,6 +22,7 @@
 package io.apigee.trireme.core.modules.crypto;
 
 import io.apigee.trireme.core.Utils;
+import io.apigee.trireme.core.internal.SSLContextCache;
 import io.apigee.trireme.kernel.Charsets;
 import io.apigee.trireme.kernel.CompositeTrustManager;
 import io.apigee.trireme.kernel.crypto.CryptoException;
@@ -46,6 +47,7 @@ import javax.net.ssl.TrustManagerFactory;
 import javax.net.ssl.X509TrustManager;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
@@ -89,6 +91,9 @@ public class SecureContextImpl
     private String protocol;
     private String[] ciphers;
     private boolean initialized;
+    private SSLContext sslContext;
+    // Hashes of everything that was set, in order, which identify this context in the SSLContextCache
+    private final StringBuilder cacheKey = new StringBuilder();
 
     @Override
     public String getClassName() {
@@ -160,8 +165,16 @@ public class SecureContextImpl
         SecureContextImpl self = (SecureContextImpl)thisObj;
         self.initialized = false;
 
+        String hash = SSLContextCache.digest("key", key, p);
+        self.cacheKey.append("key:").append(hash).append(';');
+
         try {
-            KeyPair kp = Crypto.getCryptoService().readKeyPair("RSA", key, passphrase);
+            SSLContextCache cache = getCache(cx);
+            KeyPair kp = (KeyPair)cache.getMaterial(hash);
+            if (kp == null) {
+                kp = Crypto.getCryptoService().readKeyPair("RSA", key, passphrase);
+                cache.putMaterial(hash, kp);
+            }
             self.privateKey = kp.getPrivate();
             log.debug("Set private key from an RSA key pair");
 
@@ -188,10 +201,11 @@ public class SecureContextImpl
         SecureContextImpl self = (SecureContextImpl)thisObj;
         self.initialized = false;
 
+        String hash = SSLContextCache.digest("cert", certStr);
+        self.cacheKey.append("cert:").append(hash).append(';');
+
         try {
-            ByteArrayInputStream bis =
-                new ByteArrayInputStream(certStr.getBytes(Charsets.ASCII));
-            X509Certificate cert = Crypto.getCryptoService().readCertificate(bis);
+            X509Certificate cert = readCertificate(cx, certStr, hash);
             if (log.isDebugEnabled()) {
                 log.debug("Set my certificate to: {}", cert.getSubjectDN());
             }
@@ -203,6 +217,32 @@ public class SecureContextImpl
         }
     }
 
+    /**
+     * Parse a PEM certificate, or get it from the cache if the same one was parsed before.
+     */
+    private static X509Certificate readCertificate(Context cx, String certStr, String hash)
+        throws CryptoException, IOException
+    {
+        SSLContextCache cache = getCache(cx);
+        X509Certificate cert = (X509Certificate)cache.getMaterial(hash);
+        if (cert == null) {
+            ByteArrayInputStream bis =
+                new ByteArrayInputStream(certStr.getBytes(Charsets.ASCII));
+            cert = Crypto.getCryptoService().readCertificate(bis);
+            cache.putMaterial(hash, cert);
+        }
+        return cert;
+    }
+
+    /**
+     * Get the TLS cache that belongs to the environment of the running script.
+     */
+    private static SSLContextCache getCache(Context cx)
+    {
+        ScriptRunner runtime = (ScriptRunner)cx.getThreadLocal(ScriptRunner.RUNNER);
+        return runtime.getEnvironment().getTLSCache();
+    }
+
     private void ensureCertStore()
         throws GeneralSecurityException, IOException
     {
@@ -224,11 +264,12 @@ public class SecureContextImpl
         SecureContextImpl self = (SecureContextImpl)thisObj;
         self.initialized = false;
 
+        String hash = SSLContextCache.digest("cert", certStr);
+        self.cacheKey.append("ca:").append(hash).append(';');
+
         try {
             self.ensureCertStore();
-            ByteArrayInputStream bis =
-                new ByteArrayInputStream(certStr.getBytes(Charsets.ASCII));
-            Certificate cert = Crypto.getCryptoService().readCertificate(bis);
+            Certificate cert = readCertificate(cx, certStr, hash);
             if (log.isDebugEnabled()) {
                 log.debug("Adding trusted CA cert {}");
             }
@@ -255,6 +296,7 @@ public class SecureContextImpl
         String crlStr = stringArg(args, 0);
         SecureContextImpl self = (SecureContextImpl)thisObj;
         self.initialized = false;
+        self.cacheKey.append("crl:").append(SSLContextCache.digest(crlStr)).append(';');
 
         ByteArrayInputStream bis =
             new ByteArrayInputStream(crlStr.getBytes(Charsets.ASCII));
@@ -284,6 +326,7 @@ public class SecureContextImpl
     {
         SecureContextImpl self = (SecureContextImpl)thisObj;
         self.initialized = false;
+        self.cacheKey.append("roots;");
 
         self.trustManagers = DefaultTrustStore.get().getTrustManagers();
         if (self.trustManagers == null) {
@@ -300,6 +343,7 @@ public class SecureContextImpl
         String cipherList = stringArg(args, 0);
         SecureContextImpl self = (SecureContextImpl)thisObj;
         self.initialized = false;
+        self.cacheKey.append("ciphers:").append(cipherList).append(';');
 
         // This class will produce a list of Java cipher names, in order, based on the
         // openSSL spec that is passed to this method.
@@ -357,14 +401,23 @@ public class SecureContextImpl
         SecureContextImpl self = (SecureContextImpl)thisObj;
         self.initialized = false;
 
+        String hash = SSLContextCache.digest(pfxBuf.getArray(), pfxBuf.getArrayOffset(), pfxBuf.getLength(), p);
+        self.cacheKey.append("pfx:").append(hash).append(';');
+
         try {
-            ByteArrayInputStream bis = new ByteArrayInputStream(pfxBuf.getArray(),
-                                                                pfxBuf.getArrayOffset(), pfxBuf.getLength());
-            KeyStore keyStore = KeyStore.getInstance("PKCS12");
-            keyStore.load(bis, passphrase);
-            KeyManagerFactory keyFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
-            keyFactory.init(keyStore, passphrase);
-            self.keyManagers = keyFactory.getKeyManagers();
+            SSLContextCache cache = getCache(cx);
+            KeyManager[] kms = (KeyManager[])cache.getMaterial(hash);
+            if (kms == null) {
+                ByteArrayInputStream bis = new ByteArrayInputStream(pfxBuf.getArray(),
+                                                                    pfxBuf.getArrayOffset(), pfxBuf.getLength());
+                KeyStore keyStore = KeyStore.getInstance("PKCS12");
+                keyStore.load(bis, passphrase);
+                KeyManagerFactory keyFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+                keyFactory.init(keyStore, passphrase);
+                kms = keyFactory.getKeyManagers();
+                cache.putMaterial(hash, kms);
+            }
+            self.keyManagers = kms;
             log.debug("Loaded SSL key from PKCS12");
 
         } catch (GeneralSecurityException gse) {
@@ -390,9 +443,11 @@ public class SecureContextImpl
         SecureContextImpl self = (SecureContextImpl)thisObj;
         self.initialized = false;
         ScriptRunner runtime = (ScriptRunner)cx.getThreadLocal(ScriptRunner.RUNNER);
+        File trustFile = runtime.translatePath(name);
+        self.cacheKey.append("truststore:").append(fileKey(trustFile, null)).append(';');
 
         try {
-            FileInputStream keyIn = new FileInputStream(runtime.translatePath(name));
+            FileInputStream keyIn = new FileInputStream(trustFile);
             try {
                 KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
                 trustStore.load(keyIn, null);
@@ -423,10 +478,12 @@ public class SecureContextImpl
         SecureContextImpl self = (SecureContextImpl)thisObj;
         self.initialized = false;
         ScriptRunner runtime = (ScriptRunner)cx.getThreadLocal(ScriptRunner.RUNNER);
+        File keyFile = runtime.translatePath(name);
+        self.cacheKey.append("keystore:").append(fileKey(keyFile, p)).append(';');
 
         char[] passphrase = p.toCharArray();
         try {
-            FileInputStream keyIn = new FileInputStream(runtime.translatePath(name));
+            FileInputStream keyIn = new FileInputStream(keyFile);
             try {
                 KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
                 keyStore.load(keyIn, passphrase);
@@ -449,6 +506,15 @@ public class SecureContextImpl
         }
     }
 
+    /**
+     * Identify a key store file by its name and when it was last changed, so that a new file is read again.
+     */
+    private static String fileKey(File f, String passphrase)
+    {
+        return SSLContextCache.digest(f.getAbsolutePath(), String.valueOf(f.lastModified()),
+                                      String.valueOf(f.length()), passphrase);
+    }
+
     public String[] getCiphers() {
         return ciphers;
     }
@@ -537,36 +603,52 @@ public class SecureContextImpl
     }
 
     /**
-     * Once all that stuff on top has been all set, then this actually creates an SSLContext object.
+     * Once all that stuff on top has been all set, then this returns an SSLContext object. Contexts that were
+     * set up the same way share the same SSLContext, and therefore the same session cache, so that clients
+     * can resume sessions with servers that they have talked to before.
      */
     public SSLContext makeContext(Context cx, Scriptable scope)
     {
-        if (!initialized) {
-            initialize(cx, scope);
+        if (initialized) {
+            return sslContext;
         }
 
-        // Create an SSLContext that totally ignores the trust manager that we just spent all that time
-        // setting up, and instead accepts everything.
-        // Then we manually call the trust manager on every new handshake and report the result back
-        // to tls.js.
-        // This is the same thing that regular Node.js does as of 10.x
+        String key = SSLContextCache.digest(protocol, cacheKey.toString());
+        SSLContextCache cache = getCache(cx);
+        SSLContextCache.Entry cached = cache.getContext(key);
+        if (cached == null) {
+            initialize(cx, scope);
+
+            // Create an SSLContext that totally ignores the trust manager that we just spent all that time
+            // setting up, and instead accepts everything.
+            // Then we manually call the trust manager on every new handshake and report the result back
+            // to tls.js.
+            // This is the same thing that regular Node.js does as of 10.x
 
-        try {
-            SSLContext context = SSLContext.getInstance(protocol);
-            context.init(keyManagers,
-                         new TrustManager[] { AllTrustingManager.INSTANCE },
-                         null);
-            if (log.isDebugEnabled()) {
-                log.debug("Created a new SSLContext {}", context);
-            }
-            return context;
+            try {
+                SSLContext context = SSLContext.getInstance(protocol);
+                context.init(keyManagers,
+                             new TrustManager[] { AllTrustingManager.INSTANCE },
+                             null);
+                if (log.isDebugEnabled()) {
+                    log.debug("Created a new SSLContext {}", context);
+                }
+                cached = cache.putContext(key, context, trustedCertManager);
 
-        } catch (NoSuchAlgorithmException nse) {
-            // We checked this long ago, back in "init"!
-            throw new AssertionError(nse);
-        } catch (KeyManagementException kme) {
-            throw Utils.makeError(cx, scope, "Error initializing SSL context: " + kme);
+            } catch (NoSuchAlgorithmException nse) {
+                // We checked this long ago, back in "init"!
+                throw new AssertionError(nse);
+            } catch (KeyManagementException kme) {
+                throw Utils.makeError(cx, scope, "Error initializing SSL context: " + kme);
+            }
+        } else if (log.isDebugEnabled()) {
+            log.debug("Re-using cached SSLContext {}", cached.getContext());
         }
+
+        sslContext = cached.getContext();
+        trustedCertManager = cached.getTrustManager();
+        initialized = true;
+        return sslContext;
     }
 
     public X509TrustManager getTrustManager() {
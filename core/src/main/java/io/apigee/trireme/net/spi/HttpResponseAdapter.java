@@ -44,6 +44,8 @@ public interface HttpResponseAdapter
      * the behavior is undefined. Return true if the I/O completed right away.
      * If "cb" is not null, then the caller must call it once the
      * data has been written to the network.
+     * As with a socket write in Node.js, the adapter may send the contents of "data" without copying
+     * them, so the caller must not modify them until "cb" is called.
      */
     void sendChunk(ByteBuffer data, boolean lastChunk, IOCompletionHandler<Integer> cb);
 
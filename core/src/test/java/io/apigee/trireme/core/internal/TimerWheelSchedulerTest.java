@@ -0,0 +1,231 @@
+package io.apigee.trireme.core.internal;
+
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TimerWheelSchedulerTest
+{
+    private static final long START = 1000000L;
+    // Four levels of 64 slots, in milliseconds
+    private static final long WHEEL_SPAN = 1L << 24;
+
+    @Test
+    public void testInsertAndExpire()
+    {
+        TimerWheelScheduler w = new TimerWheelScheduler(START);
+        assertEquals(Long.MAX_VALUE, w.getNextExpiration());
+        assertNull(w.pollExpired(START));
+
+        TestTimer t5 = schedule(w, START + 5L);
+        TestTimer t1 = schedule(w, START + 1L);
+        TestTimer t3 = schedule(w, START + 3L);
+        assertEquals(3, w.size());
+        assertTrue(w.getNextExpiration() <= START + 1L);
+
+        assertNull(w.pollExpired(START));
+        assertSame(t1, w.pollExpired(START + 3L));
+        assertSame(t3, w.pollExpired(START + 3L));
+        assertNull(w.pollExpired(START + 3L));
+        assertEquals(1, w.size());
+        assertSame(t5, w.pollExpired(START + 10L));
+        assertEquals(0, w.size());
+        assertNull(w.pollExpired(START + 10L));
+    }
+
+    @Test
+    public void testAlreadyExpired()
+    {
+        TimerWheelScheduler w = new TimerWheelScheduler(START);
+        TestTimer t = schedule(w, START - 10L);
+        assertTrue(w.getNextExpiration() <= START);
+        assertSame(t, w.pollExpired(START));
+        assertEquals(0, w.size());
+    }
+
+    @Test
+    public void testCancel()
+    {
+        TimerWheelScheduler w = new TimerWheelScheduler(START);
+        TestTimer t1 = schedule(w, START + 10L);
+        TestTimer t2 = schedule(w, START + 10L);
+        TestTimer t3 = schedule(w, START + 10L);
+        TestTimer far = schedule(w, START + 100000L);
+
+        w.cancel(t2);
+        assertEquals(3, w.size());
+        // Cancelling again does nothing
+        w.cancel(t2);
+        assertEquals(3, w.size());
+
+        w.cancel(far);
+        assertEquals(2, w.size());
+        assertTrue(w.getNextExpiration() <= START + 10L);
+
+        assertSame(t1, w.pollExpired(START + 10L));
+        // Cancelling one that already expired does nothing either
+        w.cancel(t1);
+        assertSame(t3, w.pollExpired(START + 10L));
+        assertNull(w.pollExpired(START + 200000L));
+        assertEquals(0, w.size());
+        assertEquals(Long.MAX_VALUE, w.getNextExpiration());
+    }
+
+    @Test
+    public void testCancelAll()
+    {
+        TimerWheelScheduler w = new TimerWheelScheduler(START);
+        ArrayList<TestTimer> timers = new ArrayList<TestTimer>();
+        for (long delay = 1L; delay < WHEEL_SPAN; delay *= 3L) {
+            timers.add(schedule(w, START + delay));
+        }
+        for (TestTimer t : timers) {
+            w.cancel(t);
+        }
+        assertEquals(0, w.size());
+        assertEquals(Long.MAX_VALUE, w.getNextExpiration());
+        assertNull(w.pollExpired(START + WHEEL_SPAN));
+    }
+
+    @Test
+    public void testCascade()
+    {
+        // One timer on each level
+        TimerWheelScheduler w = new TimerWheelScheduler(START);
+        TestTimer t0 = schedule(w, START + 50L);
+        TestTimer t1 = schedule(w, START + 100L);
+        TestTimer t2 = schedule(w, START + 5000L);
+        TestTimer t3 = schedule(w, START + 300000L);
+
+        assertFired(w, t0, START);
+        assertFired(w, t1, START + 50L);
+        assertFired(w, t2, START + 100L);
+        assertFired(w, t3, START + 5000L);
+        assertEquals(0, w.size());
+    }
+
+    @Test
+    public void testCascadeOneTickAtATime()
+    {
+        // Like a busy loop that checks every millisecond
+        TimerWheelScheduler w = new TimerWheelScheduler(START);
+        TestTimer t1 = schedule(w, START + 65L);
+        TestTimer t2 = schedule(w, START + 4097L);
+        long now = START;
+        while (w.size() > 0) {
+            now++;
+            TestTimer t = (TestTimer)w.pollExpired(now);
+            if (t != null) {
+                assertEquals(t.getTimeout(), now);
+            }
+        }
+        assertEquals(t2.getTimeout(), now);
+        assertTrue(t1.getTimeout() < now);
+    }
+
+    @Test
+    public void testBeyondTopLevel()
+    {
+        TimerWheelScheduler w = new TimerWheelScheduler(START);
+        TestTimer near = schedule(w, START + WHEEL_SPAN - 1L);
+        TestTimer far = schedule(w, START + (WHEEL_SPAN * 10L) + 12345L);
+        assertEquals(2, w.size());
+
+        assertFired(w, near, START);
+        assertEquals(1, w.size());
+        // It is re-inserted each time the wheel comes around, but only fires at the end
+        assertFired(w, far, near.getTimeout());
+        assertEquals(0, w.size());
+    }
+
+    @Test
+    public void testSameTickOrdering()
+    {
+        // Timers with the same timeout fire in the order in which they were scheduled, on every level
+        long[] delays = { 10L, 200L, 20000L, 2000000L };
+        for (long delay : delays) {
+            TimerWheelScheduler w = new TimerWheelScheduler(START);
+            ArrayList<TestTimer> timers = new ArrayList<TestTimer>();
+            for (int i = 0; i < 5; i++) {
+                timers.add(schedule(w, START + delay));
+            }
+            assertNull(w.pollExpired(START + delay - 1L));
+            for (TestTimer t : timers) {
+                assertSame(t, w.pollExpired(START + delay));
+            }
+            assertNull(w.pollExpired(START + delay));
+        }
+    }
+
+    @Test
+    public void testRandom()
+    {
+        Random rand = new Random(1234L);
+        TimerWheelScheduler w = new TimerWheelScheduler(START);
+        long now = START;
+        int fired = 0;
+        for (int round = 0; round < 1000; round++) {
+            long bound = (round % 2 == 0) ? 1000L : (WHEEL_SPAN * 2L);
+            schedule(w, now + 1L + (long)(rand.nextDouble() * bound));
+
+            now += rand.nextInt(100000);
+            long last = Long.MIN_VALUE;
+            TestTimer t;
+            while ((t = (TestTimer)w.pollExpired(now)) != null) {
+                assertTrue(t.getTimeout() <= now);
+                assertTrue(t.getTimeout() >= last);
+                last = t.getTimeout();
+                fired++;
+            }
+            if (w.size() > 0) {
+                assertTrue(w.getNextExpiration() > now);
+            }
+        }
+        assertEquals(1000, fired + w.size());
+    }
+
+    /**
+     * Step the clock the way the event loop does, waking up only at "getNextExpiration," and make sure
+     * that "expected" is the next timer to fire and that it fires on time.
+     */
+    private static void assertFired(TimerWheelScheduler w, TestTimer expected, long now)
+    {
+        while (true) {
+            long next = w.getNextExpiration();
+            assertTrue(next > now);
+            assertTrue(next <= expected.getTimeout());
+            now = next;
+            TestTimer t = (TestTimer)w.pollExpired(now);
+            if (t != null) {
+                assertSame(expected, t);
+                assertEquals(expected.getTimeout(), now);
+                return;
+            }
+        }
+    }
+
+    private static TestTimer schedule(TimerWheelScheduler w, long timeout)
+    {
+        TestTimer t = new TestTimer(timeout);
+        w.schedule(t);
+        return t;
+    }
+
+    private static final class TestTimer
+        extends ScriptRunner.Activity
+    {
+        TestTimer(long timeout)
+        {
+            setTimeout(timeout);
+        }
+
+        @Override
+        void execute(Context cx)
+        {
+        }
+    }
+}
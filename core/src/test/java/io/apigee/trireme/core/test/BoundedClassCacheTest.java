@@ -0,0 +1,156 @@
+package io.apigee.trireme.core.test;
+
+import io.apigee.trireme.core.internal.BoundedClassCache;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BoundedClassCacheTest
+{
+    private static final class DummyScript
+        implements Script
+    {
+        @Override
+        public Object exec(Context cx, Scriptable scope)
+        {
+            return null;
+        }
+    }
+
+    @Test
+    public void testHitAndMiss()
+    {
+        BoundedClassCache cache = new BoundedClassCache(100000);
+        assertNull(cache.getCachedScript("one"));
+        Script s = new DummyScript();
+        cache.putCachedScript("one", s);
+        assertSame(s, cache.getCachedScript("one"));
+        assertEquals(1L, cache.getHitCount());
+        assertEquals(1L, cache.getMissCount());
+        assertEquals(1, cache.getEntryCount());
+        assertEquals(BoundedClassCache.DEFAULT_WEIGHT, cache.getWeight());
+    }
+
+    @Test
+    public void testWeightBound()
+    {
+        BoundedClassCache cache = new BoundedClassCache(10000);
+        for (int i = 0; i < 1000; i++) {
+            cache.getCachedScript("key" + i, 100, new BoundedClassCache.ScriptCompiler() {
+                @Override
+                public Script compile()
+                {
+                    return new DummyScript();
+                }
+            });
+            assertTrue(cache.getWeight() <= 10000);
+        }
+        assertEquals(100, cache.getEntryCount());
+        assertEquals(900L, cache.getEvictionCount());
+        assertEquals(1000L, cache.getLoadCount());
+    }
+
+    @Test
+    public void testFrequentScriptsSurviveScan()
+    {
+        BoundedClassCache cache = new BoundedClassCache(30L * BoundedClassCache.DEFAULT_WEIGHT);
+        Script[] hot = new Script[10];
+        for (int i = 0; i < hot.length; i++) {
+            hot[i] = new DummyScript();
+            cache.getCachedScript("hot" + i);
+            cache.putCachedScript("hot" + i, hot[i]);
+        }
+        for (int r = 0; r < 5; r++) {
+            for (int i = 0; i < hot.length; i++) {
+                assertSame(hot[i], cache.getCachedScript("hot" + i));
+            }
+        }
+
+        // A long run of scripts that are each used only once should not push out the popular ones
+        for (int i = 0; i < 1000; i++) {
+            cache.getCachedScript("cold" + i);
+            cache.putCachedScript("cold" + i, new DummyScript());
+        }
+        for (int i = 0; i < hot.length; i++) {
+            assertSame(hot[i], cache.getCachedScript("hot" + i));
+        }
+    }
+
+    @Test
+    public void testOversizedScript()
+    {
+        BoundedClassCache cache = new BoundedClassCache(1000);
+        Script s = cache.getCachedScript("big", 5000, new BoundedClassCache.ScriptCompiler() {
+            @Override
+            public Script compile()
+            {
+                return new DummyScript();
+            }
+        });
+        assertNotNull(s);
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0L, cache.getWeight());
+    }
+
+    @Test
+    public void testCoalescedCompile()
+        throws InterruptedException
+    {
+        final BoundedClassCache cache = new BoundedClassCache(100000);
+        final AtomicInteger compiles = new AtomicInteger();
+        final CountDownLatch compiling = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Script[] results = new Script[2];
+
+        final BoundedClassCache.ScriptCompiler slow = new BoundedClassCache.ScriptCompiler() {
+            @Override
+            public Script compile()
+            {
+                compiles.incrementAndGet();
+                compiling.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ie) {
+                    throw new AssertionError(ie);
+                }
+                return new DummyScript();
+            }
+        };
+
+        Thread t1 = new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+                results[0] = cache.getCachedScript("shared", 100, slow);
+            }
+        });
+        t1.start();
+        compiling.await();
+
+        Thread t2 = new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+                results[1] = cache.getCachedScript("shared", 100, slow);
+            }
+        });
+        t2.start();
+        while (cache.getCoalescedLoadCount() == 0L) {
+            Thread.sleep(1L);
+        }
+        release.countDown();
+        t1.join();
+        t2.join();
+
+        assertEquals(1, compiles.get());
+        assertNotNull(results[0]);
+        assertSame(results[0], results[1]);
+        assertEquals(1L, cache.getLoadCount());
+    }
+}
@@ -0,0 +1,214 @@
+package io.apigee.trireme.core.test;
+
+import io.apigee.trireme.core.internal.DiskClassCache;
+import io.apigee.trireme.core.internal.ScriptUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.Scriptable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class DiskClassCacheTest
+{
+    private static final String CODE = "6 * 7;";
+
+    private File dir;
+    private Context cx;
+
+    @Before
+    public void init()
+        throws IOException
+    {
+        dir = File.createTempFile("trireme-classcache", "");
+        dir.delete();
+        cx = Context.enter();
+    }
+
+    @After
+    public void cleanup()
+    {
+        Context.exit();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testSharedDirectory()
+        throws IOException
+    {
+        // Like two processes that both started before anything was cached
+        DiskClassCache first = new DiskClassCache(dir);
+        DiskClassCache second = new DiskClassCache(dir);
+
+        String key = ScriptUtils.makeCacheKey(CODE);
+        String className = ScriptUtils.makeClassName(key);
+        assertNull(second.getCachedScript(key));
+
+        byte[] bytecode = ScriptUtils.tryCompileToBytecode(cx, CODE, "test.js", className);
+        assertNotNull(bytecode);
+        first.putCachedBytecode(key, className, bytecode);
+
+        // The second one finds what the first one wrote after it started
+        Script s = second.getCachedScript(key);
+        assertNotNull(s);
+        Scriptable scope = cx.initStandardObjects();
+        assertEquals(42, ((Number)s.exec(cx, scope)).intValue());
+        assertEquals(1L, second.getDiskHits());
+        assertEquals(1L, second.getMisses());
+        assertEquals(1, second.getEntries());
+        assertEquals(first.getSize(), second.getSize());
+    }
+
+    @Test
+    public void testHitAfterRestart()
+        throws IOException
+    {
+        String key = store(new DiskClassCache(dir), CODE);
+
+        // A new cache on the same directory is like a new process
+        DiskClassCache restarted = new DiskClassCache(dir);
+        assertEquals(1, restarted.getEntries());
+        Script s = restarted.getCachedScript(key);
+        assertNotNull(s);
+        Scriptable scope = cx.initStandardObjects();
+        assertEquals(42, ((Number)s.exec(cx, scope)).intValue());
+        assertEquals(1L, restarted.getDiskHits());
+        assertEquals(0L, restarted.getMisses());
+
+        // The second lookup doesn't need the disk
+        assertSame(s, restarted.getCachedScript(key));
+        assertEquals(1L, restarted.getMemoryHits());
+    }
+
+    @Test
+    public void testOptLevelMismatch()
+        throws IOException
+    {
+        cx.setOptimizationLevel(0);
+        String key = store(new DiskClassCache(dir), CODE);
+
+        cx.setOptimizationLevel(9);
+        assertMismatch(key);
+    }
+
+    @Test
+    public void testObserverMismatch()
+        throws IOException
+    {
+        cx.setGenerateObserverCount(false);
+        String key = store(new DiskClassCache(dir), CODE);
+
+        // A script without instruction counting would ignore the script time limit
+        cx.setGenerateObserverCount(true);
+        assertMismatch(key);
+    }
+
+    @Test
+    public void testRhinoVersionMismatch()
+        throws IOException
+    {
+        String key = store(new DiskClassCache(dir), CODE);
+        File f = new File(dir, ScriptUtils.makeHexKey(key) + DiskClassCache.FILE_SUFFIX);
+
+        // Rewrite the file as if an older version of Rhino wrote it
+        DataInputStream in = new DataInputStream(new FileInputStream(f));
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(bos);
+            out.writeInt(in.readInt());
+            out.writeInt(in.readInt());
+            in.readUTF();
+            out.writeUTF("0.0.0-old");
+            byte[] buf = new byte[8192];
+            int r;
+            while ((r = in.read(buf)) > 0) {
+                out.write(buf, 0, r);
+            }
+            out.flush();
+        } finally {
+            in.close();
+        }
+        FileOutputStream fos = new FileOutputStream(f);
+        try {
+            bos.writeTo(fos);
+        } finally {
+            fos.close();
+        }
+
+        assertMismatch(key);
+    }
+
+    @Test
+    public void testEviction()
+        throws IOException
+    {
+        DiskClassCache unbounded = new DiskClassCache(dir);
+        String first = store(unbounded, "1 * 1;");
+        long oneSize = unbounded.getSize();
+
+        // Room for two scripts but not three
+        DiskClassCache cache = new DiskClassCache(dir, (oneSize * 2L) + (oneSize / 2L));
+        String second = store(cache, "2 * 2;");
+        assertEquals(2, cache.getEntries());
+
+        // Use the first one so that the second one is now the least-recently used
+        assertNotNull(cache.getCachedScript(first));
+        String third = store(cache, "3 * 3;");
+
+        assertEquals(1L, cache.getEvicted());
+        assertEquals(2, cache.getEntries());
+        assertTrue(cache.getSize() <= cache.getMaxSize());
+        assertTrue(new File(dir, ScriptUtils.makeHexKey(first) + DiskClassCache.FILE_SUFFIX).exists());
+        assertFalse(new File(dir, ScriptUtils.makeHexKey(second) + DiskClassCache.FILE_SUFFIX).exists());
+        assertTrue(new File(dir, ScriptUtils.makeHexKey(third) + DiskClassCache.FILE_SUFFIX).exists());
+
+        // A smaller cache on the same directory shrinks it when it starts
+        DiskClassCache smaller = new DiskClassCache(dir, oneSize + (oneSize / 2L));
+        assertEquals(1, smaller.getEntries());
+        assertEquals(1L, smaller.getEvicted());
+        assertEquals(1, dir.listFiles().length);
+    }
+
+    /**
+     * Compile the code with the current settings and store it in the cache, and return its key.
+     */
+    private String store(DiskClassCache cache, String code)
+    {
+        String key = ScriptUtils.makeCacheKey(code);
+        String className = ScriptUtils.makeClassName(key);
+        byte[] bytecode = ScriptUtils.tryCompileToBytecode(cx, code, "test.js", className);
+        assertNotNull(bytecode);
+        cache.putCachedBytecode(key, className, bytecode);
+        return key;
+    }
+
+    /**
+     * Make sure that a new cache on the directory won't return the script, and doesn't treat that as an error.
+     */
+    private void assertMismatch(String key)
+        throws IOException
+    {
+        DiskClassCache restarted = new DiskClassCache(dir);
+        assertEquals(1, restarted.getEntries());
+        assertNull(restarted.getCachedScript(key));
+        assertEquals(0L, restarted.getDiskHits());
+        assertEquals(1L, restarted.getMisses());
+        assertEquals(0L, restarted.getErrors());
+    }
+}
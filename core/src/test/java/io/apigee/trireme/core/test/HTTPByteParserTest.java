@@ -0,0 +1,175 @@
+package io.apigee.trireme.core.test;
+
+import io.apigee.trireme.kernel.Charsets;
+import io.apigee.trireme.core.Utils;
+import io.apigee.trireme.kernel.http.HTTPParsingMachine;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Run all the parser tests again using the byte scanner, plus some that only it needs.
+ */
+public class HTTPByteParserTest
+    extends HTTPParserTest
+{
+    @Override
+    protected HTTPParsingMachine makeParser(HTTPParsingMachine.ParsingMode mode)
+    {
+        return new HTTPParsingMachine(mode, HTTPParsingMachine.ScanMode.BYTES);
+    }
+
+    /**
+     * Feed a message to both kinds of parser split at every possible place, and make sure that
+     * they agree.
+     */
+    private void compareSplits(HTTPParsingMachine.ParsingMode mode, String msg)
+    {
+        for (int split = 0; split <= msg.length(); split++) {
+            assertEquals("Split at " + split,
+                         parseAll(new HTTPParsingMachine(mode), msg, split),
+                         parseAll(makeParser(mode), msg, split));
+        }
+    }
+
+    private static String parseAll(HTTPParsingMachine parser, String msg, int split)
+    {
+        ByteBuffer whole = Utils.stringToBuffer(msg, Charsets.ASCII);
+        ByteBuffer first = whole.duplicate();
+        first.limit(split);
+        whole.position(split);
+
+        StringBuilder out = new StringBuilder();
+        parseBuffer(parser, first, out);
+        parseBuffer(parser, whole, out);
+        return out.toString();
+    }
+
+    private static void parseBuffer(HTTPParsingMachine parser, ByteBuffer buf, StringBuilder out)
+    {
+        boolean headersDone = false;
+        do {
+            HTTPParsingMachine.Result r = parser.parse(buf);
+            if (r.isError()) {
+                out.append("error;");
+                return;
+            }
+            if (r.isHeadersComplete() && !headersDone) {
+                headersDone = true;
+                out.append(r.getMethod()).append(' ').append(r.getUri()).append(' ')
+                   .append(r.getStatusCode()).append(' ').append(r.getStatusMessage()).append(' ')
+                   .append(r.getMajor()).append('.').append(r.getMinor()).append(' ')
+                   .append(r.shouldKeepAlive()).append(';');
+            }
+            if (r.hasHeaders()) {
+                appendHeaders(r.getHeaders(), out);
+            }
+            if (r.hasBody()) {
+                out.append("body=").append(Utils.bufferToString(r.getBody(), Charsets.ASCII)).append(';');
+            }
+            if (r.hasTrailers()) {
+                appendHeaders(r.getTrailers(), out);
+            }
+            if (r.isComplete()) {
+                out.append("complete;");
+                parser.reset();
+                headersDone = false;
+            } else if (!r.hasBody() && !r.hasHeaders()) {
+                return;
+            }
+        } while (buf.hasRemaining());
+    }
+
+    private static void appendHeaders(Iterable<Map.Entry<String, String>> hdrs, StringBuilder out)
+    {
+        for (Map.Entry<String, String> hdr : hdrs) {
+            out.append(hdr.getKey()).append('=').append(hdr.getValue()).append(';');
+        }
+    }
+
+    @Test
+    public void testSplitRequests()
+    {
+        compareSplits(HTTPParsingMachine.ParsingMode.REQUEST,
+                      "POST /foo?a=b HTTP/1.1\r\n" +
+                      "Host: mybox\r\n" +
+                      "Content-Length: 5\r\n" +
+                      "Connection: close\r\n" +
+                      "\r\n" +
+                      "Hello" +
+                      "GET /bar HTTP/1.0\r\n" +
+                      "X-Custom:   spaced   \r\n" +
+                      "\r\n");
+    }
+
+    @Test
+    public void testSplitChunked()
+    {
+        compareSplits(HTTPParsingMachine.ParsingMode.RESPONSE,
+                      "HTTP/1.1 200 OK\r\n" +
+                      "Transfer-Encoding: chunked\r\n" +
+                      "\r\n" +
+                      "5\r\n" +
+                      "Hello\r\n" +
+                      "7;ext=foo\r\n" +
+                      ", World\r\n" +
+                      "0\r\n" +
+                      "Trailer1: Foo\r\n" +
+                      "\r\n");
+    }
+
+    @Test
+    public void testInternedNames()
+    {
+        final String msg = "GET / HTTP/1.1\r\nHost: a\r\nhost: b\r\nX-Rare: c\r\n\r\n";
+        HTTPParsingMachine parser = makeParser(HTTPParsingMachine.ParsingMode.REQUEST);
+        HTTPParsingMachine.Result r1 = parser.parse(Utils.stringToBuffer(msg, Charsets.ASCII));
+        assertTrue(r1.isComplete());
+        parser.reset();
+        HTTPParsingMachine.Result r2 = parser.parse(Utils.stringToBuffer(msg, Charsets.ASCII));
+        assertTrue(r2.isComplete());
+
+        // Common names come from a table, in either case. Others are new strings every time.
+        assertSame("GET", r1.getMethod());
+        assertSame("Host", r1.getHeaders().get(0).getKey());
+        assertSame(r1.getHeaders().get(1).getKey(), r2.getHeaders().get(1).getKey());
+        assertEquals("host", r1.getHeaders().get(1).getKey());
+        assertEquals("X-Rare", r1.getHeaders().get(2).getKey());
+        assertNotSame(r1.getHeaders().get(2).getKey(), r2.getHeaders().get(2).getKey());
+    }
+
+    @Test
+    public void testInvalidLines()
+    {
+        String[] bad = {
+            "GET /foo\r\n\r\n",
+            "GET /foo HTTP/1.1\r\nNo colon here\r\n\r\n",
+            "GET /foo HTTP/1.1\r\n continuation first\r\n\r\n",
+            "GET /foo HTTP/1.1\r\nBad: ctl\u0001char\r\n\r\n",
+            "GE(T /foo HTTP/1.1\r\n\r\n"
+        };
+        for (String msg : bad) {
+            HTTPParsingMachine parser = makeParser(HTTPParsingMachine.ParsingMode.REQUEST);
+            assertTrue(msg, parser.parse(Utils.stringToBuffer(msg, Charsets.ASCII)).isError());
+        }
+    }
+
+    @Test
+    public void testLineTooLong()
+    {
+        HTTPParsingMachine parser = makeParser(HTTPParsingMachine.ParsingMode.REQUEST);
+        assertFalse(parser.parse(Utils.stringToBuffer("GET / HTTP/1.1\r\nX-Big: ", Charsets.ASCII)).isError());
+
+        byte[] chunk = new byte[8192];
+        Arrays.fill(chunk, (byte)'a');
+        boolean error = false;
+        for (int i = 0; (i < 20) && !error; i++) {
+            error = parser.parse(ByteBuffer.wrap(chunk)).isError();
+        }
+        assertTrue(error);
+    }
+}
@@ -12,10 +12,15 @@ import static org.junit.Assert.*;
 
 public class HTTPParserTest
 {
+    protected HTTPParsingMachine makeParser(HTTPParsingMachine.ParsingMode mode)
+    {
+        return new HTTPParsingMachine(mode);
+    }
+
     @Test
     public void testCompleteRequestLength()
     {
-        HTTPParsingMachine parser = new HTTPParsingMachine(HTTPParsingMachine.ParsingMode.REQUEST);
+        HTTPParsingMachine parser = makeParser(HTTPParsingMachine.ParsingMode.REQUEST);
         HTTPParsingMachine.Result r =
             parser.parse(Utils.stringToBuffer(COMPLETE_REQUEST_LENGTH, Charsets.ASCII));
         assertFalse(r.isError());
@@ -35,7 +40,7 @@ public class HTTPParserTest
     @Test
     public void testCompleteRequestLengthBlankHeader()
     {
-        HTTPParsingMachine parser = new HTTPParsingMachine(HTTPParsingMachine.ParsingMode.REQUEST);
+        HTTPParsingMachine parser = makeParser(HTTPParsingMachine.ParsingMode.REQUEST);
         HTTPParsingMachine.Result r =
             parser.parse(Utils.stringToBuffer(COMPLETE_REQUEST_LENGTH_BLANK_HDR, Charsets.ASCII));
         assertFalse(r.isError());
@@ -55,7 +60,7 @@ public class HTTPParserTest
     @Test
     public void testCompleteRequestLengthReset()
     {
-        HTTPParsingMachine parser = new HTTPParsingMachine(HTTPParsingMachine.ParsingMode.REQUEST);
+        HTTPParsingMachine parser = makeParser(HTTPParsingMachine.ParsingMode.REQUEST);
         for (int i = 0; i < 3; i++) {
             HTTPParsingMachine.Result r =
                 parser.parse(Utils.stringToBuffer(COMPLETE_REQUEST_LENGTH, Charsets.ASCII));
@@ -78,7 +83,7 @@ public class HTTPParserTest
     @Test
     public void testCompleteRequestNoLength()
     {
-        HTTPParsingMachine parser = new HTTPParsingMachine(HTTPParsingMachine.ParsingMode.REQUEST);
+        HTTPParsingMachine parser = makeParser(HTTPParsingMachine.ParsingMode.REQUEST);
         HTTPParsingMachine.Result r =
             parser.parse(Utils.stringToBuffer(COMPLETE_REQUEST_NOLENGTH, Charsets.ASCII));
         assertFalse(r.isError());
@@ -108,7 +113,7 @@ public class HTTPParserTest
 
     private void pipelineTest(String requests)
     {
-        HTTPParsingMachine parser = new HTTPParsingMachine(HTTPParsingMachine.ParsingMode.REQUEST);
+        HTTPParsingMachine parser = makeParser(HTTPParsingMachine.ParsingMode.REQUEST);
         ByteBuffer buf = Utils.stringToBuffer(requests, Charsets.ASCII);
         HTTPParsingMachine.Result r = parser.parse(buf);
         assertFalse(r.isError());
@@ -157,7 +162,7 @@ public class HTTPParserTest
     @Test
     public void testCompleteResponseLength()
     {
-        HTTPParsingMachine parser = new HTTPParsingMachine(HTTPParsingMachine.ParsingMode.RESPONSE);
+        HTTPParsingMachine parser = makeParser(HTTPParsingMachine.ParsingMode.RESPONSE);
         HTTPParsingMachine.Result r =
             parser.parse(Utils.stringToBuffer(COMPLETE_RESPONSE_LENGTH, Charsets.ASCII));
         assertFalse(r.isError());
@@ -176,7 +181,7 @@ public class HTTPParserTest
     @Test
     public void testCompleteResponseNophrase()
     {
-        HTTPParsingMachine parser = new HTTPParsingMachine(HTTPParsingMachine.ParsingMode.RESPONSE);
+        HTTPParsingMachine parser = makeParser(HTTPParsingMachine.ParsingMode.RESPONSE);
         HTTPParsingMachine.Result r =
             parser.parse(Utils.stringToBuffer(COMPLETE_RESPONSE_NOPHRASE, Charsets.ASCII));
         assertFalse(r.isError());
@@ -195,7 +200,7 @@ public class HTTPParserTest
     @Test
     public void testCompleteResponseNophraseSpace()
     {
-        HTTPParsingMachine parser = new HTTPParsingMachine(HTTPParsingMachine.ParsingMode.RESPONSE);
+        HTTPParsingMachine parser = makeParser(HTTPParsingMachine.ParsingMode.RESPONSE);
         HTTPParsingMachine.Result r =
             parser.parse(Utils.stringToBuffer(COMPLETE_RESPONSE_NOPHRASE_SPACE, Charsets.ASCII));
         assertFalse(r.isError());
@@ -214,7 +219,7 @@ public class HTTPParserTest
     @Test
     public void testCompleteResponseHead()
     {
-        HTTPParsingMachine parser = new HTTPParsingMachine(HTTPParsingMachine.ParsingMode.RESPONSE);
+        HTTPParsingMachine parser = makeParser(HTTPParsingMachine.ParsingMode.RESPONSE);
         ByteBuffer buf = Utils.stringToBuffer(COMPLETE_RESPONSE_HEAD, Charsets.ASCII);
         HTTPParsingMachine.Result r = parser.parse(buf);
         assertFalse(r.isError());
@@ -237,7 +242,7 @@ public class HTTPParserTest
     @Test
     public void testCompleteResponseEmpty()
     {
-        HTTPParsingMachine parser = new HTTPParsingMachine(HTTPParsingMachine.ParsingMode.RESPONSE);
+        HTTPParsingMachine parser = makeParser(HTTPParsingMachine.ParsingMode.RESPONSE);
         HTTPParsingMachine.Result r =
             parser.parse(Utils.stringToBuffer(COMPLETE_RESPONSE_EMPTY, Charsets.ASCII));
         assertFalse(r.isError());
@@ -254,7 +259,7 @@ public class HTTPParserTest
     @Test
     public void testCompleteResponseEmptiest()
     {
-        HTTPParsingMachine parser = new HTTPParsingMachine(HTTPParsingMachine.ParsingMode.RESPONSE);
+        HTTPParsingMachine parser = makeParser(HTTPParsingMachine.ParsingMode.RESPONSE);
         HTTPParsingMachine.Result r =
             parser.parse(Utils.stringToBuffer(COMPLETE_RESPONSE_EMPTIEST, Charsets.ASCII));
         assertFalse(r.isError());
@@ -278,7 +283,7 @@ public class HTTPParserTest
     @Test
     public void testCompleteChunked()
     {
-        HTTPParsingMachine parser = new HTTPParsingMachine(HTTPParsingMachine.ParsingMode.REQUEST);
+        HTTPParsingMachine parser = makeParser(HTTPParsingMachine.ParsingMode.REQUEST);
         ByteBuffer buf = Utils.stringToBuffer(COMPLETE_CHUNKED, Charsets.ASCII);
         HTTPParsingMachine.Result r = parser.parse(buf);
         assertFalse(r.isError());
@@ -300,7 +305,7 @@ public class HTTPParserTest
     @Test
     public void testCompleteChunkedResponse()
     {
-        HTTPParsingMachine parser = new HTTPParsingMachine(HTTPParsingMachine.ParsingMode.RESPONSE);
+        HTTPParsingMachine parser = makeParser(HTTPParsingMachine.ParsingMode.RESPONSE);
         ByteBuffer buf = Utils.stringToBuffer(COMPLETE_CHUNKED_RESPONSE, Charsets.ASCII);
         HTTPParsingMachine.Result r = parser.parse(buf);
         assertFalse(r.isError());
@@ -320,7 +325,7 @@ public class HTTPParserTest
     @Test
     public void testCompleteChunkedResponseTrailers()
     {
-        HTTPParsingMachine parser = new HTTPParsingMachine(HTTPParsingMachine.ParsingMode.RESPONSE);
+        HTTPParsingMachine parser = makeParser(HTTPParsingMachine.ParsingMode.RESPONSE);
         ByteBuffer buf = Utils.stringToBuffer(COMPLETE_CHUNKED_RESPONSE_TRAILERS, Charsets.ASCII);
         HTTPParsingMachine.Result r = parser.parse(buf);
         assertFalse(r.isError());
@@ -343,7 +348,7 @@ public class HTTPParserTest
     @Test
     public void testCompleteChunkedChunks()
     {
-        HTTPParsingMachine parser = new HTTPParsingMachine(HTTPParsingMachine.ParsingMode.REQUEST);
+        HTTPParsingMachine parser = makeParser(HTTPParsingMachine.ParsingMode.REQUEST);
         ByteBuffer buf = Utils.stringToBuffer(COMPLETE_CHUNKED_CHUNKS, Charsets.ASCII);
         HTTPParsingMachine.Result r = parser.parse(buf);
         assertFalse(r.isError());
@@ -375,7 +380,7 @@ public class HTTPParserTest
     public void testCompleteRequestLengthSplit1()
     {
         ByteBuffer whole = Utils.stringToBuffer(COMPLETE_REQUEST_LENGTH, Charsets.ASCII);
-        HTTPParsingMachine parser = new HTTPParsingMachine(HTTPParsingMachine.ParsingMode.REQUEST);
+        HTTPParsingMachine parser = makeParser(HTTPParsingMachine.ParsingMode.REQUEST);
 
         // Split right down the middle of one header, after Host
         ByteBuffer split = splitBuffer(whole, 48);
@@ -402,7 +407,7 @@ public class HTTPParserTest
     public void testCompleteRequestLengthSplit2()
     {
         ByteBuffer whole = Utils.stringToBuffer(COMPLETE_REQUEST_LENGTH, Charsets.ASCII);
-        HTTPParsingMachine parser = new HTTPParsingMachine(HTTPParsingMachine.ParsingMode.REQUEST);
+        HTTPParsingMachine parser = makeParser(HTTPParsingMachine.ParsingMode.REQUEST);
 
         // Split right down the middle of the request line
         ByteBuffer split = splitBuffer(whole, 8);
@@ -427,7 +432,7 @@ public class HTTPParserTest
     public void testCompleteRequestLengthSplit3()
     {
         ByteBuffer whole = Utils.stringToBuffer(COMPLETE_REQUEST_LENGTH, Charsets.ASCII);
-        HTTPParsingMachine parser = new HTTPParsingMachine(HTTPParsingMachine.ParsingMode.REQUEST);
+        HTTPParsingMachine parser = makeParser(HTTPParsingMachine.ParsingMode.REQUEST);
 
         // Split right down the middle of the request line
         ByteBuffer split = splitBuffer(whole, 26);
@@ -452,7 +457,7 @@ public class HTTPParserTest
     public void testCompleteRequestLengthSplit4()
     {
         ByteBuffer whole = Utils.stringToBuffer(COMPLETE_REQUEST_LENGTH, Charsets.ASCII);
-        HTTPParsingMachine parser = new HTTPParsingMachine(HTTPParsingMachine.ParsingMode.REQUEST);
+        HTTPParsingMachine parser = makeParser(HTTPParsingMachine.ParsingMode.REQUEST);
 
         // Split right down the middle of the request line
         ByteBuffer split = splitBuffer(whole, 27);
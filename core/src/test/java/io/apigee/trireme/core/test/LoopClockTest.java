@@ -0,0 +1,76 @@
+package io.apigee.trireme.core.test;
+
+import io.apigee.trireme.core.internal.LoopClock;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LoopClockTest
+{
+    @Test
+    public void testDisarmed()
+    {
+        LoopClock clock = new LoopClock();
+        LoopClock.Deadline d = clock.createDeadline(0L, TimeUnit.MILLISECONDS);
+        assertFalse(d.isExpired());
+        d.arm();
+        d.disarm();
+        assertFalse(d.isExpired());
+    }
+
+    @Test
+    public void testNotExpired()
+    {
+        LoopClock clock = new LoopClock();
+        LoopClock.Deadline d = clock.createDeadline(1L, TimeUnit.MINUTES);
+        clock.update();
+        d.arm();
+        assertFalse(d.isExpired());
+        assertFalse(d.isExpired());
+    }
+
+    @Test
+    public void testStartsAtArm()
+        throws InterruptedException
+    {
+        LoopClock clock = new LoopClock();
+        LoopClock.Deadline d = clock.createDeadline(50L, TimeUnit.MILLISECONDS);
+        clock.update();
+        d.arm();
+        Thread.sleep(100L);
+        // The very first check must see that the limit has passed
+        assertTrue(d.isExpired());
+    }
+
+    @Test
+    public void testRefreshesClock()
+        throws InterruptedException
+    {
+        LoopClock clock = new LoopClock();
+        LoopClock.Deadline d = clock.createDeadline(1L, TimeUnit.MINUTES);
+        long start = clock.update();
+        d.arm();
+        Thread.sleep(20L);
+        assertFalse(d.isExpired());
+        assertTrue(clock.getTimestamp() >= (start + 20L));
+    }
+
+    @Test
+    public void testRearm()
+        throws InterruptedException
+    {
+        LoopClock clock = new LoopClock();
+        LoopClock.Deadline d = clock.createDeadline(50L, TimeUnit.MILLISECONDS);
+        clock.update();
+        d.arm();
+        Thread.sleep(100L);
+        assertTrue(d.isExpired());
+        d.disarm();
+
+        clock.update();
+        d.arm();
+        assertFalse(d.isExpired());
+    }
+}
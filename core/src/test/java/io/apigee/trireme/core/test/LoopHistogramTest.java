@@ -0,0 +1,67 @@
+package io.apigee.trireme.core.test;
+
+import io.apigee.trireme.core.LoopTiming;
+import io.apigee.trireme.core.internal.LoopHistogram;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LoopHistogramTest
+{
+    @Test
+    public void testEmpty()
+    {
+        LoopHistogram h = new LoopHistogram();
+        assertEquals(0L, h.getCount());
+        assertEquals(0L, h.getPercentile(0.99));
+        LoopTiming t = h.snapshot();
+        assertEquals(0L, t.getCount());
+        assertEquals(0L, t.getMean());
+    }
+
+    @Test
+    public void testSmallValues()
+    {
+        LoopHistogram h = new LoopHistogram();
+        for (long i = 0; i < 4; i++) {
+            h.record(i);
+        }
+        // Values this small have a bucket each
+        assertEquals(1L, h.getPercentile(0.5));
+        assertEquals(3L, h.getPercentile(1.0));
+    }
+
+    @Test
+    public void testPercentiles()
+    {
+        LoopHistogram h = new LoopHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            h.record(i * 1000L);
+        }
+        assertEquals(1000L, h.getCount());
+        assertWithin(500000L, h.getPercentile(0.5));
+        assertWithin(990000L, h.getPercentile(0.99));
+        assertEquals(1000000L, h.getPercentile(1.0));
+
+        LoopTiming t = h.snapshot();
+        assertEquals(1000L, t.getMax());
+        assertEquals(500L, t.getMean());
+        assertEquals(500500L, t.getTotal());
+    }
+
+    @Test
+    public void testLargeAndNegative()
+    {
+        LoopHistogram h = new LoopHistogram();
+        h.record(Long.MAX_VALUE);
+        h.record(-1L);
+        assertEquals(0L, h.getPercentile(0.5));
+        assertEquals(Long.MAX_VALUE, h.getPercentile(1.0));
+    }
+
+    private static void assertWithin(long expected, long actual)
+    {
+        assertTrue("Expected about " + expected + " but got " + actual,
+                   (actual >= expected) && (actual <= (expected + (expected / 4L))));
+    }
+}
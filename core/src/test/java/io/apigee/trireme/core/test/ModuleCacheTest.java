@@ -0,0 +1,187 @@
+package io.apigee.trireme.core.test;
+
+import io.apigee.trireme.core.internal.ModuleCache;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ModuleCacheTest
+{
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1L);
+    // Files written by the test look old enough that the cache trusts their modification times
+    private static final long OLD = System.currentTimeMillis() - 60000L;
+
+    private File root;
+
+    @Before
+    public void createFiles()
+        throws IOException
+    {
+        root = File.createTempFile("modulecache", ".dir");
+        assertTrue(root.delete());
+        assertTrue(root.mkdir());
+        File mod = new File(root, "node_modules/foo");
+        assertTrue(mod.mkdirs());
+        writeFile(new File(mod, "index.js"), "module.exports = 'foo';");
+        writeFile(new File(mod, "package.json"), "{ \"main\": \"index.js\" }");
+        mod.setLastModified(OLD);
+        new File(root, "node_modules").setLastModified(OLD);
+        root.setLastModified(OLD);
+    }
+
+    @After
+    public void deleteFiles()
+    {
+        deleteTree(root);
+    }
+
+    private static void writeFile(File f, String content)
+        throws IOException
+    {
+        FileOutputStream out = new FileOutputStream(f);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        f.setLastModified(OLD);
+    }
+
+    private static void deleteTree(File f)
+    {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (File c : children) {
+                deleteTree(c);
+            }
+        }
+        f.delete();
+    }
+
+    @Test
+    public void testKinds()
+    {
+        TestCache c = new TestCache(false);
+        File mod = new File(root, "node_modules/foo");
+        assertEquals(ModuleCache.DIRECTORY, c.getKind(mod));
+        assertEquals(ModuleCache.FILE, c.getKind(new File(mod, "index.js")));
+        assertEquals(ModuleCache.NOT_FOUND, c.getKind(new File(mod, "index.json")));
+        assertEquals(ModuleCache.NOT_FOUND, c.getKind(new File(mod, "index.node")));
+        assertEquals(ModuleCache.NOT_FOUND, c.getKind(new File(root, "nope/index.js")));
+        long statCount = c.getStatCount();
+
+        // Now it's all cached
+        assertEquals(ModuleCache.DIRECTORY, c.getKind(mod));
+        assertEquals(ModuleCache.FILE, c.getKind(new File(mod, "index.js")));
+        assertEquals(ModuleCache.NOT_FOUND, c.getKind(new File(mod, "index.json")));
+        assertEquals(ModuleCache.NOT_FOUND, c.getKind(new File(root, "nope/index.js")));
+        assertEquals(statCount, c.getStatCount());
+        assertTrue(c.getStatsAvoided() >= 7L);
+    }
+
+    @Test
+    public void testSource()
+        throws IOException
+    {
+        TestCache c = new TestCache(false);
+        File index = new File(root, "node_modules/foo/index.js");
+        assertEquals("module.exports = 'foo';", c.readSource(index));
+        assertEquals("module.exports = 'foo';", c.readSource(index));
+        assertEquals(1L, c.getSourceMissCount());
+        assertEquals(1L, c.getSourceHitCount());
+        assertEquals(23L, c.getSourceSize());
+
+        assertNull(c.readSource(new File(root, "node_modules/foo/nope.js")));
+        assertNull(c.readSource(new File(root, "node_modules/foo")));
+    }
+
+    @Test
+    public void testModified()
+        throws IOException
+    {
+        TestCache c = new TestCache(false);
+        File mod = new File(root, "node_modules/foo");
+        File index = new File(mod, "index.js");
+        File bar = new File(mod, "bar.js");
+        assertEquals("module.exports = 'foo';", c.readSource(index));
+        assertEquals(ModuleCache.NOT_FOUND, c.getKind(bar));
+
+        writeFile(index, "module.exports = 'changed';");
+        writeFile(bar, "module.exports = 'bar';");
+        mod.setLastModified(OLD + 10000L);
+
+        // Nothing is checked until the interval is up
+        assertEquals("module.exports = 'foo';", c.readSource(index));
+        assertEquals(ModuleCache.NOT_FOUND, c.getKind(bar));
+
+        c.time += 2 * SECOND;
+        assertEquals("module.exports = 'changed';", c.readSource(index));
+        assertEquals(ModuleCache.FILE, c.getKind(bar));
+        assertEquals(2L, c.getInvalidationCount());
+    }
+
+    @Test
+    public void testImmutable()
+        throws IOException
+    {
+        TestCache c = new TestCache(true);
+        File mod = new File(root, "node_modules/foo");
+        File index = new File(mod, "index.js");
+        assertEquals("module.exports = 'foo';", c.readSource(index));
+
+        writeFile(index, "module.exports = 'changed';");
+        writeFile(new File(mod, "bar.js"), "module.exports = 'bar';");
+        mod.setLastModified(OLD + 10000L);
+
+        c.time += 3600 * SECOND;
+        assertEquals("module.exports = 'foo';", c.readSource(index));
+        assertEquals(ModuleCache.NOT_FOUND, c.getKind(new File(mod, "bar.js")));
+        assertEquals(0L, c.getInvalidationCount());
+
+        c.clear();
+        assertEquals("module.exports = 'changed';", c.readSource(index));
+        assertEquals(ModuleCache.FILE, c.getKind(new File(mod, "bar.js")));
+    }
+
+    @Test
+    public void testEviction()
+    {
+        TestCache c = new TestCache(false, 30);
+        File mod = new File(root, "node_modules/foo");
+        assertNotNull(c.readSource(new File(mod, "index.js")));
+        assertNotNull(c.readSource(new File(mod, "package.json")));
+        // Only the package is left
+        assertEquals(22L, c.getSourceSize());
+        assertNotNull(c.readSource(new File(mod, "index.js")));
+        assertEquals(3L, c.getSourceMissCount());
+    }
+
+    private static final class TestCache
+        extends ModuleCache
+    {
+        long time = 1000L * SECOND;
+
+        TestCache(boolean immutable)
+        {
+            this(immutable, 10000L);
+        }
+
+        TestCache(boolean immutable, long maxSize)
+        {
+            super(maxSize, 1L, TimeUnit.SECONDS, immutable);
+        }
+
+        @Override
+        protected long now()
+        {
+            return time;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package io.apigee.trireme.core.test;
+
+import io.apigee.trireme.core.internal.SSLContextCache;
+import org.junit.Test;
+
+import javax.net.ssl.SSLContext;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+
+import static org.junit.Assert.*;
+
+public class SSLContextCacheTest
+{
+    private static SSLContext makeContext()
+        throws NoSuchAlgorithmException, KeyManagementException
+    {
+        SSLContext ctx = SSLContext.getInstance("TLS");
+        ctx.init(null, null, null);
+        return ctx;
+    }
+
+    @Test
+    public void testDigest()
+    {
+        assertEquals(SSLContextCache.digest("key", "foo"), SSLContextCache.digest("key", "foo"));
+        assertEquals(64, SSLContextCache.digest("key", "foo").length());
+        assertFalse(SSLContextCache.digest("ab", "c").equals(SSLContextCache.digest("a", "bc")));
+    }
+
+    @Test
+    public void testHitAndMiss()
+        throws NoSuchAlgorithmException, KeyManagementException
+    {
+        SSLContextCache cache = new SSLContextCache(10);
+        assertNull(cache.getContext("one"));
+        SSLContext ctx = makeContext();
+        SSLContextCache.Entry e = cache.putContext("one", ctx, null);
+        assertSame(ctx, e.getContext());
+        assertSame(e, cache.getContext("one"));
+        assertEquals(1L, cache.getContextHitCount());
+        assertEquals(1L, cache.getContextMissCount());
+        assertEquals(0.5, cache.getContextHitRate(), 0.001);
+        assertEquals(1, cache.getContextCount());
+    }
+
+    @Test
+    public void testFirstPutWins()
+        throws NoSuchAlgorithmException, KeyManagementException
+    {
+        SSLContextCache cache = new SSLContextCache(10);
+        SSLContext first = makeContext();
+        cache.putContext("one", first, null);
+        SSLContextCache.Entry e = cache.putContext("one", makeContext(), null);
+        assertSame(first, e.getContext());
+    }
+
+    @Test
+    public void testEviction()
+        throws NoSuchAlgorithmException, KeyManagementException
+    {
+        SSLContextCache cache = new SSLContextCache(2);
+        cache.putContext("one", makeContext(), null);
+        cache.putContext("two", makeContext(), null);
+        // Touch "one" so that "two" is the least recently used
+        assertNotNull(cache.getContext("one"));
+        cache.putContext("three", makeContext(), null);
+        assertEquals(2, cache.getContextCount());
+        assertEquals(1L, cache.getContextEvictionCount());
+        assertNotNull(cache.getContext("one"));
+        assertNull(cache.getContext("two"));
+        assertNotNull(cache.getContext("three"));
+    }
+
+    @Test
+    public void testSessionSettings()
+        throws NoSuchAlgorithmException, KeyManagementException
+    {
+        SSLContextCache cache = new SSLContextCache(10, 123, 456);
+        SSLContextCache.Entry e = cache.putContext("one", makeContext(), null);
+        assertEquals(123, e.getContext().getClientSessionContext().getSessionCacheSize());
+        assertEquals(456, e.getContext().getClientSessionContext().getSessionTimeout());
+        assertEquals(123, e.getContext().getServerSessionContext().getSessionCacheSize());
+        assertEquals(456, e.getContext().getServerSessionContext().getSessionTimeout());
+    }
+
+    @Test
+    public void testSeparateCaches()
+        throws NoSuchAlgorithmException, KeyManagementException
+    {
+        SSLContextCache one = new SSLContextCache(10);
+        SSLContextCache two = new SSLContextCache(10);
+        one.putContext("one", makeContext(), null);
+        assertNotNull(one.getContext("one"));
+        assertNull(two.getContext("one"));
+    }
+
+    @Test
+    public void testMaterial()
+    {
+        SSLContextCache cache = new SSLContextCache(10);
+        assertNull(cache.getMaterial("cert"));
+        Object cert = new Object();
+        cache.putMaterial("cert", cert);
+        assertSame(cert, cache.getMaterial("cert"));
+        assertEquals(1L, cache.getMaterialHitCount());
+        assertEquals(1L, cache.getMaterialMissCount());
+    }
+
+    @Test
+    public void testHandshakeStats()
+    {
+        SSLContextCache cache = new SSLContextCache(10);
+        assertEquals(0L, cache.getHandshakeTimeSaved());
+        cache.getHandshakeRecorder().call(40000000L, false);
+        cache.getHandshakeRecorder().call(20000000L, false);
+        cache.getHandshakeRecorder().call(5000000L, true);
+        cache.getHandshakeRecorder().call(5000000L, true);
+        assertEquals(2L, cache.getFullHandshakeCount());
+        assertEquals(2L, cache.getResumedHandshakeCount());
+        assertEquals(0.5, cache.getSessionResumptionRate(), 0.001);
+        assertEquals(30.0, cache.getAverageFullHandshakeTime(), 0.001);
+        assertEquals(5.0, cache.getAverageResumedHandshakeTime(), 0.001);
+        assertEquals(50L, cache.getHandshakeTimeSaved());
+    }
+}
@@ -22,8 +22,13 @@
 package io.apigee.trireme.kernel;
 
 import io.apigee.trireme.kernel.net.NetworkPolicy;
+import io.apigee.trireme.kernel.net.SelectorHandler;
+import io.apigee.trireme.kernel.util.ReadBufferPool;
 
 import java.io.Closeable;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
@@ -60,6 +65,12 @@ public interface GenericNodeRuntime
      */
     ExecutorService getUnboundedPool();
 
+    /**
+     * Return the pool that network handles read into. Like the selector, it may only be used from inside
+     * the main script thread.
+     */
+    ReadBufferPool getReadBufferPool();
+
     /**
      * Put an object on a list of handles that will be automatically closed when the script exits.
      * This prevents resource leaks in multi-tenant script environments. Like many other things this
@@ -77,6 +88,15 @@ public interface GenericNodeRuntime
      */
     Selector getSelector();
 
+    /**
+     * Register a channel with the network selector so that "handler" is called in the script thread
+     * when the channel is ready. Handles must use this rather than registering with "getSelector" directly,
+     * because the selector may be shared with other scripts. Like "registerCloseable," this must
+     * be called from inside the main script thread.
+     */
+    SelectionKey registerChannel(SelectableChannel channel, int ops, SelectorHandler handler)
+        throws ClosedChannelException;
+
     /**
      * Return an object that must be called every time the process tries to open an outgoing network
      * connection or listen for incoming connections. This may be used to protect access to and from
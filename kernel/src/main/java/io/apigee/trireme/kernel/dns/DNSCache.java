@@ -0,0 +1,335 @@
+package io.apigee.trireme.kernel.dns;
+
+import io.apigee.trireme.kernel.ErrorCodes;
+import io.apigee.trireme.kernel.handles.IOCompletionHandler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This is a cache of DNS answers that may be shared by every DNSResolver in the JVM, and therefore by
+ * many scripts. Answers are kept for the smallest TTL of the records in them, and "not found" and
+ * "no data" answers are kept for a fixed negative TTL. Only one query for a particular name and type
+ * is sent at a time -- everyone else who asks while it is in flight waits for the same answer. When an
+ * answer is used close to the end of its TTL, a new query is sent in the background so that busy names
+ * never expire.
+ * <p>
+ * The number of entries is bounded, and the least-recently-used one is removed when there are too many.
+ * Answers are shared, so callers must not modify them.
+ * </p>
+ */
+public class DNSCache
+{
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+    /** The number of seconds to keep "not found" and "no data" answers. */
+    public static final long DEFAULT_NEGATIVE_TTL = 30L;
+    /** The maximum number of seconds to keep any answer, no matter what its TTL says. */
+    public static final long DEFAULT_MAX_TTL = 3600L;
+
+    /** Refresh an answer when it is used during the last part of its TTL. */
+    private static final int REFRESH_PERCENT = 10;
+
+    private final int maxEntries;
+    private long negativeTtl = TimeUnit.SECONDS.toNanos(DEFAULT_NEGATIVE_TTL);
+    private long maxTtl = TimeUnit.SECONDS.toNanos(DEFAULT_MAX_TTL);
+    private long maxQueryTime = TimeUnit.SECONDS.toNanos(DNSResolver.getMaxQueryTime());
+
+    // Both maps are guarded by "this"
+    private final LinkedHashMap<String, Entry> entries;
+    private final HashMap<String, Pending> pending = new HashMap<String, Pending>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong negativeHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public DNSCache(final int maxEntries)
+    {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+            {
+                if (size() > maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Set how long to keep "not found" and "no data" answers.
+     */
+    public void setNegativeTtl(long ttl, TimeUnit unit) {
+        this.negativeTtl = unit.toNanos(ttl);
+    }
+
+    /**
+     * Set the longest time to keep any answer.
+     */
+    public void setMaxTtl(long ttl, TimeUnit unit) {
+        this.maxTtl = unit.toNanos(ttl);
+    }
+
+    /**
+     * Set how long a query may be in flight before we assume that it was abandoned, for instance because
+     * the script that sent it exited, and send a new one. The default comes from the resolver's timeouts.
+     */
+    public void setMaxQueryTime(long time, TimeUnit unit) {
+        this.maxQueryTime = unit.toNanos(time);
+    }
+
+    private static String makeKey(String name, String type)
+    {
+        return type + ' ' + name.toLowerCase(Locale.US);
+    }
+
+    /**
+     * Used to find out what time it is, in nanoseconds. Tests may replace it.
+     */
+    protected long now()
+    {
+        return System.nanoTime();
+    }
+
+    /**
+     * Return the answer for the name and type if there is one that has not expired, or null otherwise.
+     */
+    public Entry get(String name, String type)
+    {
+        String key = makeKey(name, type);
+        long now = now();
+        Entry e;
+        synchronized (this) {
+            e = entries.get(key);
+            if ((e != null) && (now - e.expires >= 0L)) {
+                entries.remove(key);
+                e = null;
+            }
+        }
+
+        if (e == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+            if (e.isNegative()) {
+                negativeHits.incrementAndGet();
+            }
+        }
+        return e;
+    }
+
+    /**
+     * Call this after a miss. If there is already a query in flight for the name and type, then add
+     * "waiter" to the list of handlers that will get its answer and return false. Otherwise, register a
+     * new query with "waiter" as its first handler and return true, in which case the caller must send the
+     * query and then call "complete."
+     */
+    public boolean join(String name, String type, IOCompletionHandler<Wire> waiter)
+    {
+        String key = makeKey(name, type);
+        long now = now();
+        synchronized (this) {
+            Pending p = pending.get(key);
+            if ((p != null) && (now - p.started < maxQueryTime)) {
+                p.waiters.add(waiter);
+                coalesced.incrementAndGet();
+                return false;
+            }
+            Pending np = new Pending(now);
+            if (p != null) {
+                // The last query was abandoned, so whoever was waiting for it gets this one instead
+                np.waiters.addAll(p.waiters);
+            }
+            np.waiters.add(waiter);
+            pending.put(key, np);
+            return true;
+        }
+    }
+
+    /**
+     * Call this after a hit. If the entry is close to expiring and no other query is in flight for it,
+     * then register a query for it and return true, in which case the caller must send the query and call
+     * "complete" as in "join." Until then the current entry is still returned by "get".
+     */
+    public boolean startRefresh(String name, String type, Entry e)
+    {
+        long now = now();
+        if ((e.expires - now) * 100L > e.ttl * REFRESH_PERCENT) {
+            return false;
+        }
+
+        String key = makeKey(name, type);
+        synchronized (this) {
+            Pending p = pending.get(key);
+            if ((p != null) && (now - p.started < maxQueryTime)) {
+                return false;
+            }
+            Pending np = new Pending(now);
+            if (p != null) {
+                np.waiters.addAll(p.waiters);
+            }
+            pending.put(key, np);
+        }
+        refreshes.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Call this when a query registered by "join" or "startRefresh" is finished, successfully or not. Successful
+     * answers and "not found" answers are cached, and other errors are not. Either way, the result must be
+     * passed to every handler in the list that is returned.
+     */
+    public List<IOCompletionHandler<Wire>> complete(String name, String type, int errCode, Wire msg)
+    {
+        String key = makeKey(name, type);
+        long now = now();
+        Entry e = makeEntry(errCode, msg, now);
+
+        synchronized (this) {
+            if (e != null) {
+                entries.put(key, e);
+            }
+            Pending p = pending.remove(key);
+            if (p == null) {
+                return Collections.emptyList();
+            }
+            return p.waiters;
+        }
+    }
+
+    private Entry makeEntry(int errCode, Wire msg, long now)
+    {
+        long ttl;
+        if (errCode == ErrorCodes.ENOTFOUND) {
+            ttl = negativeTtl;
+        } else if (errCode != 0) {
+            // Timeouts and server failures are not the name's fault, so ask again next time
+            return null;
+        } else if (msg.getAnswers().isEmpty()) {
+            ttl = negativeTtl;
+        } else {
+            long minTtl = Long.MAX_VALUE;
+            for (Wire.RR rr : msg.getAnswers()) {
+                minTtl = Math.min(minTtl, rr.getTtl());
+            }
+            ttl = Math.min(TimeUnit.SECONDS.toNanos(minTtl), maxTtl);
+        }
+
+        if (ttl <= 0L) {
+            return null;
+        }
+        return new Entry(errCode, (errCode == 0) ? msg : null, ttl, now + ttl);
+    }
+
+    /**
+     * Remove every answer from the cache. Queries that are in flight are not affected.
+     */
+    public synchronized void clear()
+    {
+        entries.clear();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * The number of hits that returned a "not found" or "no data" answer.
+     */
+    public long getNegativeHitCount() {
+        return negativeHits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public double getHitRate()
+    {
+        long h = hits.get();
+        long total = h + misses.get();
+        return (total == 0L) ? 0.0 : ((double)h / (double)total);
+    }
+
+    /**
+     * The number of misses that waited for a query that was already in flight rather than sending their own.
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * The number of queries sent in the background to refresh answers that were about to expire.
+     */
+    public long getRefreshCount() {
+        return refreshes.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * A cached answer. If the error code is zero then the result is the answer, which might not have any
+     * records in it. Otherwise the result is null.
+     */
+    public static final class Entry
+    {
+        private final int errorCode;
+        private final Wire result;
+        private final long ttl;
+        private final long expires;
+
+        Entry(int errorCode, Wire result, long ttl, long expires)
+        {
+            this.errorCode = errorCode;
+            this.result = result;
+            this.ttl = ttl;
+            this.expires = expires;
+        }
+
+        public int getErrorCode() {
+            return errorCode;
+        }
+
+        public Wire getResult() {
+            return result;
+        }
+
+        public boolean isNegative() {
+            return ((errorCode != 0) || result.getAnswers().isEmpty());
+        }
+    }
+
+    private static final class Pending
+    {
+        final long started;
+        final ArrayList<IOCompletionHandler<Wire>> waiters = new ArrayList<IOCompletionHandler<Wire>>(1);
+
+        Pending(long started)
+        {
+            this.started = started;
+        }
+    }
+}
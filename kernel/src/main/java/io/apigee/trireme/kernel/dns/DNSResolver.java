@@ -10,11 +10,14 @@ import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
 import java.security.SecureRandom;
+import java.util.List;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 /**
- * This is a really simple DNS resolver based on the handles.
+ * This is a really simple DNS resolver based on the handles. If it is given a DNSCache, then answers
+ * come from the cache when possible, and queries that are already in flight in any resolver that shares
+ * the cache are not sent again.
  */
 
 public class DNSResolver
@@ -32,12 +35,37 @@ public class DNSResolver
     protected static final SecureRandom rand = new SecureRandom();
 
     protected final GenericNodeRuntime runtime;
+    protected final DNSCache cache;
 
     public DNSResolver(GenericNodeRuntime runtime)
+    {
+        this(runtime, null);
+    }
+
+    public DNSResolver(GenericNodeRuntime runtime, DNSCache cache)
     {
         this.runtime = runtime;
+        this.cache = cache;
     }
 
+    /**
+     * Return the longest time, in seconds, that a query may take, including all the retries.
+     */
+    public static int getMaxQueryTime()
+    {
+        int total = 0;
+        for (int t : TIMEOUTS) {
+            if (t > 0) {
+                total += t;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Look up the name and call "onComplete" in the script thread. The handler is never called before
+     * this method returns.
+     */
     public void resolve(String name, String type,
                         final IOCompletionHandler<Wire> onComplete)
         throws OSException
@@ -47,11 +75,74 @@ public class DNSResolver
             throw new OSException(ErrorCodes.EINVAL, "No DNS servers configured");
         }
 
-        Wire query;
+        if (cache == null) {
+            send(name, type, onComplete);
+            return;
+        }
+
+        DNSCache.Entry cached = cache.get(name, type);
+        if (cached != null) {
+            if (cache.startRefresh(name, type, cached)) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Refreshing cached {} record for {}", type, name);
+                }
+                sendCached(buildQuery(name, type), name, type);
+            }
+            new Delivery(onComplete).ioComplete(cached.getErrorCode(), cached.getResult());
+            return;
+        }
+
+        // Build the query first so that bad names and types fail right away even if we end up waiting
+        Wire query = buildQuery(name, type);
+        Delivery delivery = new Delivery(onComplete);
+        if (cache.join(name, type, delivery)) {
+            sendCached(query, name, type);
+        } else {
+            // Someone else is already asking. If they never answer, for instance because their script
+            // was killed, we give up at the same time that our own query would have.
+            if (log.isDebugEnabled()) {
+                log.debug("Waiting for {} query for {} that is already in flight", type, name);
+            }
+            delivery.setTimeout(getMaxQueryTime());
+        }
+    }
+
+    /**
+     * Send a query that was registered with the cache, and make sure that the cache hears about the result
+     * even if it can't be sent.
+     */
+    private void sendCached(Wire query, String name, String type)
+    {
+        CacheCompletion done = new CacheCompletion(name, type);
+        try {
+            send(query, done);
+        } catch (OSException ose) {
+            done.ioComplete(ose.getCode(), null);
+        }
+    }
+
+    private void send(String name, String type, IOCompletionHandler<Wire> onComplete)
+        throws OSException
+    {
+        send(buildQuery(name, type), onComplete);
+    }
+
+    private Wire buildQuery(String name, String type)
+        throws OSException
+    {
+        try {
+            return makeQuery(name, type);
+        } catch (DNSException de) {
+            throw new OSException(ErrorCodes.EINVAL, "Invalid DNS query");
+        }
+    }
+
+    private void send(Wire query, IOCompletionHandler<Wire> onComplete)
+        throws OSException
+    {
         ByteBuffer queryBuf;
 
         try {
-            query = makeQuery(name, type);
             queryBuf = query.store();
         } catch (DNSException de) {
             throw new OSException(ErrorCodes.EINVAL, "Invalid DNS query");
@@ -97,6 +188,90 @@ public class DNSResolver
         return msg;
     }
 
+    /**
+     * This is called in the script thread of the resolver that sent the query, and hands the answer to
+     * everyone who was waiting for it, in whatever script they are in.
+     */
+    private class CacheCompletion
+        implements IOCompletionHandler<Wire>
+    {
+        private final String name;
+        private final String type;
+
+        CacheCompletion(String name, String type)
+        {
+            this.name = name;
+            this.type = type;
+        }
+
+        @Override
+        public void ioComplete(int errCode, Wire value)
+        {
+            List<IOCompletionHandler<Wire>> waiters = cache.complete(name, type, errCode, value);
+            for (IOCompletionHandler<Wire> w : waiters) {
+                w.ioComplete(errCode, value);
+            }
+        }
+    }
+
+    /**
+     * This may be called from any thread, and calls the handler in this resolver's script thread,
+     * in the domain that was current when the query was made. The handler is called only once, either
+     * with the answer or when the timeout expires.
+     */
+    private class Delivery
+        implements IOCompletionHandler<Wire>
+    {
+        private final IOCompletionHandler<Wire> onComplete;
+        private final Object domain;
+        private Future<Boolean> timer;
+        private boolean done;
+
+        Delivery(IOCompletionHandler<Wire> onComplete)
+        {
+            this.onComplete = onComplete;
+            this.domain = runtime.getDomain();
+        }
+
+        void setTimeout(int seconds)
+        {
+            timer = runtime.createTimedTask(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    log.debug("Gave up waiting for DNS query from another script");
+                    finish(ErrorCodes.ETIMEOUT, null);
+                }
+            }, seconds, TimeUnit.SECONDS, false, domain);
+        }
+
+        @Override
+        public void ioComplete(final int errCode, final Wire value)
+        {
+            runtime.executeScriptTask(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    finish(errCode, value);
+                }
+            }, domain);
+        }
+
+        void finish(int errCode, Wire value)
+        {
+            if (done) {
+                return;
+            }
+            done = true;
+            if (timer != null) {
+                timer.cancel(false);
+            }
+            onComplete.ioComplete(errCode, value);
+        }
+    }
+
     private class QueryStatus
     {
         private final Wire query;
@@ -0,0 +1,53 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.kernel.fs;
+
+import java.io.File;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+
+/**
+ * This is an open file in AdvancedFilesystem. Besides the regular channel, which is used for
+ * synchronous calls, it may have an AsynchronousFileChannel for the same file, for reads and writes
+ * that call back when they are done.
+ */
+
+public class AdvancedFileHandle
+    extends AbstractFileHandle
+{
+    private AsynchronousFileChannel asyncChannel;
+
+    protected AdvancedFileHandle(File file, String origPath, FileChannel channel,
+                                 AsynchronousFileChannel asyncChannel)
+    {
+        super(file, origPath, channel);
+        this.asyncChannel = asyncChannel;
+    }
+
+    public AsynchronousFileChannel getAsyncChannel() {
+        return asyncChannel;
+    }
+
+    public void setAsyncChannel(AsynchronousFileChannel asyncChannel) {
+        this.asyncChannel = asyncChannel;
+    }
+}
@@ -24,6 +24,7 @@ package io.apigee.trireme.kernel.fs;
 import io.apigee.trireme.kernel.ErrorCodes;
 import io.apigee.trireme.kernel.OSException;
 import io.apigee.trireme.kernel.Platform;
+import io.apigee.trireme.kernel.handles.IOCompletionHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,6 +32,10 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.CompletionHandler;
 import java.nio.channels.FileChannel;
 import java.nio.file.AccessDeniedException;
 import java.nio.file.AtomicMoveNotSupportedException;
@@ -60,6 +65,7 @@ import java.nio.file.attribute.PosixFilePermissions;
 import java.nio.file.attribute.UserPrincipal;
 import java.nio.file.attribute.UserPrincipalLookupService;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
@@ -67,6 +73,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 import java.util.regex.Pattern;
 
 /**
@@ -79,6 +86,34 @@ public class AdvancedFilesystem
 {
     private static final Logger log = LoggerFactory.getLogger(AdvancedFilesystem.class);
 
+    private boolean asyncIO;
+    private ExecutorService asyncExecutor;
+
+    /**
+     * Choose whether files are also opened with an AsynchronousFileChannel so that "readAsync" and
+     * "writeAsync" work. Synchronous calls always use the regular channel. The default is false. It only
+     * affects files that are opened after it is called, and only if "setAsyncExecutor" was called too.
+     */
+    public void setAsyncIO(boolean asyncIO) {
+        this.asyncIO = asyncIO;
+    }
+
+    public boolean isAsyncIO() {
+        return asyncIO;
+    }
+
+    /**
+     * Set the thread pool that asynchronous channels use. This should be the runtime's async pool, so that
+     * asynchronous file I/O is bounded in the same way as the rest of the I/O that scripts do.
+     */
+    public void setAsyncExecutor(ExecutorService asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    public ExecutorService getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
     /**
      * In Java 7 we can open the file in one operation, which makes the atomic operations that NPM
      * depends on actually work. In Java 6 we had race conditions.
@@ -93,11 +128,13 @@ public class AdvancedFilesystem
         }
 
         FileChannel file = null;
+        AsynchronousFileChannel asyncFile = null;
         Path path = Paths.get(fp.getPath());
+        HashSet<OpenOption> asyncOptions = new HashSet<OpenOption>();
 
         // To support "lchmod", we need to check "O_SYMLINK" here too
         if (!Files.isDirectory(path)) {
-            // Open an AsynchronousFileChannel using all the relevant open options.
+            // Open a FileChannel using all the relevant open options.
             // But if we are opening a symbolic link or directory, just record the path and go on
             HashSet<OpenOption> options = new HashSet<OpenOption>();
             if ((flags & FileConstants.O_CREAT) != 0) {
@@ -115,12 +152,18 @@ public class AdvancedFilesystem
             } else {
                 options.add(StandardOpenOption.READ);
             }
+            // The async channel is opened right after the regular one, by which time the file has been
+            // created and truncated. Creating it again would be wrong if it had been removed in between.
+            asyncOptions.addAll(options);
+            asyncOptions.remove(StandardOpenOption.CREATE);
+            asyncOptions.remove(StandardOpenOption.CREATE_NEW);
 
             if ((flags & FileConstants.O_TRUNC) != 0) {
                 options.add(StandardOpenOption.TRUNCATE_EXISTING);
             }
             if ((flags & FileConstants.O_SYNC) != 0) {
                 options.add(StandardOpenOption.SYNC);
+                asyncOptions.add(StandardOpenOption.SYNC);
             }
 
             try {
@@ -139,10 +182,23 @@ public class AdvancedFilesystem
             } catch (IOException ioe) {
                 throw new OSException(getErrorCode(ioe), ioe, origPath);
             }
+
+            if (asyncIO && (asyncExecutor != null)) {
+                // Open it now rather than when it is first used, so that it is still the same file even if
+                // the path is renamed or removed later, as when log files are rotated.
+                try {
+                    asyncFile = AsynchronousFileChannel.open(path, asyncOptions, asyncExecutor);
+                } catch (IOException ioe) {
+                    // For instance, it was removed already. The regular channel still works.
+                    if (log.isDebugEnabled()) {
+                        log.debug("Can't open asynchronous channel for {}: {}", origPath, ioe);
+                    }
+                }
+            }
         }
 
         try {
-            AbstractFileHandle fileHandle = new AbstractFileHandle(fp, origPath, file);
+            AdvancedFileHandle fileHandle = new AdvancedFileHandle(fp, origPath, file, asyncFile);
             // Replace this if we choose to support "lchmod"
                 /*
                 if ((flags & Constants.O_SYMLINK) != 0) {
@@ -168,6 +224,227 @@ public class AdvancedFilesystem
         }
     }
 
+    @Override
+    public void close(int fd)
+        throws OSException
+    {
+        AbstractFileHandle h = ensureHandle(fd);
+        try {
+            closeAsyncChannel(h);
+        } finally {
+            super.close(fd);
+        }
+    }
+
+    @Override
+    public void cleanup()
+    {
+        for (AbstractFileHandle h : descriptors.values()) {
+            try {
+                closeAsyncChannel(h);
+                if (h.getChannel() != null) {
+                    h.getChannel().close();
+                }
+            } catch (IOException ignore) {
+            } catch (OSException ignore) {
+            }
+        }
+        super.cleanup();
+    }
+
+    private void closeAsyncChannel(AbstractFileHandle h)
+        throws OSException
+    {
+        if (h instanceof AdvancedFileHandle) {
+            AdvancedFileHandle ah = (AdvancedFileHandle)h;
+            AsynchronousFileChannel ch;
+            synchronized (ah) {
+                ch = ah.getAsyncChannel();
+                ah.setAsyncChannel(null);
+            }
+            if (ch != null) {
+                try {
+                    ch.close();
+                } catch (IOException ioe) {
+                    throw new OSException(ErrorCodes.EIO, ioe, h.getOrigPath());
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the asynchronous channel for a file, or return null if it doesn't have one.
+     * (On Linux, the JDK does the I/O on the async executor, but on Windows it is really asynchronous.)
+     */
+    private AsynchronousFileChannel getAsyncChannel(int fd)
+        throws OSException
+    {
+        AbstractFileHandle h = ensureRegularFileHandle(fd);
+        if (!(h instanceof AdvancedFileHandle)) {
+            return null;
+        }
+        AdvancedFileHandle ah = (AdvancedFileHandle)h;
+        synchronized (ah) {
+            return ah.getAsyncChannel();
+        }
+    }
+
+    @Override
+    public boolean readAsync(int fd, final ByteBuffer buf, final long pos,
+                             final IOCompletionHandler<Integer> handler)
+        throws OSException
+    {
+        AsynchronousFileChannel ch = getAsyncChannel(fd);
+        if (ch == null) {
+            return false;
+        }
+
+        ch.read(buf, pos, null, new CompletionHandler<Integer, Object>() {
+            @Override
+            public void completed(Integer count, Object attachment)
+            {
+                if (log.isTraceEnabled()) {
+                    log.trace("readAsync({}) = {}", pos, count);
+                }
+                // Node (like C) expects 0 on EOF, not -1
+                handler.ioComplete(0, (count < 0 ? 0 : count));
+            }
+
+            @Override
+            public void failed(Throwable t, Object attachment)
+            {
+                handler.ioComplete(getAsyncErrorCode(t), 0);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public boolean writeAsync(int fd, final ByteBuffer buf, final long pos,
+                              final IOCompletionHandler<Integer> handler)
+        throws OSException
+    {
+        final AsynchronousFileChannel ch = getAsyncChannel(fd);
+        if (ch == null) {
+            return false;
+        }
+
+        // Like "write," don't call back until everything is written
+        ch.write(buf, pos, 0, new CompletionHandler<Integer, Integer>() {
+            @Override
+            public void completed(Integer count, Integer soFar)
+            {
+                int total = soFar + count;
+                if (buf.hasRemaining() && (count > 0)) {
+                    ch.write(buf, pos + total, total, this);
+                    return;
+                }
+                if (log.isTraceEnabled()) {
+                    log.trace("writeAsync({}) = {}", pos, total);
+                }
+                handler.ioComplete(0, total);
+            }
+
+            @Override
+            public void failed(Throwable t, Integer soFar)
+            {
+                handler.ioComplete(getAsyncErrorCode(t), 0);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Read small files with an AsynchronousFileChannel. The file is opened, and its size is checked, on the
+     * calling thread, since there is no asynchronous way to do either. Files of MAP_THRESHOLD bytes or more
+     * are left to "readWholeFile," which copies them from a mapping.
+     */
+    @Override
+    public boolean readWholeFileAsync(File f, final String origPath, long maxSize,
+                                      final IOCompletionHandler<byte[]> handler)
+        throws OSException
+    {
+        if (!asyncIO || (asyncExecutor == null)) {
+            return false;
+        }
+        if (!f.isFile()) {
+            if (!f.exists()) {
+                throw new OSException(ErrorCodes.ENOENT, origPath);
+            }
+            return false;
+        }
+
+        final AsynchronousFileChannel ch;
+        final long size;
+        try {
+            ch = AsynchronousFileChannel.open(Paths.get(f.getPath()),
+                                              Collections.singleton(StandardOpenOption.READ), asyncExecutor);
+        } catch (NoSuchFileException nfe) {
+            throw new OSException(ErrorCodes.ENOENT, origPath);
+        } catch (IOException ioe) {
+            // Let the caller open it the usual way and report the real error
+            return false;
+        }
+        try {
+            size = ch.size();
+        } catch (IOException ioe) {
+            closeQuietly(ch);
+            return false;
+        }
+        if ((size == 0L) || (size > maxSize) || (size >= MAP_THRESHOLD)) {
+            closeQuietly(ch);
+            return false;
+        }
+
+        final byte[] data = new byte[(int)size];
+        final ByteBuffer buf = ByteBuffer.wrap(data);
+        ch.read(buf, 0L, null, new CompletionHandler<Integer, Object>() {
+            @Override
+            public void completed(Integer count, Object attachment)
+            {
+                if ((count > 0) && buf.hasRemaining()) {
+                    ch.read(buf, buf.position(), null, this);
+                    return;
+                }
+                closeQuietly(ch);
+                if (log.isTraceEnabled()) {
+                    log.trace("readWholeFileAsync({}) = {}", origPath, buf.position());
+                }
+                // It may have gotten shorter while we were reading it
+                handler.ioComplete(0, (buf.hasRemaining() ? Arrays.copyOf(data, buf.position()) : data));
+            }
+
+            @Override
+            public void failed(Throwable t, Object attachment)
+            {
+                closeQuietly(ch);
+                handler.ioComplete(getAsyncErrorCode(t), null);
+            }
+        });
+        return true;
+    }
+
+    private static void closeQuietly(AsynchronousFileChannel ch)
+    {
+        try {
+            ch.close();
+        } catch (IOException ioe) {
+            log.debug("Error closing asynchronous channel: {}", ioe);
+        }
+    }
+
+    private static int getAsyncErrorCode(Throwable t)
+    {
+        if (log.isDebugEnabled()) {
+            log.debug("Asynchronous I/O failed: {}", t);
+        }
+        // Includes the case where the file was closed while we were waiting
+        if (t instanceof ClosedChannelException) {
+            return ErrorCodes.EBADF;
+        }
+        return ErrorCodes.EIO;
+    }
+
     @Override
     public void ftruncate(int fd, long len)
         throws OSException
@@ -23,6 +23,8 @@ package io.apigee.trireme.kernel.fs;
 
 import io.apigee.trireme.kernel.ErrorCodes;
 import io.apigee.trireme.kernel.OSException;
+import io.apigee.trireme.kernel.Platform;
+import io.apigee.trireme.kernel.handles.IOCompletionHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,6 +33,8 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -226,6 +230,151 @@ public class BasicFilesystem
         return (read < 0 ? 0 : read);
     }
 
+    /**
+     * Read like "read," but without blocking the caller. "handler" is called on some other thread with
+     * the number of bytes read, or with an error code. Return false if this filesystem can't do that for
+     * this file, in which case the caller must call "read" from a thread of its own.
+     */
+    public boolean readAsync(int fd, ByteBuffer buf, long pos, IOCompletionHandler<Integer> handler)
+        throws OSException
+    {
+        return false;
+    }
+
+    /**
+     * Write like "write," but without blocking the caller, as in "readAsync."
+     */
+    public boolean writeAsync(int fd, ByteBuffer buf, long pos, IOCompletionHandler<Integer> handler)
+        throws OSException
+    {
+        return false;
+    }
+
+    /**
+     * Files at least this big are mapped in to memory by "readWholeFile" and copied out of the mapping,
+     * rather than read through a temporary direct buffer that is as big as the file.
+     */
+    public static final long MAP_THRESHOLD = 1024L * 1024L;
+
+    /**
+     * Read a whole file in one step, which saves the separate steps to open, stat, read, and close it.
+     * Return null if the file isn't a regular file, if it is empty, since files like those in "/proc" say
+     * that they are empty when they aren't, if it is bigger than "maxSize," or if it exists but can't be
+     * opened. In those cases the caller should read it the usual way, which reports errors like EACCES
+     * properly. If it doesn't exist, then fail with ENOENT, as "open" would.
+     * <p>
+     * Regular files of at least MAP_THRESHOLD bytes are copied from a mapping on POSIX systems. (Mapped
+     * files can't be deleted on Windows until the mapping is garbage-collected.) Either way the caller
+     * gets its own copy, so later changes to the file don't affect it.
+     * </p>
+     */
+    public byte[] readWholeFile(File f, String origPath, long maxSize)
+        throws OSException
+    {
+        if (!f.isFile()) {
+            if (!f.exists()) {
+                throw new OSException(ErrorCodes.ENOENT, origPath);
+            }
+            return null;
+        }
+
+        try {
+            RandomAccessFile file = new RandomAccessFile(f, "r");
+            try {
+                FileChannel channel = file.getChannel();
+                long size = channel.size();
+                if ((size == 0L) || (size > maxSize) || (size > Integer.MAX_VALUE)) {
+                    return null;
+                }
+
+                byte[] data = null;
+                if ((size >= MAP_THRESHOLD) && Platform.get().isPosixFilesystem()) {
+                    data = copyMapped(channel, (int)size);
+                }
+                if (data == null) {
+                    data = readAll(channel, (int)size);
+                }
+
+                if (log.isTraceEnabled()) {
+                    log.trace("readWholeFile({}) = {}", origPath, data.length);
+                }
+                return data;
+            } finally {
+                file.close();
+            }
+        } catch (FileNotFoundException fnfe) {
+            // This is also what we get when the file exists but we aren't allowed to read it
+            if (!f.exists()) {
+                throw new OSException(ErrorCodes.ENOENT, origPath);
+            }
+            return null;
+        } catch (IOException ioe) {
+            throw new OSException(ErrorCodes.EIO, ioe, origPath);
+        }
+    }
+
+    /**
+     * Copy the first "size" bytes of the file out of a mapping, or return null if it got shorter before we
+     * were done. Touching a mapped page past the end of the file raises SIGBUS, which the JVM turns in to an
+     * InternalError in the thread that touched it.
+     */
+    private static byte[] copyMapped(FileChannel channel, int size)
+        throws IOException
+    {
+        MappedByteBuffer mapped;
+        try {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+        } catch (IOException ioe) {
+            // It got shorter since we checked, and a read-only mapping can't extend it
+            return null;
+        }
+        byte[] data = new byte[size];
+        try {
+            mapped.get(data);
+            // In compiled code a fault while copying isn't thrown right away, but the next time this thread
+            // calls in to the VM, which could be in the middle of some JDK code that can't cope with it.
+            // Allocating a multi-dimensional array always calls in to the VM, so do that here. (The size
+            // isn't a constant so that it can't be optimized away.)
+            if (new byte[mapped.remaining() + 1][0].length != 1) {
+                return null;
+            }
+        } catch (InternalError ie) {
+            return null;
+        }
+        // If it ends part way through the last page, then the rest of the page reads as zeroes
+        return (channel.size() < size ? null : data);
+    }
+
+    /**
+     * Read up to "size" bytes from the start of the file, and return fewer if it ends first.
+     */
+    private static byte[] readAll(FileChannel channel, int size)
+        throws IOException
+    {
+        byte[] data = new byte[size];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (buf.hasRemaining() && (channel.read(buf, buf.position()) >= 0)) {
+            // Keep going until it's full or the file ends
+        }
+        if (buf.hasRemaining()) {
+            // It got shorter while we were reading it
+            data = Arrays.copyOf(data, buf.position());
+        }
+        return data;
+    }
+
+    /**
+     * Read a whole file like "readWholeFile," but without blocking the caller. "handler" is called on some
+     * other thread with the contents or with an error code. Return false if this filesystem can't do that for
+     * this file, in which case the caller must call "readWholeFile" from a thread of its own. If the file
+     * doesn't exist, then fail right away with ENOENT.
+     */
+    public boolean readWholeFileAsync(File f, String origPath, long maxSize, IOCompletionHandler<byte[]> handler)
+        throws OSException
+    {
+        return false;
+    }
+
     public FileStats stat(File f, String origPath, boolean noFollow)
         throws OSException
     {
@@ -73,6 +73,16 @@ public abstract class AbstractHandle
         return 0;
     }
 
+    @Override
+    public void cork()
+    {
+    }
+
+    @Override
+    public void uncork()
+    {
+    }
+
     @Override
     public void startReading(IOCompletionHandler<ByteBuffer> handler)
     {
@@ -36,12 +36,19 @@ public abstract class AbstractNIOHandle
 {
     private static final Logger log = LoggerFactory.getLogger(AbstractNIOHandle.class);
 
+    /** The most buffers that we will pass to a single gathering write */
+    public static final int MAX_GATHER_BUFFERS = 64;
+    /** Stop adding buffers to a gathering write after this many bytes */
+    public static final int MAX_GATHER_BYTES = 256 * 1024;
+
     protected final GenericNodeRuntime runtime;
 
     protected SelectionKey            selKey;
     protected boolean                 writeReady;
     protected final  ArrayDeque<QueuedWrite> writeQueue = new ArrayDeque<QueuedWrite>();
     protected int                     queuedBytes;
+    protected int                     corked;
+    private   ByteBuffer[]            gatherBuffers;
 
     protected AbstractNIOHandle(GenericNodeRuntime runtime)
     {
@@ -73,11 +80,74 @@ public abstract class AbstractNIOHandle
 
     protected void queueWrite(QueuedWrite qw)
     {
-        addInterest(SelectionKey.OP_WRITE);
+        if (corked == 0) {
+            addInterest(SelectionKey.OP_WRITE);
+        }
         writeQueue.addLast(qw);
         queuedBytes += qw.getLength();
     }
 
+    @Override
+    public void cork()
+    {
+        corked++;
+    }
+
+    @Override
+    public void uncork()
+    {
+        if (corked == 0) {
+            return;
+        }
+        corked--;
+        if ((corked == 0) && !writeQueue.isEmpty()) {
+            if (writeReady) {
+                // Send everything that was queued right now
+                processWrites();
+            } else {
+                addInterest(SelectionKey.OP_WRITE);
+            }
+        }
+    }
+
+    /**
+     * Collect the buffers from the writes at the head of the queue, stopping at the first one that is not
+     * a regular write, and return how many there are. The buffers are left in "getGatherBuffers()" and the
+     * writes stay on the queue.
+     */
+    protected int gatherQueuedWrites()
+    {
+        if (gatherBuffers == null) {
+            gatherBuffers = new ByteBuffer[MAX_GATHER_BUFFERS];
+        }
+
+        int count = 0;
+        int bytes = 0;
+        for (QueuedWrite qw : writeQueue) {
+            if (qw.shutdown || (qw.buf == null) || (count == MAX_GATHER_BUFFERS) ||
+                ((count > 0) && (bytes >= MAX_GATHER_BYTES))) {
+                break;
+            }
+            gatherBuffers[count++] = qw.buf;
+            bytes += qw.buf.remaining();
+        }
+        return count;
+    }
+
+    protected ByteBuffer[] getGatherBuffers() {
+        return gatherBuffers;
+    }
+
+    /**
+     * Clear references to the buffers after a gathering write.
+     */
+    protected void clearGatherBuffers(int count)
+    {
+        for (int i = 0; i < count; i++) {
+            gatherBuffers[i] = null;
+        }
+    }
+
     protected void clientSelected(SelectionKey key)
     {
         if (log.isDebugEnabled()) {
@@ -27,9 +27,21 @@ import io.apigee.trireme.kernel.OSException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 
+/**
+ * This is the handle that a cluster worker gets when the master passes it a listening TCP handle.
+ * Rather than having the master accept each connection and pass it along, each worker registers the
+ * shared server channel with its own selector and accepts connections directly. Whichever worker is
+ * idle in its event loop gets to the new connection first, so load is spread across workers without
+ * the master's thread being involved. Workers that run on the same shared event loop also share a selector,
+ * so they share a SharedAcceptor, which takes turns handing connections to each of them.
+ */
+
 public class ChildServerHandle
     extends AbstractHandle
     implements SocketHandle
@@ -39,24 +51,69 @@ public class ChildServerHandle
     private final GenericNodeRuntime runtime;
     private final NIOSocketHandle parent;
 
+    private ServerSocketChannel channel;
+    private SharedAcceptor acceptor;
+    private Closeable onExit;
+    private IOCompletionHandler<AbstractHandle> connectionHandler;
+
     public ChildServerHandle(NIOSocketHandle parent, GenericNodeRuntime runtime)
     {
         this.parent = parent;
         this.runtime = runtime;
     }
 
+    GenericNodeRuntime getRuntime() {
+        return runtime;
+    }
+
     /**
-     * This is called by the parent after a new channel is accepted. It happens in a thread that belongs
-     * to another script so it dispatches to the right thread first.
+     * Called by the SharedAcceptor in this worker's script thread.
      */
-    public void serverSelected(final SocketChannel newChannel)
+    void deliverConnection(SocketChannel child)
     {
-        // TODO or maybe we don't need this class at all?
+        if (acceptor == null) {
+            // Closed since the connection was accepted
+            try {
+                child.close();
+            } catch (IOException ioe) {
+                log.debug("Error closing channel that might be closed: {}", ioe);
+            }
+            return;
+        }
+        NIOSocketHandle.deliverConnection(child, runtime, connectionHandler);
+    }
+
+    /**
+     * Called by the SharedAcceptor in the script thread of another worker on the same event loop.
+     */
+    void deliverConnectionLater(final SocketChannel child)
+    {
+        runtime.executeScriptTask(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                deliverConnection(child);
+            }
+        }, null);
     }
 
     @Override
     public void close()
     {
+        // The channel itself belongs to the master, which closes it when the last worker is done
+        if (acceptor != null) {
+            runtime.unregisterCloseable(onExit);
+            stopAccepting();
+        }
+    }
+
+    private void stopAccepting()
+    {
+        if (acceptor != null) {
+            acceptor.remove(this);
+            acceptor = null;
+        }
     }
 
     @Override
@@ -71,6 +128,30 @@ public class ChildServerHandle
         throws OSException
     {
         log.debug("Listening from a TCP server delivered via IPC.");
+        if (channel != null) {
+            throw new OSException(ErrorCodes.EINVAL);
+        }
+
+        this.connectionHandler = handler;
+        channel = parent.openSharedChannel(backlog);
+
+        SharedAcceptor a = parent.getSharedAcceptor(channel, runtime.getSelector());
+        try {
+            a.add(this);
+            acceptor = a;
+            // If the script exits without closing this, then the other workers on the loop must take over
+            onExit = new Closeable() {
+                @Override
+                public void close()
+                {
+                    stopAccepting();
+                }
+            };
+            runtime.registerCloseable(onExit);
+        } catch (IOException ioe) {
+            log.debug("Error listening on shared channel: {}", ioe);
+            throw new OSException(ErrorCodes.EIO);
+        }
     }
 
     @Override
@@ -88,7 +169,7 @@ public class ChildServerHandle
     @Override
     public InetSocketAddress getSockName()
     {
-        return null;
+        return parent.getSockName();
     }
 
     @Override
@@ -36,6 +36,16 @@ public interface Handle
 
     int getWritesOutstanding();
 
+    /**
+     * Hold subsequent writes in the queue, rather than sending them right away, until "uncork" is called.
+     * This lets a series of small writes be sent together in as few system calls as possible.
+     * Calls may be nested, and the writes are sent when the last "uncork" is called. Handles that can't
+     * do this ignore it.
+     */
+    void cork();
+
+    void uncork();
+
     void startReading(IOCompletionHandler<ByteBuffer> handler);
 
     void stopReading();
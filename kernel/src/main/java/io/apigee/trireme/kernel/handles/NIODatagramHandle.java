@@ -26,6 +26,7 @@ import io.apigee.trireme.kernel.GenericNodeRuntime;
 import io.apigee.trireme.kernel.OSException;
 import io.apigee.trireme.kernel.net.NetworkPolicy;
 import io.apigee.trireme.kernel.net.SelectorHandler;
+import io.apigee.trireme.kernel.util.ReadBufferPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -51,7 +52,7 @@ public class NIODatagramHandle
     private DatagramChannel channel;
     private boolean readStarted;
     private IOCompletionHandler<ReceivedDatagram> readHandler;
-    private ByteBuffer receiveBuffer;
+    private int receiveBufferSize;
 
     public NIODatagramHandle(GenericNodeRuntime runtime)
     {
@@ -78,7 +79,7 @@ public class NIODatagramHandle
             runtime.registerCloseable(channel);
             channel.configureBlocking(false);
             channel.socket().bind(bound);
-            selKey = channel.register(runtime.getSelector(), 0,
+            selKey = runtime.registerChannel(channel, 0,
                              new SelectorHandler() {
                                  @Override
                                  public void selected(SelectionKey key)
@@ -209,10 +210,9 @@ public class NIODatagramHandle
     {
         if (!readStarted) {
             this.readHandler = handler;
-            if (receiveBuffer == null) {
+            if (receiveBufferSize == 0) {
                 try {
-                    receiveBuffer =
-                        ByteBuffer.allocate(Math.min(MAX_READ_BUFFER, channel.socket().getReceiveBufferSize()));
+                    receiveBufferSize = Math.min(MAX_READ_BUFFER, channel.socket().getReceiveBufferSize());
                 } catch (SocketException ignore) {
                     // We only get here if the channel has been closed
                 }
@@ -238,12 +238,15 @@ public class NIODatagramHandle
             return;
         }
 
+        ReadBufferPool pool = runtime.getReadBufferPool();
         SocketAddress addr;
         do {
-            ByteBuffer buf = null;
+            // Receive straight into the pool. A datagram that doesn't fit is truncated, so always lease
+            // the full receive buffer size. Most datagrams are small, so "commit" copies them out and the
+            // same space in the slab is leased again for the next one.
+            ByteBuffer buf = pool.lease(receiveBufferSize, receiveBufferSize);
             try {
-                receiveBuffer.clear();
-                addr = channel.receive(receiveBuffer);
+                addr = channel.receive(buf);
 
             } catch (IOException ioe) {
                 if (log.isDebugEnabled()) {
@@ -255,13 +258,14 @@ public class NIODatagramHandle
                 log.debug("Read from {} into {}", channel, buf);
             }
             if (addr != null) {
-                // Copy the contents of the receive buffer into a temporary buffer, which will
-                // almost always be much smaller. Then clear the receive buffer so we can re-use it.
-                receiveBuffer.flip();
-                ByteBuffer readBuf = ByteBuffer.allocate(receiveBuffer.remaining());
-                readBuf.put(receiveBuffer);
-                readBuf.flip();
+                // Only the bytes that were received are taken from the pool.
+                ByteBuffer readBuf = pool.commit(buf);
+                if (readBuf == null) {
+                    readBuf = ByteBuffer.allocate(0);
+                }
                 readHandler.ioComplete(0, new ReceivedDatagram(readBuf, addr));
+            } else {
+                pool.cancel(buf);
             }
         } while (readStarted && (addr != null));
     }
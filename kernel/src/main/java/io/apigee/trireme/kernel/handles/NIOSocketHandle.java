@@ -26,6 +26,7 @@ import io.apigee.trireme.kernel.GenericNodeRuntime;
 import io.apigee.trireme.kernel.OSException;
 import io.apigee.trireme.kernel.net.NetworkPolicy;
 import io.apigee.trireme.kernel.net.SelectorHandler;
+import io.apigee.trireme.kernel.util.ReadBufferPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,8 +38,10 @@ import java.net.SocketException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.IdentityHashMap;
 
 /**
  * Node's own script modules use this internal module to implement the guts of async TCP.
@@ -50,15 +53,19 @@ public class NIOSocketHandle
     private static final Logger log = LoggerFactory.getLogger(NIOSocketHandle.class);
 
     public static final int    READ_BUFFER_SIZE = 32767;
+    /** Don't bother reading into less space than this -- start a new slab instead */
+    public static final int    MIN_READ_SIZE = 4096;
 
     private InetSocketAddress       boundAddress;
-    private ServerSocketChannel     svrChannel;
+    private volatile ServerSocketChannel svrChannel;
     private SocketChannel           clientChannel;
     private boolean                 readStarted;
-    private ByteBuffer              readBuffer;
     private IOCompletionHandler<AbstractHandle> serverConnectionHandler;
     private IOCompletionHandler<Integer>        clientConnectionHandler;
     private IOCompletionHandler<ByteBuffer>     readHandler;
+    private volatile boolean                    transferred;
+    private final IdentityHashMap<Selector, SharedAcceptor> acceptors =
+        new IdentityHashMap<Selector, SharedAcceptor>();
 
     public NIOSocketHandle(GenericNodeRuntime runtime)
     {
@@ -71,7 +78,7 @@ public class NIOSocketHandle
         super(runtime);
         this.clientChannel = clientChannel;
         clientInit();
-        selKey = clientChannel.register(runtime.getSelector(), SelectionKey.OP_WRITE,
+        selKey = runtime.registerChannel(clientChannel, SelectionKey.OP_WRITE,
                                         new SelectorHandler()
                                         {
                                             @Override
@@ -83,13 +90,13 @@ public class NIOSocketHandle
     }
 
     public boolean isServerChannel() {
-        return (svrChannel != null);
+        // A handle that is bound but not yet listening, as a cluster master passes it to a worker, counts too
+        return (svrChannel != null) || ((clientChannel == null) && (boundAddress != null));
     }
 
     private void clientInit()
         throws IOException, OSException
     {
-        readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
         clientChannel.configureBlocking(false);
         setNoDelay(true);
     }
@@ -97,6 +104,10 @@ public class NIOSocketHandle
     @Override
     public void close()
     {
+        if (transferred) {
+            // The connection now belongs to another script
+            return;
+        }
         try {
             if (clientChannel != null) {
                 if (log.isDebugEnabled()) {
@@ -144,6 +155,61 @@ public class NIOSocketHandle
     public void listen(int backlog, IOCompletionHandler<AbstractHandle> handler)
         throws OSException
     {
+        this.serverConnectionHandler = handler;
+        ServerSocketChannel svr = openServerChannel(backlog);
+        runtime.registerCloseable(svr);
+
+        try {
+            runtime.registerChannel(svr, SelectionKey.OP_ACCEPT,
+                                new SelectorHandler()
+                                {
+                                    @Override
+                                    public void selected(SelectionKey key)
+                                    {
+                                        serverSelected(key);
+                                    }
+                                });
+        } catch (IOException ioe) {
+            log.debug("Error listening: {}", ioe);
+            runtime.unregisterCloseable(svr);
+            try {
+                svr.close();
+            } catch (IOException cioe) {
+                log.debug("Error closing channel that might be closed: {}", cioe);
+            }
+            throw new OSException(ErrorCodes.EIO);
+        }
+    }
+
+    /**
+     * Open the server channel so that a cluster worker may accept connections from it. This is called
+     * from the worker's thread, so the channel is only added to this script's set of open handles
+     * from this script's own thread.
+     */
+    ServerSocketChannel openSharedChannel(int backlog)
+        throws OSException
+    {
+        final ServerSocketChannel svr = openServerChannel(backlog);
+        runtime.executeScriptTask(new Runnable() {
+            @Override
+            public void run()
+            {
+                runtime.registerCloseable(svr);
+            }
+        }, null);
+        return svr;
+    }
+
+    /**
+     * Open and bind the server channel if that has not happened yet. This is synchronized because
+     * cluster workers in other threads may share this handle, and it leaves registering the channel to the caller.
+     */
+    private synchronized ServerSocketChannel openServerChannel(int backlog)
+        throws OSException
+    {
+        if (svrChannel != null) {
+            return svrChannel;
+        }
         if (boundAddress == null) {
             throw new OSException(ErrorCodes.EINVAL);
         }
@@ -153,28 +219,18 @@ public class NIOSocketHandle
             throw new OSException(ErrorCodes.EINVAL);
         }
 
-        this.serverConnectionHandler = handler;
         if (log.isDebugEnabled()) {
             log.debug("Server listening on {} with backlog {}",
                       boundAddress, backlog);
         }
 
+        ServerSocketChannel svr = null;
         boolean success = false;
         try {
-            svrChannel = ServerSocketChannel.open();
-            runtime.registerCloseable(svrChannel);
-            svrChannel.configureBlocking(false);
-            svrChannel.socket().setReuseAddress(true);
-            svrChannel.socket().bind(boundAddress, backlog);
-            svrChannel.register(runtime.getSelector(), SelectionKey.OP_ACCEPT,
-                                new SelectorHandler()
-                                {
-                                    @Override
-                                    public void selected(SelectionKey key)
-                                    {
-                                        serverSelected(key);
-                                    }
-                                });
+            svr = ServerSocketChannel.open();
+            svr.configureBlocking(false);
+            svr.socket().setReuseAddress(true);
+            svr.socket().bind(boundAddress, backlog);
             success = true;
 
         } catch (BindException be) {
@@ -184,15 +240,17 @@ public class NIOSocketHandle
             log.debug("Error listening: {}", ioe);
             throw new OSException(ErrorCodes.EIO);
         } finally {
-            if (!success && (svrChannel != null)) {
-                runtime.unregisterCloseable(svrChannel);
+            if (!success && (svr != null)) {
                 try {
-                    svrChannel.close();
+                    svr.close();
                 } catch (IOException ioe) {
                     log.debug("Error closing channel that might be closed: {}", ioe);
                 }
             }
         }
+
+        svrChannel = svr;
+        return svr;
     }
 
     protected void serverSelected(SelectionKey key)
@@ -205,41 +263,120 @@ public class NIOSocketHandle
         }
 
         if (key.isAcceptable()) {
-            SocketChannel child = null;
-            do {
-                try {
-                    child = svrChannel.accept();
-                    if (child != null) {
-                        if (log.isDebugEnabled()) {
-                            log.debug("Accepted new socket {}", child);
-                        }
+            acceptConnections(svrChannel, runtime, serverConnectionHandler);
+        }
+    }
 
-                        boolean success = false;
-                        try {
-                            runtime.registerCloseable(child);
-                            NIOSocketHandle sock = new NIOSocketHandle(runtime, child);
-                            serverConnectionHandler.ioComplete(0, sock);
-                            success = true;
-                        } finally {
-                            if (!success) {
-                                runtime.unregisterCloseable(child);
-                                try {
-                                    child.close();
-                                } catch (IOException ioe) {
-                                    log.debug("Error closing channel that might be closed: {}", ioe);
-                                }
-                            }
-                        }
+    /**
+     * Accept every pending connection on the server channel, and deliver each one to the handler
+     * as a new handle that belongs to the specified runtime. When several scripts listen on the same channel,
+     * some of them will find nothing to accept, and that is fine.
+     */
+    static void acceptConnections(ServerSocketChannel svr, GenericNodeRuntime rt,
+                                  IOCompletionHandler<AbstractHandle> handler)
+    {
+        SocketChannel child = null;
+        do {
+            try {
+                child = svr.accept();
+                if (child != null) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Accepted new socket {}", child);
                     }
-                } catch (ClosedChannelException cce) {
-                    log.debug("Server channel has been closed");
-                    break;
+                    deliverConnection(child, rt, handler);
+                }
+            } catch (ClosedChannelException cce) {
+                log.debug("Server channel has been closed");
+                break;
+            } catch (IOException ioe) {
+                log.error("Error accepting a new socket: {}", ioe);
+            }
+        } while (child != null);
+    }
+
+    /**
+     * Deliver a newly-accepted connection to the handler as a new handle that belongs to the specified
+     * runtime, or close it if that fails. This must be called from that runtime's script thread.
+     */
+    static void deliverConnection(SocketChannel child, GenericNodeRuntime rt,
+                                  IOCompletionHandler<AbstractHandle> handler)
+    {
+        boolean success = false;
+        try {
+            rt.registerCloseable(child);
+            NIOSocketHandle sock = new NIOSocketHandle(rt, child);
+            handler.ioComplete(0, sock);
+            success = true;
+        } catch (IOException ioe) {
+            log.error("Error accepting a new socket: {}", ioe);
+        } catch (OSException ose) {
+            log.error("Error accepting a new socket: {}", ose);
+        } finally {
+            if (!success) {
+                rt.unregisterCloseable(child);
+                try {
+                    child.close();
                 } catch (IOException ioe) {
-                    log.error("Error accepting a new socket: {}", ioe);
-                } catch (OSException ose) {
-                    log.error("Error accepting a new socket: {}", ose);
+                    log.debug("Error closing channel that might be closed: {}", ioe);
                 }
-            } while (child != null);
+            }
+        }
+    }
+
+    /**
+     * Return the object that accepts connections for all the cluster workers whose scripts use the
+     * specified selector, creating it if necessary.
+     */
+    SharedAcceptor getSharedAcceptor(ServerSocketChannel svr, Selector selector)
+    {
+        synchronized (acceptors) {
+            SharedAcceptor a = acceptors.get(selector);
+            if (a == null) {
+                a = new SharedAcceptor(svr);
+                acceptors.put(selector, a);
+            }
+            return a;
+        }
+    }
+
+    /**
+     * Move an accepted connection to the event loop of another script. This is how a cluster master
+     * hands a connection to a worker in the same JVM. This handle is left detached afterwards, so that
+     * when the master closes its copy, the connection stays open in the worker. If both scripts use the
+     * same selector, as they do on a shared event loop, then the existing selection key is handed to the
+     * new handle, since a cancelled key can't be registered again until the next "select."
+     */
+    public NIOSocketHandle transfer(GenericNodeRuntime newRuntime)
+        throws OSException
+    {
+        if ((clientChannel == null) || transferred) {
+            throw new OSException(ErrorCodes.EINVAL);
+        }
+        if (newRuntime == runtime) {
+            return this;
+        }
+
+        final SocketChannel channel = clientChannel;
+        transferred = true;
+        if ((selKey != null) && (newRuntime.getSelector() != runtime.getSelector())) {
+            selKey.cancel();
+        }
+        // The set of open handles belongs to the original script's thread
+        runtime.executeScriptTask(new Runnable() {
+            @Override
+            public void run()
+            {
+                runtime.unregisterCloseable(channel);
+            }
+        }, null);
+
+        try {
+            newRuntime.registerCloseable(channel);
+            return new NIOSocketHandle(newRuntime, channel);
+        } catch (IOException ioe) {
+            newRuntime.unregisterCloseable(channel);
+            log.debug("Error transferring socket: {}", ioe);
+            throw new OSException(ErrorCodes.EIO);
         }
     }
 
@@ -261,7 +398,7 @@ public class NIOSocketHandle
 
     private void offerWrite(QueuedWrite qw)
     {
-        if (writeQueue.isEmpty() && !qw.shutdown) {
+        if (writeQueue.isEmpty() && !qw.shutdown && (corked == 0)) {
             int written;
             try {
                 written = clientChannel.write(qw.buf);
@@ -363,7 +500,7 @@ public class NIOSocketHandle
             if (log.isDebugEnabled()) {
                 log.debug("Registering socket with interest {}", interest);
             }
-            selKey = newChannel.register(runtime.getSelector(),
+            selKey = runtime.registerChannel(newChannel,
                                                     interest,
                                                     new SelectorHandler()
                                                     {
@@ -423,35 +560,67 @@ public class NIOSocketHandle
     {
         writeReady = true;
         removeInterest(SelectionKey.OP_WRITE);
+        if (corked > 0) {
+            // "uncork" will send everything
+            return;
+        }
+
         QueuedWrite qw;
         while (true) {
-            qw = writeQueue.pollFirst();
+            qw = writeQueue.peekFirst();
             if (qw == null) {
                 break;
             }
-            queuedBytes -= qw.getLength();
-            assert(queuedBytes >= 0);
             try {
                 if (qw.shutdown) {
+                    writeQueue.pollFirst();
+                    queuedBytes -= qw.getLength();
                     if (log.isDebugEnabled()) {
                         log.debug("Sending shutdown for {}", clientChannel);
                     }
                     clientChannel.socket().shutdownOutput();
                     qw.getHandler().ioComplete(0, 0);
                 } else {
-                    int written = clientChannel.write(qw.buf);
+                    // Send as many of the queued writes as we can in one system call
+                    int count = gatherQueuedWrites();
+                    if (count == 0) {
+                        // Nothing to send for this one
+                        writeQueue.pollFirst();
+                        queuedBytes -= qw.getLength();
+                        qw.getHandler().ioComplete(0, qw.getLength());
+                        continue;
+                    }
+                    long written;
+                    try {
+                        written = clientChannel.write(getGatherBuffers(), 0, count);
+                    } finally {
+                        clearGatherBuffers(count);
+                    }
                     if (log.isDebugEnabled()) {
-                        log.debug("Wrote {} to {} from {}", written, clientChannel, qw.buf);
+                        log.debug("Wrote {} to {} from {} buffers", written, clientChannel, count);
+                    }
+
+                    // Complete the writes that were sent, in order
+                    boolean complete = true;
+                    for (int i = 0; i < count; i++) {
+                        qw = writeQueue.peekFirst();
+                        if (qw == null) {
+                            break;
+                        }
+                        if (qw.buf.hasRemaining()) {
+                            complete = false;
+                            break;
+                        }
+                        writeQueue.pollFirst();
+                        queuedBytes -= qw.getLength();
+                        assert(queuedBytes >= 0);
+                        qw.getHandler().ioComplete(0, qw.getLength());
                     }
-                    if (qw.buf.hasRemaining()) {
+                    if (!complete) {
                         // We didn't write the whole thing -- need to keep writing.
                         writeReady = false;
-                        writeQueue.addFirst(qw);
-                        queuedBytes += qw.getLength();
                         addInterest(SelectionKey.OP_WRITE);
                         break;
-                    } else {
-                        qw.getHandler().ioComplete(0, qw.getLength());
                     }
                 }
 
@@ -459,24 +628,36 @@ public class NIOSocketHandle
                 if (log.isDebugEnabled()) {
                     log.debug("Channel is closed");
                 }
-                qw.getHandler().ioComplete(ErrorCodes.EOF, 0);
+                failWrite(ErrorCodes.EOF);
             } catch (IOException ioe) {
                 if (log.isDebugEnabled()) {
                     log.debug("Error on write: {}", ioe);
                 }
-                qw.getHandler().ioComplete(ErrorCodes.EIO, 0);
+                failWrite(ErrorCodes.EIO);
             }
         }
     }
 
+    private void failWrite(int err)
+    {
+        QueuedWrite qw = writeQueue.pollFirst();
+        if (qw != null) {
+            queuedBytes -= qw.getLength();
+            qw.getHandler().ioComplete(err, 0);
+        }
+    }
+
     @Override
     protected void processReads()
     {
         if (!readStarted) {
             return;
         }
+        ReadBufferPool pool = runtime.getReadBufferPool();
         int read;
         do {
+            // Read straight into the pool so that a large result can be handed off without a copy
+            ByteBuffer readBuffer = pool.lease(MIN_READ_SIZE, READ_BUFFER_SIZE);
             try {
                 read = clientChannel.read(readBuffer);
             } catch (IOException ioe) {
@@ -489,16 +670,15 @@ public class NIOSocketHandle
                 log.debug("Read {} bytes from {} into {}", read, clientChannel, readBuffer);
             }
             if (read > 0) {
-                readBuffer.flip();
-                ByteBuffer buf = ByteBuffer.allocate(readBuffer.remaining());
-                buf.put(readBuffer);
-                buf.flip();
-                readBuffer.clear();
+                ByteBuffer buf = pool.commit(readBuffer);
                 readHandler.ioComplete(0, buf);
 
-            } else if (read < 0) {
-                removeInterest(SelectionKey.OP_READ);
-                readHandler.ioComplete(ErrorCodes.EOF, null);
+            } else {
+                pool.cancel(readBuffer);
+                if (read < 0) {
+                    removeInterest(SelectionKey.OP_READ);
+                    readHandler.ioComplete(ErrorCodes.EOF, null);
+                }
             }
         } while (readStarted && (read > 0));
     }
@@ -506,6 +686,9 @@ public class NIOSocketHandle
     @Override
     public InetSocketAddress getSockName()
     {
+        if ((svrChannel == null) && (clientChannel == null)) {
+            return boundAddress;
+        }
         if (svrChannel == null) {
             return (InetSocketAddress)(clientChannel.socket().getLocalSocketAddress());
         }
@@ -0,0 +1,151 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.kernel.handles;
+
+import io.apigee.trireme.kernel.net.SelectorHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+
+/**
+ * This accepts connections on a shared server channel for all the cluster workers whose scripts use the
+ * same selector, as they do when they run on the same shared event loop. A channel may only be registered
+ * once per selector, so the selection key belongs to one of the workers at a time, and when that worker
+ * stops listening it moves to another. Connections are handed to the workers in turn.
+ * <p>
+ * There is one of these per selector, and it is only used from the thread that runs that selector's
+ * event loop, so it is not synchronized.
+ * </p>
+ */
+
+class SharedAcceptor
+{
+    private static final Logger log = LoggerFactory.getLogger(SharedAcceptor.class);
+
+    private final ServerSocketChannel channel;
+    private final ArrayList<ChildServerHandle> workers = new ArrayList<ChildServerHandle>();
+    private ChildServerHandle owner;
+    private SelectionKey selKey;
+    private int next;
+
+    SharedAcceptor(ServerSocketChannel channel)
+    {
+        this.channel = channel;
+    }
+
+    void add(ChildServerHandle worker)
+        throws ClosedChannelException
+    {
+        if (owner == null) {
+            register(worker);
+        }
+        workers.add(worker);
+    }
+
+    void remove(ChildServerHandle worker)
+    {
+        if (!workers.remove(worker) || (worker != owner)) {
+            return;
+        }
+
+        owner = null;
+        if (workers.isEmpty()) {
+            // Don't cancel the key, because a cancelled key can't be registered again until the next
+            // "select," and another worker on this loop might listen before then. It will be cancelled
+            // when the master closes the channel.
+            if (selKey.isValid()) {
+                selKey.interestOps(0);
+            }
+            return;
+        }
+
+        try {
+            register(workers.get(0));
+        } catch (ClosedChannelException cce) {
+            log.debug("Server channel has been closed");
+        }
+    }
+
+    /**
+     * Registering a channel again with the same selector just moves the existing key to the new
+     * worker's script.
+     */
+    private void register(final ChildServerHandle worker)
+        throws ClosedChannelException
+    {
+        selKey = worker.getRuntime().registerChannel(channel, SelectionKey.OP_ACCEPT,
+                                                     new SelectorHandler()
+                                                     {
+                                                         @Override
+                                                         public void selected(SelectionKey key)
+                                                         {
+                                                             serverSelected(key, worker);
+                                                         }
+                                                     });
+        owner = worker;
+    }
+
+    /**
+     * This is called in the script thread of "current," which is the worker that owned the key when
+     * the channel was selected.
+     */
+    private void serverSelected(SelectionKey key, ChildServerHandle current)
+    {
+        if (!key.isValid() || !key.isAcceptable()) {
+            return;
+        }
+
+        SocketChannel child = null;
+        do {
+            if (workers.isEmpty()) {
+                // Leave it in the backlog for the next worker
+                return;
+            }
+            try {
+                child = channel.accept();
+                if (child != null) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Accepted new socket {}", child);
+                    }
+                    ChildServerHandle worker = workers.get(next % workers.size());
+                    next = (next + 1) % workers.size();
+                    if (worker == current) {
+                        worker.deliverConnection(child);
+                    } else {
+                        worker.deliverConnectionLater(child);
+                    }
+                }
+            } catch (ClosedChannelException cce) {
+                log.debug("Server channel has been closed");
+                break;
+            } catch (IOException ioe) {
+                log.error("Error accepting a new socket: {}", ioe);
+            }
+        } while (child != null);
+    }
+}
@@ -196,6 +196,18 @@ public class TLSHandle
         });
     }
 
+    @Override
+    public void cork()
+    {
+        handle.cork();
+    }
+
+    @Override
+    public void uncork()
+    {
+        handle.uncork();
+    }
+
     @Override
     public void stopReading()
     {
@@ -0,0 +1,515 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.kernel.http;
+
+import io.apigee.trireme.kernel.Charsets;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This class splits HTTP input into lines and picks apart start lines and headers by looking at bytes
+ * rather than by building strings and running regular expressions. A complete line that sits entirely
+ * inside the input buffer is scanned in place using offsets. Only a line that spans two input buffers is
+ * copied, into an accumulation buffer that is re-used from line to line and never grows past
+ * MAX_LINE_SIZE. Common header names and values are interned so that they do not create new strings.
+ */
+class HTTPByteScanner
+{
+    /** The largest line that we will accumulate across buffers -- the same as Node's header limit. */
+    public static final int MAX_LINE_SIZE = 80 * 1024;
+
+    private static final int INITIAL_ACCUM_SIZE = 256;
+
+    static final int TOKEN = 1;
+    static final int CTL =   2;
+    static final int LWS =   4;
+    static final int DIGIT = 8;
+    static final int HEX =   16;
+
+    /** Character classes from RFC 2616, indexed by byte value. */
+    private static final byte[] CHARS = new byte[256];
+
+    private static final String SEPARATORS = "()<>@,;:\\\"/[]?={} \t";
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int c = 0;
+            if ((i < 0x20) || (i == 0x7f)) {
+                c |= CTL;
+            } else if (SEPARATORS.indexOf(i) < 0) {
+                c |= TOKEN;
+            }
+            if ((i == ' ') || (i == '\t')) {
+                c |= LWS;
+            }
+            if ((i >= '0') && (i <= '9')) {
+                c |= DIGIT | HEX;
+            }
+            if (((i >= 'a') && (i <= 'f')) || ((i >= 'A') && (i <= 'F'))) {
+                c |= HEX;
+            }
+            CHARS[i] = (byte)c;
+        }
+    }
+
+    private static final InternTable METHODS = new InternTable(
+        "GET", "HEAD", "POST", "PUT", "DELETE", "OPTIONS", "PATCH", "CONNECT", "TRACE");
+
+    private static final InternTable HEADER_NAMES = new InternTable(
+        "Accept", "Accept-Charset", "Accept-Encoding", "Accept-Language", "Accept-Ranges", "Age",
+        "Authorization", "Cache-Control", "Connection", "Content-Disposition", "Content-Encoding",
+        "Content-Language", "Content-Length", "Content-Range", "Content-Type", "Cookie", "Date", "ETag",
+        "Expect", "Expires", "Host", "If-Match", "If-Modified-Since", "If-None-Match", "Keep-Alive",
+        "Last-Modified", "Location", "Origin", "Pragma", "Proxy-Authorization", "Range", "Referer",
+        "Server", "Set-Cookie", "TE", "Trailer", "Transfer-Encoding", "Upgrade", "User-Agent", "Vary",
+        "Via", "WWW-Authenticate", "X-Forwarded-For", "X-Forwarded-Host", "X-Forwarded-Proto",
+        "X-Requested-With");
+
+    private static final InternTable HEADER_VALUES = new InternTable(
+        "close", "keep-alive", "Keep-Alive", "upgrade", "Upgrade", "chunked", "identity", "gzip",
+        "deflate", "gzip, deflate", "*/*", "no-cache", "max-age=0", "0", "websocket",
+        "application/json", "text/plain", "text/html", "application/x-www-form-urlencoded");
+
+    private byte[] accum = new byte[INITIAL_ACCUM_SIZE];
+    private int accumLen;
+    private boolean overflow;
+
+    private byte[] line;
+    private int lineStart;
+    private int lineEnd;
+    private int nameEnd;
+
+    /**
+     * Forget about any partial line.
+     */
+    void reset()
+    {
+        accumLen = 0;
+        overflow = false;
+        line = null;
+    }
+
+    /**
+     * Return true if a line was longer than MAX_LINE_SIZE. The parser must treat this as an error.
+     */
+    boolean isOverflow()
+    {
+        return overflow;
+    }
+
+    /**
+     * Find the next line that ends in a CRLF pair. If there is one, advance "buf" past it, make it the
+     * current line and return true. Otherwise, stash the rest of "buf" for the next call and return false.
+     */
+    boolean readLine(ByteBuffer buf)
+    {
+        if (line == accum) {
+            // The last line came from the accumulation buffer and has been consumed by now
+            accumLen = 0;
+            line = null;
+        }
+        if (buf == null) {
+            return false;
+        }
+
+        int pos = buf.position();
+        int limit = buf.limit();
+        if (pos == limit) {
+            return false;
+        }
+
+        if ((accumLen > 0) && (accum[accumLen - 1] == '\r') && (buf.get(pos) == '\n')) {
+            // Last buffer ended with the CR of the CRLF pair
+            buf.position(pos + 1);
+            setLine(accum, 0, accumLen - 1);
+            return true;
+        }
+
+        int lf = findLineEnd(buf, pos, limit);
+        if (lf < 0) {
+            if (!append(buf, pos, limit)) {
+                overflow = true;
+            }
+            buf.position(limit);
+            return false;
+        }
+
+        if ((accumLen == 0) && buf.hasArray()) {
+            // The common case -- scan the line in place
+            int off = buf.arrayOffset();
+            setLine(buf.array(), off + pos, off + lf - 1);
+        } else {
+            if (!append(buf, pos, lf + 1)) {
+                overflow = true;
+                buf.position(limit);
+                return false;
+            }
+            setLine(accum, 0, accumLen - 2);
+        }
+        buf.position(lf + 1);
+        return true;
+    }
+
+    /**
+     * Return the position of the LF in the next CRLF pair, or -1.
+     */
+    private int findLineEnd(ByteBuffer buf, int pos, int limit)
+    {
+        if (buf.hasArray()) {
+            byte[] a = buf.array();
+            int off = buf.arrayOffset();
+            for (int p = pos + 1; p < limit; p++) {
+                if ((a[off + p] == '\n') && (a[off + p - 1] == '\r')) {
+                    return p;
+                }
+            }
+        } else {
+            for (int p = pos + 1; p < limit; p++) {
+                if ((buf.get(p) == '\n') && (buf.get(p - 1) == '\r')) {
+                    return p;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private boolean append(ByteBuffer buf, int start, int end)
+    {
+        int len = end - start;
+        int newLen = accumLen + len;
+        if (newLen > MAX_LINE_SIZE) {
+            return false;
+        }
+        if (newLen > accum.length) {
+            byte[] newAccum = new byte[Math.min(MAX_LINE_SIZE, Math.max(newLen, accum.length * 2))];
+            System.arraycopy(accum, 0, newAccum, 0, accumLen);
+            accum = newAccum;
+        }
+        ByteBuffer src = buf.duplicate();
+        src.limit(end);
+        src.position(start);
+        src.get(accum, accumLen, len);
+        accumLen = newLen;
+        return true;
+    }
+
+    private void setLine(byte[] a, int start, int end)
+    {
+        line = a;
+        lineStart = start;
+        lineEnd = end;
+    }
+
+    boolean isLineEmpty()
+    {
+        return (lineStart == lineEnd);
+    }
+
+    /**
+     * Return true if the current line begins with whitespace, which makes it a header continuation.
+     */
+    boolean isContinuation()
+    {
+        return (lineStart < lineEnd) && is(line[lineStart], LWS);
+    }
+
+    static boolean is(byte b, int cls)
+    {
+        return (CHARS[b & 0xff] & cls) != 0;
+    }
+
+    private String string(int start, int end)
+    {
+        return new String(line, start, end - start, Charsets.ASCII);
+    }
+
+    /**
+     * Skip forward past any character of the given class.
+     */
+    private int skip(int p, int end, int cls)
+    {
+        while ((p < end) && is(line[p], cls)) {
+            p++;
+        }
+        return p;
+    }
+
+    /**
+     * Move "end" backwards past trailing whitespace.
+     */
+    private int trimEnd(int start, int end)
+    {
+        while ((end > start) && is(line[end - 1], LWS)) {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * Return true if there are no control characters other than tab between the offsets.
+     */
+    private boolean isText(int start, int end)
+    {
+        for (int p = start; p < end; p++) {
+            byte b = line[p];
+            if (is(b, CTL) && (b != '\t')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isNotCtl(int start, int end)
+    {
+        for (int p = start; p < end; p++) {
+            if (is(line[p], CTL)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parse "METHOD URI HTTP/x.y" and pass the parts to the parsing machine. Return false if the
+     * line is invalid.
+     */
+    boolean parseRequestLine(HTTPParsingMachine m)
+    {
+        int end = trimEnd(lineStart, lineEnd);
+        int p = skip(lineStart, end, TOKEN);
+        if ((p == lineStart) || (p >= end) || (line[p] != ' ')) {
+            return false;
+        }
+        int methodEnd = p;
+
+        // The URI may contain spaces, so find the version at the end of the line first
+        int vs = end - 9;
+        if ((vs <= p) || (line[vs] != ' ') ||
+            (line[vs + 1] != 'H') || (line[vs + 2] != 'T') || (line[vs + 3] != 'T') ||
+            (line[vs + 4] != 'P') || (line[vs + 5] != '/') ||
+            !is(line[vs + 6], DIGIT) || !is(line[vs + 8], DIGIT)) {
+            return false;
+        }
+        int uriStart = p + 1;
+        if ((uriStart >= vs) || !isText(uriStart, vs)) {
+            return false;
+        }
+
+        m.setRequestLine(METHODS.intern(line, lineStart, methodEnd),
+                         string(uriStart, vs),
+                         line[vs + 6] - '0', line[vs + 8] - '0');
+        return true;
+    }
+
+    /**
+     * Parse "HTTP/x.y NNN Reason" and pass the parts to the parsing machine. Return false if the
+     * line is invalid.
+     */
+    boolean parseStatusLine(HTTPParsingMachine m)
+    {
+        int end = trimEnd(lineStart, lineEnd);
+        int p = lineStart;
+        if (((end - p) < 10) ||
+            (line[p] != 'H') || (line[p + 1] != 'T') || (line[p + 2] != 'T') || (line[p + 3] != 'P') ||
+            (line[p + 4] != '/') || !is(line[p + 5], DIGIT) || !is(line[p + 7], DIGIT) ||
+            (line[p + 8] != ' ')) {
+            return false;
+        }
+        int major = line[p + 5] - '0';
+        int minor = line[p + 7] - '0';
+
+        p += 9;
+        int status = 0;
+        int digits = 0;
+        while ((p < end) && is(line[p], DIGIT)) {
+            if (++digits > 9) {
+                return false;
+            }
+            status = (status * 10) + (line[p] - '0');
+            p++;
+        }
+        if (digits == 0) {
+            return false;
+        }
+
+        String reason;
+        if (p == end) {
+            reason = "";
+        } else {
+            if (line[p] != ' ') {
+                return false;
+            }
+            p = skip(p, end, LWS);
+            if (!isText(p, end)) {
+                return false;
+            }
+            reason = string(p, end);
+        }
+
+        m.setStatusLine(major, minor, status, reason);
+        return true;
+    }
+
+    /**
+     * Return the interned or newly-created name of the header on the current line, or null if the
+     * line is not a valid header.
+     */
+    String parseHeaderName()
+    {
+        int p = skip(lineStart, lineEnd, TOKEN);
+        if ((p == lineStart) || (p >= lineEnd) || (line[p] != ':')) {
+            return null;
+        }
+        nameEnd = p;
+        return HEADER_NAMES.intern(line, lineStart, p);
+    }
+
+    /**
+     * Return the trimmed value of the header whose name was just parsed, or null if it is not valid.
+     */
+    String parseHeaderValue()
+    {
+        return parseValue(nameEnd + 1);
+    }
+
+    /**
+     * Return the trimmed text of a continuation line, or null if it is not valid.
+     */
+    String parseContinuation()
+    {
+        return parseValue(lineStart);
+    }
+
+    private String parseValue(int start)
+    {
+        int end = trimEnd(start, lineEnd);
+        int p = skip(start, end, LWS);
+        if (!isNotCtl(p, end)) {
+            return null;
+        }
+        return HEADER_VALUES.intern(line, p, end);
+    }
+
+    /**
+     * Parse the hex length at the start of a chunk header, ignoring any extensions. Return -1 if the
+     * line is invalid.
+     */
+    int parseChunkLength()
+    {
+        int len = 0;
+        int p = lineStart;
+        while ((p < lineEnd) && is(line[p], HEX)) {
+            if (len > (Integer.MAX_VALUE >> 4)) {
+                return -1;
+            }
+            int b = line[p];
+            int d;
+            if (b <= '9') {
+                d = b - '0';
+            } else if (b <= 'F') {
+                d = b - 'A' + 10;
+            } else {
+                d = b - 'a' + 10;
+            }
+            len = (len << 4) | d;
+            p++;
+        }
+        if (p == lineStart) {
+            return -1;
+        }
+        p = skip(p, lineEnd, LWS);
+        if ((p < lineEnd) && (line[p] != ';')) {
+            return -1;
+        }
+        return len;
+    }
+
+    /**
+     * An open-addressed hash table of strings that are looked up by their ASCII bytes, so that a string
+     * is only allocated when the bytes are not already in the table. Matching is case-sensitive, because
+     * callers see the original case, so the lower-case form of each string is added too.
+     */
+    static final class InternTable
+    {
+        private final byte[][] keys;
+        private final String[] values;
+        private final int mask;
+
+        InternTable(String... strs)
+        {
+            int size = 16;
+            while (size < (strs.length * 4)) {
+                size <<= 1;
+            }
+            keys = new byte[size][];
+            values = new String[size];
+            mask = size - 1;
+            for (String s : strs) {
+                add(s);
+                add(s.toLowerCase());
+            }
+        }
+
+        private void add(String s)
+        {
+            byte[] b = s.getBytes(Charsets.ASCII);
+            int i = hash(b, 0, b.length) & mask;
+            while (keys[i] != null) {
+                if (values[i].equals(s)) {
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            keys[i] = b;
+            values[i] = s;
+        }
+
+        private static int hash(byte[] a, int start, int end)
+        {
+            int h = end - start;
+            for (int p = start; p < end; p++) {
+                h = (h * 31) + a[p];
+            }
+            return h ^ (h >>> 16);
+        }
+
+        String intern(byte[] a, int start, int end)
+        {
+            int len = end - start;
+            int i = hash(a, start, end) & mask;
+            byte[] k;
+            while ((k = keys[i]) != null) {
+                if (k.length == len) {
+                    int j = 0;
+                    while ((j < len) && (k[j] == a[start + j])) {
+                        j++;
+                    }
+                    if (j == len) {
+                        return values[i];
+                    }
+                }
+                i = (i + 1) & mask;
+            }
+            return new String(a, start, len, Charsets.ASCII);
+        }
+    }
+}
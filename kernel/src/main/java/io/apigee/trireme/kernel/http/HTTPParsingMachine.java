@@ -38,6 +38,14 @@ public class HTTPParsingMachine
 {
     public enum ParsingMode { REQUEST, RESPONSE }
 
+    /**
+     * <ul>
+     *     <li>REGEX: Turn each line into a string and match it using the patterns in HTTPGrammar</li>
+     *     <li>BYTES: Scan each line byte by byte in place, without building intermediate strings</li>
+     * </ul>
+     */
+    public enum ScanMode { REGEX, BYTES }
+
     /**
      * <ul>
      *     <li>START: We have not completed the first line yet</li>
@@ -53,6 +61,7 @@ public class HTTPParsingMachine
     public static final String CONNECT_METHOD = "CONNECT";
 
     private final ParsingMode     mode;
+    private final HTTPByteScanner scanner;
     private BodyMode              bodyMode;
     private Status                state;
     private ByteBuffer            oddData;
@@ -76,8 +85,14 @@ public class HTTPParsingMachine
     private int         readLength;
 
     public HTTPParsingMachine(ParsingMode mode)
+    {
+        this(mode, ScanMode.REGEX);
+    }
+
+    public HTTPParsingMachine(ParsingMode mode, ScanMode scanMode)
     {
         this.mode = mode;
+        this.scanner = (scanMode == ScanMode.BYTES) ? new HTTPByteScanner() : null;
         reset();
     }
 
@@ -147,6 +162,9 @@ public class HTTPParsingMachine
         state = Status.START;
         oddData = null;
         readCR = false;
+        if (scanner != null) {
+            scanner.reset();
+        }
 
         method = null;
         uri = null;
@@ -187,6 +205,9 @@ public class HTTPParsingMachine
      */
     private boolean processStart(ByteBuffer buf, Result r)
     {
+        if (scanner != null) {
+            return scanStart(buf);
+        }
         skipBlankLine(buf);
         String startLine = readLine(buf);
         if (startLine == null) {
@@ -239,13 +260,43 @@ public class HTTPParsingMachine
             break;
         }
 
+        startLineComplete();
+        return true;
+    }
+
+    private void startLineComplete()
+    {
         // Initialize keep alive -- we will explictly check the "Connection" header later
         if ((majorVersion == 1) && (minorVersion == 1)) {
             shouldKeepAlive = true;
         }
 
         state = Status.HEADERS;
-        return true;
+    }
+
+    /**
+     * Called by the byte scanner when it has parsed a request line.
+     */
+    void setRequestLine(String method, String uri, int major, int minor)
+    {
+        this.method = method;
+        if (CONNECT_METHOD.equalsIgnoreCase(method)) {
+            connectMethod = true;
+        }
+        this.uri = uri;
+        this.majorVersion = major;
+        this.minorVersion = minor;
+    }
+
+    /**
+     * Called by the byte scanner when it has parsed a status line.
+     */
+    void setStatusLine(int major, int minor, int status, String reason)
+    {
+        this.majorVersion = major;
+        this.minorVersion = minor;
+        this.statusCode = status;
+        this.reasonPhrase = reason;
     }
 
     /**
@@ -255,6 +306,9 @@ public class HTTPParsingMachine
     {
         ArrayList<Map.Entry<String, String>> headers = new ArrayList<Map.Entry<String, String>>();
         r.setHeaders(headers);
+        if (scanner != null) {
+            return scanHeaders(buf, headers);
+        }
         String line = readLine(buf);
 
         while (line != null) {
@@ -305,6 +359,9 @@ public class HTTPParsingMachine
     {
         ArrayList<Map.Entry<String, String>> trailers = new ArrayList<Map.Entry<String, String>>();
         r.setTrailers(trailers);
+        if (scanner != null) {
+            return scanTrailers(buf, trailers);
+        }
         String line = readLine(buf);
 
         while (line != null) {
@@ -438,6 +495,9 @@ public class HTTPParsingMachine
      */
     private boolean processChunkHeader(ByteBuffer buf)
     {
+        if (scanner != null) {
+            return scanChunkHeader(buf);
+        }
         String line = readLine(buf);
         if (line == null) {
             storeRemaining(buf);
@@ -449,13 +509,7 @@ public class HTTPParsingMachine
             if (semi > 0) {
                 hdr = line.substring(0, semi);
             }
-            contentLength = Integer.parseInt(hdr, 16);
-            readLength = 0;
-            if (contentLength == 0) {
-                state = Status.TRAILERS;
-            } else {
-                state = Status.CHUNK_BODY;
-            }
+            chunkHeaderComplete(Integer.parseInt(hdr, 16));
             return true;
         } catch (NumberFormatException nfe) {
             state = Status.ERROR;
@@ -463,15 +517,32 @@ public class HTTPParsingMachine
         }
     }
 
+    private void chunkHeaderComplete(int len)
+    {
+        contentLength = len;
+        readLength = 0;
+        if (contentLength == 0) {
+            state = Status.TRAILERS;
+        } else {
+            state = Status.CHUNK_BODY;
+        }
+    }
+
     /**
      * Every chunk in chunked encoding has a CRLF after the content.
      */
     private boolean processChunkTrailer(ByteBuffer buf)
     {
-        String line = readLine(buf);
-        if (line == null) {
-            storeRemaining(buf);
-            return false;
+        if (scanner != null) {
+            if (!scanner.readLine(buf)) {
+                return scanIncomplete();
+            }
+        } else {
+            String line = readLine(buf);
+            if (line == null) {
+                storeRemaining(buf);
+                return false;
+            }
         }
         if (contentLength == 0) {
             state = Status.TRAILERS;
@@ -533,6 +604,130 @@ public class HTTPParsingMachine
         return true;
     }
 
+    /**
+     * Byte-scanning version of processStart. Blank lines before the start line, which are sometimes
+     * left between pipelined requests, are skipped.
+     */
+    private boolean scanStart(ByteBuffer buf)
+    {
+        while (scanner.readLine(buf)) {
+            if (scanner.isLineEmpty()) {
+                continue;
+            }
+            boolean valid = (mode == ParsingMode.REQUEST)
+                ? scanner.parseRequestLine(this)
+                : scanner.parseStatusLine(this);
+            if (valid) {
+                startLineComplete();
+            } else {
+                state = Status.ERROR;
+            }
+            return true;
+        }
+        return scanIncomplete();
+    }
+
+    /**
+     * Byte-scanning version of processHeaders.
+     */
+    private boolean scanHeaders(ByteBuffer buf, List<Map.Entry<String, String>> headers)
+    {
+        while (scanner.readLine(buf)) {
+            if (scanner.isLineEmpty()) {
+                state = Status.BODY;
+                if ((upgradeHeader && connectionUpgrade) || connectMethod) {
+                    // Stop processing data after headers on a CONNECT or Upgrade
+                    return false;
+                }
+                return true;
+            }
+            if (!scanHeaderLine(headers, false)) {
+                state = Status.ERROR;
+                return true;
+            }
+        }
+        return scanIncomplete();
+    }
+
+    /**
+     * Byte-scanning version of processTrailers.
+     */
+    private boolean scanTrailers(ByteBuffer buf, List<Map.Entry<String, String>> trailers)
+    {
+        while (scanner.readLine(buf)) {
+            if (scanner.isLineEmpty()) {
+                state = Status.COMPLETE;
+                return true;
+            }
+            if (!scanHeaderLine(trailers, true)) {
+                state = Status.ERROR;
+                return true;
+            }
+        }
+        return scanIncomplete();
+    }
+
+    /**
+     * Add the header or trailer on the current line to the list, or append a continuation line to
+     * the last one. Return false if the line is invalid.
+     */
+    private boolean scanHeaderLine(List<Map.Entry<String, String>> hdrs, boolean trailer)
+    {
+        if (scanner.isContinuation()) {
+            Map.Entry<String, String> last = (trailer ? lastTrailer : lastHeader);
+            String cont = scanner.parseContinuation();
+            if ((last == null) || (cont == null)) {
+                return false;
+            }
+            last.setValue(last.getValue() + cont);
+            return true;
+        }
+
+        String name = scanner.parseHeaderName();
+        String value = (name == null ? null : scanner.parseHeaderValue());
+        if (value == null) {
+            return false;
+        }
+        Map.Entry<String, String> hdr = new AbstractMap.SimpleEntry<String, String>(name, value);
+        hdrs.add(hdr);
+        if (trailer) {
+            lastTrailer = hdr;
+            return true;
+        }
+        lastHeader = hdr;
+        return processHeader(name, value);
+    }
+
+    /**
+     * Byte-scanning version of processChunkHeader.
+     */
+    private boolean scanChunkHeader(ByteBuffer buf)
+    {
+        if (!scanner.readLine(buf)) {
+            return scanIncomplete();
+        }
+        int len = scanner.parseChunkLength();
+        if (len < 0) {
+            state = Status.ERROR;
+        } else {
+            chunkHeaderComplete(len);
+        }
+        return true;
+    }
+
+    /**
+     * The scanner could not find a complete line and kept what it had. That is an error if the line
+     * has grown too long. Otherwise we need more input.
+     */
+    private boolean scanIncomplete()
+    {
+        if (scanner.isOverflow()) {
+            state = Status.ERROR;
+            return true;
+        }
+        return false;
+    }
+
     /**
      * Read a single line according to the HTTP spec -- read the line up to the end of a CRLF pair (not anything
      * else, just CRLF and exactly that) and turn it into an ASCII (not UTF-8) string. For other protocols, like SIP,
@@ -27,6 +27,7 @@ import io.apigee.trireme.kernel.ErrorCodes;
 import io.apigee.trireme.kernel.GenericNodeRuntime;
 import io.apigee.trireme.kernel.TriCallback;
 import io.apigee.trireme.kernel.util.BufferUtils;
+import io.apigee.trireme.kernel.util.ReadBufferPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -69,13 +70,20 @@ public class TLSConnection
     private Callback<Void> onHandshakeStart;
     private Callback<Void> onHandshakeDone;
     private Callback<SSLException> onError;
+    private BiCallback<Long, Boolean> onHandshakeTimed;
 
     private SSLEngine engine;
     private X509TrustManager trustManager;
     private ByteBuffer writeBuf;
-    private ByteBuffer readBuf;
+    private int readSize;
+    // Unwrapped data that has not yet been delivered. It was committed by the runtime's ReadBufferPool.
+    private ByteBuffer unwrapped;
 
     private boolean handshaking;
+    private long handshakeStart;
+    private long handshakeStartMillis;
+    private long handshakeTime;
+    private boolean sessionReused;
     private boolean initFinished;
     private boolean sentShutdown;
     private boolean receivedShutdown;
@@ -112,7 +120,7 @@ public class TLSConnection
         if (log.isDebugEnabled()) {
             log.debug("Allocating read and write buffers of size {}", engine.getSession().getPacketBufferSize());
         }
-        readBuf = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+        readSize = engine.getSession().getPacketBufferSize();
         writeBuf = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
 
         // Do this last because we still want the previous initialization to succeed
@@ -162,6 +170,14 @@ public class TLSConnection
         this.onError = cb;
     }
 
+    /**
+     * Set a callback that is called with the length of each handshake, in nanoseconds, and whether it
+     * resumed an existing session. Unlike the "handshake done" callback, this is meant for monitoring.
+     */
+    public void setHandshakeTimingCallback(BiCallback<Long, Boolean> cb) {
+        this.onHandshakeTimed = cb;
+    }
+
     public SSLException getVerifyError() {
         return verifyError;
     }
@@ -174,6 +190,21 @@ public class TLSConnection
         return initFinished;
     }
 
+    /**
+     * Return true if the last handshake resumed a session from the SSLContext's session cache rather than
+     * negotiating a new one.
+     */
+    public boolean isSessionReused() {
+        return sessionReused;
+    }
+
+    /**
+     * Return the length of the last completed handshake, in nanoseconds.
+     */
+    public long getHandshakeTime() {
+        return handshakeTime;
+    }
+
     public boolean isSentShutdown() {
         return sentShutdown;
     }
@@ -362,6 +393,7 @@ public class TLSConnection
         TLSChunk qc = incoming.peek();
         ByteBuffer bb = (qc == null ? EMPTY : qc.getBuf());
 
+        ReadBufferPool pool = runtime.getReadBufferPool();
         SSLEngineResult result = null;
         while (bb != null) {
             do {
@@ -369,19 +401,24 @@ public class TLSConnection
                     log.trace("Unwrapping {}", bb);
                 }
 
+                // Unwrap straight into the pool so that the result can be delivered without a copy
+                ByteBuffer dst = pool.lease(readSize, readSize);
                 try {
-                    result = engine.unwrap(bb, readBuf);
+                    result = engine.unwrap(bb, dst);
                 } catch (SSLException ssle) {
+                    pool.cancel(dst);
                     handleEncodingError(qc, ssle);
                     return false;
                 }
+                // Consecutive records usually land next to each other in the slab, so this doesn't copy
+                unwrapped = pool.commit(unwrapped, dst);
 
                 if (log.isTraceEnabled()) {
                     log.trace("unwrap result: {}", result);
                 }
                 if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
                     // Retry with more space in the output buffer
-                    readBuf = BufferUtils.doubleBuffer(readBuf);
+                    readSize *= 2;
                 }
             } while (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW);
 
@@ -473,25 +510,17 @@ public class TLSConnection
     private void deliverReadBuffer(int err)
     {
         if (readCallback != null) {
-            ByteBuffer bb;
-            if (readBuf.position() > 0) {
-                readBuf.flip();
-                bb = ByteBuffer.allocate(readBuf.remaining());
-                bb.put(readBuf);
-                bb.flip();
-                readBuf.clear();
-                if (log.isTraceEnabled()) {
-                    log.trace("Delivering {} bytes to the onunwrap callback. err = {}",
-                              bb.remaining(), err);
-                }
-            } else {
-                bb = null;
+            ByteBuffer bb = unwrapped;
+            unwrapped = null;
+            if ((bb != null) && log.isTraceEnabled()) {
+                log.trace("Delivering {} bytes to the onunwrap callback. err = {}",
+                          bb.remaining(), err);
             }
 
             readCallback.call(bb, err);
 
         } else {
-            readBuf.clear();
+            unwrapped = null;
         }
     }
 
@@ -499,6 +528,8 @@ public class TLSConnection
     {
         if (!handshaking && !sentShutdown && !receivedShutdown) {
             handshaking = true;
+            handshakeStart = System.nanoTime();
+            handshakeStartMillis = System.currentTimeMillis();
             if (onHandshakeStart != null) {
                 onHandshakeStart.call(null);
             }
@@ -511,6 +542,15 @@ public class TLSConnection
             checkPeerAuthorization();
             handshaking = false;
             initFinished = true;
+            handshakeTime = System.nanoTime() - handshakeStart;
+            // A resumed session was created by an earlier handshake, so it is older than this one
+            sessionReused = (engine.getSession().getCreationTime() < handshakeStartMillis);
+            if (log.isDebugEnabled()) {
+                log.debug("Handshake finished in {} us. Session reused = {}", handshakeTime / 1000L, sessionReused);
+            }
+            if (onHandshakeTimed != null) {
+                onHandshakeTimed.call(handshakeTime, sessionReused);
+            }
             if (onHandshakeDone != null) {
                 onHandshakeDone.call(null);
             }
@@ -0,0 +1,222 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.kernel.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * This class hands out space to read network data into. Rather than each handle reading into a private buffer,
+ * a handle leases a region of a large shared "slab," reads directly into it, and then commits the lease.
+ * Committing returns a buffer containing only the bytes that were read and gives the rest of the region
+ * back to the slab.
+ * </p>
+ * <p>
+ * Buffers belong to whoever received them -- usually a JavaScript Buffer -- and there is no way to find out
+ * when they are no longer used. So a slice of a slab keeps the whole slab alive for as long as it lives,
+ * and a few small slices that a script keeps around could pin a lot of memory. To put a limit on that,
+ * a read that fills at least 1/MAX_RETAINED_RATIO of the slab is returned as a slice that shares the slab's
+ * array, without copying, but a smaller read is copied into a buffer of its own and its space in the slab
+ * is used again by the next lease. That way, no buffer returned by "commit" keeps alive more than
+ * MAX_RETAINED_RATIO times its own size. Small reads cost one small copy, which is cheap compared to
+ * keeping most of a slab alive, and large reads are still never copied.
+ * </p>
+ * <p>
+ * Once a slab no longer has room for a lease, a new one is allocated and the old one is garbage-collected
+ * after the last slice that refers to it.
+ * </p>
+ * <p>
+ * Each runtime has one pool, and it must only be used from the runtime's thread. The statistics may be read
+ * from any thread but may be slightly out of date.
+ * </p>
+ */
+
+public class ReadBufferPool
+{
+    public static final int DEFAULT_SLAB_SIZE = 65536;
+    /**
+     * No buffer that is returned by "commit" shares a slab that is bigger than this many times its own size.
+     */
+    public static final int MAX_RETAINED_RATIO = 8;
+
+    private final int slabSize;
+    private final int copyThreshold;
+
+    private ByteBuffer slab;
+    private int leaseStart = -1;
+    private int leaseEnd;
+
+    private long slabsAllocated;
+    private long bytesAllocated;
+    private long leases;
+    private long bytesDelivered;
+    private long bytesCopied;
+    private long bytesWasted;
+
+    public ReadBufferPool()
+    {
+        this(DEFAULT_SLAB_SIZE);
+    }
+
+    public ReadBufferPool(int slabSize)
+    {
+        this.slabSize = slabSize;
+        this.copyThreshold = slabSize / MAX_RETAINED_RATIO;
+    }
+
+    /**
+     * Return a buffer that has at least "minSize" and no more than "maxSize" bytes remaining. Its position
+     * is zero. The caller should read into it and then pass it to "commit" -- no other buffer may be leased
+     * from this pool until that happens.
+     */
+    public ByteBuffer lease(int minSize, int maxSize)
+    {
+        assert(leaseStart < 0);
+        assert(minSize <= maxSize);
+
+        if ((slab == null) || (slab.remaining() < minSize)) {
+            if (slab != null) {
+                bytesWasted += slab.remaining();
+            }
+            int size = Math.max(slabSize, minSize);
+            slab = ByteBuffer.allocate(size);
+            slabsAllocated++;
+            bytesAllocated += size;
+        }
+
+        leaseStart = slab.position();
+        leaseEnd = leaseStart + Math.min(maxSize, slab.remaining());
+        leases++;
+
+        ByteBuffer region = slab.duplicate();
+        region.limit(leaseEnd);
+        return region.slice();
+    }
+
+    /**
+     * Finish a lease that was returned by "lease." The bytes between zero and the buffer's position are
+     * returned in a new buffer, and the space after them is made available to the next lease. The buffer is
+     * a slice of the slab if the read was large enough, and otherwise a copy, as described above.
+     * If nothing was written to the buffer, then null is returned.
+     */
+    public ByteBuffer commit(ByteBuffer leased)
+    {
+        assert(leaseStart >= 0);
+        int len = leased.position();
+        int start = leaseStart;
+        leaseStart = -1;
+
+        if (len == 0) {
+            return null;
+        }
+        assert(start + len <= leaseEnd);
+        bytesDelivered += len;
+
+        if (len < copyThreshold) {
+            // Don't let a small buffer pin the slab. The slab's position doesn't move, so the next
+            // lease will use the same space.
+            byte[] copy = new byte[len];
+            System.arraycopy(slab.array(), slab.arrayOffset() + start, copy, 0, len);
+            bytesCopied += len;
+            return ByteBuffer.wrap(copy);
+        }
+
+        slab.position(start + len);
+
+        ByteBuffer ret = slab.duplicate();
+        ret.position(start);
+        ret.limit(start + len);
+        return ret.slice();
+    }
+
+    /**
+     * Like "commit," but append the bytes that were read to "prev," which must have been returned by
+     * an earlier commit on this pool and not modified since. If "prev" is a slice of the slab that ends right
+     * where this lease began, then the result is one slice that covers both, so nothing is copied.
+     */
+    public ByteBuffer commit(ByteBuffer prev, ByteBuffer leased)
+    {
+        int start = leaseStart;
+        ByteBuffer out = commit(leased);
+        if ((prev == null) || !prev.hasRemaining()) {
+            return out;
+        }
+        if (out == null) {
+            return prev;
+        }
+
+        if ((out.array() == slab.array()) && (prev.array() == slab.array()) &&
+            ((prev.arrayOffset() + prev.limit()) == (slab.arrayOffset() + start))) {
+            ByteBuffer joined = slab.duplicate();
+            joined.position(prev.arrayOffset() + prev.position() - slab.arrayOffset());
+            joined.limit(start + out.remaining());
+            return joined.slice();
+        }
+        return BufferUtils.catBuffers(prev, out);
+    }
+
+    /**
+     * Return the lease without delivering anything.
+     */
+    public void cancel(ByteBuffer leased)
+    {
+        leaseStart = -1;
+    }
+
+    public long getSlabsAllocated() {
+        return slabsAllocated;
+    }
+
+    public long getBytesAllocated() {
+        return bytesAllocated;
+    }
+
+    public long getLeases() {
+        return leases;
+    }
+
+    public long getBytesDelivered() {
+        return bytesDelivered;
+    }
+
+    /**
+     * Return the number of bytes that were copied out of the slab because the read was too small to
+     * be allowed to keep the slab alive.
+     */
+    public long getBytesCopied() {
+        return bytesCopied;
+    }
+
+    /**
+     * Return the number of bytes that were left unused at the end of slabs that are no longer in use.
+     */
+    public long getBytesWasted() {
+        return bytesWasted;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Slabs: " + slabsAllocated + " Allocated: " + bytesAllocated + " Leases: " + leases +
+               " Delivered: " + bytesDelivered + " Copied: " + bytesCopied + " Wasted: " + bytesWasted;
+    }
+}
@@ -34,9 +34,21 @@ public class AdvancedCompressor
         super(mode, level, strategy, dictionary);
     }
 
+    public AdvancedCompressor(int mode, int level, int strategy, ByteBuffer dictionary, ZlibPool pool)
+        throws OSException
+    {
+        super(mode, level, strategy, dictionary, pool);
+    }
+
     @Override
     protected int doDeflate(byte[] outBuf, int outOff, int outLen, int flags)
     {
         return deflater.deflate(outBuf, outOff, outLen, flags);
     }
+
+    @Override
+    protected boolean hasFlushFlags()
+    {
+        return true;
+    }
 }
@@ -36,25 +36,52 @@ public class Compressor
 {
     private static final Logger log = LoggerFactory.getLogger(Compressor.class);
 
+    private static final byte[] EMPTY = new byte[0];
+
     protected final Deflater deflater;
+    private final ZlibPool pool;
+    private final boolean nowrap;
+    private final boolean hasDictionary;
+    private int level;
+    private int strategy;
     private ByteBuffer header;
-    private ByteBuffer trailer;
+    // Output that was ready but did not fit in the caller's buffer, like the GZIP trailer
+    private ByteBuffer pending;
     private CRC32 checksum;
+    private boolean done;
+    private boolean closed;
+    // "setParams" was called, so the next call to "deflate" will only apply the new parameters
+    private boolean paramsPending;
+    // The Deflater no longer has the level and strategy that it was taken from the pool with
+    private boolean paramsChanged;
 
     public Compressor(int mode, int level, int strategy, ByteBuffer dictionary)
         throws OSException
+    {
+        this(mode, level, strategy, dictionary, null);
+    }
+
+    /**
+     * Create a compressor that takes its Deflater from "pool," if it is not null, and gives it back on "close."
+     */
+    public Compressor(int mode, int level, int strategy, ByteBuffer dictionary, ZlibPool pool)
+        throws OSException
     {
         super(mode);
+        this.pool = pool;
+        this.level = level;
+        this.strategy = strategy;
+        this.hasDictionary = (dictionary != null);
 
         switch (mode) {
         case DEFLATE:
-            deflater = new Deflater(level);
+            nowrap = false;
             break;
         case DEFLATERAW:
-            deflater = new Deflater(level, true);
+            nowrap = true;
             break;
         case GZIP:
-            deflater = new Deflater(level, true);
+            nowrap = true;
             GZipHeader hdr = new GZipHeader();
             hdr.setTimestamp(System.currentTimeMillis());
             hdr.setCompressionLevel(level);
@@ -65,7 +92,11 @@ public class Compressor
             throw new OSException(ErrorCodes.EINVAL, "Invalid mode " + mode + " for compression");
         }
 
-        deflater.setStrategy(strategy);
+        if (pool == null) {
+            deflater = ZlibPool.newDeflater(level, strategy, nowrap);
+        } else {
+            deflater = pool.takeDeflater(level, strategy, nowrap);
+        }
 
         if (log.isDebugEnabled()) {
             log.debug("Going to deflate with strategy {}, level {}", strategy, level);
@@ -83,6 +114,7 @@ public class Compressor
                     deflater.setDictionary(dict);
                 }
             } catch (IllegalArgumentException ie) {
+                close();
                 throw new OSException(ErrorCodes.EINVAL, "Bad dictionary: " + ie.getMessage());
             }
         }
@@ -95,6 +127,13 @@ public class Compressor
         if (log.isDebugEnabled()) {
             log.debug("Changing deflate paramst to  strategy {}, level {}", strategy, level);
         }
+        if ((level != this.level) || (strategy != this.strategy)) {
+            // The Deflater ignores changes that don't change anything
+            paramsChanged = true;
+            paramsPending = true;
+        }
+        this.level = level;
+        this.strategy = strategy;
         deflater.setLevel(level);
         deflater.setStrategy(strategy);
     }
@@ -106,6 +145,8 @@ public class Compressor
         if (checksum != null) {
             checksum.reset();
         }
+        pending = null;
+        done = false;
     }
 
     @Override
@@ -117,39 +158,41 @@ public class Compressor
 
         if (mode == GZIP) {
             if (header != null) {
-                out.put(header);
+                drain(header, out);
                 if (header.hasRemaining()) {
                     // Didn't even write the complete header yet
                     return;
                 } else {
                     header = null;
                 }
-            } else if (trailer != null) {
-                // Leftover trailer bytes -- just put
-                out.put(trailer);
-                if (!trailer.hasRemaining()) {
-                    trailer = null;
+            } else if (pending != null) {
+                // Leftover trailer bytes, or output from a parallel compression -- just put
+                drain(pending, out);
+                if (!pending.hasRemaining()) {
+                    pending = null;
                 }
                 return;
+            } else if (done) {
+                return;
             }
-        }
 
-        byte[] buf;
-        int off;
-        int len;
-
-        if (out.hasArray()) {
-            buf = out.array();
-            off = out.arrayOffset() + out.position();
-            len = out.remaining();
-        } else {
-            buf = new byte[out.remaining()];
-            out.duplicate().get(buf);
-            off = 0;
-            len = out.remaining();
+            if ((flush == FINISH) && (in != null) && canCompressInParallel(in)) {
+                // The whole stream is here, so compress it in blocks using several threads
+                if (log.isDebugEnabled()) {
+                    log.debug("Compressing {} bytes in parallel", in.remaining());
+                }
+                pending = ParallelGzip.compress(pool, level, strategy, in);
+                in.position(in.limit());
+                done = true;
+                drain(pending, out);
+                if (!pending.hasRemaining()) {
+                    pending = null;
+                }
+                return;
+            }
         }
 
-        addInput(in);
+        setInput(in);
 
         int flushFlag;
         if (flush == FINISH) {
@@ -160,63 +203,135 @@ public class Compressor
         }
 
         long oldPos = deflater.getBytesRead();
-        int numWritten  = doDeflate(buf, off, len, flushFlag);
+        int numWritten = 0;
+        if (paramsPending) {
+            // This call applies the new parameters, and may flush what was compressed with the old
+            // ones, but doesn't read anything. If it filled the output then it might not have finished.
+            numWritten = deflateInto(out, flushFlag);
+            paramsPending = !out.hasRemaining();
+        }
+        if (!paramsPending) {
+            numWritten += deflateInto(out, flushFlag);
+        }
         int numRead = (int)(deflater.getBytesRead() - oldPos);
 
         if (log.isDebugEnabled()) {
             log.debug("Deflater: read {}, wrote {}", numRead, numWritten);
         }
 
-        in.position(in.position() + numRead);
-        out.position(out.position() + numWritten);
+        if (in != null) {
+            if (mode == GZIP) {
+                // Only what was consumed, since the rest will be passed to us again
+                updateChecksum(checksum, in, numRead);
+            }
+            in.position(in.position() + numRead);
+        }
 
         if ((mode == GZIP) && deflater.finished()) {
-            trailer =
+            pending =
                 GZipHeader.writeGZipTrailer(checksum.getValue(), deflater.getBytesRead());
-            out.put(trailer);
-            if (!out.hasRemaining()) {
-                trailer = null;
+            done = true;
+            drain(pending, out);
+            if (!pending.hasRemaining()) {
+                pending = null;
             }
         }
     }
 
+    private boolean canCompressInParallel(ByteBuffer in)
+    {
+        return ((pool != null) && hasFlushFlags() && !hasDictionary &&
+                (deflater.getBytesRead() == 0L) && pool.isParallel(in.remaining()));
+    }
+
+    private static void drain(ByteBuffer src, ByteBuffer out)
+    {
+        if (src.remaining() <= out.remaining()) {
+            out.put(src);
+        } else {
+            ByteBuffer chunk = src.duplicate();
+            chunk.limit(chunk.position() + out.remaining());
+            out.put(chunk);
+            src.position(chunk.position());
+        }
+    }
+
     // Override this in Java 7 so use the more complete API in that version of Java
     protected int doDeflate(byte[] outBuf, int outOff, int outLen, int flags)
     {
         return deflater.deflate(outBuf, outOff, outLen);
     }
 
-    private void addInput(ByteBuffer in)
+    /**
+     * Return true if "doDeflate" supports sync flushes, which parallel compression requires.
+     */
+    protected boolean hasFlushFlags()
+    {
+        return false;
+    }
+
+    /**
+     * Deflate in to "out" and advance its position. Override this in Java 11, which can write directly
+     * to a ByteBuffer.
+     */
+    protected int deflateInto(ByteBuffer out, int flags)
     {
-        byte[] buf;
-        int off;
-        int len;
+        int numWritten;
+        if (out.hasArray()) {
+            numWritten = doDeflate(out.array(), out.arrayOffset() + out.position(), out.remaining(), flags);
+            out.position(out.position() + numWritten);
+        } else {
+            byte[] buf = new byte[out.remaining()];
+            numWritten = doDeflate(buf, 0, buf.length, flags);
+            out.put(buf, 0, numWritten);
+        }
+        return numWritten;
+    }
 
+    /**
+     * Give all the remaining data in "in" to the Deflater, without changing its position. Override this in
+     * Java 11, which can read directly from a ByteBuffer.
+     */
+    protected void setInput(ByteBuffer in)
+    {
         if (in == null) {
-            buf = null;
-            off = len = 0;
+            deflater.setInput(EMPTY);
         } else if (in.hasArray()) {
-            buf = in.array();
-            off = in.arrayOffset() + in.position();
-            len = in.remaining();
+            deflater.setInput(in.array(), in.arrayOffset() + in.position(), in.remaining());
         } else {
-            buf = new byte[in.remaining()];
+            byte[] buf = new byte[in.remaining()];
             in.duplicate().get(buf);
-            off = 0;
-            len = in.remaining();
+            deflater.setInput(buf);
         }
+    }
 
-        deflater.setInput(buf, off, len);
-        if (mode == GZIP) {
-            checksum.update(buf, off, len);
+    /**
+     * Add the next "len" bytes of "buf" to the checksum, without changing its position.
+     */
+    protected void updateChecksum(CRC32 checksum, ByteBuffer buf, int len)
+    {
+        if (buf.hasArray()) {
+            checksum.update(buf.array(), buf.arrayOffset() + buf.position(), len);
+        } else {
+            byte[] tmp = new byte[len];
+            buf.duplicate().get(tmp);
+            checksum.update(tmp);
         }
     }
 
     @Override
     public void close()
     {
-        if (deflater != null) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (pool == null) {
             deflater.end();
+        } else if (paramsChanged || paramsPending) {
+            pool.discardDeflater(deflater);
+        } else {
+            pool.returnDeflater(deflater, level, strategy, nowrap);
         }
     }
 }
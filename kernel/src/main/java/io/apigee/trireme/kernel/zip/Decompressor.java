@@ -36,16 +36,29 @@ public class Decompressor
 {
     private static final Logger log = LoggerFactory.getLogger(Decompressor.class);
 
-    private Inflater inflater;
+    protected Inflater inflater;
+    private final ZlibPool pool;
+    private boolean nowrap;
     private GZipHeader header;
     private final ByteBuffer dictionary;
     private CRC32 checksum;
+    private boolean closed;
 
     public Decompressor(int mode, ByteBuffer dictionary)
         throws OSException
+    {
+        this(mode, dictionary, null);
+    }
+
+    /**
+     * Create a decompressor that takes its Inflater from "pool," if it is not null, and gives it back on "close."
+     */
+    public Decompressor(int mode, ByteBuffer dictionary, ZlibPool pool)
+        throws OSException
     {
         super(mode);
         this.dictionary = dictionary;
+        this.pool = pool;
     }
 
     @Override
@@ -57,7 +70,9 @@ public class Decompressor
     @Override
     public void reset()
     {
-        inflater.reset();
+        if (inflater != null) {
+            inflater.reset();
+        }
         if (checksum != null) {
             checksum.reset();
         }
@@ -101,25 +116,13 @@ public class Decompressor
             }
         }
 
-        addInput(in);
-
-        byte[] buf;
-        int off;
-        int len;
-
-        if (out.hasArray()) {
-            buf = out.array();
-            off = out.arrayOffset() + out.position();
-            len = out.remaining();
-        } else {
-            buf = new byte[out.remaining()];
-            out.duplicate().get(buf);
-            off = 0;
-            len = out.remaining();
+        if (in != null) {
+            setInput(in);
         }
 
+        int outStart = out.position();
         long oldPos = inflater.getBytesRead();
-        int numWritten  = inflater.inflate(buf, off, len);
+        int numWritten  = inflateInto(out);
         long numRead = inflater.getBytesRead() - oldPos;
 
         if (log.isDebugEnabled()) {
@@ -127,13 +130,12 @@ public class Decompressor
         }
 
         if (mode == GUNZIP) {
-            checksum.update(buf, off, numWritten);
+            updateChecksum(checksum, out, outStart, numWritten);
         }
 
         if (in != null) {
             in.position(in.position() + (int)numRead);
         }
-        out.position(out.position() + numWritten);
 
         if ((numWritten == 0) && inflater.needsDictionary()) {
             if (dictionary == null) {
@@ -159,22 +161,22 @@ public class Decompressor
     {
         switch (mode) {
         case INFLATE:
-            inflater = new Inflater();
+            inflater = takeInflater(false);
             break;
         case INFLATERAW:
-            inflater = new Inflater(true);
+            inflater = takeInflater(true);
             break;
         case GUNZIP:
-            inflater = new Inflater(true);
+            inflater = takeInflater(true);
             break;
         case UNZIP:
             GZipHeader.Magic magic = GZipHeader.peekMagicNumber(in);
             if (magic == GZipHeader.Magic.GZIP) {
                 mode = GUNZIP;
-                inflater = new Inflater(true);
+                inflater = takeInflater(true);
             } else if (magic == GZipHeader.Magic.UNDEFINED) {
                 mode = INFLATE;
-                inflater = new Inflater();
+                inflater = takeInflater(false);
             } else {
                 // Otherwise, not enough data -- fall through and we'll try again next time
                 return;
@@ -185,28 +187,59 @@ public class Decompressor
         }
     }
 
-    private void addInput(ByteBuffer in)
+    private Inflater takeInflater(boolean nowrap)
+    {
+        this.nowrap = nowrap;
+        return (pool == null ? new Inflater(nowrap) : pool.takeInflater(nowrap));
+    }
+
+    /**
+     * Give all the remaining data in "in" to the Inflater, without changing its position. Override this in
+     * Java 11, which can read directly from a ByteBuffer.
+     */
+    protected void setInput(ByteBuffer in)
     {
-        byte[] buf;
-        int off;
-        int len;
-
-        if (in == null) {
-            buf = null;
-            off = len = 0;
-        } else if (in.hasArray()) {
-            buf = in.array();
-            off = in.arrayOffset() + in.position();
-            len = in.remaining();
+        if (in.hasArray()) {
+            inflater.setInput(in.array(), in.arrayOffset() + in.position(), in.remaining());
         } else {
-            buf = new byte[in.remaining()];
+            byte[] buf = new byte[in.remaining()];
             in.duplicate().get(buf);
-            off = 0;
-            len = in.remaining();
+            inflater.setInput(buf);
         }
+    }
 
-        if (buf != null) {
-            inflater.setInput(buf, off, len);
+    /**
+     * Inflate in to "out" and advance its position. Override this in Java 11, which can write directly
+     * to a ByteBuffer.
+     */
+    protected int inflateInto(ByteBuffer out)
+        throws DataFormatException
+    {
+        int numWritten;
+        if (out.hasArray()) {
+            numWritten = inflater.inflate(out.array(), out.arrayOffset() + out.position(), out.remaining());
+            out.position(out.position() + numWritten);
+        } else {
+            byte[] buf = new byte[out.remaining()];
+            numWritten = inflater.inflate(buf);
+            out.put(buf, 0, numWritten);
+        }
+        return numWritten;
+    }
+
+    /**
+     * Add the "len" bytes of "buf" starting at "start" to the checksum, without changing its position.
+     */
+    protected void updateChecksum(CRC32 checksum, ByteBuffer buf, int start, int len)
+    {
+        if (buf.hasArray()) {
+            checksum.update(buf.array(), buf.arrayOffset() + start, len);
+        } else {
+            byte[] tmp = new byte[len];
+            ByteBuffer chunk = buf.duplicate();
+            chunk.position(start);
+            chunk.get(tmp);
+            checksum.update(tmp);
         }
     }
 
@@ -246,8 +279,16 @@ public class Decompressor
     @Override
     public void close()
     {
+        if (closed) {
+            return;
+        }
+        closed = true;
         if (inflater != null) {
-            inflater.end();
+            if (pool == null) {
+                inflater.end();
+            } else {
+                pool.returnInflater(inflater, nowrap);
+            }
         }
     }
 }
@@ -0,0 +1,73 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.kernel.zip;
+
+import io.apigee.trireme.kernel.OSException;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * This compressor uses the Java 11 methods that let Deflater read and write ByteBuffers, so that direct
+ * buffers don't have to be copied to and from temporary arrays. Use it only when those methods exist.
+ */
+public class DirectCompressor
+    extends AdvancedCompressor
+{
+    public DirectCompressor(int mode, int level, int strategy, ByteBuffer dictionary, ZlibPool pool)
+        throws OSException
+    {
+        super(mode, level, strategy, dictionary, pool);
+    }
+
+    @Override
+    protected int deflateInto(ByteBuffer out, int flags)
+    {
+        if (out.hasArray()) {
+            return super.deflateInto(out, flags);
+        }
+        return deflater.deflate(out, flags);
+    }
+
+    @Override
+    protected void setInput(ByteBuffer in)
+    {
+        if ((in == null) || in.hasArray()) {
+            super.setInput(in);
+        } else {
+            // The Deflater moves the position of this one as it reads, and we move the caller's ourselves
+            deflater.setInput(in.duplicate());
+        }
+    }
+
+    @Override
+    protected void updateChecksum(CRC32 checksum, ByteBuffer buf, int len)
+    {
+        if (buf.hasArray()) {
+            super.updateChecksum(checksum, buf, len);
+        } else {
+            ByteBuffer chunk = buf.duplicate();
+            chunk.limit(chunk.position() + len);
+            checksum.update(chunk);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.kernel.zip;
+
+import io.apigee.trireme.kernel.OSException;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+
+/**
+ * This decompressor uses the Java 11 methods that let Inflater read and write ByteBuffers, so that direct
+ * buffers don't have to be copied to and from temporary arrays. Use it only when those methods exist.
+ */
+public class DirectDecompressor
+    extends Decompressor
+{
+    public DirectDecompressor(int mode, ByteBuffer dictionary, ZlibPool pool)
+        throws OSException
+    {
+        super(mode, dictionary, pool);
+    }
+
+    @Override
+    protected void setInput(ByteBuffer in)
+    {
+        if (in.hasArray()) {
+            super.setInput(in);
+        } else {
+            // The Inflater moves the position of this one as it reads, and we move the caller's ourselves
+            inflater.setInput(in.duplicate());
+        }
+    }
+
+    @Override
+    protected int inflateInto(ByteBuffer out)
+        throws DataFormatException
+    {
+        if (out.hasArray()) {
+            return super.inflateInto(out);
+        }
+        return inflater.inflate(out);
+    }
+
+    @Override
+    protected void updateChecksum(CRC32 checksum, ByteBuffer buf, int start, int len)
+    {
+        if (buf.hasArray()) {
+            super.updateChecksum(checksum, buf, start, len);
+        } else {
+            ByteBuffer chunk = buf.duplicate();
+            chunk.limit(start + len);
+            chunk.position(start);
+            checksum.update(chunk);
+        }
+    }
+}
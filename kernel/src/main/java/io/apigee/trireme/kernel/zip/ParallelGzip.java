@@ -0,0 +1,223 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.kernel.zip;
+
+import io.apigee.trireme.kernel.util.GZipHeader;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * This class compresses a large buffer using several threads, the way that "pigz" does. The input is split in
+ * to blocks, and each block is compressed by its own raw Deflater using the 32K of input before it as a preset
+ * dictionary, so the compression ratio is almost as good as compressing the whole thing at once. Every block
+ * but the last ends with a sync flush, so that the next one starts on a byte boundary and the compressed
+ * blocks can just be concatenated. The result is an ordinary deflate stream.
+ * <p>
+ * This requires the Java 7 "flush" option to Deflater, so only AdvancedCompressor uses it.
+ * </p>
+ */
+public class ParallelGzip
+{
+    public static final int BLOCK_SIZE = 128 * 1024;
+    private static final int WINDOW_SIZE = 32 * 1024;
+
+    private final ZlibPool pool;
+    private final int level;
+    private final int strategy;
+    private final byte[] input;
+    private final int inputOffset;
+    private final int inputLength;
+    private final int numBlocks;
+    private final byte[][] results;
+    private final int[] resultLengths;
+    private final AtomicInteger nextBlock = new AtomicInteger();
+    private final CountDownLatch done;
+    private volatile RuntimeException error;
+
+    private ParallelGzip(ZlibPool pool, int level, int strategy, byte[] input, int off, int len)
+    {
+        this.pool = pool;
+        this.level = level;
+        this.strategy = strategy;
+        this.input = input;
+        this.inputOffset = off;
+        this.inputLength = len;
+        this.numBlocks = Math.max(1, (len + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        this.results = new byte[numBlocks][];
+        this.resultLengths = new int[numBlocks];
+        this.done = new CountDownLatch(numBlocks);
+    }
+
+    /**
+     * Compress all the remaining data in "in," and return a buffer that contains the compressed data followed
+     * by a GZIP trailer. The GZIP header is not included. "in" is not modified.
+     */
+    public static ByteBuffer compress(ZlibPool pool, int level, int strategy, ByteBuffer in)
+    {
+        byte[] buf;
+        int off;
+        int len = in.remaining();
+        if (in.hasArray()) {
+            buf = in.array();
+            off = in.arrayOffset() + in.position();
+        } else {
+            // We need to look at the previous block for its dictionary, so it's simpler to copy just once
+            buf = new byte[len];
+            in.duplicate().get(buf);
+            off = 0;
+        }
+
+        ParallelGzip pg = new ParallelGzip(pool, level, strategy, buf, off, len);
+        return pg.run();
+    }
+
+    private ByteBuffer run()
+    {
+        Runnable worker = new Runnable() {
+            @Override
+            public void run()
+            {
+                compressBlocks();
+            }
+        };
+
+        int helpers = Math.min(numBlocks, pool.getParallelism()) - 1;
+        for (int i = 0; i < helpers; i++) {
+            try {
+                pool.getExecutor().execute(worker);
+            } catch (RejectedExecutionException ree) {
+                // We will just do more of the work ourselves
+                break;
+            }
+        }
+
+        // The checksum is sequential, so do it while the helpers get started
+        CRC32 checksum = new CRC32();
+        checksum.update(input, inputOffset, inputLength);
+
+        // The caller helps too, so we never wait for a block that no thread has started
+        compressBlocks();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException ie) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (error != null) {
+            throw error;
+        }
+        pool.recordParallel(numBlocks);
+
+        int total = GZipHeader.TRAILER_SIZE;
+        for (int i = 0; i < numBlocks; i++) {
+            total += resultLengths[i];
+        }
+        ByteBuffer out = ByteBuffer.allocate(total);
+        for (int i = 0; i < numBlocks; i++) {
+            out.put(results[i], 0, resultLengths[i]);
+            results[i] = null;
+        }
+        out.put(GZipHeader.writeGZipTrailer(checksum.getValue(), inputLength));
+        out.flip();
+        return out;
+    }
+
+    private void compressBlocks()
+    {
+        int b;
+        while ((b = nextBlock.getAndIncrement()) < numBlocks) {
+            try {
+                if (error == null) {
+                    compressBlock(b);
+                }
+            } catch (RuntimeException re) {
+                error = re;
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+
+    private void compressBlock(int b)
+    {
+        int start = inputOffset + (b * BLOCK_SIZE);
+        int len = Math.min(BLOCK_SIZE, inputOffset + inputLength - start);
+        boolean last = (b == (numBlocks - 1));
+
+        Deflater deflater = pool.takeDeflater(level, strategy, true);
+        try {
+            if (b > 0) {
+                int dictStart = Math.max(inputOffset, start - WINDOW_SIZE);
+                deflater.setDictionary(input, dictStart, start - dictStart);
+            }
+            deflater.setInput(input, start, len);
+
+            // Most data compresses, and we will grow the buffer if it doesn't
+            byte[] out = new byte[(len / 2) + 64];
+            int outLen = 0;
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    if (outLen == out.length) {
+                        out = grow(out);
+                    }
+                    outLen += deflater.deflate(out, outLen, out.length - outLen);
+                }
+            } else {
+                while (true) {
+                    if (outLen == out.length) {
+                        out = grow(out);
+                    }
+                    int space = out.length - outLen;
+                    int n = deflater.deflate(out, outLen, space, Deflater.SYNC_FLUSH);
+                    outLen += n;
+                    if (n < space) {
+                        // Everything was consumed and flushed
+                        break;
+                    }
+                }
+            }
+            results[b] = out;
+            resultLengths[b] = outLen;
+        } finally {
+            pool.returnDeflater(deflater, level, strategy, true);
+        }
+    }
+
+    private static byte[] grow(byte[] buf)
+    {
+        byte[] nb = new byte[buf.length * 2];
+        System.arraycopy(buf, 0, nb, 0, buf.length);
+        return nb;
+    }
+}
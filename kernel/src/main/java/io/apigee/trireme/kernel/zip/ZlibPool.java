@@ -0,0 +1,300 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.kernel.zip;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * This is a pool of Deflater and Inflater objects that may be shared by many zlib streams. Each one holds
+ * a native zlib stream and a window of up to a few hundred kilobytes, so a script that gzips every
+ * response would otherwise allocate and free one of those for every request. Instances are reset when they
+ * are returned, and if there are already too many idle ones then the extra one is ended instead.
+ * <p>
+ * Idle Deflaters are kept apart by level and strategy as well. Changing those on a Deflater only takes
+ * effect during its next call to "deflate," which then reads and writes nothing at all, and the callers
+ * would take that to mean that the input was all consumed.
+ * </p>
+ * <p>
+ * The pool may also be given an executor for CPU-bound work, in which case large buffers that are compressed
+ * all at once with GZIP are split in to blocks and compressed in parallel. See ParallelGzip.
+ * </p>
+ */
+public class ZlibPool
+{
+    public static final int DEFAULT_MAX_IDLE = 32;
+    /** Buffers at least this big are compressed in parallel. */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 1024 * 1024;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final int maxIdle;
+    // Keyed by "nowrap," level, and strategy. See "deflaterKey."
+    private final ConcurrentHashMap<Integer, ArrayBlockingQueue<Deflater>> deflaters =
+        new ConcurrentHashMap<Integer, ArrayBlockingQueue<Deflater>>();
+    // "nowrap" is true for raw and GZIP streams and false for zlib streams
+    private final ArrayBlockingQueue<Inflater> inflaters;
+    private final ArrayBlockingQueue<Inflater> rawInflaters;
+    private final Executor executor;
+    private final int parallelism;
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+    private final AtomicLong deflaterHits = new AtomicLong();
+    private final AtomicLong deflaterMisses = new AtomicLong();
+    private final AtomicLong inflaterHits = new AtomicLong();
+    private final AtomicLong inflaterMisses = new AtomicLong();
+    private final AtomicLong parallelCount = new AtomicLong();
+    private final AtomicLong parallelBlocks = new AtomicLong();
+
+    /**
+     * Create a pool that keeps up to "maxIdle" idle Inflaters of each kind, and up to "maxIdle" idle
+     * Deflaters for each combination of level and strategy that is in use. If "executor" is not null, then
+     * large GZIP buffers will be compressed using up to "parallelism" threads from it, including the caller's.
+     * The executor should be meant for CPU-bound work and should run tasks in the caller's thread, rather than
+     * failing, when it is too busy.
+     */
+    public ZlibPool(int maxIdle, Executor executor, int parallelism)
+    {
+        this.maxIdle = maxIdle;
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.inflaters = new ArrayBlockingQueue<Inflater>(Math.max(maxIdle, 1));
+        this.rawInflaters = new ArrayBlockingQueue<Inflater>(Math.max(maxIdle, 1));
+    }
+
+    private ArrayBlockingQueue<Inflater> getInflaters(boolean nowrap)
+    {
+        return (nowrap ? rawInflaters : inflaters);
+    }
+
+    private static Integer deflaterKey(int level, int strategy, boolean nowrap)
+    {
+        // Level is -1 to 9 and strategy is 0 to 2, so this never collides
+        return ((strategy << 5) | ((level + 1) << 1) | (nowrap ? 1 : 0));
+    }
+
+    private ArrayBlockingQueue<Deflater> getDeflaters(Integer key)
+    {
+        ArrayBlockingQueue<Deflater> q = deflaters.get(key);
+        if (q == null) {
+            q = new ArrayBlockingQueue<Deflater>(Math.max(maxIdle, 1));
+            ArrayBlockingQueue<Deflater> existing = deflaters.putIfAbsent(key, q);
+            if (existing != null) {
+                q = existing;
+            }
+        }
+        return q;
+    }
+
+    /**
+     * Set the smallest buffer that will be compressed in parallel. Zero turns off parallel compression.
+     */
+    public void setParallelThreshold(int threshold) {
+        this.parallelThreshold = threshold;
+    }
+
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * Return true if a buffer of this size should be compressed in parallel.
+     */
+    public boolean isParallel(int len)
+    {
+        return ((executor != null) && (parallelism > 1) &&
+                (parallelThreshold > 0) && (len >= parallelThreshold));
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Get a Deflater that is ready to start a new stream with the specified level and strategy.
+     */
+    public Deflater takeDeflater(int level, int strategy, boolean nowrap)
+    {
+        ArrayBlockingQueue<Deflater> q = deflaters.get(deflaterKey(level, strategy, nowrap));
+        Deflater d = (q == null ? null : q.poll());
+        if (d == null) {
+            deflaterMisses.incrementAndGet();
+            d = newDeflater(level, strategy, nowrap);
+        } else {
+            deflaterHits.incrementAndGet();
+        }
+        return d;
+    }
+
+    /**
+     * Create a Deflater that is ready to compress with the specified level and strategy. There is no
+     * constructor that takes a strategy, and a Deflater only applies a new one during its next call to
+     * "deflate," which reads and writes nothing else, so we make that call here before it has any input.
+     */
+    static Deflater newDeflater(int level, int strategy, boolean nowrap)
+    {
+        Deflater d = new Deflater(level, nowrap);
+        if (strategy != Deflater.DEFAULT_STRATEGY) {
+            d.setStrategy(strategy);
+            d.deflate(new byte[64]);
+        }
+        return d;
+    }
+
+    /**
+     * Give back a Deflater from "takeDeflater" with the same level, strategy, and "nowrap" that were used
+     * to take it. It must not be used again by the caller. If its level or strategy were changed since then,
+     * then call "discardDeflater" instead.
+     */
+    public void returnDeflater(Deflater d, int level, int strategy, boolean nowrap)
+    {
+        d.reset();
+        // Don't hang on to the caller's data while we're idle
+        d.setInput(EMPTY);
+        if ((maxIdle <= 0) || !getDeflaters(deflaterKey(level, strategy, nowrap)).offer(d)) {
+            d.end();
+        }
+    }
+
+    /**
+     * End a Deflater from "takeDeflater" that can't be reused.
+     */
+    public void discardDeflater(Deflater d)
+    {
+        d.end();
+    }
+
+    /**
+     * Get an Inflater that is ready to start a new stream.
+     */
+    public Inflater takeInflater(boolean nowrap)
+    {
+        Inflater i = getInflaters(nowrap).poll();
+        if (i == null) {
+            inflaterMisses.incrementAndGet();
+            i = new Inflater(nowrap);
+        } else {
+            inflaterHits.incrementAndGet();
+        }
+        return i;
+    }
+
+    /**
+     * Give back an Inflater from "takeInflater." It must not be used again by the caller.
+     */
+    public void returnInflater(Inflater i, boolean nowrap)
+    {
+        i.reset();
+        i.setInput(EMPTY);
+        if ((maxIdle <= 0) || !getInflaters(nowrap).offer(i)) {
+            i.end();
+        }
+    }
+
+    void recordParallel(int blocks)
+    {
+        parallelCount.incrementAndGet();
+        parallelBlocks.addAndGet(blocks);
+    }
+
+    /**
+     * End every idle instance. The pool may still be used afterwards.
+     */
+    public void close()
+    {
+        for (ArrayBlockingQueue<Deflater> q : deflaters.values()) {
+            Deflater d;
+            while ((d = q.poll()) != null) {
+                d.end();
+            }
+        }
+        endAll(inflaters);
+        endAll(rawInflaters);
+    }
+
+    private static void endAll(ArrayBlockingQueue<Inflater> q)
+    {
+        Inflater i;
+        while ((i = q.poll()) != null) {
+            i.end();
+        }
+    }
+
+    public long getDeflaterHitCount() {
+        return deflaterHits.get();
+    }
+
+    public long getDeflaterMissCount() {
+        return deflaterMisses.get();
+    }
+
+    public long getInflaterHitCount() {
+        return inflaterHits.get();
+    }
+
+    public long getInflaterMissCount() {
+        return inflaterMisses.get();
+    }
+
+    public double getHitRate()
+    {
+        long h = deflaterHits.get() + inflaterHits.get();
+        long total = h + deflaterMisses.get() + inflaterMisses.get();
+        return (total == 0L) ? 0.0 : ((double)h / (double)total);
+    }
+
+    public int getIdleCount()
+    {
+        int c = 0;
+        for (ArrayBlockingQueue<Deflater> q : deflaters.values()) {
+            c += q.size();
+        }
+        c += inflaters.size() + rawInflaters.size();
+        return c;
+    }
+
+    public int getMaxIdle() {
+        return maxIdle;
+    }
+
+    /**
+     * The number of GZIP buffers that were compressed in parallel.
+     */
+    public long getParallelCount() {
+        return parallelCount.get();
+    }
+
+    /**
+     * The number of blocks that those buffers were split in to.
+     */
+    public long getParallelBlockCount() {
+        return parallelBlocks.get();
+    }
+}
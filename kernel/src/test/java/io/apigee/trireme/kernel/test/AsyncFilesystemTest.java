@@ -0,0 +1,311 @@
+package io.apigee.trireme.kernel.test;
+
+import io.apigee.trireme.kernel.Charsets;
+import io.apigee.trireme.kernel.ErrorCodes;
+import io.apigee.trireme.kernel.OSException;
+import io.apigee.trireme.kernel.fs.AdvancedFilesystem;
+import io.apigee.trireme.kernel.fs.BasicFilesystem;
+import io.apigee.trireme.kernel.fs.FileConstants;
+import io.apigee.trireme.kernel.handles.IOCompletionHandler;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AsyncFilesystemTest
+{
+    private static final String DATA = "Hello, async world!";
+
+    private AdvancedFilesystem fs;
+    private ThreadPoolExecutor pool;
+    private File file;
+
+    @Before
+    public void init()
+        throws IOException
+    {
+        pool = (ThreadPoolExecutor)Executors.newFixedThreadPool(2);
+        fs = new AdvancedFilesystem();
+        fs.setAsyncIO(true);
+        fs.setAsyncExecutor(pool);
+        file = File.createTempFile("trireme-fs", ".txt");
+    }
+
+    @After
+    public void cleanup()
+    {
+        fs.cleanup();
+        pool.shutdown();
+        file.delete();
+    }
+
+    @Test
+    public void testWriteAndRead()
+        throws Exception
+    {
+        int fd = fs.open(file, file.getName(), FileConstants.O_RDWR | FileConstants.O_TRUNC, 0666, 0);
+
+        Result w = new Result();
+        assertTrue(fs.writeAsync(fd, ByteBuffer.wrap(DATA.getBytes(Charsets.UTF8)), 0L, w));
+        w.await();
+        assertEquals(0, w.errCode);
+        assertEquals(DATA.length(), w.value);
+
+        ByteBuffer buf = ByteBuffer.allocate(100);
+        Result r = new Result();
+        assertTrue(fs.readAsync(fd, buf, 7L, r));
+        r.await();
+        assertEquals(0, r.errCode);
+        assertEquals(DATA.length() - 7, r.value);
+        buf.flip();
+        assertEquals("async world!", Charsets.UTF8.decode(buf).toString());
+
+        // EOF is zero, not -1
+        r = new Result();
+        assertTrue(fs.readAsync(fd, ByteBuffer.allocate(10), 1000L, r));
+        r.await();
+        assertEquals(0, r.value);
+
+        fs.close(fd);
+        try {
+            fs.readAsync(fd, buf, 0L, new Result());
+            fail("Expected EBADF");
+        } catch (OSException ose) {
+            assertEquals(ErrorCodes.EBADF, ose.getCode());
+        }
+    }
+
+    @Test
+    public void testUnlinkThenWrite()
+        throws Exception
+    {
+        int fd = fs.open(file, file.getName(),
+                         FileConstants.O_RDWR | FileConstants.O_CREAT | FileConstants.O_TRUNC, 0666, 0);
+        fs.unlink(file, file.getName());
+
+        // Like a log file that was rotated -- the data must go to the file that is open, not a new one
+        Result w = new Result();
+        assertTrue(fs.writeAsync(fd, ByteBuffer.wrap(DATA.getBytes(Charsets.UTF8)), 0L, w));
+        w.await();
+        assertEquals(0, w.errCode);
+        assertFalse(file.exists());
+
+        ByteBuffer buf = ByteBuffer.allocate(100);
+        assertEquals(DATA.length(), fs.read(fd, buf, 0L));
+        buf.flip();
+        assertEquals(DATA, Charsets.UTF8.decode(buf).toString());
+        fs.close(fd);
+    }
+
+    @Test
+    public void testRenameAndReplace()
+        throws Exception
+    {
+        File moved = new File(file.getPath() + ".1");
+        int fd = fs.open(file, file.getName(), FileConstants.O_RDWR | FileConstants.O_TRUNC, 0666, 0);
+        try {
+            assertTrue(file.renameTo(moved));
+            assertTrue(file.createNewFile());
+
+            // Sync and async writes must both go to the file that is open, not the one that replaced it
+            Result w = new Result();
+            assertTrue(fs.writeAsync(fd, ByteBuffer.wrap(DATA.getBytes(Charsets.UTF8)), 0L, w));
+            w.await();
+            assertEquals(0, w.errCode);
+            fs.write(fd, ByteBuffer.wrap(DATA.getBytes(Charsets.UTF8)), DATA.length());
+            fs.close(fd);
+
+            assertEquals(0L, file.length());
+            assertEquals(DATA.length() * 2, moved.length());
+        } finally {
+            moved.delete();
+        }
+    }
+
+    @Test
+    public void testSyncOnly()
+        throws Exception
+    {
+        fs.setAsyncIO(false);
+        int fd = fs.open(file, file.getName(), FileConstants.O_RDWR | FileConstants.O_TRUNC, 0666, 0);
+        assertFalse(fs.writeAsync(fd, ByteBuffer.wrap(DATA.getBytes(Charsets.UTF8)), 0L, new Result()));
+        assertEquals(DATA.length(), fs.write(fd, ByteBuffer.wrap(DATA.getBytes(Charsets.UTF8)), 0L));
+        fs.close(fd);
+        assertEquals(DATA.length(), file.length());
+    }
+
+    @Test
+    public void testUsesAsyncExecutor()
+        throws Exception
+    {
+        int fd = fs.open(file, file.getName(), FileConstants.O_RDWR | FileConstants.O_TRUNC, 0666, 0);
+        long before = pool.getCompletedTaskCount();
+
+        // Synchronous calls don't go through the pool at all
+        assertEquals(DATA.length(), fs.write(fd, ByteBuffer.wrap(DATA.getBytes(Charsets.UTF8)), 0L));
+        assertEquals(before, pool.getCompletedTaskCount());
+
+        Result r = new Result();
+        assertTrue(fs.readAsync(fd, ByteBuffer.allocate(100), 0L, r));
+        r.await();
+        assertEquals(DATA.length(), r.value);
+        assertTrue(pool.getTaskCount() > before);
+        fs.close(fd);
+    }
+
+    @Test
+    public void testNoExecutor()
+        throws Exception
+    {
+        fs.setAsyncExecutor(null);
+        int fd = fs.open(file, file.getName(), FileConstants.O_RDWR | FileConstants.O_TRUNC, 0666, 0);
+        assertFalse(fs.readAsync(fd, ByteBuffer.allocate(100), 0L, new Result()));
+        fs.close(fd);
+    }
+
+    @Test
+    public void testExclusiveCreate()
+        throws Exception
+    {
+        file.delete();
+        int fd = fs.open(file, file.getName(),
+                         FileConstants.O_WRONLY | FileConstants.O_CREAT | FileConstants.O_EXCL, 0666, 0);
+
+        Result w = new Result();
+        assertTrue(fs.writeAsync(fd, ByteBuffer.wrap(DATA.getBytes(Charsets.UTF8)), 0L, w));
+        w.await();
+        assertEquals(0, w.errCode);
+        fs.close(fd);
+        assertEquals(DATA.length(), file.length());
+    }
+
+    @Test
+    public void testReadWholeFileAsync()
+        throws Exception
+    {
+        int fd = fs.open(file, file.getName(), FileConstants.O_WRONLY, 0666, 0);
+        fs.write(fd, ByteBuffer.wrap(DATA.getBytes(Charsets.UTF8)), 0L);
+        fs.close(fd);
+
+        WholeResult r = new WholeResult();
+        assertTrue(fs.readWholeFileAsync(file, file.getName(), 1024L, r));
+        r.await();
+        assertEquals(0, r.errCode);
+        assertEquals(DATA, new String(r.value, Charsets.UTF8));
+
+        // In these cases the caller should read it the regular way
+        assertFalse(fs.readWholeFileAsync(file, file.getName(), 10L, new WholeResult()));
+        assertFalse(fs.readWholeFileAsync(file.getParentFile(), file.getParent(), 1024L, new WholeResult()));
+        fd = fs.open(file, file.getName(), FileConstants.O_WRONLY | FileConstants.O_TRUNC, 0666, 0);
+        fs.close(fd);
+        assertFalse(fs.readWholeFileAsync(file, file.getName(), 1024L, new WholeResult()));
+
+        file.delete();
+        try {
+            fs.readWholeFileAsync(file, file.getName(), 1024L, new WholeResult());
+            fail("Expected ENOENT");
+        } catch (OSException ose) {
+            assertEquals(ErrorCodes.ENOENT, ose.getCode());
+        }
+    }
+
+    @Test
+    public void testReadWholeFileAsyncBig()
+        throws Exception
+    {
+        int len = (int)BasicFilesystem.MAP_THRESHOLD;
+        int fd = fs.open(file, file.getName(), FileConstants.O_WRONLY, 0666, 0);
+        assertEquals(len, fs.write(fd, ByteBuffer.allocate(len), 0L));
+        fs.close(fd);
+
+        // Big files are mapped by "readWholeFile" instead
+        assertFalse(fs.readWholeFileAsync(file, file.getName(), len * 2L, new WholeResult()));
+        assertEquals(len, fs.readWholeFile(file, file.getName(), len * 2L).length);
+    }
+
+    @Test
+    public void testReadWholeFileSyncOnly()
+        throws Exception
+    {
+        fs.setAsyncIO(false);
+        int fd = fs.open(file, file.getName(), FileConstants.O_WRONLY, 0666, 0);
+        fs.write(fd, ByteBuffer.wrap(DATA.getBytes(Charsets.UTF8)), 0L);
+        fs.close(fd);
+
+        assertFalse(fs.readWholeFileAsync(file, file.getName(), 1024L, new WholeResult()));
+        assertFalse(new BasicFilesystem().readWholeFileAsync(file, file.getName(), 1024L, new WholeResult()));
+    }
+
+    @Test
+    public void testReadWholeFileAsyncNoPermission()
+        throws Exception
+    {
+        int fd = fs.open(file, file.getName(), FileConstants.O_WRONLY, 0666, 0);
+        fs.write(fd, ByteBuffer.wrap(DATA.getBytes(Charsets.UTF8)), 0L);
+        fs.close(fd);
+        fs.chmod(file, file.getName(), 0, 0, false);
+        try {
+            // Root can read it anyway
+            Assume.assumeTrue(!file.canRead());
+
+            // Not ENOENT -- the caller opens it the regular way and gets the real error
+            assertFalse(fs.readWholeFileAsync(file, file.getName(), 1024L, new WholeResult()));
+        } finally {
+            fs.chmod(file, file.getName(), 0666, 0, false);
+        }
+    }
+
+    private static final class Result
+        implements IOCompletionHandler<Integer>
+    {
+        private final CountDownLatch latch = new CountDownLatch(1);
+        volatile int errCode = -1;
+        volatile int value = -1;
+
+        @Override
+        public void ioComplete(int errCode, Integer value)
+        {
+            this.errCode = errCode;
+            this.value = value;
+            latch.countDown();
+        }
+
+        void await()
+            throws InterruptedException
+        {
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    private static final class WholeResult
+        implements IOCompletionHandler<byte[]>
+    {
+        private final CountDownLatch latch = new CountDownLatch(1);
+        volatile int errCode = -1;
+        volatile byte[] value;
+
+        @Override
+        public void ioComplete(int errCode, byte[] value)
+        {
+            this.errCode = errCode;
+            this.value = value;
+            latch.countDown();
+        }
+
+        void await()
+            throws InterruptedException
+        {
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package io.apigee.trireme.kernel.test;
+
+import io.apigee.trireme.kernel.ErrorCodes;
+import io.apigee.trireme.kernel.dns.DNSCache;
+import io.apigee.trireme.kernel.dns.Wire;
+import io.apigee.trireme.kernel.handles.IOCompletionHandler;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DNSCacheTest
+{
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1L);
+
+    private static Wire makeAnswer(long... ttls)
+    {
+        Wire w = new Wire();
+        for (long ttl : ttls) {
+            Wire.RR rr = new Wire.RR();
+            rr.setName("foo.bar.com");
+            rr.setType(1);
+            rr.setKlass(1);
+            rr.setTtl(ttl);
+            w.addAnswer(rr);
+        }
+        return w;
+    }
+
+    @Test
+    public void testMinimumTtl()
+    {
+        TestCache c = new TestCache(10);
+        assertNull(c.get("foo.bar.com", "A"));
+        assertTrue(c.join("foo.bar.com", "A", new Waiter()));
+
+        Wire answer = makeAnswer(60, 20, 300);
+        c.complete("foo.bar.com", "A", 0, answer);
+
+        DNSCache.Entry e = c.get("foo.bar.com", "A");
+        assertNotNull(e);
+        assertSame(answer, e.getResult());
+        assertFalse(e.isNegative());
+        // Names are not case-sensitive
+        assertNotNull(c.get("FOO.bar.com", "A"));
+        assertNull(c.get("foo.bar.com", "AAAA"));
+
+        c.time += 19 * SECOND;
+        assertNotNull(c.get("foo.bar.com", "A"));
+        c.time += SECOND;
+        assertNull(c.get("foo.bar.com", "A"));
+        assertEquals(0, c.getSize());
+
+        assertEquals(3L, c.getHitCount());
+        assertEquals(3L, c.getMissCount());
+    }
+
+    @Test
+    public void testZeroTtl()
+    {
+        TestCache c = new TestCache(10);
+        assertTrue(c.join("foo.bar.com", "A", new Waiter()));
+        c.complete("foo.bar.com", "A", 0, makeAnswer(0));
+        assertNull(c.get("foo.bar.com", "A"));
+    }
+
+    @Test
+    public void testNegative()
+    {
+        TestCache c = new TestCache(10);
+        c.setNegativeTtl(5, TimeUnit.SECONDS);
+
+        assertTrue(c.join("nope.bar.com", "A", new Waiter()));
+        c.complete("nope.bar.com", "A", ErrorCodes.ENOTFOUND, null);
+        assertTrue(c.join("empty.bar.com", "A", new Waiter()));
+        c.complete("empty.bar.com", "A", 0, makeAnswer());
+
+        DNSCache.Entry e = c.get("nope.bar.com", "A");
+        assertNotNull(e);
+        assertTrue(e.isNegative());
+        assertEquals(ErrorCodes.ENOTFOUND, e.getErrorCode());
+        assertNull(e.getResult());
+
+        e = c.get("empty.bar.com", "A");
+        assertNotNull(e);
+        assertTrue(e.isNegative());
+        assertEquals(0, e.getErrorCode());
+        assertEquals(2L, c.getNegativeHitCount());
+
+        c.time += 5 * SECOND;
+        assertNull(c.get("nope.bar.com", "A"));
+        assertNull(c.get("empty.bar.com", "A"));
+    }
+
+    @Test
+    public void testErrorsNotCached()
+    {
+        TestCache c = new TestCache(10);
+        assertTrue(c.join("foo.bar.com", "A", new Waiter()));
+        c.complete("foo.bar.com", "A", ErrorCodes.ETIMEOUT, null);
+        assertNull(c.get("foo.bar.com", "A"));
+        assertTrue(c.join("foo.bar.com", "A", new Waiter()));
+        c.complete("foo.bar.com", "A", ErrorCodes.ESERVFAIL, null);
+        assertNull(c.get("foo.bar.com", "A"));
+    }
+
+    @Test
+    public void testCoalesce()
+    {
+        TestCache c = new TestCache(10);
+        Waiter w1 = new Waiter();
+        Waiter w2 = new Waiter();
+        Waiter w3 = new Waiter();
+        assertTrue(c.join("foo.bar.com", "A", w1));
+        assertFalse(c.join("foo.bar.com", "A", w2));
+        assertFalse(c.join("FOO.BAR.COM", "A", w3));
+        assertTrue(c.join("foo.bar.com", "AAAA", new Waiter()));
+        assertEquals(2L, c.getCoalescedCount());
+
+        Wire answer = makeAnswer(60);
+        List<IOCompletionHandler<Wire>> waiters = c.complete("foo.bar.com", "A", 0, answer);
+        assertEquals(3, waiters.size());
+        assertSame(w1, waiters.get(0));
+        assertSame(w2, waiters.get(1));
+        assertSame(w3, waiters.get(2));
+
+        // Once it's done, the next one is a new query
+        assertTrue(c.join("foo.bar.com", "A", new Waiter()));
+    }
+
+    @Test
+    public void testAbandonedQuery()
+    {
+        TestCache c = new TestCache(10);
+        c.setMaxQueryTime(15, TimeUnit.SECONDS);
+        Waiter w1 = new Waiter();
+        Waiter w2 = new Waiter();
+        assertTrue(c.join("foo.bar.com", "A", w1));
+        c.time += 16 * SECOND;
+
+        // The first query never came back, so the next caller sends a new one and everyone gets its answer
+        assertTrue(c.join("foo.bar.com", "A", w2));
+        List<IOCompletionHandler<Wire>> waiters = c.complete("foo.bar.com", "A", 0, makeAnswer(60));
+        assertEquals(2, waiters.size());
+        assertTrue(c.complete("foo.bar.com", "A", 0, makeAnswer(60)).isEmpty());
+    }
+
+    @Test
+    public void testRefresh()
+    {
+        TestCache c = new TestCache(10);
+        assertTrue(c.join("foo.bar.com", "A", new Waiter()));
+        c.complete("foo.bar.com", "A", 0, makeAnswer(100));
+
+        c.time += 50 * SECOND;
+        DNSCache.Entry e = c.get("foo.bar.com", "A");
+        assertFalse(c.startRefresh("foo.bar.com", "A", e));
+
+        c.time += 45 * SECOND;
+        e = c.get("foo.bar.com", "A");
+        assertTrue(c.startRefresh("foo.bar.com", "A", e));
+        // Only one refresh at a time, and the old answer is still good until it comes back
+        assertFalse(c.startRefresh("foo.bar.com", "A", e));
+        assertSame(e, c.get("foo.bar.com", "A"));
+        assertEquals(1L, c.getRefreshCount());
+
+        // Misses during the refresh wait for it
+        c.time += 5 * SECOND;
+        assertNull(c.get("foo.bar.com", "A"));
+        Waiter w = new Waiter();
+        assertFalse(c.join("foo.bar.com", "A", w));
+
+        Wire answer = makeAnswer(100);
+        List<IOCompletionHandler<Wire>> waiters = c.complete("foo.bar.com", "A", 0, answer);
+        assertEquals(1, waiters.size());
+        assertSame(w, waiters.get(0));
+        assertSame(answer, c.get("foo.bar.com", "A").getResult());
+    }
+
+    @Test
+    public void testFailedRefresh()
+    {
+        TestCache c = new TestCache(10);
+        assertTrue(c.join("foo.bar.com", "A", new Waiter()));
+        Wire answer = makeAnswer(10);
+        c.complete("foo.bar.com", "A", 0, answer);
+
+        c.time += 9 * SECOND;
+        assertTrue(c.startRefresh("foo.bar.com", "A", c.get("foo.bar.com", "A")));
+        c.complete("foo.bar.com", "A", ErrorCodes.ETIMEOUT, null);
+        assertSame(answer, c.get("foo.bar.com", "A").getResult());
+    }
+
+    @Test
+    public void testEviction()
+    {
+        TestCache c = new TestCache(2);
+        for (String n : new String[] { "a.com", "b.com", "c.com" }) {
+            assertTrue(c.join(n, "A", new Waiter()));
+            c.complete(n, "A", 0, makeAnswer(60));
+            // Keep "a" recently used
+            c.get("a.com", "A");
+        }
+        assertEquals(2, c.getSize());
+        assertEquals(1L, c.getEvictionCount());
+        assertNotNull(c.get("a.com", "A"));
+        assertNull(c.get("b.com", "A"));
+        assertNotNull(c.get("c.com", "A"));
+    }
+
+    @Test
+    public void testMaxTtl()
+    {
+        TestCache c = new TestCache(10);
+        c.setMaxTtl(30, TimeUnit.SECONDS);
+        assertTrue(c.join("foo.bar.com", "A", new Waiter()));
+        c.complete("foo.bar.com", "A", 0, makeAnswer(86400));
+        c.time += 30 * SECOND;
+        assertNull(c.get("foo.bar.com", "A"));
+    }
+
+    private static final class TestCache
+        extends DNSCache
+    {
+        long time = 1000L * SECOND;
+
+        TestCache(int max)
+        {
+            super(max);
+        }
+
+        @Override
+        protected long now()
+        {
+            return time;
+        }
+    }
+
+    private static final class Waiter
+        implements IOCompletionHandler<Wire>
+    {
+        @Override
+        public void ioComplete(int errCode, Wire value)
+        {
+        }
+    }
+}
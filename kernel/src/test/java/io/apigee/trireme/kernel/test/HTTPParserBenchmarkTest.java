@@ -0,0 +1,149 @@
+package io.apigee.trireme.kernel.test;
+
+import io.apigee.trireme.kernel.Charsets;
+import io.apigee.trireme.kernel.http.HTTPParsingMachine;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compare the regular-expression parser with the byte scanner for requests per second and bytes
+ * allocated per request.
+ */
+public class HTTPParserBenchmarkTest
+{
+    private static final int PIPELINE_DEPTH = 16;
+    private static final int WARMUP = 100000;
+    private static final int ITERATIONS = 200000;
+
+    private static final String REQUEST =
+        "GET /some/path/to/a/resource?with=query&params=1 HTTP/1.1\r\n" +
+        "Host: api.example.com\r\n" +
+        "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36\r\n" +
+        "Accept: */*\r\n" +
+        "Accept-Encoding: gzip, deflate\r\n" +
+        "Accept-Language: en-US,en;q=0.9\r\n" +
+        "Connection: keep-alive\r\n" +
+        "Cookie: session=0123456789abcdef\r\n" +
+        "X-Forwarded-For: 10.0.0.1\r\n" +
+        "\r\n";
+
+    private static final String CHUNKED =
+        "POST /upload HTTP/1.1\r\n" +
+        "Host: api.example.com\r\n" +
+        "Content-Type: application/json\r\n" +
+        "Transfer-Encoding: chunked\r\n" +
+        "\r\n" +
+        "10\r\n{\"hello\":\"world\"}\r\n" +
+        "10\r\n{\"hello\":\"world\"}\r\n" +
+        "10\r\n{\"hello\":\"world\"}\r\n" +
+        "0\r\n" +
+        "\r\n";
+
+    /**
+     * Parse every message in the buffer the way the Node module does, and return the number of
+     * complete messages.
+     */
+    private static int parseAll(HTTPParsingMachine parser, ByteBuffer buf)
+    {
+        int count = 0;
+        while (buf.hasRemaining()) {
+            HTTPParsingMachine.Result r = parser.parse(buf);
+            assertFalse(r.isError());
+            if (r.isComplete()) {
+                count++;
+                parser.reset();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Split the input into pieces as if it came off a socket in small reads, so that lines
+     * sometimes span buffers.
+     */
+    private static int parseSplit(HTTPParsingMachine parser, byte[] input, int readSize)
+    {
+        int count = 0;
+        for (int p = 0; p < input.length; p += readSize) {
+            ByteBuffer buf = ByteBuffer.wrap(input, p, Math.min(readSize, input.length - p));
+            count += parseAll(parser, buf);
+        }
+        return count;
+    }
+
+    private static long getAllocatedBytes()
+    {
+        ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+        if (mx instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)mx).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0L;
+    }
+
+    private void runBenchmark(String name, String msg, HTTPParsingMachine.ParsingMode mode, int readSize)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < PIPELINE_DEPTH; i++) {
+            sb.append(msg);
+        }
+        byte[] input = sb.toString().getBytes(Charsets.ASCII);
+        int batches = ITERATIONS / PIPELINE_DEPTH;
+
+        // Warm up both parsers before measuring either one so that the JIT treats them the same
+        HTTPParsingMachine.ScanMode[] scans = HTTPParsingMachine.ScanMode.values();
+        HTTPParsingMachine[] parsers = new HTTPParsingMachine[scans.length];
+        for (int s = 0; s < scans.length; s++) {
+            parsers[s] = new HTTPParsingMachine(mode, scans[s]);
+            for (int i = 0; i < (WARMUP / PIPELINE_DEPTH); i++) {
+                parseSplit(parsers[s], input, readSize);
+            }
+        }
+
+        for (int s = 0; s < scans.length; s++) {
+            long allocStart = getAllocatedBytes();
+            long start = System.nanoTime();
+            int count = 0;
+            for (int i = 0; i < batches; i++) {
+                count += parseSplit(parsers[s], input, readSize);
+            }
+            long elapsed = System.nanoTime() - start;
+            long allocated = getAllocatedBytes() - allocStart;
+            assertEquals(batches * PIPELINE_DEPTH, count);
+
+            System.out.println(name + " (" + scans[s] + "): " +
+                               ((count * 1000000000L) / elapsed) + " requests/second, " +
+                               (allocated / count) + " bytes allocated per request");
+        }
+    }
+
+    @Before
+    public void checkEnabled()
+    {
+        Assume.assumeTrue(Boolean.getBoolean("runBenchmarks"));
+    }
+
+    @Test
+    public void testPipelined()
+    {
+        runBenchmark("Pipelined", REQUEST, HTTPParsingMachine.ParsingMode.REQUEST, 65536);
+    }
+
+    @Test
+    public void testPipelinedSmallReads()
+    {
+        runBenchmark("Pipelined, 100-byte reads", REQUEST, HTTPParsingMachine.ParsingMode.REQUEST, 100);
+    }
+
+    @Test
+    public void testChunked()
+    {
+        runBenchmark("Chunked", CHUNKED, HTTPParsingMachine.ParsingMode.REQUEST, 65536);
+    }
+}
@@ -0,0 +1,56 @@
+package io.apigee.trireme.kernel.test;
+
+import io.apigee.trireme.kernel.util.ReadBufferPool;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compare reading into a pooled slab with the old way of reading into a private buffer and copying.
+ * Run it with -DrunBenchmarks=true.
+ */
+public class ReadBufferPoolBenchmarkTest
+{
+    @Before
+    public void checkEnabled()
+    {
+        Assume.assumeTrue(Boolean.getBoolean("runBenchmarks"));
+    }
+
+    @Test
+    public void testThroughput()
+    {
+        final int iterations = 1000000;
+        final int readSize = 1400;
+
+        // The old way: read into a private buffer, then copy into a new one
+        ByteBuffer readBuffer = ByteBuffer.allocate(32767);
+        long start = System.nanoTime();
+        long total = 0;
+        for (int i = 0; i < iterations; i++) {
+            readBuffer.position(readSize);
+            readBuffer.flip();
+            ByteBuffer buf = ByteBuffer.allocate(readBuffer.remaining());
+            buf.put(readBuffer);
+            buf.flip();
+            readBuffer.clear();
+            total += buf.remaining();
+        }
+        long copyTime = System.nanoTime() - start;
+
+        ReadBufferPool pool = new ReadBufferPool();
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            ByteBuffer l = pool.lease(4096, 32767);
+            l.position(readSize);
+            total += pool.commit(l).remaining();
+        }
+        long poolTime = System.nanoTime() - start;
+
+        System.out.println("Copying: " + (copyTime / iterations) + " ns per read. Pooled: " +
+                           (poolTime / iterations) + " ns per read. (" + total + " bytes)");
+        System.out.println(pool);
+    }
+}
@@ -0,0 +1,215 @@
+package io.apigee.trireme.kernel.test;
+
+import io.apigee.trireme.kernel.util.ReadBufferPool;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class ReadBufferPoolTest
+{
+    private static void fill(ByteBuffer buf, int len, byte val)
+    {
+        for (int i = 0; i < len; i++) {
+            buf.put(val);
+        }
+    }
+
+    @Test
+    public void testSlices()
+    {
+        ReadBufferPool pool = new ReadBufferPool(1000);
+
+        ByteBuffer l1 = pool.lease(100, 500);
+        assertEquals(0, l1.position());
+        assertEquals(500, l1.remaining());
+        fill(l1, 200, (byte)1);
+        ByteBuffer s1 = pool.commit(l1);
+        assertEquals(200, s1.remaining());
+
+        ByteBuffer l2 = pool.lease(100, 500);
+        assertEquals(500, l2.remaining());
+        fill(l2, 300, (byte)2);
+        ByteBuffer s2 = pool.commit(l2);
+        assertEquals(300, s2.remaining());
+
+        // Both slices come from the same slab, one right after the other, and don't overlap
+        assertSame(s1.array(), s2.array());
+        assertEquals(s1.arrayOffset() + 200, s2.arrayOffset());
+        for (int i = 0; i < 200; i++) {
+            assertEquals(1, s1.get(i));
+        }
+        for (int i = 0; i < 300; i++) {
+            assertEquals(2, s2.get(i));
+        }
+        assertEquals(1, pool.getSlabsAllocated());
+        assertEquals(500, pool.getBytesDelivered());
+        assertEquals(0, pool.getBytesCopied());
+    }
+
+    @Test
+    public void testEmptyCommit()
+    {
+        ReadBufferPool pool = new ReadBufferPool(1000);
+        ByteBuffer l1 = pool.lease(100, 100);
+        assertNull(pool.commit(l1));
+        ByteBuffer l2 = pool.lease(100, 100);
+        pool.cancel(l2);
+
+        ByteBuffer l3 = pool.lease(200, 200);
+        fill(l3, 200, (byte)3);
+        ByteBuffer s3 = pool.commit(l3);
+        // Nothing was taken from the slab before this
+        assertEquals(0, s3.arrayOffset());
+    }
+
+    @Test
+    public void testNewSlab()
+    {
+        ReadBufferPool pool = new ReadBufferPool(1000);
+        ByteBuffer l1 = pool.lease(100, 1000);
+        fill(l1, 950, (byte)1);
+        ByteBuffer s1 = pool.commit(l1);
+
+        // Only 50 bytes left, so we need a new slab
+        ByteBuffer l2 = pool.lease(100, 1000);
+        assertEquals(1000, l2.remaining());
+        fill(l2, 1, (byte)2);
+        ByteBuffer s2 = pool.commit(l2);
+        assertNotSame(s1.array(), s2.array());
+        assertEquals(2, pool.getSlabsAllocated());
+        assertEquals(50, pool.getBytesWasted());
+        assertEquals(1, s1.get(949));
+    }
+
+    @Test
+    public void testLargeLease()
+    {
+        ReadBufferPool pool = new ReadBufferPool(1000);
+        ByteBuffer l1 = pool.lease(5000, 5000);
+        assertEquals(5000, l1.remaining());
+        pool.cancel(l1);
+        assertEquals(5000, pool.getBytesAllocated());
+    }
+
+    @Test
+    public void testManySmallReads()
+    {
+        // Like a socket that reads a packet at a time, as in the benchmark
+        final int reads = 1000;
+        final int readSize = 1400;
+        ReadBufferPool pool = new ReadBufferPool(ReadBufferPool.DEFAULT_SLAB_SIZE);
+
+        ByteBuffer[] slices = new ByteBuffer[reads];
+        for (int i = 0; i < reads; i++) {
+            ByteBuffer l = pool.lease(4096, 32767);
+            assertTrue(l.remaining() >= 4096);
+            fill(l, readSize, (byte)i);
+            slices[i] = pool.commit(l);
+            assertEquals(readSize, slices[i].remaining());
+        }
+
+        // Earlier reads are not overwritten by later ones
+        for (int i = 0; i < reads; i++) {
+            for (int j = 0; j < readSize; j++) {
+                assertEquals((byte)i, slices[i].get(j));
+            }
+        }
+
+        // Small reads are copied out, so the same slab is used over and over
+        assertEquals(1, pool.getSlabsAllocated());
+        assertEquals(reads, pool.getLeases());
+        assertEquals((long)reads * readSize, pool.getBytesDelivered());
+        assertEquals((long)reads * readSize, pool.getBytesCopied());
+        assertEquals(0, pool.getBytesWasted());
+    }
+
+    @Test
+    public void testManyLargeReads()
+    {
+        final int reads = 100;
+        final int readSize = 9000;
+        ReadBufferPool pool = new ReadBufferPool(ReadBufferPool.DEFAULT_SLAB_SIZE);
+
+        ByteBuffer[] slices = new ByteBuffer[reads];
+        for (int i = 0; i < reads; i++) {
+            ByteBuffer l = pool.lease(4096, 32767);
+            fill(l, readSize, (byte)i);
+            slices[i] = pool.commit(l);
+            assertEquals(readSize, slices[i].remaining());
+        }
+
+        for (int i = 0; i < reads; i++) {
+            for (int j = 0; j < readSize; j++) {
+                assertEquals((byte)i, slices[i].get(j));
+            }
+        }
+
+        // A new slab is needed each time there is less than "minSize" left in the old one
+        int perSlab = ((ReadBufferPool.DEFAULT_SLAB_SIZE - 4096) / readSize) + 1;
+        int slabs = (reads + perSlab - 1) / perSlab;
+        assertEquals(slabs, pool.getSlabsAllocated());
+        assertEquals((long)slabs * ReadBufferPool.DEFAULT_SLAB_SIZE, pool.getBytesAllocated());
+        assertEquals((long)reads * readSize, pool.getBytesDelivered());
+        assertEquals(0, pool.getBytesCopied());
+        assertEquals((long)(slabs - 1) * (ReadBufferPool.DEFAULT_SLAB_SIZE - (perSlab * readSize)),
+                     pool.getBytesWasted());
+    }
+
+    @Test
+    public void testRetention()
+    {
+        // However the reads are mixed, no buffer may hold on to more than MAX_RETAINED_RATIO times its size
+        ReadBufferPool pool = new ReadBufferPool(ReadBufferPool.DEFAULT_SLAB_SIZE);
+        int[] sizes = { 1, 100, 1400, 8191, 8192, 9000, 16384, 32767, 10, 4096 };
+        for (int i = 0; i < 100; i++) {
+            int size = sizes[i % sizes.length];
+            ByteBuffer l = pool.lease(Math.max(size, 4096), 32767);
+            fill(l, size, (byte)i);
+            ByteBuffer b = pool.commit(l);
+            assertEquals(size, b.remaining());
+            assertTrue("Buffer of " + size + " keeps " + b.array().length + " bytes alive",
+                       b.array().length <= (size * ReadBufferPool.MAX_RETAINED_RATIO));
+        }
+
+        // Keeping a tiny buffer does not keep the slab alive
+        ByteBuffer l = pool.lease(4096, 32767);
+        fill(l, 10, (byte)1);
+        ByteBuffer tiny = pool.commit(l);
+        assertEquals(10, tiny.array().length);
+    }
+
+    @Test
+    public void testAppend()
+    {
+        ReadBufferPool pool = new ReadBufferPool(1000);
+
+        ByteBuffer l1 = pool.lease(200, 200);
+        fill(l1, 200, (byte)1);
+        ByteBuffer s1 = pool.commit(null, l1);
+        assertEquals(200, s1.remaining());
+
+        // The second read is next to the first one in the slab, so they are joined without copying
+        ByteBuffer l2 = pool.lease(200, 200);
+        fill(l2, 150, (byte)2);
+        ByteBuffer s2 = pool.commit(s1, l2);
+        assertEquals(350, s2.remaining());
+        assertSame(s1.array(), s2.array());
+        assertEquals(0, pool.getBytesCopied());
+        assertEquals(1, s2.get(199));
+        assertEquals(2, s2.get(200));
+
+        // A small read is copied, so it can't be joined, and the result is copied
+        ByteBuffer l3 = pool.lease(200, 200);
+        fill(l3, 5, (byte)3);
+        ByteBuffer s3 = pool.commit(s2, l3);
+        assertEquals(355, s3.remaining());
+        assertNotSame(s1.array(), s3.array());
+        assertEquals(2, s3.get(349));
+        assertEquals(3, s3.get(350));
+
+        ByteBuffer l4 = pool.lease(200, 200);
+        assertSame(s3, pool.commit(s3, l4));
+    }
+}
@@ -0,0 +1,196 @@
+package io.apigee.trireme.kernel.test;
+
+import io.apigee.trireme.kernel.Charsets;
+import io.apigee.trireme.kernel.ErrorCodes;
+import io.apigee.trireme.kernel.OSException;
+import io.apigee.trireme.kernel.Platform;
+import io.apigee.trireme.kernel.fs.AdvancedFilesystem;
+import io.apigee.trireme.kernel.fs.BasicFilesystem;
+import io.apigee.trireme.kernel.fs.FileConstants;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class ReadWholeFileTest
+{
+    private static final String DATA = "Hello, whole world!";
+
+    private AdvancedFilesystem fs;
+    private File file;
+
+    @Before
+    public void init()
+        throws IOException
+    {
+        fs = new AdvancedFilesystem();
+        file = File.createTempFile("trireme-fs", ".txt");
+    }
+
+    @After
+    public void cleanup()
+    {
+        fs.cleanup();
+        file.delete();
+    }
+
+    @Test
+    public void testReadWholeFile()
+        throws Exception
+    {
+        int fd = fs.open(file, file.getName(), FileConstants.O_WRONLY, 0666, 0);
+        fs.write(fd, ByteBuffer.wrap(DATA.getBytes(Charsets.UTF8)), 0L);
+        fs.close(fd);
+
+        assertEquals(DATA, new String(fs.readWholeFile(file, file.getName(), 1024L), Charsets.UTF8));
+
+        // In these cases the caller should read it the regular way
+        assertNull(fs.readWholeFile(file, file.getName(), 10L));
+        assertNull(fs.readWholeFile(file.getParentFile(), file.getParent(), 1024L));
+        fd = fs.open(file, file.getName(), FileConstants.O_WRONLY | FileConstants.O_TRUNC, 0666, 0);
+        fs.close(fd);
+        assertNull(fs.readWholeFile(file, file.getName(), 1024L));
+
+        file.delete();
+        try {
+            fs.readWholeFile(file, file.getName(), 1024L);
+            fail("Expected ENOENT");
+        } catch (OSException ose) {
+            assertEquals(ErrorCodes.ENOENT, ose.getCode());
+        }
+    }
+
+    @Test
+    public void testReadWholeFileIsACopy()
+        throws Exception
+    {
+        int fd = fs.open(file, file.getName(), FileConstants.O_WRONLY, 0666, 0);
+        fs.write(fd, ByteBuffer.wrap(DATA.getBytes(Charsets.UTF8)), 0L);
+        fs.close(fd);
+
+        byte[] whole = fs.readWholeFile(file, file.getName(), 1024L);
+
+        // Like "readFileSync" followed by "writeFileSync" -- what we read already must not change
+        fd = fs.open(file, file.getName(), FileConstants.O_WRONLY | FileConstants.O_TRUNC, 0666, 0);
+        fs.write(fd, ByteBuffer.wrap("Bye".getBytes(Charsets.UTF8)), 0L);
+        fs.close(fd);
+
+        assertEquals(DATA, new String(whole, Charsets.UTF8));
+    }
+
+    @Test
+    public void testReadWholeFileMapped()
+        throws Exception
+    {
+        Assume.assumeTrue(Platform.get().isPosixFilesystem());
+
+        byte[] data = makeData((int)BasicFilesystem.MAP_THRESHOLD + 10);
+        writeData(data);
+
+        byte[] whole = fs.readWholeFile(file, file.getName(), data.length * 2L);
+        assertArrayEquals(data, whole);
+
+        // Big files are copied out of the mapping, so they don't change either
+        writeData(new byte[data.length]);
+        assertEquals(data[1], whole[1]);
+
+        assertNull(fs.readWholeFile(file, file.getName(), data.length - 1L));
+    }
+
+    @Test
+    public void testReadWholeFileTruncated()
+        throws Exception
+    {
+        Assume.assumeTrue(Platform.get().isPosixFilesystem());
+
+        final byte[] data = makeData((int)BasicFilesystem.MAP_THRESHOLD * 4);
+        writeData(data);
+
+        // Keep cutting the file short and putting it back while it is being read. Touching a mapping
+        // past the end of the file is what crashes the JVM if it isn't handled.
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread truncater = new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+                try {
+                    while (!done.get()) {
+                        raf.setLength(BasicFilesystem.MAP_THRESHOLD);
+                        raf.seek(0L);
+                        raf.write(data);
+                    }
+                } catch (IOException ioe) {
+                    fail(ioe.toString());
+                }
+            }
+        });
+        truncater.start();
+
+        try {
+            for (int i = 0; i < 100; i++) {
+                byte[] whole = fs.readWholeFile(file, file.getName(), data.length);
+                if (whole != null) {
+                    // Whatever we get has to be what was in the file, but maybe not all of it
+                    assertTrue(whole.length <= data.length);
+                    assertTrue(Arrays.equals(Arrays.copyOf(data, whole.length), whole));
+                }
+            }
+        } finally {
+            done.set(true);
+            truncater.join();
+            raf.close();
+        }
+    }
+
+    @Test
+    public void testReadWholeFileNoPermission()
+        throws Exception
+    {
+        int fd = fs.open(file, file.getName(), FileConstants.O_WRONLY, 0666, 0);
+        fs.write(fd, ByteBuffer.wrap(DATA.getBytes(Charsets.UTF8)), 0L);
+        fs.close(fd);
+        fs.chmod(file, file.getName(), 0, 0, false);
+        try {
+            // Root can read it anyway
+            Assume.assumeTrue(!file.canRead());
+
+            // Not ENOENT -- the caller opens it the regular way and gets the real error
+            assertNull(fs.readWholeFile(file, file.getName(), 1024L));
+            try {
+                fs.open(file, file.getName(), FileConstants.O_RDONLY, 0, 0);
+                fail("Expected a permission error");
+            } catch (OSException ose) {
+                assertFalse(ose.getCode() == ErrorCodes.ENOENT);
+            }
+        } finally {
+            fs.chmod(file, file.getName(), 0666, 0, false);
+        }
+    }
+
+    private static byte[] makeData(int len)
+    {
+        byte[] data = new byte[len];
+        for (int i = 0; i < len; i++) {
+            data[i] = (byte)(i % 251);
+        }
+        return data;
+    }
+
+    private void writeData(byte[] data)
+        throws OSException
+    {
+        int fd = fs.open(file, file.getName(), FileConstants.O_WRONLY | FileConstants.O_TRUNC, 0666, 0);
+        assertEquals(data.length, fs.write(fd, ByteBuffer.wrap(data), 0L));
+        fs.close(fd);
+    }
+}
@@ -3,6 +3,7 @@ package io.apigee.trireme.kernel.test;
 import io.apigee.trireme.kernel.Charsets;
 import io.apigee.trireme.kernel.OSException;
 
+import io.apigee.trireme.kernel.handles.AbstractNIOHandle;
 import io.apigee.trireme.kernel.handles.IOCompletionHandler;
 import io.apigee.trireme.kernel.handles.NIOSocketHandle;
 import org.junit.AfterClass;
@@ -11,6 +12,9 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import static org.junit.Assert.*;
 
@@ -73,6 +77,132 @@ public class SocketHandleClientTest
         assertEquals(TEST, result);
     }
 
+    @Test
+    public void testCorkedEcho()
+        throws InterruptedException
+    {
+        final String TEST = "Hello There Server, in three pieces!";
+        byte[] data = TEST.getBytes(Charsets.ASCII);
+        int corkedBytes = corkedEcho(data, 3);
+        // Nothing went out until we uncorked
+        assertEquals(data.length + 8, corkedBytes);
+    }
+
+    @Test
+    public void testCorkedLargeEcho()
+        throws InterruptedException
+    {
+        // More writes, and more bytes, than fit in one gathering write
+        final int pieces = AbstractNIOHandle.MAX_GATHER_BUFFERS * 2 + 3;
+        final int pieceSize = 4096;
+        assertTrue((pieces * pieceSize) > AbstractNIOHandle.MAX_GATHER_BYTES);
+
+        byte[] data = new byte[pieces * pieceSize];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)(i % 251);
+        }
+        int corkedBytes = corkedEcho(data, pieces);
+        assertEquals(data.length + 8, corkedBytes);
+    }
+
+    /**
+     * Send an ECHO command in "count" writes while the handle is corked, and check that the data comes back
+     * and that the write callbacks were called once each, in order, with the length of each write.
+     * Return the number of bytes that were outstanding just before uncorking.
+     */
+    private int corkedEcho(byte[] data, int count)
+        throws InterruptedException
+    {
+        final OutputAccumulator output = new OutputAccumulator();
+        final ByteBuffer cmd = TestCommand.makeCommand("ECHO", data);
+        final NIOSocketHandle handle = new NIOSocketHandle(runtime);
+        final int[] corkedBytes = new int[1];
+        final List<Integer> completed = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+
+        // Split the command so that it takes several writes
+        final ByteBuffer[] pieces = new ByteBuffer[count];
+        int pieceLen = cmd.remaining() / pieces.length;
+        for (int i = 0; i < pieces.length; i++) {
+            ByteBuffer piece = cmd.duplicate();
+            piece.position(cmd.position() + (i * pieceLen));
+            if (i < (pieces.length - 1)) {
+                piece.limit(piece.position() + pieceLen);
+            }
+            pieces[i] = piece;
+        }
+        final int[] lengths = new int[count];
+        for (int i = 0; i < count; i++) {
+            lengths[i] = pieces[i].remaining();
+        }
+
+        runtime.executeScriptTask(new Runnable() {
+            @Override
+            public void run()
+            {
+                try {
+                    handle.connect("localhost", server.getPort(),
+                      new IOCompletionHandler<Integer>()
+                      {
+                        @Override
+                        public void ioComplete(int errCode, Integer value)
+                        {
+                            handle.startReading(output);
+                            handle.cork();
+                            for (int i = 0; i < pieces.length; i++) {
+                                final int index = i;
+                                handle.write(pieces[i], new IOCompletionHandler<Integer>()
+                                {
+                                    @Override
+                                    public void ioComplete(int errCode, Integer value)
+                                    {
+                                        if (errCode != 0) {
+                                            errors.add("Write " + index + " failed: " + errCode);
+                                        } else if (value != lengths[index]) {
+                                            errors.add("Write " + index + " wrote " + value +
+                                                       " instead of " + lengths[index]);
+                                        }
+                                        completed.add(index);
+                                    }
+                                });
+                            }
+                            // Nothing goes out until we uncork
+                            corkedBytes[0] = handle.getWritesOutstanding();
+                            if (!completed.isEmpty()) {
+                                errors.add("Write callback called while corked");
+                            }
+                            handle.uncork();
+                        }
+                      });
+                } catch (OSException ose) {
+                    output.ioComplete(ose.getCode(), null);
+                }
+            }
+        }, null);
+
+        while ((output.getResultLength() < data.length) || (completed.size() < count)) {
+            assertEquals(0, output.getErrorCode());
+            Thread.sleep(50L);
+        }
+
+        runtime.executeScriptTask(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                handle.close();
+            }
+        }, null);
+
+        assertTrue(errors.toString(), errors.isEmpty());
+        assertArrayEquals(data, output.getResults());
+        assertEquals(count, completed.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(Integer.valueOf(i), completed.get(i));
+        }
+        return corkedBytes[0];
+    }
+
     @BeforeClass
     public static void init()
         throws IOException
@@ -91,6 +91,15 @@ public class SocketServer
                         }
                     }
                 } while (valid);
+
+                // Keep any partial command for the next read. "buf" is re-used, so copy it.
+                if (bb.hasRemaining()) {
+                    remaining = ByteBuffer.allocate(bb.remaining());
+                    remaining.put(bb);
+                    remaining.flip();
+                } else {
+                    remaining = null;
+                }
             }
         } while (len >= 0);
 
@@ -3,9 +3,12 @@ package io.apigee.trireme.kernel.test;
 import io.apigee.trireme.kernel.GenericNodeRuntime;
 import io.apigee.trireme.kernel.net.NetworkPolicy;
 import io.apigee.trireme.kernel.net.SelectorHandler;
+import io.apigee.trireme.kernel.util.ReadBufferPool;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.util.IdentityHashMap;
@@ -37,6 +40,7 @@ public class StubNodeRuntime
     private final ExecutorService asyncPool;
     private final ExecutorService unboundedPool;
     private final Selector selector;
+    private final ReadBufferPool readPool = new ReadBufferPool();
 
     private Object domain;
     private volatile boolean running = true;
@@ -126,6 +130,19 @@ public class StubNodeRuntime
         return selector;
     }
 
+    @Override
+    public ReadBufferPool getReadBufferPool()
+    {
+        return readPool;
+    }
+
+    @Override
+    public SelectionKey registerChannel(SelectableChannel channel, int ops, SelectorHandler handler)
+        throws ClosedChannelException
+    {
+        return channel.register(selector, ops, handler);
+    }
+
     @Override
     public NetworkPolicy getNetworkPolicy()
     {
@@ -0,0 +1,285 @@
+package io.apigee.trireme.kernel.test;
+
+import io.apigee.trireme.kernel.zip.AdvancedCompressor;
+import io.apigee.trireme.kernel.zip.Compressor;
+import io.apigee.trireme.kernel.zip.Decompressor;
+import io.apigee.trireme.kernel.zip.DirectCompressor;
+import io.apigee.trireme.kernel.zip.DirectDecompressor;
+import io.apigee.trireme.kernel.zip.ZlibPool;
+import io.apigee.trireme.kernel.zip.ZlibWriter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class ZlibPoolTest
+{
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    private ExecutorService executor;
+    private ZlibPool pool;
+
+    @Before
+    public void init()
+    {
+        executor = Executors.newFixedThreadPool(4);
+        pool = new ZlibPool(2, executor, 4);
+    }
+
+    @After
+    public void cleanup()
+    {
+        pool.close();
+        executor.shutdown();
+    }
+
+    private static byte[] makeData(int len)
+    {
+        // Text-like data that compresses, with some randomness so that it isn't trivial
+        Random r = new Random(len);
+        byte[] data = new byte[len];
+        for (int i = 0; i < len; i++) {
+            data[i] = (byte)('a' + r.nextInt(8));
+        }
+        return data;
+    }
+
+    private static ByteBuffer copy(byte[] data, boolean direct)
+    {
+        ByteBuffer b = (direct ? ByteBuffer.allocateDirect(data.length) : ByteBuffer.allocate(data.length));
+        b.put(data);
+        b.flip();
+        return b;
+    }
+
+    /**
+     * Do what zlib.js does with one big buffer and Z_FINISH.
+     */
+    private static byte[] process(ZlibWriter w, ByteBuffer in, boolean direct)
+        throws Exception
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ByteBuffer out;
+        do {
+            out = (direct ? ByteBuffer.allocateDirect(CHUNK_SIZE) : ByteBuffer.allocate(CHUNK_SIZE));
+            w.write(ZlibWriter.FINISH, in, out);
+            out.flip();
+            byte[] b = new byte[out.remaining()];
+            out.get(b);
+            bos.write(b);
+        } while (out.limit() == CHUNK_SIZE);
+        return bos.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] gz)
+        throws IOException
+    {
+        GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gz));
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int r;
+        while ((r = in.read(buf)) > 0) {
+            bos.write(buf, 0, r);
+        }
+        return bos.toByteArray();
+    }
+
+    @Test
+    public void testReuse()
+    {
+        Deflater d = pool.takeDeflater(6, Deflater.DEFAULT_STRATEGY, true);
+        pool.returnDeflater(d, 6, Deflater.DEFAULT_STRATEGY, true);
+        // Raw and zlib streams are kept apart, and so are levels and strategies
+        assertNotSame(d, pool.takeDeflater(6, Deflater.DEFAULT_STRATEGY, false));
+        assertNotSame(d, pool.takeDeflater(1, Deflater.DEFAULT_STRATEGY, true));
+        assertNotSame(d, pool.takeDeflater(6, Deflater.FILTERED, true));
+        assertSame(d, pool.takeDeflater(6, Deflater.DEFAULT_STRATEGY, true));
+        assertEquals(1L, pool.getDeflaterHitCount());
+        assertEquals(4L, pool.getDeflaterMissCount());
+    }
+
+    @Test
+    public void testMixedLevels()
+        throws Exception
+    {
+        // A reused Deflater at a different level used to read and write nothing, so data was lost
+        byte[] data = makeData(100000);
+        int[] levels = { 6, 1, 9, 6, 1, 9 };
+        for (int level : levels) {
+            Compressor c = new AdvancedCompressor(ZlibWriter.GZIP, level, Deflater.DEFAULT_STRATEGY, null, pool);
+            byte[] gz = process(c, copy(data, false), false);
+            c.close();
+            assertArrayEquals(data, gunzip(gz));
+        }
+        assertEquals(3L, pool.getDeflaterHitCount());
+
+        pool.setParallelThreshold(256 * 1024);
+        byte[] big = makeData(1000000);
+        for (int level : levels) {
+            Compressor c = new AdvancedCompressor(ZlibWriter.GZIP, level, Deflater.DEFAULT_STRATEGY, null, pool);
+            byte[] gz = process(c, copy(big, false), false);
+            c.close();
+            assertArrayEquals(big, gunzip(gz));
+        }
+        assertEquals(6L, pool.getParallelCount());
+    }
+
+    @Test
+    public void testStrategy()
+        throws Exception
+    {
+        byte[] data = makeData(50000);
+        for (int i = 0; i < 2; i++) {
+            Compressor c = new AdvancedCompressor(ZlibWriter.DEFLATE, 6, Deflater.FILTERED, null, pool);
+            byte[] z = process(c, copy(data, false), false);
+            c.close();
+            Decompressor d = new Decompressor(ZlibWriter.INFLATE, null, pool);
+            assertArrayEquals(data, process(d, ByteBuffer.wrap(z), false));
+            d.close();
+        }
+    }
+
+    @Test
+    public void testSetParams()
+        throws Exception
+    {
+        byte[] data = makeData(50000);
+        ByteBuffer in = copy(data, false);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+        Compressor c = new AdvancedCompressor(ZlibWriter.GZIP, 6, Deflater.DEFAULT_STRATEGY, null, pool);
+        ByteBuffer first = in.duplicate();
+        first.limit(first.position() + 20000);
+        ByteBuffer out = ByteBuffer.allocate(100000);
+        c.write(Deflater.SYNC_FLUSH, first, out);
+        assertFalse(first.hasRemaining());
+        in.position(first.position());
+
+        // Like zlib.params() -- what comes next must not be lost
+        c.setParams(9, Deflater.DEFAULT_STRATEGY);
+        c.write(Deflater.SYNC_FLUSH, in, out);
+        assertFalse(in.hasRemaining());
+        c.write(ZlibWriter.FINISH, null, out);
+        out.flip();
+        bos.write(out.array(), 0, out.limit());
+        c.close();
+        assertArrayEquals(data, gunzip(bos.toByteArray()));
+
+        // That Deflater was not put back with the wrong level
+        assertEquals(0, pool.getIdleCount());
+    }
+
+    @Test
+    public void testMaxIdle()
+    {
+        Deflater[] ds = new Deflater[3];
+        for (int i = 0; i < ds.length; i++) {
+            ds[i] = pool.takeDeflater(6, Deflater.DEFAULT_STRATEGY, false);
+        }
+        for (Deflater d : ds) {
+            pool.returnDeflater(d, 6, Deflater.DEFAULT_STRATEGY, false);
+        }
+        assertEquals(2, pool.getIdleCount());
+    }
+
+    @Test
+    public void testRoundTrip()
+        throws Exception
+    {
+        byte[] data = makeData(100000);
+        for (int i = 0; i < 3; i++) {
+            Compressor c = new AdvancedCompressor(ZlibWriter.GZIP, 6, Deflater.DEFAULT_STRATEGY, null, pool);
+            byte[] gz = process(c, copy(data, false), false);
+            c.close();
+            // Closing twice must not put the same Deflater in the pool twice
+            c.close();
+            assertArrayEquals(data, gunzip(gz));
+
+            Decompressor d = new Decompressor(ZlibWriter.GUNZIP, null, pool);
+            assertArrayEquals(data, process(d, ByteBuffer.wrap(gz), false));
+            d.close();
+        }
+        assertEquals(2L, pool.getDeflaterHitCount());
+        assertEquals(2L, pool.getInflaterHitCount());
+        assertEquals(0L, pool.getParallelCount());
+    }
+
+    @Test
+    public void testDirectFallback()
+        throws Exception
+    {
+        // The output used to be lost when it was a direct buffer
+        byte[] data = makeData(50000);
+        Compressor c = new Compressor(ZlibWriter.DEFLATE, 6, Deflater.DEFAULT_STRATEGY, null, pool);
+        byte[] z = process(c, copy(data, true), true);
+        c.close();
+
+        Decompressor d = new Decompressor(ZlibWriter.INFLATE, null, pool);
+        assertArrayEquals(data, process(d, copy(z, true), true));
+        d.close();
+    }
+
+    @Test
+    public void testDirectBuffers()
+        throws Exception
+    {
+        if (!hasBufferZip()) {
+            return;
+        }
+        byte[] data = makeData(50000);
+        Compressor c = new DirectCompressor(ZlibWriter.GZIP, 6, Deflater.DEFAULT_STRATEGY, null, pool);
+        byte[] gz = process(c, copy(data, true), true);
+        c.close();
+        assertArrayEquals(data, gunzip(gz));
+
+        Decompressor d = new DirectDecompressor(ZlibWriter.UNZIP, null, pool);
+        assertArrayEquals(data, process(d, copy(gz, true), true));
+        d.close();
+    }
+
+    @Test
+    public void testParallel()
+        throws Exception
+    {
+        pool.setParallelThreshold(256 * 1024);
+        byte[] data = makeData(1000000);
+
+        Compressor c = new AdvancedCompressor(ZlibWriter.GZIP, 6, Deflater.DEFAULT_STRATEGY, null, pool);
+        byte[] gz = process(c, copy(data, false), false);
+        c.close();
+        assertEquals(1L, pool.getParallelCount());
+        assertEquals(8L, pool.getParallelBlockCount());
+        assertArrayEquals(data, gunzip(gz));
+
+        Decompressor d = new Decompressor(ZlibWriter.GUNZIP, null, pool);
+        assertArrayEquals(data, process(d, ByteBuffer.wrap(gz), false));
+        d.close();
+
+        // Small buffers, and streams that already have data in them, are compressed as usual
+        c = new AdvancedCompressor(ZlibWriter.GZIP, 6, Deflater.DEFAULT_STRATEGY, null, pool);
+        process(c, copy(makeData(1000), false), false);
+        c.close();
+        assertEquals(1L, pool.getParallelCount());
+    }
+
+    private static boolean hasBufferZip()
+    {
+        try {
+            Deflater.class.getMethod("deflate", ByteBuffer.class, Integer.TYPE);
+            return true;
+        } catch (NoSuchMethodException nsme) {
+            return false;
+        }
+    }
+}
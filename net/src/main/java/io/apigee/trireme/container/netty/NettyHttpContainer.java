@@ -26,12 +26,97 @@ import io.apigee.trireme.net.spi.HttpServerAdapter;
 import io.apigee.trireme.net.spi.HttpServerStub;
 import io.apigee.trireme.net.spi.HttpServerContainer;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * An HTTP container that uses Netty instead of the built-in HTTP server. It may also run several
+ * replicas of each script that runs an HTTP server, so that the requests for one server are spread
+ * across several threads.
+ */
+
 public class NettyHttpContainer
     implements HttpServerContainer
 {
+    private final int replicas;
+
+    private final ConcurrentHashMap<NodeScript, ReplicaGroup> replicaScripts =
+        new ConcurrentHashMap<NodeScript, ReplicaGroup>();
+    private final CopyOnWriteArrayList<ReplicaGroup> groups = new CopyOnWriteArrayList<ReplicaGroup>();
+
+    public NettyHttpContainer()
+    {
+        this(1);
+    }
+
+    /**
+     * Create a container that runs the specified number of copies of each script that listens for HTTP.
+     * The copies share the port that the first one listened on, and each request goes to whichever copy
+     * has the fewest requests outstanding. Replicas run the same code with the same settings, so the script
+     * must not depend on state that lives only in memory from one request to the next.
+     */
+    public NettyHttpContainer(int replicas)
+    {
+        if (replicas < 1) {
+            throw new IllegalArgumentException("replicas must be at least 1");
+        }
+        this.replicas = replicas;
+    }
+
+    public int getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * Return each group of replicas that is currently serving requests.
+     */
+    public List<ReplicaGroup> getReplicaGroups()
+    {
+        return new ArrayList<ReplicaGroup>(groups);
+    }
+
     @Override
     public HttpServerAdapter newServer(NodeScript script, HttpServerStub adapter)
     {
+        if (replicas > 1) {
+            return new ReplicaServer(this, script, adapter);
+        }
         return new NettyHttpServer(adapter);
     }
+
+    void registerReplica(NodeScript script, ReplicaGroup group)
+    {
+        replicaScripts.put(script, group);
+    }
+
+    void unregisterReplica(NodeScript script)
+    {
+        replicaScripts.remove(script);
+    }
+
+    boolean isReplica(NodeScript script)
+    {
+        return replicaScripts.containsKey(script);
+    }
+
+    ReplicaGroup getGroupForReplica(NodeScript script, int port)
+    {
+        ReplicaGroup group = replicaScripts.get(script);
+        if ((group != null) && (group.getPort() == port)) {
+            return group;
+        }
+        return null;
+    }
+
+    void addGroup(ReplicaGroup group)
+    {
+        groups.add(group);
+    }
+
+    void removeGroup(ReplicaGroup group)
+    {
+        groups.remove(group);
+    }
 }
@@ -41,6 +41,8 @@ import java.nio.ByteBuffer;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class NettyHttpResponse
     extends NettyHttpMessage
@@ -55,6 +57,18 @@ public class NettyHttpResponse
     private final boolean       isTls;
     private ArrayList<Map.Entry<String, String>> trailers;
 
+    private final ConcurrentLinkedQueue<PendingWrite> pendingWrites = new ConcurrentLinkedQueue<PendingWrite>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicBoolean complete = new AtomicBoolean();
+    private volatile Runnable completionListener;
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run()
+        {
+            writePending();
+        }
+    };
+
     public NettyHttpResponse(HttpResponse resp, SocketChannel channel,
                              boolean keepAliveRequested, boolean isTls,
                              NettyHttpServer server)
@@ -137,63 +151,138 @@ public class NettyHttpResponse
             log.debug("send: sending HTTP response {}", response);
         }
 
-        int len;
-        ChannelFuture future = channel.write(response);
-
-        if (data == null) {
-            len = 0;
-        } else {
+        int len = 0;
+        if (data != null) {
             len = data.remaining();
             if (log.isDebugEnabled()) {
                 log.debug("send: Sending HTTP chunk with data {}", data);
             }
-            DefaultHttpContent chunk =
-                new DefaultHttpContent(NettyServer.copyBuffer(data));
-            future = channel.write(chunk);
         }
 
         if (lastChunk) {
-            future = sendLastChunk();
-        }
-
-        addListener(future, len, cb);
-
-        channel.flush();
-        if (lastChunk && !keepAlive) {
-            shutDown();
+            queueWrite(response, 0, null);
+            if (data != null) {
+                queueWrite(new DefaultHttpContent(NettyServer.wrapBuffer(data)), 0, null);
+            }
+            queueLastChunk(len, cb);
+        } else if (data != null) {
+            queueWrite(response, 0, null);
+            queueWrite(new DefaultHttpContent(NettyServer.wrapBuffer(data)), len, cb);
+        } else {
+            queueWrite(response, len, cb);
         }
+        scheduleFlush();
     }
 
     @Override
     public void sendChunk(ByteBuffer buf, boolean lastChunk, IOCompletionHandler<Integer> cb)
     {
-        ChannelFuture future = null;
-        int len;
-
-        if (buf == null) {
-            len = 0;
-        } else {
+        int len = 0;
+        if (buf != null) {
             len = buf.remaining();
             if (log.isDebugEnabled()) {
                 log.debug("sendChunk: Sending HTTP chunk {}", buf);
             }
-            DefaultHttpContent chunk =
-                new DefaultHttpContent(NettyServer.copyBuffer(buf));
-            future = channel.write(chunk);
         }
 
         if (lastChunk) {
-            future = sendLastChunk();
+            if (buf != null) {
+                queueWrite(new DefaultHttpContent(NettyServer.wrapBuffer(buf)), 0, null);
+            }
+            queueLastChunk(len, cb);
+        } else if (buf != null) {
+            queueWrite(new DefaultHttpContent(NettyServer.wrapBuffer(buf)), len, cb);
+        } else {
+            if (cb != null) {
+                cb.ioComplete(0, 0);
+            }
+            return;
         }
+        scheduleFlush();
+    }
 
-        if (future == null) {
-            cb.ioComplete(0, 0);
-        } else {
-            addListener(future, len, cb);
+    /**
+     * Queue a message to be written by the channel's event loop. The completion handler, if any, is called
+     * once the message is on the wire.
+     */
+    private void queueWrite(Object msg, int len, IOCompletionHandler<Integer> cb)
+    {
+        pendingWrites.add(new PendingWrite(msg, len, cb));
+    }
+
+    /**
+     * Set a listener that is called once, when the last chunk of the response is queued or the connection
+     * is closed before that.
+     */
+    void setCompletionListener(Runnable l) {
+        this.completionListener = l;
+    }
+
+    boolean isComplete() {
+        return complete.get();
+    }
+
+    void complete()
+    {
+        if (complete.compareAndSet(false, true)) {
+            Runnable l = completionListener;
+            if (l != null) {
+                l.run();
+            }
+        }
+    }
+
+    private void queueLastChunk(int len, IOCompletionHandler<Integer> cb)
+    {
+        if (log.isDebugEnabled()) {
+            log.debug("send: Sending last HTTP chunk");
+        }
+        DefaultLastHttpContent chunk = new DefaultLastHttpContent();
+        if ((trailers != null) && !isOlderHttpVersion()) {
+            for (Map.Entry<String, String> t : trailers) {
+                chunk.trailingHeaders().add(t.getKey(), t.getValue());
+            }
+        }
+        queueWrite(chunk, len, cb);
+        if (!keepAlive) {
+            // Marks the point at which to shut down the connection
+            queueWrite(null, 0, null);
+        }
+        complete();
+    }
+
+    /**
+     * Rather than writing and flushing each message from the script thread, which costs a task on the
+     * event loop and a system call for each one, queue them up and have the event loop write everything that
+     * the script has queued so far, and then flush once.
+     */
+    private void scheduleFlush()
+    {
+        if (flushScheduled.compareAndSet(false, true)) {
+            channel.eventLoop().execute(flushTask);
         }
+    }
 
-        channel.flush();
-        if (lastChunk && !keepAlive) {
+    private void writePending()
+    {
+        flushScheduled.set(false);
+        boolean wrote = false;
+        boolean shutdown = false;
+        PendingWrite w;
+
+        while ((w = pendingWrites.poll()) != null) {
+            if (w.msg == null) {
+                shutdown = true;
+            } else {
+                ChannelFuture future = channel.write(w.msg);
+                addListener(future, w.len, w.cb);
+                wrote = true;
+            }
+        }
+        if (wrote) {
+            channel.flush();
+        }
+        if (shutdown) {
             shutDown();
         }
     }
@@ -236,30 +325,24 @@ public class NettyHttpResponse
         response.headers().add("Content-Type", "text/plain");
         response.headers().add("Content-Length", data.readableBytes());
         calculateKeepAlive(true);
-        channel.write(response);
-
-        DefaultHttpContent chunk = new DefaultHttpContent(data);
-        channel.write(chunk);
-
-        sendLastChunk();
-        channel.flush();
-        if (!keepAlive) {
-            shutDown();
-        }
+        queueWrite(response, 0, null);
+        queueWrite(new DefaultHttpContent(data), 0, null);
+        queueLastChunk(0, null);
+        scheduleFlush();
     }
 
-    private ChannelFuture sendLastChunk()
+    private static final class PendingWrite
     {
-        if (log.isDebugEnabled()) {
-            log.debug("send: Sending last HTTP chunk");
-        }
-        DefaultLastHttpContent chunk = new DefaultLastHttpContent();
-        if ((trailers != null) && !isOlderHttpVersion()) {
-            for (Map.Entry<String, String> t : trailers) {
-                chunk.trailingHeaders().add(t.getKey(), t.getValue());
-            }
+        final Object msg;
+        final int len;
+        final IOCompletionHandler<Integer> cb;
+
+        PendingWrite(Object msg, int len, IOCompletionHandler<Integer> cb)
+        {
+            this.msg = msg;
+            this.len = len;
+            this.cb = cb;
         }
-        return channel.write(chunk);
     }
 
     @Override
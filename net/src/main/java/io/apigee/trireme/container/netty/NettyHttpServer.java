@@ -46,10 +46,13 @@ import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.handler.ssl.SslHandler;
 import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.ReferenceCountUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.net.ssl.SSLEngine;
+import java.util.ArrayDeque;
+import java.util.Iterator;
 import java.util.concurrent.TimeUnit;
 
 public class NettyHttpServer
@@ -60,18 +63,35 @@ public class NettyHttpServer
     protected static final Logger log = LoggerFactory.getLogger(NettyHttpServer.class);
 
     private final HttpServerStub stub;
+    private final ReplicaGroup   replicas;
     private       NettyServer    server;
     private       String         injectedAttachment;
     private       boolean        isTls;
     private volatile boolean     closing;
 
     NettyHttpServer(HttpServerStub stub)
+    {
+        this(stub, null);
+    }
+
+    /**
+     * Create a server that passes each request to one of a group of replicas rather than always to "stub."
+     */
+    NettyHttpServer(HttpServerStub stub, ReplicaGroup replicas)
     {
         this.stub = stub;
+        this.replicas = replicas;
 
         // This is for testing the "attachment" feature
         injectedAttachment = System.getProperty("TriremeInjectedAttachment");
+        configureStub(stub);
+    }
 
+    /**
+     * Apply server-wide settings to a stub. Replicas that join a group later need these too.
+     */
+    static void configureStub(HttpServerStub stub)
+    {
         String timeoutOpt = System.getProperty("TriremeHttpTimeout");
         if (timeoutOpt != null) {
             stub.setDefaultTimeout(Integer.parseInt(timeoutOpt), TimeUnit.SECONDS,
@@ -139,6 +159,10 @@ public class NettyHttpServer
         }
     }
 
+    boolean isListening() {
+        return (server != null);
+    }
+
     boolean isClosing() {
         return closing;
     }
@@ -179,6 +203,52 @@ public class NettyHttpServer
     {
         private NettyHttpRequest curRequest;
         private NettyHttpResponse curResponse;
+        private Replica curReplica;
+        // Every response on this connection that may not be complete yet, oldest first. Only used in the
+        // channel's thread.
+        private final ArrayDeque<NettyHttpResponse> outstanding = new ArrayDeque<NettyHttpResponse>();
+
+        private boolean hasOutstanding()
+        {
+            Iterator<NettyHttpResponse> it = outstanding.iterator();
+            while (it.hasNext()) {
+                if (it.next().isComplete()) {
+                    it.remove();
+                }
+            }
+            return !outstanding.isEmpty();
+        }
+
+        /**
+         * Count every response that is still outstanding as done for the replica that had it, since nobody
+         * will ever get it now.
+         */
+        private void completeOutstanding()
+        {
+            NettyHttpResponse r;
+            while ((r = outstanding.poll()) != null) {
+                r.complete();
+            }
+        }
+
+        /**
+         * Choose the replica for a new request. While a response is still outstanding on this connection,
+         * keep using the same replica so that pipelined responses come back in order.
+         */
+        private void selectReplica()
+        {
+            if ((replicas != null) && ((curReplica == null) || !hasOutstanding())) {
+                Replica r = replicas.select();
+                if (r != null) {
+                    curReplica = r;
+                }
+            }
+        }
+
+        private HttpServerStub getStub()
+        {
+            return (curReplica == null ? stub : curReplica.getStub());
+        }
 
         @Override
         public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
@@ -186,6 +256,7 @@ public class NettyHttpServer
             if (log.isDebugEnabled()) {
                 log.debug("Uncaught exception: {}", cause);
             }
+            completeOutstanding();
         }
 
         @Override
@@ -206,7 +277,8 @@ public class NettyHttpServer
             if (log.isDebugEnabled()) {
                 log.debug("Closed server-side connection {}", ctx.channel());
             }
-            stub.onClose(curRequest, curResponse);
+            completeOutstanding();
+            getStub().onClose(curRequest, curResponse);
             ctx.fireChannelInactive();
         }
 
@@ -219,6 +291,7 @@ public class NettyHttpServer
             if (httpObject instanceof HttpRequest) {
                 HttpRequest req = (HttpRequest)httpObject;
                 SocketChannel channel = (SocketChannel)ctx.channel();
+                selectReplica();
                 curRequest = new NettyHttpRequest(req, channel);
                 // Set the "attachment" field on the Java request object for testing
                 curRequest.setClientAttachment(injectedAttachment);
@@ -231,7 +304,7 @@ public class NettyHttpServer
                     UpgradedHandler nettyHandler = new UpgradedHandler(handler);
                     makeUpgradePipeline(channel, nettyHandler);
                     // Now deliver it
-                    stub.onUpgrade(curRequest, handler);
+                    getStub().onUpgrade(curRequest, handler);
 
                 } else {
                     curResponse = new NettyHttpResponse(
@@ -241,7 +314,11 @@ public class NettyHttpServer
                         curRequest.isKeepAlive(), isTls,
                         NettyHttpServer.this);
                     curResponse.setClientAttachment(injectedAttachment);
-                    stub.onRequest(curRequest, curResponse);
+                    if (curReplica != null) {
+                        curResponse.setCompletionListener(curReplica.startRequest());
+                        outstanding.add(curResponse);
+                    }
+                    getStub().onRequest(curRequest, curResponse);
                 }
 
             } else if (httpObject instanceof HttpContent) {
@@ -253,7 +330,7 @@ public class NettyHttpServer
                 if (chunk.hasData() && !curRequest.hasContentLength() && !curRequest.isChunked()) {
                     returnError(ctx, HttpResponseStatus.BAD_REQUEST);
                 } else {
-                    stub.onData(curRequest, curResponse, chunk);
+                    getStub().onData(curRequest, curResponse, chunk);
                 }
 
             } else {
@@ -289,8 +366,13 @@ public class NettyHttpServer
                 log.debug("Upgraded socket handler got {}", msg);
             }
 
-            if (msg instanceof ByteBuf) {
-                handler.deliverRead((ByteBuf)msg);
+            try {
+                if (msg instanceof ByteBuf) {
+                    handler.deliverRead((ByteBuf)msg);
+                }
+            } finally {
+                // The data was copied, so give the buffer back to the pool
+                ReferenceCountUtil.release(msg);
             }
         }
 
@@ -28,7 +28,6 @@ import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
@@ -49,8 +48,10 @@ public class NettyServer
         }
         bootstrap = new ServerBootstrap();
         bootstrap.group(NettyFactory.get().getAcceptorThreads(), NettyFactory.get().getIOThreads())
-                 .channel(NioServerSocketChannel.class)
+                 .channel(NettyFactory.get().getServerChannelClass())
                  .option(ChannelOption.SO_REUSEADDR, true)
+                 .option(ChannelOption.ALLOCATOR, NettyFactory.get().getAllocator())
+                 .childOption(ChannelOption.ALLOCATOR, NettyFactory.get().getAllocator())
                  .childHandler(pipelineFactory)
                  .localAddress(address);
 
@@ -89,4 +90,12 @@ public class NettyServer
     {
         return Unpooled.copiedBuffer(buf);
     }
+
+    /**
+     * Wrap the byte buffer without copying it. The contents must not change until Netty has written them.
+     */
+    public static ByteBuf wrapBuffer(ByteBuffer buf)
+    {
+        return Unpooled.wrappedBuffer(buf);
+    }
 }
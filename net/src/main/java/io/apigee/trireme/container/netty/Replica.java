@@ -0,0 +1,98 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.container.netty;
+
+import io.apigee.trireme.core.NodeScript;
+import io.apigee.trireme.net.spi.HttpServerStub;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One running copy of a script in a ReplicaGroup, and the counters that are used to pick the replica
+ * with the least work for each new request.
+ */
+
+public class Replica
+{
+    private final int id;
+    private final NodeScript script;
+    private final HttpServerStub stub;
+    private final AtomicInteger activeRequests = new AtomicInteger();
+    private final AtomicLong totalRequests = new AtomicLong();
+
+    private final Runnable requestDone = new Runnable() {
+        @Override
+        public void run()
+        {
+            activeRequests.decrementAndGet();
+        }
+    };
+
+    Replica(int id, NodeScript script, HttpServerStub stub)
+    {
+        this.id = id;
+        this.script = script;
+        this.stub = stub;
+    }
+
+    NodeScript getScript() {
+        return script;
+    }
+
+    HttpServerStub getStub() {
+        return stub;
+    }
+
+    /**
+     * Count a request that is about to be passed to "onRequest," and return the task that must run when
+     * its response is complete.
+     */
+    Runnable startRequest()
+    {
+        activeRequests.incrementAndGet();
+        totalRequests.incrementAndGet();
+        return requestDone;
+    }
+
+    /**
+     * Return the number of requests that were dispatched to this replica but have not yet been responded to.
+     */
+    public int getActiveRequests() {
+        return activeRequests.get();
+    }
+
+    /**
+     * Return the total number of requests that have been dispatched to this replica.
+     */
+    public long getTotalRequests() {
+        return totalRequests.get();
+    }
+
+    /**
+     * Return a number that identifies this replica within its group. The original script is zero, and
+     * each replica that is started, including ones that replace replicas that exited, gets the next number.
+     */
+    public int getId() {
+        return id;
+    }
+}
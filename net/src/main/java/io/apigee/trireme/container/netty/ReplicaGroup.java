@@ -0,0 +1,213 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.container.netty;
+
+import io.apigee.trireme.core.NodeException;
+import io.apigee.trireme.core.NodeScript;
+import io.apigee.trireme.core.ScriptFuture;
+import io.apigee.trireme.core.ScriptStatus;
+import io.apigee.trireme.core.ScriptStatusListener;
+import io.apigee.trireme.net.spi.HttpServerStub;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A set of identical scripts that all serve HTTP requests that arrive on one port. The script that
+ * listened first owns the port, and the group starts copies of it that join the group when they listen on
+ * the same port. Each new request goes to the replica with the fewest requests outstanding. Replicas that
+ * exit are replaced, unless they keep failing.
+ */
+
+public class ReplicaGroup
+{
+    private static final Logger log = LoggerFactory.getLogger(ReplicaGroup.class);
+
+    /** Stop replacing replicas that exit if more than this many exit within RESTART_WINDOW. */
+    public static final int MAX_RESTARTS = 5;
+    public static final long RESTART_WINDOW = 60000L;
+
+    private final NettyHttpContainer container;
+    private final NodeScript origin;
+    private final int port;
+
+    private final CopyOnWriteArrayList<Replica> replicas = new CopyOnWriteArrayList<Replica>();
+    private final ConcurrentHashMap<NodeScript, ScriptFuture> running =
+        new ConcurrentHashMap<NodeScript, ScriptFuture>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final AtomicInteger nextSelection = new AtomicInteger();
+    private final AtomicInteger restartCount = new AtomicInteger();
+    private final ArrayDeque<Long> recentRestarts = new ArrayDeque<Long>();
+
+    private volatile boolean closed;
+
+    ReplicaGroup(NettyHttpContainer container, NodeScript origin, HttpServerStub stub, int port)
+    {
+        this.container = container;
+        this.origin = origin;
+        this.port = port;
+        replicas.add(new Replica(nextId.getAndIncrement(), origin, stub));
+    }
+
+    /**
+     * Start the copies of the original script.
+     */
+    void start()
+    {
+        for (int i = 1; i < container.getReplicas(); i++) {
+            startReplica();
+        }
+    }
+
+    private void startReplica()
+    {
+        NodeScript copy = origin.copy();
+        container.registerReplica(copy, this);
+        try {
+            ScriptFuture future = (copy.isModule() ? copy.executeModule() : copy.execute());
+            running.put(copy, future);
+            future.setListener(new ScriptStatusListener() {
+                @Override
+                public void onComplete(NodeScript script, ScriptStatus status)
+                {
+                    replicaExited(script, status);
+                }
+            });
+        } catch (NodeException ne) {
+            container.unregisterReplica(copy);
+            log.error("Cannot start a replica of the script listening on port {}: {}", port, ne);
+        }
+    }
+
+    private void replicaExited(NodeScript script, ScriptStatus status)
+    {
+        leave(script);
+        running.remove(script);
+        container.unregisterReplica(script);
+        script.close();
+
+        if (closed || status.isCancelled()) {
+            return;
+        }
+        if (!allowRestart()) {
+            log.error("Replicas of the script listening on port {} are exiting too often. Not replacing it.",
+                      port);
+            return;
+        }
+
+        log.warn("Replica of the script listening on port {} exited with code {}. Replacing it.",
+                 port, status.getExitCode());
+        restartCount.incrementAndGet();
+        startReplica();
+    }
+
+    private synchronized boolean allowRestart()
+    {
+        long now = System.currentTimeMillis();
+        while (!recentRestarts.isEmpty() && (recentRestarts.peekFirst() < (now - RESTART_WINDOW))) {
+            recentRestarts.removeFirst();
+        }
+        if (recentRestarts.size() >= MAX_RESTARTS) {
+            return false;
+        }
+        recentRestarts.addLast(now);
+        return true;
+    }
+
+    /**
+     * Called when a replica has started listening on the group's port, and is ready for requests.
+     */
+    void join(NodeScript script, HttpServerStub stub)
+    {
+        if (log.isDebugEnabled()) {
+            log.debug("Replica joined the group on port {}", port);
+        }
+        NettyHttpServer.configureStub(stub);
+        replicas.add(new Replica(nextId.getAndIncrement(), script, stub));
+    }
+
+    void leave(NodeScript script)
+    {
+        for (Replica r : replicas) {
+            if (r.getScript() == script) {
+                replicas.remove(r);
+            }
+        }
+    }
+
+    /**
+     * Pick the replica with the fewest outstanding requests. Start looking at a different place each
+     * time so that idle replicas take turns.
+     */
+    Replica select()
+    {
+        Replica[] rs = replicas.toArray(new Replica[0]);
+        if (rs.length == 0) {
+            return null;
+        }
+        int start = (nextSelection.getAndIncrement() & Integer.MAX_VALUE) % rs.length;
+        Replica best = null;
+        for (int i = 0; i < rs.length; i++) {
+            Replica r = rs[(start + i) % rs.length];
+            if ((best == null) || (r.getActiveRequests() < best.getActiveRequests())) {
+                best = r;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Stop all the replicas. The original script is not affected.
+     */
+    void close()
+    {
+        closed = true;
+        for (ScriptFuture f : running.values()) {
+            f.cancel(true);
+        }
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Return the replicas that are currently taking requests, including the original script.
+     */
+    public List<Replica> getReplicas()
+    {
+        return new ArrayList<Replica>(replicas);
+    }
+
+    /**
+     * Return the number of times that a replica was replaced after it exited.
+     */
+    public int getRestartCount() {
+        return restartCount.get();
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.container.netty;
+
+import io.apigee.trireme.core.NodeScript;
+import io.apigee.trireme.net.spi.HttpServerAdapter;
+import io.apigee.trireme.net.spi.HttpServerStub;
+import io.apigee.trireme.net.spi.TLSParams;
+
+/**
+ * This is the server adapter that each script sees when the container runs replicas. The script that
+ * listens first on a port starts a ReplicaGroup, and the copies of that script that the group starts join it
+ * when they listen on the same port instead of binding it again.
+ */
+
+class ReplicaServer
+    implements HttpServerAdapter
+{
+    private final NettyHttpContainer container;
+    private final NodeScript script;
+    private final HttpServerStub stub;
+
+    private ReplicaGroup group;
+    private NettyHttpServer server;
+
+    ReplicaServer(NettyHttpContainer container, NodeScript script, HttpServerStub stub)
+    {
+        this.container = container;
+        this.script = script;
+        this.stub = stub;
+    }
+
+    @Override
+    public void listen(String host, int port, int backlog, TLSParams tlsParams)
+    {
+        ReplicaGroup existing = container.getGroupForReplica(script, port);
+        if (existing != null) {
+            group = existing;
+            group.join(script, stub);
+            return;
+        }
+
+        if (container.isReplica(script)) {
+            // A replica opened a server that the original never did, so it's on its own
+            server = new NettyHttpServer(stub);
+            server.listen(host, port, backlog, tlsParams);
+            return;
+        }
+
+        group = new ReplicaGroup(container, script, stub, port);
+        server = new NettyHttpServer(stub, group);
+        server.listen(host, port, backlog, tlsParams);
+        if (server.isListening()) {
+            container.addGroup(group);
+            group.start();
+        }
+    }
+
+    @Override
+    public void suspend()
+    {
+        if (server != null) {
+            server.suspend();
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        if (server != null) {
+            server.close();
+            if (group != null) {
+                container.removeGroup(group);
+                group.close();
+            }
+        } else if (group != null) {
+            group.leave(script);
+            stub.onClose(null, null);
+        }
+    }
+}
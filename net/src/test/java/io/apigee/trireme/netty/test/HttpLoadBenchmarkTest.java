@@ -0,0 +1,259 @@
+package io.apigee.trireme.netty.test;
+
+import io.apigee.trireme.container.netty.NettyFactory;
+import io.apigee.trireme.container.netty.NettyHttpContainer;
+import io.apigee.trireme.container.netty.Replica;
+import io.apigee.trireme.container.netty.ReplicaGroup;
+import io.apigee.trireme.core.NodeEnvironment;
+import io.apigee.trireme.core.NodeException;
+import io.apigee.trireme.core.NodeScript;
+import io.apigee.trireme.core.ScriptFuture;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * A closed-loop load test in the style of "wrk": a fixed number of keep-alive connections each send a request
+ * as soon as the last response arrives. It reports requests per second and 99th percentile latency for
+ * the built-in HTTP server and for the Netty container.
+ */
+public class HttpLoadBenchmarkTest
+{
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static final int CONNECTIONS = 16;
+    private static final long WARMUP_MS = 2000L;
+    private static final long DURATION_MS = 5000L;
+    private static final int BODY_SIZE = 4096;
+    private static final int REPLICAS = 4;
+
+    private static final String SCRIPT =
+        "var http = require('http');\n" +
+        "var body = new Buffer(" + BODY_SIZE + ");\n" +
+        "body.fill('x');\n" +
+        "http.createServer(function(req, res) {\n" +
+        "  res.writeHead(200, { 'Content-Type': 'text/plain', 'Content-Length': body.length });\n" +
+        "  res.end(body);\n" +
+        "}).listen(parseInt(process.env.PORT));\n";
+
+    private static final byte[] REQUEST =
+        "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(ASCII);
+
+    @Before
+    public void checkEnabled()
+    {
+        // Each run takes several seconds, so only run with -DrunBenchmarks=true
+        Assume.assumeTrue(Boolean.getBoolean("runBenchmarks"));
+    }
+
+    @Test
+    public void testBuiltIn()
+        throws Exception
+    {
+        runBenchmark("Built-in HTTP", new NodeEnvironment());
+    }
+
+    @Test
+    public void testNetty()
+        throws Exception
+    {
+        NodeEnvironment env = new NodeEnvironment();
+        env.setHttpContainer(new NettyHttpContainer());
+        runBenchmark("Netty (" + (NettyFactory.get().isNativeTransport() ? "epoll" : "NIO") + ')', env);
+    }
+
+    @Test
+    public void testNettyReplicas()
+        throws Exception
+    {
+        NodeEnvironment env = new NodeEnvironment();
+        NettyHttpContainer container = new NettyHttpContainer(REPLICAS);
+        env.setHttpContainer(container);
+        runBenchmark("Netty with " + REPLICAS + " replicas", env);
+    }
+
+    private void runBenchmark(String name, NodeEnvironment env)
+        throws Exception
+    {
+        int port = findPort();
+        HashMap<String, String> scriptEnv = new HashMap<String, String>();
+        scriptEnv.put("PORT", String.valueOf(port));
+        NodeScript script = env.createScript("loadtest.js", SCRIPT, null);
+        script.setEnvironment(scriptEnv);
+        ScriptFuture future = script.execute();
+
+        try {
+            waitForServer(port);
+
+            Client[] clients = new Client[CONNECTIONS];
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < CONNECTIONS; i++) {
+                clients[i] = new Client(port, start + WARMUP_MS, start + WARMUP_MS + DURATION_MS);
+                clients[i].start();
+            }
+
+            long[] all = new long[0];
+            int count = 0;
+            for (Client c : clients) {
+                c.join();
+                assertNull(c.error);
+                all = Arrays.copyOf(all, count + c.count);
+                System.arraycopy(c.latencies, 0, all, count, c.count);
+                count += c.count;
+            }
+            Arrays.sort(all);
+
+            double rps = count / (DURATION_MS / 1000.0);
+            double p99 = (count == 0) ? 0.0 : all[Math.min(count - 1, (int)(count * 0.99))] / 1000000.0;
+            System.out.println(name + ": " + CONNECTIONS + " connections, " + BODY_SIZE + "-byte responses: " +
+                               String.format("%.0f", rps) + " requests/second, 99% latency " +
+                               String.format("%.2f", p99) + " ms");
+            assertTrue(count > 0);
+
+            if (env.getHttpContainer() instanceof NettyHttpContainer) {
+                for (ReplicaGroup group : ((NettyHttpContainer)env.getHttpContainer()).getReplicaGroups()) {
+                    assertEquals(REPLICAS, group.getReplicas().size());
+                    for (Replica r : group.getReplicas()) {
+                        System.out.println("  Replica " + r.getId() + ": " + r.getTotalRequests() + " requests");
+                        assertTrue(r.getTotalRequests() > 0);
+                    }
+                }
+            }
+
+        } finally {
+            future.cancel(true);
+            env.close();
+        }
+    }
+
+    private static int findPort()
+        throws IOException
+    {
+        ServerSocket s = new ServerSocket(0);
+        try {
+            return s.getLocalPort();
+        } finally {
+            s.close();
+        }
+    }
+
+    private static void waitForServer(int port)
+        throws InterruptedException
+    {
+        for (int i = 0; i < 100; i++) {
+            try {
+                new Socket("localhost", port).close();
+                return;
+            } catch (IOException ioe) {
+                Thread.sleep(100L);
+            }
+        }
+        fail("Server did not start listening on port " + port);
+    }
+
+    private static final class Client
+        extends Thread
+    {
+        private final int port;
+        private final long measureStart;
+        private final long end;
+
+        long[] latencies = new long[65536];
+        int count;
+        Exception error;
+
+        Client(int port, long measureStart, long end)
+        {
+            this.port = port;
+            this.measureStart = measureStart;
+            this.end = end;
+        }
+
+        @Override
+        public void run()
+        {
+            try {
+                Socket s = new Socket("localhost", port);
+                try {
+                    s.setTcpNoDelay(true);
+                    OutputStream out = s.getOutputStream();
+                    InputStream in = new BufferedInputStream(s.getInputStream());
+
+                    long now = System.currentTimeMillis();
+                    while (now < end) {
+                        long startNanos = System.nanoTime();
+                        out.write(REQUEST);
+                        out.flush();
+                        readResponse(in);
+                        long elapsed = System.nanoTime() - startNanos;
+
+                        now = System.currentTimeMillis();
+                        if (now >= measureStart) {
+                            if (count == latencies.length) {
+                                latencies = Arrays.copyOf(latencies, count * 2);
+                            }
+                            latencies[count++] = elapsed;
+                        }
+                    }
+                } finally {
+                    s.close();
+                }
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+
+        private void readResponse(InputStream in)
+            throws IOException
+        {
+            int contentLength = 0;
+            ArrayList<String> headers = new ArrayList<String>();
+            String line;
+            do {
+                line = readLine(in);
+                headers.add(line);
+                if (line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+                    contentLength = Integer.parseInt(line.substring(15).trim());
+                }
+            } while (!line.isEmpty());
+
+            if (!headers.get(0).startsWith("HTTP/1.1 200")) {
+                throw new IOException("Unexpected response: " + headers.get(0));
+            }
+            for (int i = 0; i < contentLength; i++) {
+                if (in.read() < 0) {
+                    throw new IOException("Unexpected end of response body");
+                }
+            }
+        }
+
+        private static String readLine(InputStream in)
+            throws IOException
+        {
+            StringBuilder sb = new StringBuilder();
+            int c;
+            while ((c = in.read()) != '\n') {
+                if (c < 0) {
+                    throw new IOException("Unexpected end of response");
+                }
+                if (c != '\r') {
+                    sb.append((char)c);
+                }
+            }
+            return sb.toString();
+        }
+    }
+}
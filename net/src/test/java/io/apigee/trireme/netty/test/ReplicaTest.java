@@ -0,0 +1,283 @@
+package io.apigee.trireme.netty.test;
+
+import io.apigee.trireme.container.netty.NettyHttpContainer;
+import io.apigee.trireme.container.netty.Replica;
+import io.apigee.trireme.container.netty.ReplicaGroup;
+import io.apigee.trireme.core.NodeEnvironment;
+import io.apigee.trireme.core.NodeScript;
+import io.apigee.trireme.core.ScriptFuture;
+import io.apigee.trireme.kernel.Charsets;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the way that the Netty container spreads requests across replicas of a script, and replaces
+ * replicas that exit.
+ */
+public class ReplicaTest
+{
+    private static final File SCRIPT = new File("./target/test-classes/tests/replicaserver.js");
+    private static final File MARKER = new File("./target/replicamarker");
+    private static final int REPLICAS = 2;
+    private static final long TIMEOUT = 20000L;
+
+    private NodeEnvironment env;
+    private NettyHttpContainer container;
+    private NodeScript script;
+    private ScriptFuture future;
+    private int port;
+
+    @Before
+    public void init()
+    {
+        MARKER.delete();
+        container = new NettyHttpContainer(REPLICAS);
+        env = new NodeEnvironment();
+        env.setHttpContainer(container);
+    }
+
+    @After
+    public void terminate()
+    {
+        if (future != null) {
+            future.cancel(true);
+        }
+        if (script != null) {
+            script.close();
+        }
+        env.close();
+        MARKER.delete();
+    }
+
+    @Test
+    public void testLeastLoaded()
+        throws Exception
+    {
+        ReplicaGroup group = start(false);
+        for (String id : getIds()) {
+            assertTrue(id.endsWith(" script"));
+        }
+
+        // Hold a response open on one replica, and every new request should go to the idle one
+        HttpURLConnection slow = open("/slow");
+        BufferedReader slowIn = new BufferedReader(new InputStreamReader(slow.getInputStream(), Charsets.UTF8));
+        String busy = slowIn.readLine();
+        assertNotNull(busy);
+
+        for (int i = 0; i < 10; i++) {
+            String id = get("/id");
+            assertFalse("Request " + i + " went to the busy replica", id.startsWith(busy + ' '));
+        }
+        assertNull(slowIn.readLine());
+        slow.disconnect();
+
+        waitForIdle(group.getReplicas());
+    }
+
+    @Test
+    public void testExecuteModule()
+        throws Exception
+    {
+        start(true);
+        HashSet<String> ids = getIds();
+        assertEquals(REPLICAS, ids.size());
+        for (String id : ids) {
+            assertTrue("Not running as a module: " + id, id.endsWith(" module"));
+        }
+    }
+
+    @Test
+    public void testRestart()
+        throws Exception
+    {
+        ReplicaGroup group = start(false);
+
+        for (int i = 1; i <= ReplicaGroup.MAX_RESTARTS; i++) {
+            killReplica();
+            waitForReplicas(group, i, REPLICAS);
+        }
+
+        // That's one too many in the window, so it should stay dead
+        killReplica();
+        waitForReplicas(group, ReplicaGroup.MAX_RESTARTS, 1);
+        Thread.sleep(1000L);
+        assertEquals(ReplicaGroup.MAX_RESTARTS, group.getRestartCount());
+        assertEquals(1, group.getReplicas().size());
+
+        // The original keeps serving
+        assertTrue(get("/id").startsWith("origin-"));
+    }
+
+    @Test
+    public void testPipelinedOnDyingReplica()
+        throws Exception
+    {
+        ReplicaGroup group = start(false);
+        List<Replica> replicas = group.getReplicas();
+
+        // Pipeline two requests that a replica never responds to. If they went to the original script
+        // instead then it responds right away, so try again on a new connection.
+        Socket s = null;
+        for (int i = 0; (s == null) && (i < 20); i++) {
+            s = new Socket("localhost", port);
+            s.setSoTimeout(1000);
+            OutputStream out = s.getOutputStream();
+            out.write(("GET /hang HTTP/1.1\r\nHost: localhost\r\n\r\n" +
+                       "GET /hang HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(Charsets.UTF8));
+            out.flush();
+            try {
+                s.getInputStream().read();
+                s.close();
+                s = null;
+            } catch (SocketTimeoutException ste) {
+                // No response means that a replica has them
+            }
+        }
+        assertNotNull("Requests never went to a replica", s);
+
+        try {
+            Replica dying = null;
+            for (Replica r : replicas) {
+                if (r.getActiveRequests() == 2) {
+                    dying = r;
+                }
+            }
+            assertNotNull("Pipelined requests did not both go to the same replica", dying);
+
+            // Once the replica is gone, closing the connection must account for both requests
+            waitForReplicas(group, 1, REPLICAS);
+            s.close();
+            waitForIdle(replicas);
+        } finally {
+            s.close();
+        }
+    }
+
+    private ReplicaGroup start(boolean asModule)
+        throws Exception
+    {
+        port = findPort();
+        HashMap<String, String> scriptEnv = new HashMap<String, String>();
+        scriptEnv.put("PORT", String.valueOf(port));
+        scriptEnv.put("MARKER", MARKER.getAbsolutePath());
+        script = env.createScript("replicaserver.js", SCRIPT, null);
+        script.setEnvironment(scriptEnv);
+        future = (asModule ? script.executeModule() : script.execute());
+
+        long end = System.currentTimeMillis() + TIMEOUT;
+        while (container.getReplicaGroups().isEmpty() && (System.currentTimeMillis() < end)) {
+            Thread.sleep(100L);
+        }
+        assertFalse("Server never started", container.getReplicaGroups().isEmpty());
+        ReplicaGroup group = container.getReplicaGroups().get(0);
+        waitForReplicas(group, 0, REPLICAS);
+        return group;
+    }
+
+    /**
+     * Make requests until both replicas have answered, and return what they said.
+     */
+    private HashSet<String> getIds()
+        throws IOException
+    {
+        HashSet<String> ids = new HashSet<String>();
+        for (int i = 0; (ids.size() < REPLICAS) && (i < 20); i++) {
+            ids.add(get("/id"));
+        }
+        assertEquals(REPLICAS, ids.size());
+        return ids;
+    }
+
+    /**
+     * Send "/exit" until it reaches a replica rather than the original script.
+     */
+    private void killReplica()
+        throws IOException
+    {
+        for (int i = 0; i < 20; i++) {
+            if (get("/exit").startsWith("replica-")) {
+                return;
+            }
+        }
+        fail("Never reached a replica");
+    }
+
+    private static void waitForReplicas(ReplicaGroup group, int restarts, int count)
+        throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + TIMEOUT;
+        while (((group.getRestartCount() != restarts) || (group.getReplicas().size() != count)) &&
+               (System.currentTimeMillis() < end)) {
+            Thread.sleep(100L);
+        }
+        assertEquals(restarts, group.getRestartCount());
+        assertEquals(count, group.getReplicas().size());
+    }
+
+    private static void waitForIdle(List<Replica> replicas)
+        throws InterruptedException
+    {
+        for (Replica r : replicas) {
+            long end = System.currentTimeMillis() + TIMEOUT;
+            while ((r.getActiveRequests() != 0) && (System.currentTimeMillis() < end)) {
+                Thread.sleep(100L);
+            }
+            assertEquals("Replica " + r.getId() + " still has active requests", 0, r.getActiveRequests());
+        }
+    }
+
+    private HttpURLConnection open(String path)
+        throws IOException
+    {
+        HttpURLConnection conn = (HttpURLConnection)new URL("http://localhost:" + port + path).openConnection();
+        assertEquals(200, conn.getResponseCode());
+        return conn;
+    }
+
+    private String get(String path)
+        throws IOException
+    {
+        HttpURLConnection conn = open(path);
+        InputStream in = conn.getInputStream();
+        try {
+            StringBuilder sb = new StringBuilder();
+            byte[] buf = new byte[1024];
+            int r;
+            while ((r = in.read(buf)) > 0) {
+                sb.append(new String(buf, 0, r, Charsets.UTF8));
+            }
+            return sb.toString();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static int findPort()
+        throws IOException
+    {
+        ServerSocket s = new ServerSocket(0);
+        try {
+            return s.getLocalPort();
+        } finally {
+            s.close();
+        }
+    }
+}
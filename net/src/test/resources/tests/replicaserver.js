@@ -0,0 +1,57 @@
+var http = require('http');
+var fs = require('fs');
+
+// The original script starts before any of its replicas, so it is the one that creates the marker file
+var isOrigin;
+try {
+  fs.writeFileSync(process.env.MARKER, 'origin', { flag: 'wx' });
+  isOrigin = true;
+} catch (e) {
+  isOrigin = false;
+}
+
+var id = (isOrigin ? 'origin-' : 'replica-') + Math.floor(Math.random() * 1000000000);
+var mode = (require.main === module ? 'script' : 'module');
+
+var svr = http.createServer(function(req, resp) {
+  switch (req.url) {
+  case '/id':
+    resp.end(id + ' ' + mode);
+    break;
+
+  case '/slow':
+    // Send the ID right away so the client knows where it went, but hold the response open
+    resp.writeHead(200);
+    resp.write(id + '\n');
+    setTimeout(function() {
+      resp.end();
+    }, 2000);
+    break;
+
+  case '/exit':
+    resp.end(id);
+    if (!isOrigin) {
+      setTimeout(function() {
+        process.exit(1);
+      }, 100);
+    }
+    break;
+
+  case '/hang':
+    // Replicas exit without ever responding
+    if (isOrigin) {
+      resp.end(id);
+    } else {
+      setTimeout(function() {
+        process.exit(1);
+      }, 200);
+    }
+    break;
+
+  default:
+    resp.writeHead(404);
+    resp.end();
+  }
+});
+
+svr.listen(parseInt(process.env.PORT, 10));
@@ -98,7 +98,8 @@ public class CaresWrap
         public void init(NodeRuntime runtime)
         {
             this.runtime = (ScriptRunner)runtime;
-            this.resolver = new DNSResolver(runtime);
+            // Answers are shared with the other scripts in the environment
+            this.resolver = new DNSResolver(runtime, this.runtime.getEnvironment().getDNSCache());
 
             put("AF_INET", this, AF_INET);
             put("AF_INET6", this, AF_INET6);
@@ -24,6 +24,7 @@ package io.apigee.trireme.node10.modules;
 import io.apigee.trireme.core.NodeRuntime;
 import io.apigee.trireme.core.InternalNodeModule;
 import io.apigee.trireme.core.Utils;
+import io.apigee.trireme.core.internal.ScriptRunner;
 import io.apigee.trireme.core.modules.Buffer;
 import io.apigee.trireme.kernel.Charsets;
 import io.apigee.trireme.core.internal.NodeOSException;
@@ -104,10 +105,12 @@ public class HTTPParser
             return CLASS_NAME;
         }
 
-        private void init(int type)
+        private void init(Context cx, int type)
         {
+            ScriptRunner runner = (ScriptRunner)cx.getThreadLocal(ScriptRunner.RUNNER);
             parser = new HTTPParsingMachine(
-                (type == REQUEST) ? HTTPParsingMachine.ParsingMode.REQUEST : HTTPParsingMachine.ParsingMode.RESPONSE);
+                (type == REQUEST) ? HTTPParsingMachine.ParsingMode.REQUEST : HTTPParsingMachine.ParsingMode.RESPONSE,
+                runner.getEnvironment().getHttpScanMode());
             sentPartialHeaders = false;
             sentCompleteHeaders = false;
         }
@@ -116,7 +119,7 @@ public class HTTPParser
         {
             int typeArg = intArg(args, 0);
             ParserImpl parser = (ParserImpl)cx.newObject(thisObj, CLASS_NAME);
-            parser.init(typeArg);
+            parser.init(cx, typeArg);
             return parser;
         }
 
@@ -181,7 +184,7 @@ public class HTTPParser
         public void reinitialize(int type)
         {
             log.debug("HTTP parser: init");
-            init(type);
+            init(Context.getCurrentContext(), type);
         }
 
         @JSFunction
@@ -51,7 +51,7 @@ import java.util.regex.Pattern;
  * The Node process module done on top of the VM.
  */
 public class Process
-    implements NodeModule
+    implements NodeModule, PreparedModule
 {
     public static final String MODULE_NAME = "process";
 
@@ -69,19 +69,31 @@ public class Process
     @Override
     public Scriptable registerExports(Context cx, Scriptable scope, NodeRuntime runner)
         throws InvocationTargetException, IllegalAccessException, InstantiationException
+    {
+        Scriptable exports = prepareExports(cx, scope);
+        attachExports(cx, exports, runner);
+        return exports;
+    }
+
+    @Override
+    public Scriptable prepareExports(Context cx, Scriptable scope)
+        throws InvocationTargetException, IllegalAccessException, InstantiationException
     {
         new ProcessImpl().exportAsClass(scope);
         ScriptableObject.defineClass(scope, ProcessEnvironment.class, false, true);
 
         ProcessImpl exports = (ProcessImpl) cx.newObject(scope, ProcessImpl.CLASS_NAME);
-        exports.setRunner(runner);
-
         ProcessEnvironment env = (ProcessEnvironment) cx.newObject(scope, ProcessEnvironment.CLASS_NAME);
-        env.initialize(runner.getScriptObject().getEnvironment());
         exports.setEnv(env);
         return exports;
     }
 
+    @Override
+    public void attachExports(Context cx, Scriptable exports, NodeRuntime runner)
+    {
+        ((ProcessImpl)exports).attach(runner, runner.getScriptObject().getEnvironment());
+    }
+
     public static class ProcessImpl
         extends AbstractProcess
     {
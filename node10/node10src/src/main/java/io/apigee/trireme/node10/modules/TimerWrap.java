@@ -160,7 +160,7 @@ public class TimerWrap
                 log.debug("Cancelling timer {}", System.identityHashCode(this));
             }
             if (activity != null) {
-                activity.setCancelled(true);
+                getRunner().cancelTimer(activity);
             }
         }
 
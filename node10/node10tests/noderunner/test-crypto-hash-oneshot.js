@@ -0,0 +1,54 @@
+var common = require('../common');
+var assert = require('assert');
+var crypto = require('crypto');
+
+function longHash(algo, data, enc) {
+  var h = crypto.createHash(algo);
+  h.update(data, Buffer.isBuffer(data) ? undefined : 'utf8');
+  return h.digest(enc);
+}
+
+['md5', 'sha1', 'sha256', 'sha512'].forEach(function(algo) {
+  ['', 'Hello, World!', 'café üñîçødé'].forEach(function(s) {
+    assert.equal(crypto.hash(algo, s), longHash(algo, s, 'hex'));
+    assert.equal(crypto.hash(algo, s, 'base64'), longHash(algo, s, 'base64'));
+  });
+
+  var buf = new Buffer(1000);
+  buf.fill(7);
+  assert.equal(crypto.hash(algo, buf), longHash(algo, buf, 'hex'));
+  assert.deepEqual(crypto.hash(algo, buf.slice(10, 20), 'buffer'),
+                   longHash(algo, buf.slice(10, 20), 'buffer'));
+});
+
+// Known answer
+assert.equal(crypto.hash('sha1', 'abc'), 'a9993e364706816aba3e25717850c26c9cd0d89d');
+
+// Many hashes in a row must not share state
+for (var i = 0; i < 100; i++) {
+  assert.equal(crypto.hash('md5', 'abc'), '900150983cd24fb0d6963f7d28e17f72');
+  var h = crypto.createHmac('sha256', 'key');
+  h.update('The quick brown fox jumps over the lazy dog');
+  assert.equal(h.digest('hex'), 'f7bc83f430538424b13298e6aa6fb143ef4d59a14946175997479dbc2d1a3cd8');
+}
+
+assert.throws(function() {
+  crypto.hash('nosuchalgorithm', 'abc');
+}, /Digest method not supported/);
+
+assert.throws(function() {
+  crypto.hash('sha1', 123);
+}, TypeError);
+
+// PBKDF2 with a callback runs off of the script thread and still calls back
+var called = false;
+crypto.pbkdf2('password', 'salt', 1, 20, function(err, key) {
+  assert.ifError(err);
+  assert.equal(key.toString('hex'), '0c60c80f961f0e71f3a9b524af6012062fe037a6');
+  called = true;
+});
+assert(!called);
+
+process.on('exit', function() {
+  assert(called);
+});
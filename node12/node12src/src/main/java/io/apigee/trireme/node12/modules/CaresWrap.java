@@ -128,7 +128,8 @@ public class CaresWrap
         public void init(NodeRuntime runtime)
         {
             this.runtime = (ScriptRunner)runtime;
-            this.resolver = new DNSResolver(runtime);
+            // Answers are shared with the other scripts in the environment
+            this.resolver = new DNSResolver(runtime, this.runtime.getEnvironment().getDNSCache());
 
             // dns.java expects to look up un-bound (no this) functions as members and call them for each type of
             // lookup. We handle this here using a customized Function class in Rhino.
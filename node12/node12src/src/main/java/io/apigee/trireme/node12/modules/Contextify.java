@@ -206,7 +206,8 @@ public class Contextify
 
             Script compiled;
             try {
-                compiled = ScriptUtils.tryCompile(cx, code, options.fileName);
+                // Module wrappers and templates compile the same code over and over, so share the class
+                compiled = ScriptUtils.getCompiledNamedScript(cx, runtime.getEnvironment(), code, options.fileName);
             } catch (Throwable t) {
                 if (options.displayErrors) {
                     String msg = t.toString() + '\n';
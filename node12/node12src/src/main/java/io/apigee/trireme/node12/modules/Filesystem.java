@@ -36,6 +36,7 @@ import io.apigee.trireme.kernel.ErrorCodes;
 import io.apigee.trireme.kernel.OSException;
 import io.apigee.trireme.kernel.fs.BasicFilesystem;
 import io.apigee.trireme.kernel.fs.FileStats;
+import io.apigee.trireme.kernel.handles.IOCompletionHandler;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.Function;
 import org.mozilla.javascript.Scriptable;
@@ -87,11 +88,15 @@ public class Filesystem
     {
         public static final String CLASS_NAME = "_fsClassNode12";
 
+        /** This is "kMaxLength" in fs.js. Bigger files get the usual error from "readFile." */
+        private static final long MAX_BUFFER_LENGTH = 0x3fffffffL;
+
         private static final IdPropertyMap props;
 
         protected ScriptRunner runner;
         protected Executor pool;
         private BasicFilesystem fs;
+        private boolean asyncIO;
         private Function makeStats;
 
         private static final int
@@ -121,6 +126,7 @@ public class Filesystem
             Id_writeBuffer = 25,
             Id_writeString = 26,
             Id_fsInitialize = 27,
+            Id_readWholeFile = 28,
             Id_fsReqWrap = 1;
 
         static {
@@ -151,6 +157,7 @@ public class Filesystem
             props.addMethod("rmdir", Id_rmdir, 2);
             props.addMethod("ftruncate", Id_ftruncate, 3);
             props.addMethod("FSInitialize", Id_fsInitialize, 1);
+            props.addMethod("readWholeFile", Id_readWholeFile, 2);
         }
 
         public FSImpl()
@@ -169,6 +176,7 @@ public class Filesystem
             this.runner = (ScriptRunner)runner;
             this.pool = fsPool;
             this.fs = this.runner.getFilesystem();
+            this.asyncIO = this.runner.getEnvironment().isAsyncFileIO();
         }
 
         @Override
@@ -211,18 +219,11 @@ public class Filesystem
                         }
                         runner.enqueueCallback(onComplete, onComplete, req, domain, args);
 
-                    } catch (final OSException e) {
+                    } catch (OSException e) {
                         if (log.isDebugEnabled()) {
                             log.debug("Async action {} failed: {}: {}", action, e.getCode(), e);
                         }
-                        runner.enqueueTask(new ScriptTask() {
-                            @Override
-                            public void execute(Context cx, Scriptable scope)
-                            {
-                                onComplete.call(cx, onComplete, req,
-                                                new Object[] { Utils.makeErrorObject(cx, req, e) });
-                            }
-                        }, domain);
+                        enqueueError(req, onComplete, domain, e);
                     } finally {
                         runner.unPin();
                     }
@@ -231,6 +232,72 @@ public class Filesystem
             return Undefined.instance;
         }
 
+        /**
+         * Start an async read or write that calls back when the I/O is done, rather than blocking a thread
+         * from the async pool while it waits. Return false if the filesystem can't do that for this file,
+         * in which case the caller should use "runAction" instead.
+         */
+        private boolean startIO(final FSReqWrap req, final int fd, ByteBuffer buf, long pos,
+                                final boolean isRead)
+        {
+            if (!asyncIO) {
+                return false;
+            }
+
+            final Object domain = runner.getDomain();
+            final Function onComplete = req.getOnComplete();
+            IOCompletionHandler<Integer> handler = new IOCompletionHandler<Integer>() {
+                @Override
+                public void ioComplete(int errCode, Integer count)
+                {
+                    try {
+                        if (errCode == 0) {
+                            if (isRead) {
+                                try {
+                                    fs.updatePosition(fd, count);
+                                } catch (OSException ignore) {
+                                    // Closed during the read -- the caller still gets its data
+                                }
+                            }
+                            runner.enqueueCallback(onComplete, onComplete, req, domain,
+                                                   new Object[] { Undefined.instance, count });
+                        } else {
+                            enqueueError(req, onComplete, domain, new OSException(errCode));
+                        }
+                    } finally {
+                        runner.unPin();
+                    }
+                }
+            };
+
+            runner.pin();
+            boolean started;
+            try {
+                started = (isRead ? fs.readAsync(fd, buf, pos, handler) : fs.writeAsync(fd, buf, pos, handler));
+            } catch (OSException e) {
+                enqueueError(req, onComplete, domain, e);
+                runner.unPin();
+                return true;
+            }
+            if (!started) {
+                runner.unPin();
+            }
+            return started;
+        }
+
+        private void enqueueError(final FSReqWrap req, final Function onComplete, Object domain,
+                                  final OSException e)
+        {
+            runner.enqueueTask(new ScriptTask() {
+                @Override
+                public void execute(Context cx, Scriptable scope)
+                {
+                    onComplete.call(cx, onComplete, req,
+                                    new Object[] { Utils.makeErrorObject(cx, req, e) });
+                }
+            }, domain);
+        }
+
         private File translatePath(String path)
             throws OSException
         {
@@ -309,6 +376,8 @@ public class Filesystem
                 return readlink(cx, args);
             case Id_fsInitialize:
                 return fsInitialize(args);
+            case Id_readWholeFile:
+                return readWholeFile(cx, args);
             default:
                 return super.prototypeCall(id, cx, scope, args);
             }
@@ -388,6 +457,10 @@ public class Filesystem
             }
             final long readPos = pos;
 
+            if ((req != null) && startIO(req, fd, readBuf, readPos, true)) {
+                return Undefined.instance;
+            }
+
             return runAction(cx, req, new AsyncAction()
             {
                 @Override
@@ -425,6 +498,10 @@ public class Filesystem
             }
             final long writePos = pos;
 
+            if ((req != null) && startIO(req, fd, writeBuf, writePos, false)) {
+                return Undefined.instance;
+            }
+
             return runAction(cx, req, new AsyncAction()
             {
                 @Override
@@ -494,6 +571,124 @@ public class Filesystem
             });
         }
 
+        /**
+         * Read a whole file in one step and return a Buffer. If it doesn't exist, then fail just like "open"
+         * would. If it's not a regular file, or if anything else goes wrong, return null, and "readFile" will do
+         * it the usual way and report the error properly.
+         */
+        private Object readWholeFile(Context cx, Object[] args)
+        {
+            final String pathStr = stringArg(args, 0);
+            final FSReqWrap req = objArg(args, 1, FSReqWrap.class, false);
+
+            if (req == null) {
+                try {
+                    byte[] data = readFileData(pathStr);
+                    return (data == null ? null : Buffer.BufferImpl.newBuffer(cx, this, data));
+                } catch (OSException e) {
+                    throw Utils.makeError(cx, this, e);
+                }
+            }
+
+            final Object domain = runner.getDomain();
+            final Function onComplete = req.getOnComplete();
+            if (startReadWholeFile(req, pathStr, domain, onComplete)) {
+                return Undefined.instance;
+            }
+
+            // Big files are copied from a mapping, which blocks, so it has to happen on the pool
+            runner.pin();
+            pool.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        byte[] data;
+                        try {
+                            data = readFileData(pathStr);
+                        } catch (OSException e) {
+                            enqueueError(req, onComplete, domain, e);
+                            return;
+                        }
+                        enqueueWholeFile(req, onComplete, domain, data);
+                    } finally {
+                        runner.unPin();
+                    }
+                }
+            });
+            return Undefined.instance;
+        }
+
+        /**
+         * Read a small file using an asynchronous channel that delivers it straight to the script. Return false
+         * if the filesystem can't do that for this file, in which case the caller should use the async pool.
+         */
+        private boolean startReadWholeFile(final FSReqWrap req, String pathStr, final Object domain,
+                                           final Function onComplete)
+        {
+            if (!asyncIO) {
+                return false;
+            }
+
+            IOCompletionHandler<byte[]> handler = new IOCompletionHandler<byte[]>() {
+                @Override
+                public void ioComplete(int errCode, byte[] data)
+                {
+                    try {
+                        // On an error, "readFile" does it the usual way and reports the error properly
+                        enqueueWholeFile(req, onComplete, domain, (errCode == 0 ? data : null));
+                    } finally {
+                        runner.unPin();
+                    }
+                }
+            };
+
+            runner.pin();
+            boolean started;
+            try {
+                started = fs.readWholeFileAsync(translatePath(pathStr), pathStr, MAX_BUFFER_LENGTH, handler);
+            } catch (OSException e) {
+                enqueueError(req, onComplete, domain, e);
+                runner.unPin();
+                return true;
+            }
+            if (!started) {
+                runner.unPin();
+            }
+            return started;
+        }
+
+        private void enqueueWholeFile(final FSReqWrap req, final Function onComplete, Object domain,
+                                      final byte[] data)
+        {
+            runner.enqueueTask(new ScriptTask() {
+                @Override
+                public void execute(Context cx, Scriptable scope)
+                {
+                    Object result = (data == null ? null : Buffer.BufferImpl.newBuffer(cx, req, data));
+                    onComplete.call(cx, onComplete, req, new Object[] { Undefined.instance, result });
+                }
+            }, domain);
+        }
+
+        private byte[] readFileData(String pathStr)
+            throws OSException
+        {
+            try {
+                return fs.readWholeFile(translatePath(pathStr), pathStr, MAX_BUFFER_LENGTH);
+            } catch (OSException e) {
+                if (e.getCode() == ErrorCodes.ENOENT) {
+                    // This is common enough that it's worth not opening the file again just to find out
+                    throw e;
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("Can't read {} in one step: {}", pathStr, e);
+                }
+                return null;
+            }
+        }
+
         private Object rename(Context cx, Object[] args)
         {
             final String oldPath = stringArg(args, 0);
@@ -26,6 +26,7 @@ import io.apigee.trireme.core.InternalNodeModule;
 import io.apigee.trireme.core.Utils;
 import io.apigee.trireme.core.internal.AbstractIdObject;
 import io.apigee.trireme.core.internal.IdPropertyMap;
+import io.apigee.trireme.core.internal.ScriptRunner;
 import io.apigee.trireme.core.modules.Buffer;
 import io.apigee.trireme.kernel.Charsets;
 import io.apigee.trireme.core.internal.NodeOSException;
@@ -143,14 +144,16 @@ public class HTTPParser
         {
             int type = intArg(args, 0);
             ParserImpl impl = new ParserImpl();
-            impl.parser = makeParser(type);
+            impl.parser = makeParser(cx, type);
             return impl;
         }
 
-        private HTTPParsingMachine makeParser(int type)
+        private static HTTPParsingMachine makeParser(Context cx, int type)
         {
+            ScriptRunner runner = (ScriptRunner)cx.getThreadLocal(ScriptRunner.RUNNER);
             return new HTTPParsingMachine(
-                (type == REQUEST) ? HTTPParsingMachine.ParsingMode.REQUEST : HTTPParsingMachine.ParsingMode.RESPONSE);
+                (type == REQUEST) ? HTTPParsingMachine.ParsingMode.REQUEST : HTTPParsingMachine.ParsingMode.RESPONSE,
+                runner.getEnvironment().getHttpScanMode());
         }
 
         @Override
@@ -238,7 +241,7 @@ public class HTTPParser
             case Id_finish:
                 return finish(cx);
             case Id_reinitialize:
-                reinitialize(args);
+                reinitialize(cx, args);
                 break;
             default:
                 return super.prototypeCall(id, cx, scope, args);
@@ -246,11 +249,11 @@ public class HTTPParser
             return Undefined.instance;
         }
 
-        private void reinitialize(Object[] args)
+        private void reinitialize(Context cx, Object[] args)
         {
             int type = intArg(args, 0);
             log.debug("HTTP parser: reinit");
-            parser = makeParser(type);
+            parser = makeParser(cx, type);
             sentPartialHeaders = false;
             sentCompleteHeaders = false;
         }
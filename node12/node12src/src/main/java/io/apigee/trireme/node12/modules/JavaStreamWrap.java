@@ -23,6 +23,7 @@ package io.apigee.trireme.node12.modules;
 
 import io.apigee.trireme.core.InternalNodeModule;
 import io.apigee.trireme.core.NodeRuntime;
+import io.apigee.trireme.core.ScriptTask;
 import io.apigee.trireme.core.internal.AbstractIdObject;
 import io.apigee.trireme.core.internal.IdPropertyMap;
 import io.apigee.trireme.kernel.Charsets;
@@ -94,13 +95,14 @@ public class JavaStreamWrap
             Id_unref = 10,
             Id_writeBinaryString = 11,
             Id_setBlocking = 12,
+            Id_writev = 13,
 
             Id_bytes = 1,
             Id_writeQueueSize = 2,
             Id_onRead = 3;
 
         protected static final int
-            MAX_METHOD = Id_setBlocking,
+            MAX_METHOD = Id_writev,
             MAX_PROPERTY = Id_onRead;
 
         static {
@@ -128,6 +130,7 @@ public class JavaStreamWrap
             p.addMethod("ref", Id_ref, 0);
             p.addMethod("unref", Id_unref, 0);
             p.addMethod("setBlocking", Id_setBlocking, 1);
+            p.addMethod("writev", Id_writev, 2);
 
             p.addProperty("bytes", Id_bytes, ScriptableObject.READONLY);
             p.addProperty("writeQueueSize", Id_writeQueueSize, ScriptableObject.READONLY);
@@ -235,6 +238,9 @@ public class JavaStreamWrap
             case Id_writeBinaryString:
                 writeString(args, Charsets.NODE_BINARY);
                 break;
+            case Id_writev:
+                writev(args);
+                break;
             case Id_close:
                 close(args);
                 break;
@@ -331,6 +337,67 @@ public class JavaStreamWrap
             updateByteCount(req, len);
         }
 
+        /**
+         * Write a whole array of chunks, alternating with their encodings, as one request. The handle is
+         * corked while we do it so that the chunks go out together.
+         */
+        private void writev(Object[] args)
+        {
+            final StreamWrap.WriteWrap req = objArg(args, 0, StreamWrap.WriteWrap.class, true);
+            Scriptable chunks = objArg(args, 1, Scriptable.class, true);
+            final int count = (int)Context.toNumber(ScriptableObject.getProperty(chunks, "length")) / 2;
+
+            if (count == 0) {
+                // No chunk will ever complete, so complete the request ourselves once net.js has set it up
+                updateByteCount(req, 0);
+                runtime.enqueueTask(new ScriptTask()
+                {
+                    @Override
+                    public void execute(Context cx, Scriptable scope)
+                    {
+                        req.callOnComplete(cx, StreamWrapImpl.this, StreamWrapImpl.this, 0);
+                    }
+                }, runtime.getDomain());
+                return;
+            }
+
+            IOCompletionHandler<Integer> onComplete = new IOCompletionHandler<Integer>()
+            {
+                private int remaining = count;
+                private boolean done;
+
+                @Override
+                public void ioComplete(int errCode, Integer value)
+                {
+                    remaining--;
+                    if (!done && ((errCode != 0) || (remaining == 0))) {
+                        done = true;
+                        req.callOnComplete(Context.getCurrentContext(), StreamWrapImpl.this,
+                                           StreamWrapImpl.this, errCode);
+                    }
+                }
+            };
+
+            int len = 0;
+            handle.cork();
+            try {
+                for (int i = 0; i < count; i++) {
+                    Object chunk = chunks.get(i * 2, chunks);
+                    if (chunk instanceof Buffer.BufferImpl) {
+                        len += handle.write(((Buffer.BufferImpl)chunk).getBuffer(), onComplete);
+                    } else {
+                        String enc = Context.toString(chunks.get(i * 2 + 1, chunks));
+                        Charset cs = Charsets.get().getCharset(enc);
+                        len += handle.write(Context.toString(chunk), (cs == null ? Charsets.UTF8 : cs),
+                                            onComplete);
+                    }
+                }
+            } finally {
+                handle.uncork();
+            }
+            updateByteCount(req, len);
+        }
+
         private void updateByteCount(StreamWrap.WriteWrap req, int len)
         {
             req.setBytes(len);
@@ -29,6 +29,7 @@ import io.apigee.trireme.core.internal.IdPropertyMap;
 import io.apigee.trireme.core.internal.ScriptRunner;
 import io.apigee.trireme.core.internal.TriremeProcess;
 import io.apigee.trireme.kernel.Charsets;
+import io.apigee.trireme.kernel.OSException;
 import io.apigee.trireme.kernel.TriCallback;
 import io.apigee.trireme.kernel.handles.ChildServerHandle;
 import io.apigee.trireme.kernel.handles.IpcHandle;
@@ -198,14 +199,18 @@ public class PipeWrap
 
         private TCPWrap.TCPImpl convertTcpHandle(TCPWrap.TCPImpl tcp)
         {
-            // For a server, we will create a new handle here, but since the client is already listening,
-            // we don't have to actually do anything to id.
+            // For a server, the child gets a handle that accepts from the same channel in its own thread.
+            // For a connection, the socket moves over to this script's event loop.
             NIOSocketHandle sockHandle = (NIOSocketHandle)tcp.getHandle();
             SocketHandle childSockHandle;
             if (sockHandle.isServerChannel()) {
                 childSockHandle = new ChildServerHandle(sockHandle, runtime);
             } else {
-                childSockHandle = sockHandle;
+                try {
+                    childSockHandle = sockHandle.transfer(runtime);
+                } catch (OSException ose) {
+                    throw Utils.makeError(Context.getCurrentContext(), this, ose);
+                }
             }
 
             TCPWrap.TCPImpl newHandle =
@@ -161,6 +161,7 @@ public class TLSWrapStream
 
         SSLContext tlsCtx = ctx.makeContext(cx, this);
         tls.init(tlsCtx, ctx.getCiphers(), ctx.getTrustManager());
+        tls.setHandshakeTimingCallback(runtime.getEnvironment().getTLSCache().getHandshakeRecorder());
 
         SocketHandle handle = (SocketHandle)stream.getHandle();
         TLSHandle newHandle = new TLSHandle(handle, tls);
@@ -302,9 +303,10 @@ public class TLSWrapStream
             // Not sure what if anything to do
             break;
 
-        // Not implemented or won't be implemented:
         case Id_isSessionReused:
-            return false;
+            return tls.isSessionReused();
+
+        // Not implemented or won't be implemented:
         case Id_enableSessionCallbacks:
         case Id_enableHelloParser:
         case Id_getSession:
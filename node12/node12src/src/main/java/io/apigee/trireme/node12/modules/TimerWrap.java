@@ -262,7 +262,7 @@ public class TimerWrap
                 log.debug("Cancelling timer {}", System.identityHashCode(this));
             }
             if (activity != null) {
-                activity.setCancelled(true);
+                runtime.cancelTimer(activity);
             }
         }
 
@@ -34,6 +34,9 @@ import io.apigee.trireme.kernel.OSException;
 import io.apigee.trireme.kernel.zip.AdvancedCompressor;
 import io.apigee.trireme.kernel.zip.Compressor;
 import io.apigee.trireme.kernel.zip.Decompressor;
+import io.apigee.trireme.kernel.zip.DirectCompressor;
+import io.apigee.trireme.kernel.zip.DirectDecompressor;
+import io.apigee.trireme.kernel.zip.ZlibPool;
 import io.apigee.trireme.kernel.zip.ZlibWriter;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.Function;
@@ -139,6 +142,12 @@ public class ZlibWrap
     {
         public static final String CLASS_NAME = "Zlib";
 
+        /**
+         * Writes of less than this much input are done on the script thread. Handing them to the async pool
+         * costs more than compressing them.
+         */
+        public static final int MAX_INLINE_WRITE = 16 * 1024;
+
         private static final IdPropertyMap props = new IdPropertyMap(CLASS_NAME);
 
         private static final int
@@ -165,6 +174,9 @@ public class ZlibWrap
         /** Callback: (message, errno) */
         private Function onError;
         private ZlibWriter writer;
+        private boolean writing;
+        private boolean pendingClose;
+        private boolean closed;
 
         @Override
         protected ZlibImpl defaultConstructor(Context cx, Object[] args)
@@ -252,22 +264,31 @@ public class ZlibWrap
             ByteBuffer dictBuf =
                 (dictionary == null ? null : dictionary.getBuffer());
 
+            // Deflaters and Inflaters are shared by all the scripts in the environment
+            ZlibPool pool = runtime.getEnvironment().getZlibPool();
+
             try {
                 switch (mode) {
                 case ZlibWriter.DEFLATE:
                 case ZlibWriter.DEFLATERAW:
                 case ZlibWriter.GZIP:
-                    if (JavaVersion.get().hasFlushFlags()) {
-                        writer = new AdvancedCompressor(mode, level, strategy, dictBuf);
+                    if (JavaVersion.get().hasBufferZip()) {
+                        writer = new DirectCompressor(mode, level, strategy, dictBuf, pool);
+                    } else if (JavaVersion.get().hasFlushFlags()) {
+                        writer = new AdvancedCompressor(mode, level, strategy, dictBuf, pool);
                     } else {
-                        writer = new Compressor(mode, level, strategy, dictBuf);
+                        writer = new Compressor(mode, level, strategy, dictBuf, pool);
                     }
                     break;
                 case ZlibWriter.INFLATE:
                 case ZlibWriter.INFLATERAW:
                 case ZlibWriter.GUNZIP:
                 case ZlibWriter.UNZIP:
-                    writer = new Decompressor(mode, dictBuf);
+                    if (JavaVersion.get().hasBufferZip()) {
+                        writer = new DirectDecompressor(mode, dictBuf, pool);
+                    } else {
+                        writer = new Decompressor(mode, dictBuf, pool);
+                    }
                     break;
                 default:
                     throw Utils.makeError(cx, this, "Invalid compression mode " + mode);
@@ -292,7 +313,23 @@ public class ZlibWrap
 
         private void close()
         {
-            writer.close();
+            if (writing) {
+                // The writer may be in use by another thread, so it can't go back to the pool until it's done
+                pendingClose = true;
+            } else {
+                doClose();
+            }
+        }
+
+        private void doClose()
+        {
+            pendingClose = false;
+            if (!closed) {
+                closed = true;
+                if (writer != null) {
+                    writer.close();
+                }
+            }
         }
 
         private Scriptable write(Context cx, boolean async, Object[] args)
@@ -305,6 +342,10 @@ public class ZlibWrap
             int outOff = intArg(args, 5);
             int outLen = intArg(args, 6);
 
+            if (closed) {
+                throw Utils.makeError(cx, this, "zlib binding closed");
+            }
+
             // Not all flags supported in Java
             final int flushFlag =
                 ((ff == Z_PARTIAL_FLUSH) || (ff == Z_BLOCK) ? Deflater.NO_FLUSH : ff);
@@ -331,15 +372,21 @@ public class ZlibWrap
                 // In async mode, "write" expects an object that it can stick stuff on
                 final Scriptable writeResponse = cx.newObject(this);
 
-                // They said async, so we might as well run this in the thread pool and use more cores
                 runtime.pin();
-                runtime.getAsyncPool().submit(new Runnable() {
-                    @Override
-                    public void run()
-                    {
-                        writeAsync(flushFlag, writeResponse, inBuf, outBuf);
-                    }
-                });
+                writing = true;
+                if ((inBuf == null) || (inBuf.remaining() < MAX_INLINE_WRITE)) {
+                    // Small writes and flushes are quicker here, and the callback still runs later
+                    writeAsync(flushFlag, writeResponse, inBuf, outBuf);
+                } else {
+                    // They said async, so we might as well run this in the thread pool and use more cores
+                    runtime.getAsyncPool().submit(new Runnable() {
+                        @Override
+                        public void run()
+                        {
+                            writeAsync(flushFlag, writeResponse, inBuf, outBuf);
+                        }
+                    });
+                }
                 return writeResponse;
 
             } else {
@@ -402,6 +449,7 @@ public class ZlibWrap
                 onError.call(cx, onError, this,
                              new Object[] { err.toString(), Z_DATA_ERROR });
             }
+            writing = false;
             // Once we get here, a callback should be set on the "response"
             Function cb = (Function)response.get("callback", response);
             if (cb != null) {
@@ -415,6 +463,10 @@ public class ZlibWrap
                     outBuf.remaining()
                 });
             }
+            // Like Node, finish a "close" that came in during the write, unless the callback wrote again
+            if (pendingClose && !writing) {
+                doClose();
+            }
             runtime.unPin();
         }
     }
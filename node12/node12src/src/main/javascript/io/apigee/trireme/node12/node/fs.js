@@ -237,6 +237,10 @@ fs.existsSync = function(path) {
   }
 };
 
+function canReadWhole(path, flag) {
+  return (flag === 'r') && util.isString(path) && (path.indexOf('\u0000') === -1);
+}
+
 fs.readFile = function(path, options, callback_) {
   var callback = maybeCallback(arguments[arguments.length - 1]);
 
@@ -259,36 +263,54 @@ fs.readFile = function(path, options, callback_) {
   var fd;
 
   var flag = options.flag || 'r';
-  fs.open(path, flag, 438 /*=0666*/, function(er, fd_) {
-    if (er) return callback(er);
-    fd = fd_;
 
-    fs.fstat(fd, function(er, st) {
-      if (er) {
-        return fs.close(fd, function() {
-          callback(er);
-        });
-      }
+  // Trireme: regular files are read in one step, without separate open, stat and close calls.
+  // If that can't be done, the binding returns nothing and we do it the usual way.
+  if (canReadWhole(path, flag)) {
+    var req = new FSReqWrap();
+    req.oncomplete = function(er, buf) {
+      if (er) return callback(er);
+      if (!buf) return readWithFd();
+      if (encoding) buf = buf.toString(encoding);
+      callback(null, buf);
+    };
+    binding.readWholeFile(pathModule._makeLong(path), req);
+    return;
+  }
+  readWithFd();
 
-      size = st.size;
-      if (size === 0) {
-        // the kernel lies about many files.
-        // Go ahead and try to read some bytes.
-        buffers = [];
-        return read();
-      }
+  function readWithFd() {
+    fs.open(path, flag, 438 /*=0666*/, function(er, fd_) {
+      if (er) return callback(er);
+      fd = fd_;
 
-      if (size > kMaxLength) {
-        var err = new RangeError('File size is greater than possible Buffer: ' +
-            '0x3FFFFFFF bytes');
-        return fs.close(fd, function() {
-          callback(err);
-        });
-      }
-      buffer = new Buffer(size);
-      read();
+      fs.fstat(fd, function(er, st) {
+        if (er) {
+          return fs.close(fd, function() {
+            callback(er);
+          });
+        }
+
+        size = st.size;
+        if (size === 0) {
+          // the kernel lies about many files.
+          // Go ahead and try to read some bytes.
+          buffers = [];
+          return read();
+        }
+
+        if (size > kMaxLength) {
+          var err = new RangeError('File size is greater than possible Buffer: ' +
+              '0x3FFFFFFF bytes');
+          return fs.close(fd, function() {
+            callback(err);
+          });
+        }
+        buffer = new Buffer(size);
+        read();
+      });
     });
-  });
+  }
 
   function read() {
     if (size === 0) {
@@ -349,6 +371,16 @@ fs.readFileSync = function(path, options) {
   assertEncoding(encoding);
 
   var flag = options.flag || 'r';
+
+  // Trireme: see "readFile"
+  if (canReadWhole(path, flag)) {
+    var whole = binding.readWholeFile(pathModule._makeLong(path));
+    if (whole) {
+      if (encoding) whole = whole.toString(encoding);
+      return whole;
+    }
+  }
+
   var fd = fs.openSync(path, flag, 438 /*=0666*/);
 
   var size;
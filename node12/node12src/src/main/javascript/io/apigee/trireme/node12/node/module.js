@@ -26,6 +26,24 @@ var runInNewContext = require('vm').runInNewContext;
 var assert = require('assert').ok;
 var fs = require('fs');
 
+// Trireme: When the environment has a module cache, it is shared by every script, so that scripts
+// that load the same modules don't all stat every candidate file and read every module again.
+var moduleCache = process.binding('trireme-module-loader');
+if (!moduleCache.cacheEnabled) {
+  moduleCache = null;
+}
+
+// Read a module the same way as fs.readFileSync(filename, 'utf8'), using the cache if possible.
+function readSource(filename) {
+  if (moduleCache) {
+    var content = moduleCache.readSource(filename);
+    if (typeof content === 'string') {
+      return content;
+    }
+  }
+  return fs.readFileSync(filename, 'utf8');
+}
+
 
 // If obj.hasOwnProperty has been overridden, then calling
 // obj.hasOwnProperty(prop) will break.
@@ -98,7 +116,10 @@ function readPackage(requestPath) {
 
   try {
     var jsonPath = path.resolve(requestPath, 'package.json');
-    var json = fs.readFileSync(jsonPath, 'utf8');
+    if (moduleCache && (moduleCache.statKind(jsonPath) !== 1)) {
+      return false;
+    }
+    var json = readSource(jsonPath);
   } catch (e) {
     return false;
   }
@@ -130,6 +151,13 @@ Module._realpathCache = {};
 
 // check if the file exists and is not a directory
 function tryFile(requestPath) {
+  if (moduleCache) {
+    // Trireme: The cache knows whether the file exists without calling stat
+    if (moduleCache.statKind(requestPath) === 1) {
+      return fs.realpathSync(requestPath, Module._realpathCache);
+    }
+    return false;
+  }
   var stats = statPath(requestPath);
   if (stats && !stats.isDirectory()) {
     return fs.realpathSync(requestPath, Module._realpathCache);
@@ -474,14 +502,14 @@ function stripBOM(content) {
 
 // Native extension for .js
 Module._extensions['.js'] = function(module, filename) {
-  var content = fs.readFileSync(filename, 'utf8');
+  var content = readSource(filename);
   module._compile(stripBOM(content), filename);
 };
 
 
 // Native extension for .json
 Module._extensions['.json'] = function(module, filename) {
-  var content = fs.readFileSync(filename, 'utf8');
+  var content = readSource(filename);
   try {
     module.exports = JSON.parse(stripBOM(content));
   } catch (err) {
@@ -235,6 +235,15 @@ Hash.prototype.digest = function(outputEncoding) {
 };
 
 
+// Trireme: hash a string or buffer in one call, without creating a Hash object.
+// As in later versions of Node, strings are hashed as UTF-8 and the default output is hex.
+exports.hash = function(algorithm, data, outputEncoding) {
+  if (typeof data !== 'string' && !Buffer.isBuffer(data))
+    throw new TypeError('data must be a string or a buffer');
+  return binding.hash(algorithm, data, 'utf8', outputEncoding || 'hex');
+};
+
+
 exports.createHmac = exports.Hmac = Hmac;
 
 function Hmac(hmac, key, options) {
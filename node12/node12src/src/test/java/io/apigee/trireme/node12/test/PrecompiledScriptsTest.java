@@ -0,0 +1,178 @@
+package io.apigee.trireme.node12.test;
+
+import io.apigee.trireme.core.NodeEnvironment;
+import io.apigee.trireme.core.NodeException;
+import io.apigee.trireme.core.NodeScript;
+import io.apigee.trireme.core.internal.PrecompiledScripts;
+import io.apigee.trireme.core.internal.ScriptUtils;
+import io.apigee.trireme.core.modules.NativeModule;
+import io.apigee.trireme.kernel.Charsets;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.javascript.CompilerEnvirons;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.optimizer.ClassCompiler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import static org.junit.Assert.*;
+
+/**
+ * Make sure that "require" runs scripts from a jar of precompiled scripts, but only when they were
+ * compiled with the same settings that the environment runs scripts with.
+ */
+public class PrecompiledScriptsTest
+{
+    private static final File APP_DIR = new File("./target/precompiled");
+
+    // The module on disk. The precompiled class is named after this, but compiled from something else,
+    // so that we can tell which one "require" ran.
+    private static final String SOURCE = "module.exports = 'source';";
+    private static final String PRECOMPILED = "module.exports = 'precompiled';";
+
+    // Exits with 0 if the precompiled class ran, and with 1 if the source was compiled instead
+    private static final String MAIN =
+        "var m = require('./mod.js');\n" +
+        "process.exit(m === 'precompiled' ? 0 : (m === 'source' ? 1 : 2));";
+
+    private NodeEnvironment env;
+    private File jar;
+
+    @Before
+    public void createEnvironment()
+        throws IOException
+    {
+        writeFile(new File(APP_DIR, "mod.js"), SOURCE);
+        writeFile(new File(APP_DIR, "main.js"), MAIN);
+        jar = new File(APP_DIR, "precompiled.jar");
+        env = new NodeEnvironment();
+        env.setDefaultNodeVersion(BasicTest.NODE_VERSION);
+    }
+
+    @After
+    public void cleanEnvironment()
+    {
+        env.close();
+        jar.delete();
+    }
+
+    @Test
+    public void testRequirePrecompiled()
+        throws IOException, NodeException, InterruptedException, ExecutionException
+    {
+        writeJar(jar, NodeEnvironment.DEFAULT_OPT_LEVEL, false, true);
+        env.addPrecompiledScripts(jar);
+        assertEquals(0, run());
+    }
+
+    @Test
+    public void testTimeLimitIgnoresUncountedScripts()
+        throws IOException, NodeException, InterruptedException, ExecutionException
+    {
+        // Built without instruction counting, so it would never time out
+        writeJar(jar, NodeEnvironment.DEFAULT_OPT_LEVEL, false, true);
+        env.addPrecompiledScripts(jar);
+        env.setScriptTimeLimit(10, TimeUnit.SECONDS);
+        assertEquals(1, run());
+    }
+
+    @Test
+    public void testTimeLimitUsesCountedScripts()
+        throws IOException, NodeException, InterruptedException, ExecutionException
+    {
+        writeJar(jar, NodeEnvironment.DEFAULT_OPT_LEVEL, true, true);
+        env.addPrecompiledScripts(jar);
+        env.setScriptTimeLimit(10, TimeUnit.SECONDS);
+        assertEquals(0, run());
+    }
+
+    @Test
+    public void testOptLevelMismatch()
+        throws IOException, NodeException, InterruptedException, ExecutionException
+    {
+        writeJar(jar, 1, false, true);
+        env.addPrecompiledScripts(jar);
+        assertEquals(1, run());
+    }
+
+    @Test
+    public void testNoSettings()
+        throws IOException
+    {
+        writeJar(jar, NodeEnvironment.DEFAULT_OPT_LEVEL, false, false);
+        try {
+            env.addPrecompiledScripts(jar);
+            fail("Expected a jar without compiler settings to be rejected");
+        } catch (IOException expected) {
+        }
+        assertTrue(env.getPrecompiledScripts().isEmpty());
+    }
+
+    private int run()
+        throws NodeException, InterruptedException, ExecutionException
+    {
+        NodeScript script = env.createScript("main.js", new File(APP_DIR, "main.js"), null);
+        try {
+            return script.execute().get().getExitCode();
+        } finally {
+            script.close();
+        }
+    }
+
+    /**
+     * Write a jar the way that AppCompiler does, with one class named after the wrapped source of "mod.js."
+     */
+    private static void writeJar(File jarFile, int optLevel, boolean counting, boolean withSettings)
+        throws IOException
+    {
+        String wrappedSource = NativeModule.NativeImpl.WRAP_PREFIX + SOURCE + NativeModule.NativeImpl.WRAP_POSTFIX;
+        String className = ScriptUtils.makeClassName(ScriptUtils.makeCacheKey(wrappedSource));
+
+        CompilerEnvirons ce = new CompilerEnvirons();
+        ce.setLanguageVersion(Context.VERSION_1_8);
+        ce.setOptimizationLevel(optLevel);
+        ce.setGenerateObserverCount(counting);
+        Object[] classes = new ClassCompiler(ce).compileToClassFiles(
+            NativeModule.NativeImpl.WRAP_PREFIX + PRECOMPILED + NativeModule.NativeImpl.WRAP_POSTFIX,
+            "mod.js", 1, className);
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        if (withSettings) {
+            manifest.getMainAttributes().putValue(PrecompiledScripts.OPT_LEVEL_ATTRIBUTE, String.valueOf(optLevel));
+            manifest.getMainAttributes().putValue(PrecompiledScripts.OBSERVER_COUNT_ATTRIBUTE,
+                                                  String.valueOf(counting));
+        }
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jarFile), manifest);
+        try {
+            for (int i = 0; (i + 1) < classes.length; i += 2) {
+                out.putNextEntry(new JarEntry(((String)classes[i]).replace('.', '/') + ".class"));
+                out.write((byte[])classes[i + 1]);
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeFile(File f, String contents)
+        throws IOException
+    {
+        f.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(f);
+        try {
+            out.write(contents.getBytes(Charsets.UTF8));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package io.apigee.trireme.node12.test;
+
+import io.apigee.trireme.core.ClassCache;
+import io.apigee.trireme.core.NodeEnvironment;
+import io.apigee.trireme.core.NodeException;
+import io.apigee.trireme.core.NodeScript;
+import io.apigee.trireme.core.ScriptStatus;
+import io.apigee.trireme.core.internal.ScriptUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mozilla.javascript.JavaScriptException;
+import org.mozilla.javascript.Script;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Make sure that "vm.Script" compiles through the environment's ClassCache.
+ */
+public class VmScriptCacheTest
+{
+    private static final String SOURCE = "x = 40 + 2;";
+
+    // Compiles the same source twice under one name and once under another, and runs them all
+    private static final String COMPILE_TWICE =
+        "var assert = require('assert');\n" +
+        "var vm = require('vm');\n" +
+        "var src = '" + SOURCE + "';\n" +
+        "[new vm.Script(src, { filename: 'same.js' }),\n" +
+        " new vm.Script(src, 'same.js'),\n" +
+        " new vm.Script(src, 'other.js')].forEach(function(s) {\n" +
+        "  var sandbox = {};\n" +
+        "  s.runInNewContext(sandbox);\n" +
+        "  assert.equal(sandbox.x, 42);\n" +
+        "});";
+
+    // Exits with 2 if the syntax error doesn't name the file, twice so that the second one goes through the cache
+    private static final String SYNTAX_ERROR =
+        "var vm = require('vm');\n" +
+        "for (var i = 0; i < 2; i++) {\n" +
+        "  try {\n" +
+        "    new vm.Script('var = ;', { filename: 'bad.js' });\n" +
+        "    process.exit(3);\n" +
+        "  } catch (e) {\n" +
+        "    if (!/bad\\.js/.test(e.message)) { process.exit(2); }\n" +
+        "  }\n" +
+        "}";
+
+    // Spins for two seconds, which is longer than the time limit in "testTimeLimitNotShared"
+    private static final String SPIN = "var end = Date.now() + 2000; while (Date.now() < end) {}";
+
+    private static final String RUN_SPIN =
+        "var vm = require('vm');\n" +
+        "new vm.Script('" + SPIN + "', 'spin.js').runInThisContext();";
+
+    private NodeEnvironment env;
+    private RecordingCache cache;
+
+    @Before
+    public void createEnvironment()
+    {
+        cache = new RecordingCache();
+        env = new NodeEnvironment();
+        env.setDefaultNodeVersion(BasicTest.NODE_VERSION);
+        env.setClassCache(cache);
+    }
+
+    @After
+    public void cleanEnvironment()
+    {
+        env.close();
+    }
+
+    private int run(String name, String source)
+        throws NodeException, InterruptedException, ExecutionException
+    {
+        NodeScript script = env.createScript(name, source, null);
+        try {
+            ScriptStatus status = script.execute().get();
+            return status.getExitCode();
+        } finally {
+            script.close();
+        }
+    }
+
+    @Test
+    public void testCacheHit()
+        throws NodeException, InterruptedException, ExecutionException
+    {
+        assertEquals(0, run("vmcache.js", COMPILE_TWICE));
+
+        String sameKey = ScriptUtils.makeCacheKey("same.js", SOURCE);
+        assertEquals(1, cache.getPutCount(sameKey));
+        assertEquals(1, cache.getHitCount(sameKey));
+
+        // Same source under a different name gets its own class, so stack traces name the right file
+        String otherKey = ScriptUtils.makeCacheKey("other.js", SOURCE);
+        assertEquals(1, cache.getPutCount(otherKey));
+        assertEquals(0, cache.getHitCount(otherKey));
+    }
+
+    @Test
+    public void testSyntaxError()
+        throws NodeException, InterruptedException, ExecutionException
+    {
+        assertEquals(0, run("vmsyntax.js", SYNTAX_ERROR));
+        assertEquals(0, cache.getPutCount(ScriptUtils.makeCacheKey("bad.js", "var = ;")));
+    }
+
+    @Test
+    public void testTimeLimitNotShared()
+        throws NodeException, InterruptedException, ExecutionException, TimeoutException
+    {
+        String spinKey = ScriptUtils.makeCacheKey("spin.js", SPIN);
+        BlockingCache slowCache = new BlockingCache(spinKey);
+        NodeEnvironment slowEnv = new NodeEnvironment();
+        slowEnv.setDefaultNodeVersion(BasicTest.NODE_VERSION);
+        slowEnv.setClassCache(slowCache);
+
+        NodeEnvironment limitedEnv = new NodeEnvironment();
+        limitedEnv.setDefaultNodeVersion(BasicTest.NODE_VERSION);
+        limitedEnv.setClassCache(cache);
+        limitedEnv.setScriptTimeLimit(500, TimeUnit.MILLISECONDS);
+
+        NodeScript slow = slowEnv.createScript("slowspin.js", RUN_SPIN, null);
+        NodeScript limited = limitedEnv.createScript("limitedspin.js", RUN_SPIN, null);
+        try {
+            // The environment without a time limit is now part way through compiling the same script
+            Future<ScriptStatus> slowResult = slow.execute();
+            assertTrue(slowCache.awaitPut());
+
+            // The other one must compile its own copy, with instruction counting, and not wait for the first
+            Future<ScriptStatus> limitedResult = limited.execute();
+            try {
+                limitedResult.get(30, TimeUnit.SECONDS);
+                fail("Expected a time out exception");
+            } catch (ExecutionException ee) {
+                assertTrue("Expected a JavaScriptException", ee.getCause() instanceof JavaScriptException);
+            }
+            assertEquals(1, cache.getPutCount(spinKey));
+
+            slowCache.release();
+            assertEquals(0, slowResult.get(30, TimeUnit.SECONDS).getExitCode());
+        } finally {
+            slowCache.release();
+            slow.close();
+            limited.close();
+            slowEnv.close();
+            limitedEnv.close();
+        }
+    }
+
+    /**
+     * A cache that holds up the thread that stores one key until it is released.
+     */
+    private static final class BlockingCache
+        extends RecordingCache
+    {
+        private final String blockKey;
+        private final CountDownLatch putStarted = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        BlockingCache(String blockKey)
+        {
+            this.blockKey = blockKey;
+        }
+
+        @Override
+        public void putCachedScript(String key, Script script)
+        {
+            if (blockKey.equals(key)) {
+                putStarted.countDown();
+                try {
+                    released.await(30, TimeUnit.SECONDS);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            super.putCachedScript(key, script);
+        }
+
+        boolean awaitPut()
+            throws InterruptedException
+        {
+            return putStarted.await(30, TimeUnit.SECONDS);
+        }
+
+        void release()
+        {
+            released.countDown();
+        }
+    }
+
+    /**
+     * A cache that remembers what happened to each key.
+     */
+    private static class RecordingCache
+        implements ClassCache
+    {
+        private final ConcurrentHashMap<String, Script> scripts = new ConcurrentHashMap<String, Script>();
+        private final ConcurrentHashMap<String, AtomicInteger> hits = new ConcurrentHashMap<String, AtomicInteger>();
+        private final ConcurrentHashMap<String, AtomicInteger> puts = new ConcurrentHashMap<String, AtomicInteger>();
+
+        @Override
+        public Script getCachedScript(String key)
+        {
+            Script s = scripts.get(key);
+            if (s != null) {
+                count(hits, key);
+            }
+            return s;
+        }
+
+        @Override
+        public void putCachedScript(String key, Script script)
+        {
+            count(puts, key);
+            scripts.put(key, script);
+        }
+
+        int getHitCount(String key)
+        {
+            AtomicInteger c = hits.get(key);
+            return (c == null ? 0 : c.get());
+        }
+
+        int getPutCount(String key)
+        {
+            AtomicInteger c = puts.get(key);
+            return (c == null ? 0 : c.get());
+        }
+
+        private static void count(ConcurrentHashMap<String, AtomicInteger> counts, String key)
+        {
+            AtomicInteger c = counts.get(key);
+            if (c == null) {
+                AtomicInteger n = new AtomicInteger();
+                c = counts.putIfAbsent(key, n);
+                if (c == null) {
+                    c = n;
+                }
+            }
+            c.incrementAndGet();
+        }
+    }
+}
@@ -35,6 +35,7 @@ public class BenchmarkTest
         "buffers/buffer-write.js",
         // When implemented, need DH to be done.
         "crypto/cipher-stream.js",
+        "crypto/hash-oneshot.js",
         "crypto/hash-stream-creation.js",
         "crypto/hash-stream-throughput.js",
         "fs/read-stream-throughput.js",
@@ -44,11 +45,13 @@ public class BenchmarkTest
         "http/client-request-body.js",
         // Not working, not sure
         // "misc/child-process-read.js",
+        "misc/loop-iterations.js",
         "misc/next-tick-breadth.js",
         "misc/next-tick-depth.js",
         "misc/spawn-echo.js",
         "misc/startup.js",
         "misc/string-creation.js",
+        "misc/vm-run-in-context.js",
         // Runs too long
         // "misc/timers.js",
         // Too many local and network dependencies
@@ -61,7 +64,8 @@ public class BenchmarkTest
         "net/tcp-raw-s2c.js",
         // Uses recursive nextTick()
         //"tls/throughput.js",
-        "tls/tls-connect.js"
+        "tls/tls-connect.js",
+        "zlib/gzip-throughput.js"
     };
 
     @BeforeClass
@@ -82,6 +82,9 @@ public abstract class TestBase
         this.javaVersion = javaVersion;
         this.nodeVersion = nodeVersion;
         this.nodeEnvironment = new NodeEnvironment();
+        this.nodeEnvironment.setStandbyScriptCount(Integer.getInteger("StandbyScripts", 0));
+        this.nodeEnvironment.setTimerType(
+            NodeEnvironment.TimerType.valueOf(System.getProperty("TimerType", "HEAP")));
     }
 
     protected int launchTest(int timeout, OutputStream o, boolean coverage, boolean alwaysFork)
@@ -123,6 +126,21 @@ public abstract class TestBase
         if (coverage && (System.getProperty("CoverageArg") != null)) {
             args.add(System.getProperty("CoverageArg"));
         }
+        if (System.getProperty("StandbyScripts") != null) {
+            args.add("-DStandbyScripts=" + System.getProperty("StandbyScripts"));
+        }
+        if (System.getProperty("AsyncFileIO") != null) {
+            args.add("-DAsyncFileIO=" + System.getProperty("AsyncFileIO"));
+        }
+        if (System.getProperty("TimerType") != null) {
+            args.add("-DTimerType=" + System.getProperty("TimerType"));
+        }
+        if (System.getProperty("HttpScanMode") != null) {
+            args.add("-DHttpScanMode=" + System.getProperty("HttpScanMode"));
+        }
+        if (System.getProperty("PoolStatistics") != null) {
+            args.add("-DPoolStatistics=" + System.getProperty("PoolStatistics"));
+        }
         args.add("io.apigee.trireme.test.TestRunner");
         args.add(fileName.getName());
         args.add(adapter);
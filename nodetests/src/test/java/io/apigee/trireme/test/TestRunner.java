@@ -1,11 +1,13 @@
 package io.apigee.trireme.test;
 
 import io.apigee.trireme.container.netty.NettyHttpContainer;
+import io.apigee.trireme.core.AsyncPoolStatistics;
 import io.apigee.trireme.core.NodeEnvironment;
 import io.apigee.trireme.core.NodeException;
 import io.apigee.trireme.core.NodeScript;
 import io.apigee.trireme.core.Sandbox;
 import io.apigee.trireme.core.ScriptStatus;
+import io.apigee.trireme.kernel.http.HTTPParsingMachine;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.JavaScriptException;
 import org.mozilla.javascript.RhinoException;
@@ -38,6 +40,15 @@ public class TestRunner
 
         File fileName = new File(args[0]);
         NodeEnvironment env = new NodeEnvironment();
+        // Set this to compare startup time with and without the standby pool, as in "misc/startup.js"
+        env.setStandbyScriptCount(Integer.getInteger("StandbyScripts", 0));
+        // Set this to compare async pool use with and without async file I/O, as in "fs/read-stream-throughput.js"
+        env.setAsyncFileIO(Boolean.valueOf(System.getProperty("AsyncFileIO", "false")));
+        // Set this to "WHEEL" to run the tests with the timer wheel rather than the heap
+        env.setTimerType(NodeEnvironment.TimerType.valueOf(System.getProperty("TimerType", "HEAP")));
+        // Set this to "BYTES" to run the tests with the byte-scanning HTTP parser
+        env.setHttpScanMode(HTTPParsingMachine.ScanMode.valueOf(System.getProperty("HttpScanMode", "REGEX")));
+        boolean poolStats = Boolean.getBoolean("PoolStatistics");
 
         int timeout = TEST_TIMEOUT_SECS;
         String version = NodeEnvironment.DEFAULT_NODE_VERSION;
@@ -52,7 +63,15 @@ public class TestRunner
             version = args[3];
         }
 
+        long start = System.currentTimeMillis();
         int exitCode = runTest(env, null, fileName, null, version, timeout);
+        if (poolStats && (env.getAsyncPoolStatistics() != null)) {
+            AsyncPoolStatistics stats = env.getAsyncPoolStatistics();
+            double secs = (System.currentTimeMillis() - start) / 1000.0;
+            System.err.printf("Async pool: %d tasks (%.0f/sec), %d rejected, max queue depth %d%n",
+                              stats.getSubmittedCount(), stats.getSubmittedCount() / secs,
+                              stats.getRejectedCount(), stats.getMaxQueueDepth());
+        }
         System.exit(exitCode);
     }
 
@@ -0,0 +1,48 @@
+// creation benchmark for small messages
+// hashes many short messages, either with a new hasher each time or with
+// the one-shot crypto.hash function
+var common = require('../common.js');
+var crypto = require('crypto');
+
+var bench = common.createBenchmark(main, {
+  n: [100000],
+  algo: [ 'sha256', 'md5' ],
+  type: ['asc', 'buf'],
+  len: [16, 256, 1024],
+  api: ['createHash', 'hash']
+});
+
+function main(conf) {
+  var message;
+  switch (conf.type) {
+    case 'asc':
+      message = new Array(conf.len + 1).join('a');
+      break;
+    case 'buf':
+      message = new Buffer(conf.len);
+      message.fill('b');
+      break;
+    default:
+      throw new Error('unknown message type: ' + conf.type);
+  }
+
+  var fn = conf.api === 'hash' ? oneShot : createHash;
+
+  bench.start();
+  fn(conf.algo, message, conf.n);
+  bench.end(conf.n);
+}
+
+function createHash(algo, message, n) {
+  while (n-- > 0) {
+    var h = crypto.createHash(algo);
+    h.update(message, 'utf8');
+    h.digest('hex');
+  }
+}
+
+function oneShot(algo, message, n) {
+  while (n-- > 0) {
+    crypto.hash(algo, message, 'hex');
+  }
+}
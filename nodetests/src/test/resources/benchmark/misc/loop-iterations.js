@@ -0,0 +1,45 @@
+// Measure how many trips through the event loop we can make per second.
+// Each "setImmediate" callback that schedules another one forces a new
+// iteration of the loop, so this mostly measures the fixed cost of the
+// loop itself: reading the clock, checking timers, and polling for I/O.
+// The "timers" variant also keeps a set of idle timers that are re-armed
+// on every iteration, the way that sockets reset their idle timeouts.
+
+var common = require('../common.js');
+var bench = common.createBenchmark(main, {
+  thousands: [500],
+  type: ['immediate', 'timers']
+});
+
+function main(conf) {
+  var n = +conf.thousands * 1e3;
+  var idle = [];
+  var i;
+
+  if (conf.type === 'timers') {
+    for (i = 0; i < 100; i++) {
+      idle.push(setTimeout(noop, 60000));
+    }
+  }
+
+  bench.start();
+  setImmediate(onImmediate);
+
+  function onImmediate() {
+    if (idle.length > 0) {
+      var slot = n % idle.length;
+      clearTimeout(idle[slot]);
+      idle[slot] = setTimeout(noop, 60000);
+    }
+
+    if (--n) {
+      setImmediate(onImmediate);
+    } else {
+      idle.forEach(clearTimeout);
+      bench.end(+conf.thousands);
+    }
+  }
+}
+
+function noop() {
+}
@@ -0,0 +1,49 @@
+// throughput of running the same code in a context over and over, which is what
+// templating engines do on every request. "compileOnce" reuses one vm.Script,
+// and the others compile the code every time, which should hit the class cache
+var common = require('../common.js');
+var vm = require('vm');
+
+var bench = common.createBenchmark(main, {
+  n: [10000],
+  api: ['runInContext', 'newScript', 'compileOnce']
+});
+
+var code =
+  'var out = [];\n' +
+  'for (var i = 0; i < items.length; i++) {\n' +
+  '  out.push("<li>" + items[i].name + ": " + items[i].value + "</li>");\n' +
+  '}\n' +
+  'result = "<ul>" + out.join("") + "</ul>";\n';
+
+function main(conf) {
+  var n = +conf.n;
+  var sandbox = { items: [], result: null };
+  for (var i = 0; i < 10; i++) {
+    sandbox.items.push({ name: 'item' + i, value: i });
+  }
+  var ctx = vm.createContext(sandbox);
+  var script = new vm.Script(code, 'template.js');
+
+  bench.start();
+  for (var j = 0; j < n; j++) {
+    switch (conf.api) {
+      case 'runInContext':
+        vm.runInContext(code, ctx, 'template.js');
+        break;
+      case 'newScript':
+        new vm.Script(code, 'template.js').runInContext(ctx);
+        break;
+      case 'compileOnce':
+        script.runInContext(ctx);
+        break;
+      default:
+        throw new Error('unknown api: ' + conf.api);
+    }
+  }
+  bench.end(n);
+
+  if (sandbox.result.length === 0) {
+    throw new Error('template did not run');
+  }
+}
@@ -0,0 +1,79 @@
+// throughput of gzipping the same buffer over and over, the way an API
+// server compresses its responses. "sync" uses gzipSync, which compresses
+// the whole buffer at once, and "stream" writes it to a Gzip stream in chunks.
+var common = require('../common.js');
+var zlib = require('zlib');
+
+var bench = common.createBenchmark(main, {
+  n: [50],
+  len: [1024, 102400, 4 * 1024 * 1024],
+  api: ['sync', 'stream']
+});
+
+function main(conf) {
+  var n = +conf.n;
+  var len = +conf.len;
+  var api = conf.api;
+  if (api === 'sync' && !zlib.gzipSync) {
+    console.error('zlib.gzipSync not available until v0.12');
+    // use the callback version, just so that we can compare them.
+    api = 'async';
+  }
+
+  // Something that looks like a JSON response, so that it compresses
+  var parts = [];
+  var size = 0;
+  for (var i = 0; size < len; i++) {
+    var item = JSON.stringify({ id: i, name: 'item ' + i, value: Math.random() });
+    parts.push(item);
+    size += item.length;
+  }
+  var message = new Buffer(parts.join(',')).slice(0, len);
+  var mbits = (n * len * 8) / (1024 * 1024);
+
+  bench.start();
+  switch (api) {
+    case 'sync':
+      for (var j = 0; j < n; j++) {
+        zlib.gzipSync(message);
+      }
+      bench.end(mbits);
+      break;
+    case 'async':
+      gzipAsync(message, n, mbits);
+      break;
+    case 'stream':
+      gzipStream(message, n, mbits);
+      break;
+    default:
+      throw new Error('unknown api: ' + api);
+  }
+}
+
+function gzipAsync(message, n, mbits) {
+  zlib.gzip(message, function(err) {
+    if (err) throw err;
+    if (--n > 0) {
+      gzipAsync(message, n, mbits);
+    } else {
+      bench.end(mbits);
+    }
+  });
+}
+
+function gzipStream(message, n, mbits) {
+  var chunkSize = 16 * 1024;
+  var gz = zlib.createGzip();
+  gz.on('data', function() {});
+  gz.on('end', function() {
+    if (--n > 0) {
+      gzipStream(message, n, mbits);
+    } else {
+      bench.end(mbits);
+    }
+  });
+  for (var off = 0; off < message.length; off += chunkSize) {
+    gz.write(message.slice(off, off + chunkSize));
+  }
+  gz.end();
+}
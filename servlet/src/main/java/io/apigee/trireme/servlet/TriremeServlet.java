@@ -31,6 +31,7 @@ import io.apigee.trireme.core.ScriptStatusListener;
 import io.apigee.trireme.kernel.ErrorCodes;
 import io.apigee.trireme.kernel.net.NetworkPolicy;
 import io.apigee.trireme.net.spi.HttpServerStub;
+import io.apigee.trireme.servlet.internal.AsyncExchange;
 import io.apigee.trireme.servlet.internal.EnvironmentManager;
 import io.apigee.trireme.servlet.internal.FlowController;
 import io.apigee.trireme.servlet.internal.ResponseChunk;
@@ -40,6 +41,7 @@ import io.apigee.trireme.servlet.internal.ServletChunk;
 import io.apigee.trireme.servlet.internal.ServletRequest;
 import io.apigee.trireme.servlet.internal.ServletResponse;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -63,6 +65,11 @@ public class TriremeServlet
     public static final String SCRIPT_SANDBOX = "TriremeSandbox";
     public static final String SCRIPT_STARTUP_TIMEOUT = "TriremeStartupTimeout";
     public static final String SCRIPT_RESPONSE_TIMEOUT = "TriremeResponseTimeout";
+    /**
+     * If true, and the servlet is marked "async-supported," handle requests using Servlet 3.1
+     * non-blocking I/O so that no container thread is held while the script runs.
+     */
+    public static final String SCRIPT_ASYNC = "TriremeAsync";
 
     public static final long DEFAULT_STARTUP_TIMEOUT = 10L;
 
@@ -73,6 +80,7 @@ public class TriremeServlet
     private volatile ScriptStatus scriptStatus;
 
     private long startupTimeout = DEFAULT_STARTUP_TIMEOUT;
+    private boolean asyncMode;
 
     @Override
     public void init(ServletConfig config)
@@ -99,6 +107,11 @@ public class TriremeServlet
             state.setResponseTimeout(Long.valueOf(propVal));
         }
 
+        propVal = config.getInitParameter(SCRIPT_ASYNC);
+        if (propVal != null) {
+            asyncMode = Boolean.valueOf(propVal);
+        }
+
         String basePath = config.getServletContext().getRealPath("/");
         File scriptFile = new File(basePath, scriptName);
 
@@ -196,6 +209,16 @@ public class TriremeServlet
         ServletResponse resp = new ServletResponse(servletResp);
         HttpServerStub stub = state.getStub();
 
+        if (asyncMode && servletReq.isAsyncSupported()) {
+            // The script's own response timeout applies, so the container's should not
+            AsyncContext ctx = servletReq.startAsync();
+            ctx.setTimeout(0L);
+            AsyncExchange exchange = new AsyncExchange(ctx, stub, req, resp, control);
+            stub.onRequest(req, resp);
+            exchange.start();
+            return;
+        }
+
         // Asynchronously ask Node.js to start processing the request
         stub.onRequest(req, resp);
 
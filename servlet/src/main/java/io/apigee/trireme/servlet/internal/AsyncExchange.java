@@ -0,0 +1,300 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.servlet.internal;
+
+import io.apigee.trireme.kernel.ErrorCodes;
+import io.apigee.trireme.net.spi.HttpServerStub;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class handles a single request using Servlet 3.1 non-blocking I/O. The container thread is
+ * released as soon as the request is handed to the script. Request data is read whenever the container
+ * says that it is ready, until the script pauses the request. Response data is written whenever the
+ * script produces it and the container can accept it, and the script's write callback is not
+ * invoked until the container is ready for more, which gives the script backpressure.
+ */
+
+public class AsyncExchange
+    implements ReadListener, WriteListener
+{
+    private static final Logger log = LoggerFactory.getLogger(AsyncExchange.class);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public static final int BUFFER_SIZE = 8192;
+
+    private final AsyncContext context;
+    private final HttpServerStub stub;
+    private final ServletRequest req;
+    private final ServletResponse resp;
+    private final FlowController control;
+    private final HttpServletResponse servletResp;
+    private final ServletInputStream in;
+
+    private final Object readLock = new Object();
+    private final byte[] readBuf = new byte[BUFFER_SIZE];
+    private final AtomicBoolean readDone = new AtomicBoolean();
+
+    // Everything below is guarded by "this"
+    private ServletOutputStream out;
+    private ResponseChunk pending;
+    private boolean complete;
+
+    public AsyncExchange(AsyncContext context, HttpServerStub stub,
+                         ServletRequest req, ServletResponse resp, FlowController control)
+        throws IOException
+    {
+        this.context = context;
+        this.stub = stub;
+        this.req = req;
+        this.resp = resp;
+        this.control = control;
+        this.servletResp = (HttpServletResponse)context.getResponse();
+        this.in = context.getRequest().getInputStream();
+    }
+
+    /**
+     * Start reading and writing. This should be called after the request has been passed to the script,
+     * and from then on, nothing here blocks the calling thread.
+     */
+    public void start()
+    {
+        control.setResumeListener(new Runnable() {
+            @Override
+            public void run()
+            {
+                resumeReading();
+            }
+        });
+        resp.setChunkListener(new Runnable() {
+            @Override
+            public void run()
+            {
+                chunkAvailable();
+            }
+        });
+
+        in.setReadListener(this);
+        // The script might have responded already
+        chunkAvailable();
+    }
+
+    @Override
+    public void onDataAvailable()
+        throws IOException
+    {
+        readAvailable();
+    }
+
+    @Override
+    public void onAllDataRead()
+    {
+        sendEnd();
+    }
+
+    private void readAvailable()
+        throws IOException
+    {
+        synchronized (readLock) {
+            while (in.isReady()) {
+                if (control.deferIfPaused()) {
+                    // The script's buffer is full -- resumeReading will be called when it drains.
+                    return;
+                }
+                int rc = in.read(readBuf);
+                if (rc < 0) {
+                    sendEnd();
+                    return;
+                }
+                if (rc > 0) {
+                    // "onData" happens asynchronously so the script gets its own copy of just what was read
+                    ByteBuffer chunk = ByteBuffer.wrap(Arrays.copyOf(readBuf, rc));
+                    stub.onData(req, resp, new ServletChunk(chunk, false));
+                }
+            }
+        }
+    }
+
+    /**
+     * Called on the script thread when it has consumed enough data to want more. Reading
+     * must happen on a container thread, so hand it off.
+     */
+    private void resumeReading()
+    {
+        context.start(new Runnable() {
+            @Override
+            public void run()
+            {
+                try {
+                    readAvailable();
+                } catch (IOException ioe) {
+                    onError(ioe);
+                }
+            }
+        });
+    }
+
+    private void sendEnd()
+    {
+        if (readDone.compareAndSet(false, true)) {
+            stub.onData(req, resp, new ServletChunk(null, true));
+        }
+    }
+
+    @Override
+    public void onWritePossible()
+        throws IOException
+    {
+        writeAvailable();
+    }
+
+    private void chunkAvailable()
+    {
+        try {
+            writeAvailable();
+        } catch (IOException ioe) {
+            onError(ioe);
+        }
+    }
+
+    private synchronized void writeAvailable()
+        throws IOException
+    {
+        if (complete) {
+            drainQueue(ErrorCodes.EIO);
+            return;
+        }
+
+        if (out == null) {
+            Object first = resp.peekNextChunk();
+            if (first == null) {
+                return;
+            }
+            if (first instanceof ResponseError) {
+                resp.pollNextChunk();
+                returnError((ResponseError)first);
+                return;
+            }
+            // Delay output stream creation so that the script can set headers first. Once the listener
+            // is set, the container will call "onWritePossible" to start writing.
+            out = servletResp.getOutputStream();
+            out.setWriteListener(this);
+            return;
+        }
+
+        while (out.isReady()) {
+            if (pending != null) {
+                // The last write made it to the container, so the script may write some more
+                ResponseChunk written = pending;
+                pending = null;
+                written.invokeCallback(0);
+            }
+
+            Object next = resp.pollNextChunk();
+            if (next == null) {
+                return;
+            }
+            if (next instanceof ResponseError) {
+                // Headers are already gone, so all we can do is cut off the response
+                ResponseError err = (ResponseError)next;
+                log.debug("Script error after response started: {}", err.getMsg());
+                finish(ErrorCodes.EIO);
+                return;
+            }
+
+            ResponseChunk chunk = (ResponseChunk)next;
+            ByteBuffer bb = chunk.getBuffer();
+            if (bb == ServletResponse.LAST_CHUNK) {
+                finish(0);
+                chunk.invokeCallback(0);
+                return;
+            }
+            if (bb != null) {
+                if (bb.hasArray()) {
+                    out.write(bb.array(), bb.arrayOffset() + bb.position(), bb.remaining());
+                } else {
+                    byte[] tmp = new byte[bb.remaining()];
+                    bb.get(tmp);
+                    out.write(tmp);
+                }
+            }
+            pending = chunk;
+        }
+    }
+
+    private void returnError(ResponseError err)
+        throws IOException
+    {
+        servletResp.setHeader("Content-Type", "text/plain");
+        servletResp.setStatus(500);
+        // No write listener is set yet, so this is an ordinary write of a small message
+        byte[] msg = (err.getMsg() + '\n' + err.getStack()).getBytes(UTF8);
+        servletResp.setContentLength(msg.length);
+        servletResp.getOutputStream().write(msg);
+        finish(ErrorCodes.EIO);
+    }
+
+    private synchronized void finish(int errCode)
+    {
+        if (complete) {
+            return;
+        }
+        complete = true;
+        if (pending != null) {
+            pending.invokeCallback(errCode);
+            pending = null;
+        }
+        drainQueue(errCode);
+        context.complete();
+    }
+
+    private void drainQueue(int errCode)
+    {
+        Object next;
+        while ((next = resp.pollNextChunk()) != null) {
+            if (next instanceof ResponseChunk) {
+                ((ResponseChunk)next).invokeCallback(errCode);
+            }
+        }
+    }
+
+    @Override
+    public void onError(Throwable t)
+    {
+        if (log.isDebugEnabled()) {
+            log.debug("Error in async servlet I/O: {}", t);
+        }
+        finish(ErrorCodes.EIO);
+    }
+}
@@ -26,6 +26,8 @@ import io.apigee.trireme.net.spi.PauseHelper;
 /**
  * This class is used when reading data from a servlet. We read synchronously so that we can
  * block the thread, but we don't want to read so fast that we overwhelm the servlet itself.
+ * In async mode the reader never blocks -- instead it checks "deferIfPaused" and stops reading,
+ * and the resume listener is called to pick up reading again once the script has caught up.
  */
 
 public class FlowController
@@ -34,6 +36,12 @@ public class FlowController
     public static final long MAX_PAUSE = 60L * 1000L;
 
     private boolean paused;
+    private boolean resumeWaiting;
+    private Runnable resumeListener;
+
+    public synchronized void setResumeListener(Runnable l) {
+        this.resumeListener = l;
+    }
 
     public synchronized void pause()
         throws InterruptedException
@@ -43,6 +51,19 @@ public class FlowController
         }
     }
 
+    /**
+     * Return true if reading is paused, in which case the resume listener will be called
+     * exactly once when the script resumes.
+     */
+    public synchronized boolean deferIfPaused()
+    {
+        if (paused) {
+            resumeWaiting = true;
+            return true;
+        }
+        return false;
+    }
+
     @Override
     public synchronized void doPause()
     {
@@ -50,9 +71,20 @@ public class FlowController
     }
 
     @Override
-    public synchronized void doResume()
+    public void doResume()
     {
-        paused = false;
-        notifyAll();
+        Runnable l = null;
+        synchronized (this) {
+            paused = false;
+            notifyAll();
+            if (resumeWaiting) {
+                resumeWaiting = false;
+                l = resumeListener;
+            }
+        }
+        // Don't hold the lock, because the listener may turn around and read more data
+        if (l != null) {
+            l.run();
+        }
     }
 }
@@ -39,6 +39,7 @@ public class ServletResponse
 
     private final HttpServletResponse response;
     private final LinkedBlockingQueue<Object> responseQueue = new LinkedBlockingQueue<Object>();
+    private volatile Runnable chunkListener;
 
     public ServletResponse(HttpServletResponse resp)
     {
@@ -51,6 +52,35 @@ public class ServletResponse
         return responseQueue.take();
     }
 
+    /**
+     * Return the next chunk or error without blocking, or null if the script has not produced one yet.
+     */
+    public Object pollNextChunk()
+    {
+        return responseQueue.poll();
+    }
+
+    public Object peekNextChunk()
+    {
+        return responseQueue.peek();
+    }
+
+    /**
+     * In async mode, the listener is called on the script thread whenever something is added to the queue.
+     */
+    public void setChunkListener(Runnable l) {
+        this.chunkListener = l;
+    }
+
+    private void enqueue(Object chunk)
+    {
+        responseQueue.offer(chunk);
+        Runnable l = chunkListener;
+        if (l != null) {
+            l.run();
+        }
+    }
+
     @Override
     public int getStatusCode()
     {
@@ -68,7 +98,7 @@ public class ServletResponse
     {
         if (lastChunk) {
             ResponseChunk chunk = new ResponseChunk(LAST_CHUNK, cb);
-            responseQueue.offer(chunk);
+            enqueue(chunk);
         }
     }
 
@@ -76,14 +106,12 @@ public class ServletResponse
     public void sendChunk(ByteBuffer data, boolean lastChunk, IOCompletionHandler<Integer> cb)
     {
         if (lastChunk) {
-            ResponseChunk chunk = new ResponseChunk(data, null);
-            responseQueue.offer(chunk);
-            chunk = new ResponseChunk(LAST_CHUNK, cb);
-            responseQueue.offer(chunk);
+            responseQueue.offer(new ResponseChunk(data, null));
+            enqueue(new ResponseChunk(LAST_CHUNK, cb));
 
         } else {
             ResponseChunk chunk = new ResponseChunk(data, cb);
-            responseQueue.offer(chunk);
+            enqueue(chunk);
         }
     }
 
@@ -91,7 +119,7 @@ public class ServletResponse
     public void fatalError(String message, String stack)
     {
         ResponseError err = new ResponseError(message, stack);
-        responseQueue.offer(err);
+        enqueue(err);
     }
 
     @Override
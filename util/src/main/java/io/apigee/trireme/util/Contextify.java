@@ -3,6 +3,7 @@ package io.apigee.trireme.util;
 import io.apigee.trireme.core.NativeNodeModule;
 import io.apigee.trireme.core.NodeRuntime;
 import io.apigee.trireme.core.internal.ScriptRunner;
+import io.apigee.trireme.core.internal.ScriptUtils;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.Function;
 import org.mozilla.javascript.Script;
@@ -86,7 +87,12 @@ public class Contextify
             String fileName = stringArg(args, 1, "anonymous");
             ContextImpl self = (ContextImpl)thisObj;
 
-            return cx.evaluateString(self.globalProxy, code, fileName, 1, null);
+            ScriptRunner runner = (ScriptRunner)cx.getThreadLocal(ScriptRunner.RUNNER);
+            Script script = ScriptUtils.getCompiledNamedScript(cx, runner.getEnvironment(), code, fileName);
+            if (script == null) {
+                return ScriptUtils.interpretScript(cx, self.globalProxy, code, fileName);
+            }
+            return script.exec(cx, self.globalProxy);
         }
 
         @JSFunction
@@ -104,6 +110,8 @@ public class Contextify
         public static final String CLASS_NAME = "ContextifyScript";
 
         private Script script;
+        private String source;
+        private String fileName;
 
         @Override
         public String getClassName() {
@@ -121,8 +129,14 @@ public class Contextify
             String code = stringArg(args, 0);
             String fileName = stringArg(args, 1, "anonymous");
 
+            ScriptRunner runner = (ScriptRunner)cx.getThreadLocal(ScriptRunner.RUNNER);
             ScriptImpl self = new ScriptImpl();
-            self.script = cx.compileString(code, fileName, 1, null);
+            self.script = ScriptUtils.getCompiledNamedScript(cx, runner.getEnvironment(), code, fileName);
+            if (self.script == null) {
+                // Too large to compile, so interpret it every time it runs
+                self.source = code;
+                self.fileName = fileName;
+            }
             return self;
         }
 
@@ -133,6 +147,9 @@ public class Contextify
             ContextImpl ctx = objArg(args, 0, ContextImpl.class, true);
             ScriptImpl self = (ScriptImpl)thisObj;
 
+            if (self.script == null) {
+                return ScriptUtils.interpretScript(cx, ctx.globalProxy, self.source, self.fileName);
+            }
             return self.script.exec(cx, ctx.globalProxy);
         }
     }
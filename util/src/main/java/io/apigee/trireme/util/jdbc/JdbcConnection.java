@@ -34,6 +34,7 @@ import org.mozilla.javascript.annotations.JSFunction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.nio.ByteBuffer;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -44,6 +45,13 @@ import java.util.ArrayList;
 
 import static io.apigee.trireme.core.ArgUtils.*;
 
+/**
+ * A JDBC connection. It may be a connection of its own, or one that was borrowed from a JdbcPool, in which
+ * case "close" gives it back to the pool. If the script exits without closing a borrowed connection, then it
+ * is closed and the pool makes room for a new one. All the blocking work runs on the JdbcExecutor, and all the
+ * JavaScript objects are created and read in the script thread.
+ */
+
 public class JdbcConnection
     extends Referenceable
 {
@@ -53,6 +61,13 @@ public class JdbcConnection
 
     private Connection conn;
     private NodeRuntime runtime;
+    private StatementCache statements;
+    private JdbcPool.Member member;
+    // Registered with the runtime while a pooled connection is borrowed
+    private Closeable lease;
+    // Guarded by "this," like the connection itself
+    private boolean closed;
+    private final ArrayList<JdbcResultHandle> openResults = new ArrayList<JdbcResultHandle>();
 
     @Override
     public String getClassName() {
@@ -63,6 +78,8 @@ public class JdbcConnection
     {
         this.conn = conn;
         this.runtime = runtime;
+        // Prepare statements every time, as we always have
+        this.statements = new StatementCache(conn, 0);
         requestPin();
 
         if (log.isDebugEnabled()) {
@@ -70,6 +87,38 @@ public class JdbcConnection
         }
     }
 
+    void initPooled(final JdbcPool.Member member, NodeRuntime runtime)
+    {
+        this.member = member;
+        this.conn = member.conn;
+        this.runtime = runtime;
+        this.statements = member.statements;
+        requestPin();
+
+        lease = new Closeable() {
+            @Override
+            public void close()
+            {
+                if (log.isDebugEnabled()) {
+                    log.debug("Script exited without closing borrowed JDBC connection {}", member.conn);
+                }
+                // We don't know what state it was left in, so don't let anyone else have it
+                JdbcExecutor.get(runtime).execute(new Runnable() {
+                    @Override
+                    public void run()
+                    {
+                        release(true);
+                    }
+                });
+            }
+        };
+        runtime.registerCloseable(lease);
+
+        if (log.isDebugEnabled()) {
+            log.debug("Borrowed JDBC connection {}", conn);
+        }
+    }
+
     @JSFunction
     @SuppressWarnings("unused")
     public static void close(Context cx, Scriptable thisObj, Object[] args, Function func)
@@ -77,23 +126,19 @@ public class JdbcConnection
         final Function cb = functionArg(args, 0, false);
         final JdbcConnection self = (JdbcConnection)thisObj;
 
+        if (self.lease != null) {
+            self.runtime.unregisterCloseable(self.lease);
+        }
+
         final Object domain = self.runtime.getDomain();
-        self.runtime.getAsyncPool().execute(new Runnable() {
+        JdbcExecutor.get(self.runtime).execute(new Runnable() {
             @Override
             public void run()
             {
                 if (log.isDebugEnabled()) {
                     log.debug("Closing {}", self.conn);
                 }
-                try {
-                    synchronized (self) {
-                        self.conn.close();
-                    }
-                } catch (SQLException e) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Error on JDBC close. Ignoring it: {}", e);
-                    }
-                }
+                self.release(false);
 
                 self.runtime.enqueueTask(new ScriptTask() {
                     @Override
@@ -109,6 +154,36 @@ public class JdbcConnection
         });
     }
 
+    /**
+     * Close the connection, or give it back to the pool if it was borrowed, unless that was done already.
+     * This blocks, so it runs on the JdbcExecutor.
+     */
+    private synchronized void release(boolean broken)
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        // Result sets can't outlive the connection, especially once someone else borrows it
+        for (JdbcResultHandle h : openResults) {
+            h.closeResources();
+        }
+        openResults.clear();
+
+        if (member == null) {
+            statements.close();
+            try {
+                conn.close();
+            } catch (SQLException e) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Error on JDBC close. Ignoring it: {}", e);
+                }
+            }
+        } else {
+            member.getPool().giveBack(member, broken);
+        }
+    }
+
     @JSFunction
     @SuppressWarnings("unused")
     public static void reset(Context cx, Scriptable thisObj, Object[] args, Function func)
@@ -120,6 +195,7 @@ public class JdbcConnection
         }
         try {
             synchronized (self) {
+                self.checkOpen();
                 self.conn.setAutoCommit(true);
             }
         } catch (SQLException sqle) {
@@ -138,6 +214,7 @@ public class JdbcConnection
 
         try {
             synchronized (self) {
+                self.checkOpen();
                 self.conn.setAutoCommit(auto);
             }
         } catch (SQLException sqle) {
@@ -155,12 +232,13 @@ public class JdbcConnection
         final JdbcConnection self = (JdbcConnection)thisObj;
 
         final Object domain = self.runtime.getDomain();
-        self.runtime.getAsyncPool().execute(new Runnable() {
+        JdbcExecutor.get(self.runtime).execute(new Runnable() {
             @Override
             public void run()
             {
                 try {
                     synchronized (self) {
+                        self.checkOpen();
                         self.conn.commit();
                     }
                     self.runtime.enqueueCallback(cb, cb, self, ScriptRuntime.emptyArgs);
@@ -179,12 +257,13 @@ public class JdbcConnection
         final JdbcConnection self = (JdbcConnection)thisObj;
 
         final Object domain = self.runtime.getDomain();
-        self.runtime.getAsyncPool().execute(new Runnable() {
+        JdbcExecutor.get(self.runtime).execute(new Runnable() {
             @Override
             public void run()
             {
                 try {
                     synchronized (self) {
+                        self.checkOpen();
                         self.conn.rollback();
                     }
                     self.runtime.enqueueCallback(cb, cb, self, ScriptRuntime.emptyArgs);
@@ -204,11 +283,16 @@ public class JdbcConnection
         final Function cb = functionArg(args, 2, true);
         final JdbcConnection self = (JdbcConnection)thisObj;
 
-        final Scriptable params =
-            ((args[1] == null) || Undefined.instance.equals(args[1])) ? null : objArg(args, 1, Scriptable.class, true);
-
         final Object domain = self.runtime.getDomain();
-        self.runtime.getAsyncPool().execute(new Runnable() {
+        final Object[] params;
+        try {
+            params = convertParams(cx, args[1]);
+        } catch (SQLException se) {
+            self.returnError(cb, domain, se);
+            return;
+        }
+
+        JdbcExecutor.get(self.runtime).execute(new Runnable() {
             @Override
             public void run()
             {
@@ -217,44 +301,45 @@ public class JdbcConnection
                         log.trace("Executing {}", sql);
                     }
 
+                    // Retrieve all the rows right here, but leave it to the script thread to turn them
+                    // in to JavaScript objects.
+                    final Results results = new Results();
                     synchronized (self) {
-                        Context cx = Context.enter();
-                        PreparedStatement st = self.conn.prepareCall(sql);
+                        self.checkOpen();
+                        PreparedStatement st = self.statements.prepare(sql);
                         try {
-                            if (params != null) {
-                                self.setParams(params, st, cx);
-                            }
-
-                            // Execute the result and retrieve all the rows right here, and return in one big object
-                            boolean isResultSet = st.execute();
-
-                            Scriptable result = cx.newObject(self);
-                            Object rows = Undefined.instance;
-
-                            if (isResultSet) {
+                            setParams(params, st);
+                            if (st.execute()) {
                                 ResultSet rs = st.getResultSet();
                                 try {
-                                    rows = self.retrieveRows(cx, rs);
+                                    results.processor = new ResultProcessor(rs);
+                                    results.rows = retrieveRows(rs, results.processor);
                                 } finally {
                                     rs.close();
                                 }
                             } else {
-                                int updateCount = st.getUpdateCount();
-                                if (updateCount >= 0) {
-                                    result.put("updateCount", result, updateCount);
-                                }
+                                results.updateCount = st.getUpdateCount();
                             }
-
-                            // We should have a "result" object and maybe some "rows". Call back.
-                            self.runtime.enqueueCallback(cb, cb, self, domain,
-                                                         new Object[] { Undefined.instance, result, rows});
-
                         } finally {
-                            Context.exit();
-                            st.close();
+                            self.statements.release(sql, st);
                         }
                     }
 
+                    self.runtime.enqueueTask(new ScriptTask() {
+                        @Override
+                        public void execute(Context cx, Scriptable scope)
+                        {
+                            Scriptable result = cx.newObject(self);
+                            Object rows = Undefined.instance;
+                            if (results.rows != null) {
+                                rows = self.makeRows(cx, results.processor, results.rows);
+                            } else if (results.updateCount >= 0) {
+                                result.put("updateCount", result, results.updateCount);
+                            }
+                            cb.call(cx, cb, self, new Object[] { Undefined.instance, result, rows });
+                        }
+                    }, domain);
+
                 } catch (SQLException se) {
                     self.returnError(cb, domain, se);
                 }
@@ -271,11 +356,16 @@ public class JdbcConnection
         final Function cb = functionArg(args, 2, true);
         final JdbcConnection self = (JdbcConnection)thisObj;
 
-        final Scriptable params =
-            ((args[1] == null) || Undefined.instance.equals(args[1])) ? null : objArg(args, 1, Scriptable.class, true);
-
         final Object domain = self.runtime.getDomain();
-        self.runtime.getAsyncPool().execute(new Runnable() {
+        final Object[] params;
+        try {
+            params = convertParams(cx, args[1]);
+        } catch (SQLException se) {
+            self.returnError(cb, domain, se);
+            return;
+        }
+
+        JdbcExecutor.get(self.runtime).execute(new Runnable() {
             @Override
             public void run()
             {
@@ -284,41 +374,127 @@ public class JdbcConnection
                         log.trace("Executing {}", sql);
                     }
 
+                    final Results results = new Results();
+                    final PreparedStatement st;
                     synchronized (self) {
-                        Context cx = Context.enter();
-                        PreparedStatement st = self.conn.prepareCall(sql);
+                        self.checkOpen();
+                        st = self.statements.prepare(sql);
+                        boolean keepStatement = false;
                         try {
-                            if (params != null) {
-                                self.setParams(params, st, cx);
+                            setParams(params, st);
+                            if (st.execute()) {
+                                // The statement stays checked out of the cache until the result handle is closed
+                                results.resultSet = st.getResultSet();
+                                results.processor = new ResultProcessor(results.resultSet);
+                                keepStatement = true;
+                            } else {
+                                results.updateCount = st.getUpdateCount();
                             }
+                        } finally {
+                            if (!keepStatement) {
+                                self.statements.release(sql, st);
+                            }
+                        }
+                    }
 
-                            // Execute the result and return an object to retrieve the rows
-                            boolean isResultSet = st.execute();
-
+                    self.runtime.enqueueTask(new ScriptTask() {
+                        @Override
+                        public void execute(Context cx, Scriptable scope)
+                        {
                             Scriptable result = cx.newObject(self);
                             Object resultHandle = Undefined.instance;
-
-                            if (isResultSet) {
-                                ResultSet rs = st.getResultSet();
-                                JdbcResultHandle handle = (JdbcResultHandle)cx.newObject(self, JdbcResultHandle.CLASS_NAME);
-                                handle.init(self.runtime, rs, st);
-                                resultHandle = handle;
-                            } else {
-                                int updateCount = st.getUpdateCount();
-                                if (updateCount >= 0) {
-                                    result.put("updateCount", result, updateCount);
+                            if (results.resultSet != null) {
+                                JdbcResultHandle handle =
+                                    (JdbcResultHandle)cx.newObject(self, JdbcResultHandle.CLASS_NAME);
+                                handle.init(self, self.runtime, results.resultSet, st, sql, results.processor);
+                                if (!self.addResult(handle)) {
+                                    // The connection was closed in the meantime
+                                    handle.closeResources();
                                 }
+                                resultHandle = handle;
+                            } else if (results.updateCount >= 0) {
+                                result.put("updateCount", result, results.updateCount);
                             }
+                            cb.call(cx, cb, self, new Object[] { Undefined.instance, result, resultHandle });
+                        }
+                    }, domain);
 
-                            // We should have a "result" object and maybe some "rows". Call back.
-                            self.runtime.enqueueCallback(cb, cb, self, domain,
-                                                         new Object[] { Undefined.instance, result, resultHandle});
+                } catch (SQLException se) {
+                    self.returnError(cb, domain, se);
+                }
+            }
+        });
+    }
+
+    /**
+     * Run the same statement once for each element of an array of parameter arrays, in one round trip if the
+     * driver supports it. The result has an "updateCounts" array with one entry per set of parameters, and
+     * an "updateCount" that adds them up.
+     */
+    @JSFunction
+    @SuppressWarnings("unused")
+    public static void executeBatch(Context cx, Scriptable thisObj, Object[] args, Function func)
+    {
+        final String sql = stringArg(args, 0);
+        Scriptable paramList = objArg(args, 1, Scriptable.class, true);
+        final Function cb = functionArg(args, 2, true);
+        final JdbcConnection self = (JdbcConnection)thisObj;
+
+        final Object domain = self.runtime.getDomain();
+        final ArrayList<Object[]> batch = new ArrayList<Object[]>();
+        try {
+            if (paramList.has("length", paramList)) {
+                int length = ((Number)paramList.get("length", paramList)).intValue();
+                for (int i = 0; i < length; i++) {
+                    batch.add(convertParams(cx, paramList.get(i, paramList)));
+                }
+            }
+        } catch (SQLException se) {
+            self.returnError(cb, domain, se);
+            return;
+        }
 
+        JdbcExecutor.get(self.runtime).execute(new Runnable() {
+            @Override
+            public void run()
+            {
+                try {
+                    if (log.isTraceEnabled()) {
+                        log.trace("Executing {} {} times", sql, batch.size());
+                    }
+
+                    final int[] counts;
+                    synchronized (self) {
+                        self.checkOpen();
+                        PreparedStatement st = self.statements.prepare(sql);
+                        try {
+                            for (Object[] params : batch) {
+                                setParams(params, st);
+                                st.addBatch();
+                            }
+                            counts = st.executeBatch();
                         } finally {
-                            Context.exit();
+                            self.statements.release(sql, st);
                         }
                     }
 
+                    self.runtime.enqueueTask(new ScriptTask() {
+                        @Override
+                        public void execute(Context cx, Scriptable scope)
+                        {
+                            Scriptable result = cx.newObject(self);
+                            result.put("updateCounts", result, JdbcWrap.makeCountArray(cx, self, counts));
+                            int total = 0;
+                            for (int c : counts) {
+                                if (c > 0) {
+                                    total += c;
+                                }
+                            }
+                            result.put("updateCount", result, total);
+                            cb.call(cx, cb, self, new Object[] { Undefined.instance, result });
+                        }
+                    }, domain);
+
                 } catch (SQLException se) {
                     self.returnError(cb, domain, se);
                 }
@@ -326,61 +502,107 @@ public class JdbcConnection
         });
     }
 
-    private Scriptable retrieveRows(Context cx, ResultSet rs)
+    private void checkOpen()
         throws SQLException
     {
-        ResultProcessor rp = new ResultProcessor(rs);
-        ArrayList<Object> rows = new ArrayList<Object>();
+        if (closed) {
+            throw new SQLException("Connection is closed");
+        }
+    }
+
+    private synchronized boolean addResult(JdbcResultHandle h)
+    {
+        if (closed) {
+            return false;
+        }
+        openResults.add(h);
+        return true;
+    }
+
+    /**
+     * Called by a result handle when the script closes it.
+     */
+    synchronized void resultClosed(JdbcResultHandle h, String sql, PreparedStatement st)
+    {
+        openResults.remove(h);
+        if (closed) {
+            // The statement's connection may belong to someone else by now
+            JdbcResultHandle.closeStatement(st);
+        } else {
+            statements.release(sql, st);
+        }
+    }
+
+    private static ArrayList<Object[]> retrieveRows(ResultSet rs, ResultProcessor rp)
+        throws SQLException
+    {
+        ArrayList<Object[]> rows = new ArrayList<Object[]>();
         while (rs.next()) {
-            rows.add(rp.makeRow(cx, this));
+            rows.add(rp.readRow());
         }
 
         if (log.isDebugEnabled()) {
             log.debug("Retrieved {} rows", rows.size());
         }
-        Object[] jrows = rows.toArray(new Object[rows.size()]);
+        return rows;
+    }
+
+    Scriptable makeRows(Context cx, ResultProcessor rp, ArrayList<Object[]> rows)
+    {
+        Object[] jrows = new Object[rows.size()];
+        for (int i = 0; i < jrows.length; i++) {
+            jrows[i] = rp.makeRow(cx, this, rows.get(i));
+        }
         return cx.newArray(this, jrows);
     }
 
-    private void setParams(Scriptable params, PreparedStatement st, Context cx)
+    /**
+     * Turn an array of JavaScript parameters in to Java objects in the script thread, so that the JDBC
+     * thread doesn't have to touch them.
+     */
+    private static Object[] convertParams(Context cx, Object a)
         throws SQLException
     {
+        if ((a == null) || Undefined.instance.equals(a)) {
+            return null;
+        }
+        if (!(a instanceof Scriptable)) {
+            throw new SQLException("Parameters must be an array");
+        }
+        Scriptable params = (Scriptable)a;
         if (!params.has("length", params)) {
-            return;
+            return null;
         }
 
         int length = ((Number)params.get("length", params)).intValue();
+        Object[] ret = new Object[length];
         for (int i = 0; i < length; i++) {
             Object p = params.get(i, params);
             if ((p == null) || Undefined.instance.equals(p)) {
-                st.setNull(i + 1, Types.NULL);
-            } else if (p instanceof String) {
-                st.setString(i + 1, (String) p);
-            } else if (p instanceof Boolean) {
-                st.setBoolean(i + 1, ((Boolean) p).booleanValue());
-            } else if (p instanceof Integer) {
-                st.setInt(i + 1, ((Integer) p).intValue());
+                ret[i] = null;
+            } else if ((p instanceof String) || (p instanceof Boolean) || (p instanceof Integer)) {
+                ret[i] = p;
             } else if (p instanceof Number) {
-                st.setDouble(i + 1, ((Number)p).doubleValue());
+                ret[i] = Double.valueOf(((Number)p).doubleValue());
 
             } else if (p instanceof Buffer.BufferImpl) {
                 ByteBuffer bb = ((Buffer.BufferImpl)p).getBuffer();
                 if (bb.hasArray() && (bb.arrayOffset() == 0) && (bb.position() == 0) &&
                     (bb.remaining() == bb.array().length)) {
                   // We can safely just pass the whole array by reference into SQL
-                  st.setBytes(i + 1, bb.array());
+                  ret[i] = bb.array();
                 } else {
                   // We have to make a copy
                   byte[] tmp = new byte[bb.remaining()];
                   bb.get(tmp);
-                  st.setBytes(i + 1, tmp);
+                  ret[i] = tmp;
                 }
 
             } else if (p instanceof Scriptable) {
                 try {
                     // Optimistically think that this is a Date.
                     java.util.Date d = (java.util.Date)Context.jsToJava(p, java.util.Date.class);
-                    st.setDate(i + 1, new java.sql.Date(d.getTime()));
+                    ret[i] = new java.sql.Date(d.getTime());
                 } catch (Exception e) {
                     throw new SQLException("Invalid JavaScript object for parameter " + i + ": " + e);
                 }
@@ -389,6 +611,34 @@ public class JdbcConnection
                 throw new SQLException("Invalid type for parameter " + i + ": " + p);
             }
         }
+        return ret;
+    }
+
+    private static void setParams(Object[] params, PreparedStatement st)
+        throws SQLException
+    {
+        if (params == null) {
+            return;
+        }
+
+        for (int i = 0; i < params.length; i++) {
+            Object p = params[i];
+            if (p == null) {
+                st.setNull(i + 1, Types.NULL);
+            } else if (p instanceof String) {
+                st.setString(i + 1, (String) p);
+            } else if (p instanceof Boolean) {
+                st.setBoolean(i + 1, ((Boolean) p).booleanValue());
+            } else if (p instanceof Integer) {
+                st.setInt(i + 1, ((Integer) p).intValue());
+            } else if (p instanceof Double) {
+                st.setDouble(i + 1, ((Double)p).doubleValue());
+            } else if (p instanceof byte[]) {
+                st.setBytes(i + 1, (byte[])p);
+            } else {
+                st.setDate(i + 1, (java.sql.Date)p);
+            }
+        }
     }
 
     private void returnError(final Function cb, Object domain, final SQLException se)
@@ -405,4 +655,15 @@ public class JdbcConnection
             }
         }, domain);
     }
+
+    /**
+     * What came back from running a statement, before it is turned in to JavaScript.
+     */
+    private static final class Results
+    {
+        ResultSet resultSet;
+        ResultProcessor processor;
+        ArrayList<Object[]> rows;
+        int updateCount = -1;
+    }
 }
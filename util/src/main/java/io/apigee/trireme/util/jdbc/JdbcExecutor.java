@@ -0,0 +1,44 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.util.jdbc;
+
+import io.apigee.trireme.core.NodeRuntime;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * JDBC calls block, sometimes for a long time, so they run on the "blocking pool" of the script's
+ * NodeEnvironment rather than on the async pool. That way a slow database can't hold up file I/O and DNS
+ * lookups. The size of the pool is set using "setBlockingPoolSize" on the environment. When all of its
+ * threads are busy, calls wait in its queue rather than running in the script thread.
+ */
+
+public class JdbcExecutor
+{
+    private JdbcExecutor()
+    {
+    }
+
+    public static ExecutorService get(NodeRuntime runtime) {
+        return runtime.getEnvironment().getBlockingPool();
+    }
+}
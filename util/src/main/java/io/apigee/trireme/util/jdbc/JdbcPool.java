@@ -0,0 +1,407 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.util.jdbc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * A pool of JDBC connections to one database. Pools are shared by every script in the JVM that asks for a
+ * pool with the same URL and properties, and the options of the first one win. Each pool is reference
+ * counted, and once every script has released it, its idle connections are closed.
+ * <p>
+ * Nothing here blocks waiting for a connection. If the pool is at its maximum size, the caller's
+ * Waiter is queued and called when a connection is given back. All methods are thread-safe, and they
+ * may call the Waiter in whatever thread they run in. Opening and checking connections is blocking,
+ * so "borrow" and "giveBack" should run on the JdbcExecutor.
+ * </p>
+ */
+
+public class JdbcPool
+{
+    private static final Logger log = LoggerFactory.getLogger(JdbcPool.class);
+
+    public static final int DEFAULT_MAX_SIZE = 10;
+    public static final long DEFAULT_IDLE_TIMEOUT = 60000L;
+    public static final int DEFAULT_STATEMENT_CACHE_SIZE = 20;
+    /** Connections idle longer than this are checked before they are handed out. */
+    private static final long VALIDATE_AFTER = 30000L;
+    private static final int VALIDATE_TIMEOUT_SECS = 5;
+
+    private static final HashMap<String, JdbcPool> pools = new HashMap<String, JdbcPool>();
+
+    private final String key;
+    private final String url;
+    private final Properties props;
+    private final int maxSize;
+    private final long idleTimeout;
+    private final int statementCacheSize;
+
+    // All guarded by "this"
+    private final ArrayDeque<Member> idle = new ArrayDeque<Member>();
+    private final LinkedList<Waiter> waiters = new LinkedList<Waiter>();
+    private int size;
+    private int references;
+    private boolean closed;
+
+    private long created;
+    private long borrowed;
+    private long waited;
+
+    private JdbcPool(String key, String url, Properties props, int maxSize, long idleTimeout,
+                     int statementCacheSize)
+    {
+        this.key = key;
+        this.url = url;
+        this.props = props;
+        this.maxSize = maxSize;
+        this.idleTimeout = idleTimeout;
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /**
+     * Get the pool for the URL and properties, creating it if it does not exist, and add a reference to it.
+     * The caller must close the returned Closeable to release the reference.
+     */
+    public static Reference acquire(String url, Properties props, int maxSize, long idleTimeout,
+                                    int statementCacheSize)
+    {
+        String key = makeKey(url, props);
+        JdbcPool pool;
+        synchronized (pools) {
+            pool = pools.get(key);
+            if (pool == null) {
+                pool = new JdbcPool(key, url, props, maxSize, idleTimeout, statementCacheSize);
+                pools.put(key, pool);
+                if (log.isDebugEnabled()) {
+                    log.debug("Created JDBC pool for {} with max size {}", url, maxSize);
+                }
+            }
+            synchronized (pool) {
+                pool.references++;
+            }
+        }
+        return new Reference(pool);
+    }
+
+    private static String makeKey(String url, Properties props)
+    {
+        StringBuilder k = new StringBuilder(url);
+        if (props != null) {
+            // Sort so that the same properties in a different order get the same pool
+            TreeMap<String, String> sorted = new TreeMap<String, String>();
+            for (String name : props.stringPropertyNames()) {
+                sorted.put(name, props.getProperty(name));
+            }
+            for (String name : sorted.keySet()) {
+                k.append('\0').append(name).append('=').append(sorted.get(name));
+            }
+        }
+        return k.toString();
+    }
+
+    private void release()
+    {
+        ArrayList<Member> toClose;
+        synchronized (pools) {
+            synchronized (this) {
+                references--;
+                if (references > 0) {
+                    return;
+                }
+                closed = true;
+                toClose = new ArrayList<Member>(idle);
+                size -= idle.size();
+                idle.clear();
+            }
+            pools.remove(key);
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Closing JDBC pool for {}", url);
+        }
+        closeAll(toClose);
+    }
+
+    /**
+     * Get a connection. If one is available, or if the pool is not full, then "waiter" is called with it
+     * before this method returns. Otherwise it is called when a connection is given back, unless "cancel" is
+     * called first.
+     */
+    public void borrow(Waiter waiter)
+    {
+        ArrayList<Member> expired = new ArrayList<Member>();
+        Member m = null;
+        boolean create = false;
+        long now = System.currentTimeMillis();
+
+        synchronized (this) {
+            // Most recently used connections are on top, so the ones at the bottom are the ones to expire
+            while (!idle.isEmpty() && ((now - idle.peekLast().lastUsed) > idleTimeout)) {
+                expired.add(idle.pollLast());
+                size--;
+            }
+            if (!idle.isEmpty()) {
+                m = idle.pollFirst();
+                borrowed++;
+            } else if (size < maxSize) {
+                size++;
+                create = true;
+                borrowed++;
+            } else {
+                waiters.add(waiter);
+                waited++;
+            }
+        }
+        closeAll(expired);
+
+        if ((m != null) && ((now - m.lastUsed) > VALIDATE_AFTER) && !isValid(m)) {
+            // Throw away the bad connection and open a new one in its place
+            m.close();
+            m = null;
+            create = true;
+        }
+
+        if (m != null) {
+            waiter.ready(m);
+        } else if (create) {
+            try {
+                Connection conn = DriverManager.getConnection(url, props);
+                synchronized (this) {
+                    created++;
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("Opened new pooled JDBC connection to {}", conn);
+                }
+                waiter.ready(new Member(this, conn, statementCacheSize));
+            } catch (SQLException se) {
+                synchronized (this) {
+                    size--;
+                }
+                waiter.failed(se);
+            }
+        }
+    }
+
+    private static boolean isValid(Member m)
+    {
+        try {
+            return m.conn.isValid(VALIDATE_TIMEOUT_SECS);
+        } catch (SQLException se) {
+            return false;
+        }
+    }
+
+    /**
+     * Stop waiting for a connection. Returns false if the waiter already got one.
+     */
+    public synchronized boolean cancel(Waiter waiter)
+    {
+        return waiters.remove(waiter);
+    }
+
+    /**
+     * Give back a connection. It is rolled back if it was in the middle of a transaction, and either handed
+     * to the next waiter or put back in the pool. If that fails, or if "broken" is set, then it is closed.
+     */
+    public void giveBack(Member m, boolean broken)
+    {
+        if (!broken) {
+            try {
+                if (m.conn.isClosed()) {
+                    broken = true;
+                } else if (!m.conn.getAutoCommit()) {
+                    m.conn.rollback();
+                    m.conn.setAutoCommit(true);
+                }
+            } catch (SQLException se) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Error resetting pooled connection. Closing it: {}", se);
+                }
+                broken = true;
+            }
+        }
+
+        Waiter next = null;
+        synchronized (this) {
+            if (broken || closed) {
+                size--;
+            } else {
+                m.lastUsed = System.currentTimeMillis();
+                next = waiters.poll();
+                if (next == null) {
+                    idle.addFirst(m);
+                } else {
+                    borrowed++;
+                }
+            }
+        }
+
+        if (broken || closed) {
+            m.close();
+            // There is room for a new connection now
+            Waiter w;
+            synchronized (this) {
+                w = waiters.poll();
+            }
+            if (w != null) {
+                borrow(w);
+            }
+        } else if (next != null) {
+            next.ready(m);
+        }
+    }
+
+    private static void closeAll(Iterable<Member> members)
+    {
+        Iterator<Member> it = members.iterator();
+        while (it.hasNext()) {
+            it.next().close();
+        }
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * The number of open connections, including the idle ones.
+     */
+    public synchronized int getSize() {
+        return size;
+    }
+
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    public synchronized int getWaitingCount() {
+        return waiters.size();
+    }
+
+    public synchronized long getCreatedCount() {
+        return created;
+    }
+
+    public synchronized long getBorrowedCount() {
+        return borrowed;
+    }
+
+    /**
+     * The number of times that someone had to wait because the pool was full.
+     */
+    public synchronized long getWaitedCount() {
+        return waited;
+    }
+
+    /**
+     * A connection that belongs to the pool, along with its prepared statements.
+     */
+    public static final class Member
+    {
+        private final JdbcPool pool;
+        final Connection conn;
+        final StatementCache statements;
+        long lastUsed;
+
+        Member(JdbcPool pool, Connection conn, int statementCacheSize)
+        {
+            this.pool = pool;
+            this.conn = conn;
+            this.statements = new StatementCache(conn, statementCacheSize);
+            this.lastUsed = System.currentTimeMillis();
+        }
+
+        public JdbcPool getPool() {
+            return pool;
+        }
+
+        void close()
+        {
+            statements.close();
+            try {
+                conn.close();
+            } catch (SQLException se) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Error closing pooled connection: {}", se);
+                }
+            }
+        }
+    }
+
+    /**
+     * This is called when a connection is available, or when one could not be opened.
+     */
+    public interface Waiter
+    {
+        void ready(Member m);
+        void failed(SQLException se);
+    }
+
+    /**
+     * One script's reference to a pool. It is closed when the script closes the pool, or when the script
+     * exits, whichever comes first.
+     */
+    public static final class Reference
+        implements Closeable
+    {
+        private final JdbcPool pool;
+        private boolean released;
+
+        Reference(JdbcPool pool)
+        {
+            this.pool = pool;
+        }
+
+        public JdbcPool getPool() {
+            return pool;
+        }
+
+        @Override
+        public void close()
+        {
+            synchronized (this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+            }
+            pool.release();
+        }
+    }
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.util.jdbc;
+
+import io.apigee.trireme.core.NodeRuntime;
+import io.apigee.trireme.core.ScriptTask;
+import io.apigee.trireme.core.Utils;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.Undefined;
+import org.mozilla.javascript.annotations.JSFunction;
+import org.mozilla.javascript.annotations.JSGetter;
+
+import java.io.Closeable;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static io.apigee.trireme.core.ArgUtils.*;
+
+/**
+ * This is the script's handle to a JdbcPool. "getConnection" returns a regular JdbcConnection, and closing it
+ * gives it back to the pool. If the script exits without closing the pool, it is released anyway.
+ */
+
+public class JdbcPoolHandle
+    extends ScriptableObject
+{
+    public static final String CLASS_NAME = "_triremeJdbcPool";
+
+    public static final long DEFAULT_WAIT_TIMEOUT = 30000L;
+
+    private NodeRuntime runtime;
+    private JdbcPool.Reference reference;
+    private long waitTimeout;
+
+    @Override
+    public String getClassName() {
+        return CLASS_NAME;
+    }
+
+    void init(NodeRuntime runtime, String url, Properties props, Scriptable opts)
+    {
+        this.runtime = runtime;
+        this.waitTimeout = getOption(opts, "waitTimeout", DEFAULT_WAIT_TIMEOUT);
+        this.reference =
+            JdbcPool.acquire(url, props,
+                             (int)getOption(opts, "maxConnections", JdbcPool.DEFAULT_MAX_SIZE),
+                             getOption(opts, "idleTimeout", JdbcPool.DEFAULT_IDLE_TIMEOUT),
+                             (int)getOption(opts, "statementCacheSize", JdbcPool.DEFAULT_STATEMENT_CACHE_SIZE));
+        runtime.registerCloseable(reference);
+    }
+
+    private static long getOption(Scriptable opts, String name, long def)
+    {
+        if (opts == null) {
+            return def;
+        }
+        Object v = opts.get(name, opts);
+        if (v instanceof Number) {
+            return ((Number)v).longValue();
+        }
+        return def;
+    }
+
+    @JSFunction
+    @SuppressWarnings("unused")
+    public static void getConnection(Context cx, Scriptable thisObj, Object[] args, Function func)
+    {
+        final Function cb = functionArg(args, 0, true);
+        final JdbcPoolHandle self = (JdbcPoolHandle)thisObj;
+        if (self.reference == null) {
+            throw Utils.makeError(cx, self, "Pool is closed");
+        }
+
+        final JdbcPool pool = self.reference.getPool();
+        final Object domain = self.runtime.getDomain();
+        final ConnectionWaiter waiter = new ConnectionWaiter(self, pool, cb, domain);
+
+        // If the script exits while we wait, then whatever connection we get must go right back
+        self.runtime.registerCloseable(waiter);
+        self.runtime.pin();
+        waiter.timer = self.runtime.createTimedTask(new Runnable() {
+            @Override
+            public void run()
+            {
+                if (pool.cancel(waiter)) {
+                    waiter.failed(new SQLException("Timed out waiting for a JDBC connection"));
+                }
+            }
+        }, self.waitTimeout, TimeUnit.MILLISECONDS, false, domain);
+
+        JdbcExecutor.get(self.runtime).execute(new Runnable() {
+            @Override
+            public void run()
+            {
+                pool.borrow(waiter);
+            }
+        });
+    }
+
+    @JSFunction
+    @SuppressWarnings("unused")
+    public static void close(Context cx, Scriptable thisObj, Object[] args, Function func)
+    {
+        JdbcPoolHandle self = (JdbcPoolHandle)thisObj;
+        if (self.reference != null) {
+            self.runtime.unregisterCloseable(self.reference);
+            self.reference.close();
+            self.reference = null;
+        }
+    }
+
+    @JSGetter("size")
+    @SuppressWarnings("unused")
+    public int getSize() {
+        return (reference == null) ? 0 : reference.getPool().getSize();
+    }
+
+    @JSGetter("idle")
+    @SuppressWarnings("unused")
+    public int getIdle() {
+        return (reference == null) ? 0 : reference.getPool().getIdleCount();
+    }
+
+    @JSGetter("waiting")
+    @SuppressWarnings("unused")
+    public int getWaiting() {
+        return (reference == null) ? 0 : reference.getPool().getWaitingCount();
+    }
+
+    @JSGetter("maxConnections")
+    @SuppressWarnings("unused")
+    public int getMaxConnections() {
+        return (reference == null) ? 0 : reference.getPool().getMaxSize();
+    }
+
+    /**
+     * This is called in the JDBC thread, and calls back the script in its own thread. It is also registered
+     * with the runtime until the script gets its connection. If the script exits first, then it stops
+     * waiting, and a connection that it already got, or gets later, is given back to the pool.
+     */
+    private static final class ConnectionWaiter
+        implements JdbcPool.Waiter, Closeable
+    {
+        private final JdbcPoolHandle handle;
+        private final JdbcPool pool;
+        private final Function callback;
+        private final Object domain;
+        Future<Boolean> timer;
+
+        // Both guarded by "this"
+        private JdbcPool.Member pending;
+        private boolean abandoned;
+
+        ConnectionWaiter(JdbcPoolHandle handle, JdbcPool pool, Function callback, Object domain)
+        {
+            this.handle = handle;
+            this.pool = pool;
+            this.callback = callback;
+            this.domain = domain;
+        }
+
+        @Override
+        public void ready(final JdbcPool.Member m)
+        {
+            boolean wanted;
+            synchronized (this) {
+                wanted = !abandoned;
+                if (wanted) {
+                    pending = m;
+                }
+            }
+            if (!wanted) {
+                pool.giveBack(m, false);
+                return;
+            }
+
+            handle.runtime.enqueueTask(new ScriptTask() {
+                @Override
+                public void execute(Context cx, Scriptable scope)
+                {
+                    synchronized (ConnectionWaiter.this) {
+                        if (pending == null) {
+                            // The script is exiting and the connection already went back
+                            return;
+                        }
+                        pending = null;
+                    }
+                    try {
+                        timer.cancel(false);
+                        handle.runtime.unregisterCloseable(ConnectionWaiter.this);
+                        JdbcConnection conn = (JdbcConnection)cx.newObject(handle, JdbcConnection.CLASS_NAME);
+                        conn.initPooled(m, handle.runtime);
+                        callback.call(cx, callback, handle, new Object[] { Undefined.instance, conn });
+                    } finally {
+                        handle.runtime.unPin();
+                    }
+                }
+            }, domain);
+        }
+
+        /**
+         * Called in the script thread when the script exits.
+         */
+        @Override
+        public void close()
+        {
+            final JdbcPool.Member m;
+            synchronized (this) {
+                abandoned = true;
+                m = pending;
+                pending = null;
+            }
+            pool.cancel(this);
+            if (m != null) {
+                JdbcExecutor.get(handle.runtime).execute(new Runnable() {
+                    @Override
+                    public void run()
+                    {
+                        pool.giveBack(m, false);
+                    }
+                });
+            }
+        }
+
+        @Override
+        public void failed(final SQLException se)
+        {
+            handle.runtime.enqueueTask(new ScriptTask() {
+                @Override
+                public void execute(Context cx, Scriptable scope)
+                {
+                    try {
+                        timer.cancel(false);
+                        handle.runtime.unregisterCloseable(ConnectionWaiter.this);
+                        callback.call(cx, callback, handle, new Object[] { JdbcWrap.makeSqlError(cx, scope, se) });
+                    } finally {
+                        handle.runtime.unPin();
+                    }
+                }
+            }, domain);
+        }
+    }
+}
@@ -33,6 +33,7 @@ import org.mozilla.javascript.annotations.JSFunction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -40,6 +41,13 @@ import java.util.ArrayList;
 
 import static io.apigee.trireme.core.ArgUtils.*;
 
+/**
+ * A result set that the script reads a batch of rows at a time. While the script works on one batch, the
+ * next one is read in the background, but no more than that, so a slow script never has more than two
+ * batches of rows in memory. Rows are read as Java values in the JDBC thread and turned in to JavaScript
+ * objects in the script thread.
+ */
+
 public class JdbcResultHandle
     extends ScriptableObject
 {
@@ -47,24 +55,37 @@ public class JdbcResultHandle
 
     public static final String CLASS_NAME = "_triremeJdbcResultHandle";
 
+    private JdbcConnection connection;
     private NodeRuntime runtime;
     private ResultSet results;
-    private Statement statement;
+    private PreparedStatement statement;
+    private String sql;
     private ResultProcessor processor;
-    private boolean closed;
+    private boolean userClosed;
+
+    // Guarded by "results," which is only locked while rows are read or the result set is closed
+    private volatile boolean closed;
+
+    // Guarded by "this"
+    private Batch ready;
+    private boolean fetching;
+    private Function waitingCallback;
+    private Object waitingDomain;
 
     @Override
     public String getClassName() {
         return CLASS_NAME;
     }
 
-    public void init(NodeRuntime runtime, ResultSet rs, Statement st)
-        throws SQLException
+    void init(JdbcConnection connection, NodeRuntime runtime, ResultSet rs, PreparedStatement st, String sql,
+              ResultProcessor processor)
     {
+        this.connection = connection;
         this.runtime = runtime;
         this.results = rs;
         this.statement = st;
-        this.processor = new ResultProcessor(rs);
+        this.sql = sql;
+        this.processor = processor;
     }
 
     @JSFunction
@@ -76,71 +97,190 @@ public class JdbcResultHandle
         final JdbcResultHandle self = (JdbcResultHandle)thisObj;
 
         final Object domain = self.runtime.getDomain();
-        self.runtime.getAsyncPool().execute(new Runnable() {
+        Batch b;
+        synchronized (self) {
+            b = self.ready;
+            if (b == null) {
+                // Nothing read ahead yet, so wait for it
+                self.waitingCallback = cb;
+                self.waitingDomain = domain;
+                if (!self.fetching) {
+                    self.startFetch(maxRows);
+                }
+            } else {
+                self.ready = null;
+                if (!b.isLast()) {
+                    self.startFetch(maxRows);
+                }
+            }
+        }
+
+        if (b != null) {
+            self.deliver(b, cb, domain);
+        }
+    }
+
+    /**
+     * Start reading the next batch in the JDBC thread. Call this while holding the lock.
+     */
+    private void startFetch(final int maxRows)
+    {
+        fetching = true;
+        JdbcExecutor.get(runtime).execute(new Runnable() {
             @Override
             public void run()
             {
-                // Since this runs in another thread, the user might be trying to close at the same time.
-                // So, this should be a mostly-uncontended lock.
-                synchronized (self) {
-                    if (self.closed) {
-                        return;
-                    }
-                    Context cx = Context.enter();
-
-                    int rowCount = 0;
-                    ArrayList<Object> rows = new ArrayList<Object>(Math.min(maxRows, 10));
-                    try {
-                        // Fetch an array of rows
-                        while ((rowCount < maxRows) && self.results.next()) {
-                            rows.add(self.processor.makeRow(cx, self));
-                            rowCount++;
-                        }
-
-                        // Return as an array, possibly empty
-                        Object[] rowArray = rows.toArray(new Object[rows.size()]);
-                        self.runtime.enqueueCallback(cb, cb, self, domain, new Object[] {
-                            Undefined.instance, cx.newArray(self, rowArray), (rowCount < maxRows)
-                        });
-
-                    } catch (final SQLException sqle) {
-                        self.runtime.enqueueTask(new ScriptTask() {
-                            @Override
-                            public void execute(Context cx, Scriptable scope)
-                            {
-                                cb.call(cx, cb, self, new Object[] {
-                                    JdbcWrap.makeSqlError(cx, scope, sqle)
-                                });
-                            }
-                        }, domain);
-                    } finally {
-                        Context.exit();
+                Batch b = readBatch(maxRows);
+                if (b == null) {
+                    // Closed in the meantime
+                    return;
+                }
+
+                Function cb;
+                Object domain;
+                synchronized (JdbcResultHandle.this) {
+                    fetching = false;
+                    cb = waitingCallback;
+                    domain = waitingDomain;
+                    waitingCallback = null;
+                    waitingDomain = null;
+                    if (cb == null) {
+                        // Keep it until the script asks for it
+                        ready = b;
+                    } else if (!b.isLast()) {
+                        // The script is already waiting, so read ahead again while it processes this batch
+                        startFetch(maxRows);
                     }
                 }
+
+                if (cb != null) {
+                    deliver(b, cb, domain);
+                }
             }
         });
     }
 
+    private Batch readBatch(int maxRows)
+    {
+        // Since this runs in another thread, the user might be trying to close at the same time.
+        // So, this should be a mostly-uncontended lock.
+        synchronized (results) {
+            if (closed) {
+                return null;
+            }
+
+            Batch b = new Batch(Math.min(maxRows, 10));
+            try {
+                // Fetch an array of rows
+                int rowCount = 0;
+                while ((rowCount < maxRows) && results.next()) {
+                    b.rows.add(processor.readRow());
+                    rowCount++;
+                }
+                b.eof = (rowCount < maxRows);
+            } catch (SQLException sqle) {
+                b.error = sqle;
+            }
+            return b;
+        }
+    }
+
+    private void deliver(final Batch b, final Function cb, Object domain)
+    {
+        runtime.enqueueTask(new ScriptTask() {
+            @Override
+            public void execute(Context cx, Scriptable scope)
+            {
+                if (b.error == null) {
+                    // Return as an array, possibly empty
+                    Object[] rowArray = new Object[b.rows.size()];
+                    for (int i = 0; i < rowArray.length; i++) {
+                        rowArray[i] = processor.makeRow(cx, JdbcResultHandle.this, b.rows.get(i));
+                    }
+                    cb.call(cx, cb, JdbcResultHandle.this, new Object[] {
+                        Undefined.instance, cx.newArray(JdbcResultHandle.this, rowArray), b.eof
+                    });
+                } else {
+                    cb.call(cx, cb, JdbcResultHandle.this, new Object[] {
+                        JdbcWrap.makeSqlError(cx, scope, b.error)
+                    });
+                }
+            }
+        }, domain);
+    }
+
     @JSFunction
     @SuppressWarnings("unused")
     public static void close(Context cx, Scriptable thisObj, Object[] args, Function func)
     {
         JdbcResultHandle self = (JdbcResultHandle)thisObj;
 
-        synchronized (self) {
-            if (self.closed) {
-                throw Utils.makeError(cx, self, "Already closed");
-            }
+        if (self.userClosed) {
+            throw Utils.makeError(cx, self, "Already closed");
+        }
+        self.userClosed = true;
+
+        if (self.closeResultSet()) {
+            // Let the connection cache the statement, unless it has been closed itself
+            self.connection.resultClosed(self, self.sql, self.statement);
+        }
+    }
+
+    /**
+     * Close the result set and the statement. This is called when the connection is closed.
+     */
+    void closeResources()
+    {
+        if (closeResultSet()) {
+            closeStatement(statement);
+        }
+    }
 
+    private boolean closeResultSet()
+    {
+        synchronized (results) {
+            if (closed) {
+                return false;
+            }
+            closed = true;
             try {
-                self.closed = true;
-                self.results.close();
-                self.statement.close();
+                results.close();
             } catch (SQLException se) {
                 if (log.isDebugEnabled()) {
                     log.debug("Error closing result set: {}", se);
                 }
             }
         }
+        synchronized (this) {
+            ready = null;
+        }
+        return true;
+    }
+
+    static void closeStatement(Statement st)
+    {
+        try {
+            st.close();
+        } catch (SQLException se) {
+            if (log.isDebugEnabled()) {
+                log.debug("Error closing statement: {}", se);
+            }
+        }
+    }
+
+    private static final class Batch
+    {
+        final ArrayList<Object[]> rows;
+        boolean eof;
+        SQLException error;
+
+        Batch(int size)
+        {
+            rows = new ArrayList<Object[]>(size);
+        }
+
+        boolean isLast() {
+            return (eof || (error != null));
+        }
     }
 }
@@ -36,6 +36,7 @@ import org.mozilla.javascript.annotations.JSFunction;
 import org.mozilla.javascript.annotations.JSGetter;
 
 import java.lang.reflect.InvocationTargetException;
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
@@ -46,7 +47,7 @@ import static io.apigee.trireme.core.ArgUtils.*;
 public class JdbcWrap
     implements InternalNodeModule
 {
-    public static final String INTERFACE_VERSION = "1.0.0";
+    public static final String INTERFACE_VERSION = "1.1.0";
 
     @Override
     public String getModuleName() {
@@ -61,6 +62,7 @@ public class JdbcWrap
         ScriptableObject.defineClass(global, JdbcImpl.class);
         ScriptableObject.defineClass(global, JdbcConnection.class, false, true);
         ScriptableObject.defineClass(global, JdbcResultHandle.class);
+        ScriptableObject.defineClass(global, JdbcPoolHandle.class);
         JdbcImpl impl = (JdbcImpl)cx.newObject(global, JdbcImpl.CLASS_NAME);
         impl.init(runtime);
         return impl;
@@ -70,9 +72,22 @@ public class JdbcWrap
     {
         Scriptable err = Utils.makeErrorObject(cx, scope, se.getMessage(), String.valueOf(se.getErrorCode()));
         err.put("errorCode", err, se.getErrorCode());
+        if ((se instanceof BatchUpdateException) && (((BatchUpdateException)se).getUpdateCounts() != null)) {
+            // Tell the caller how far the batch got
+            err.put("updateCounts", err, makeCountArray(cx, scope, ((BatchUpdateException)se).getUpdateCounts()));
+        }
         return err;
     }
 
+    static Scriptable makeCountArray(Context cx, Scriptable scope, int[] counts)
+    {
+        Object[] a = new Object[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            a[i] = counts[i];
+        }
+        return cx.newArray(scope, a);
+    }
+
     public static class JdbcImpl
         extends ScriptableObject
     {
@@ -115,7 +130,7 @@ public class JdbcWrap
 
             self.runtime.pin();
             final Object domain = self.runtime.getDomain();
-            self.runtime.getAsyncPool().execute(new Runnable() {
+            JdbcExecutor.get(self.runtime).execute(new Runnable() {
                 @Override
                 public void run()
                 {
@@ -152,6 +167,31 @@ public class JdbcWrap
                 }
             });
         }
+
+        /**
+         * Return a pool of connections to the database. Pools are shared with every other script in the
+         * JVM that uses the same URL and properties. The options are "maxConnections," "idleTimeout"
+         * and "waitTimeout" in milliseconds, and "statementCacheSize," which is the number of prepared
+         * statements to keep for each connection.
+         */
+        @JSFunction
+        @SuppressWarnings("unused")
+        public static Object createPool(Context cx, Scriptable thisObj, Object[] args, Function func)
+        {
+            String url = stringArg(args, 0);
+            Object props = (args.length > 1) ? args[1] : null;
+            Scriptable opts = objArg(args, 2, Scriptable.class, false);
+            JdbcImpl self = (JdbcImpl)thisObj;
+
+            Properties properties = null;
+            if ((props != null) && !Undefined.instance.equals(props)) {
+                properties = makeProperties((Scriptable)props);
+            }
+
+            JdbcPoolHandle pool = (JdbcPoolHandle)cx.newObject(self, JdbcPoolHandle.CLASS_NAME);
+            pool.init(self.runtime, url, properties, opts);
+            return pool;
+        }
     }
 
     private static Properties makeProperties(Scriptable s)
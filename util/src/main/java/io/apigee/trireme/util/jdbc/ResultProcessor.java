@@ -33,7 +33,8 @@ import java.sql.Types;
 
 /**
  * Given a ResultSet, this object will be capable of producing Scriptable objects containing
- * the contents of a row.
+ * the contents of a row. Rows may also be read as plain Java values using "readRow" in the thread
+ * that is talking to the database, and turned in to JavaScript objects later in the script thread.
  */
 
 public class ResultProcessor
@@ -62,16 +63,47 @@ public class ResultProcessor
      */
     public Scriptable makeRow(Context cx, Scriptable scope)
         throws SQLException
+    {
+        return makeRow(cx, scope, readRow());
+    }
+
+    /**
+     * Read the current row as Java objects, without touching any JavaScript objects.
+     */
+    public Object[] readRow()
+        throws SQLException
+    {
+        Object[] row = new Object[metadata.length];
+        for (int i = 1; i < metadata.length; i++) {
+            row[i] = getValue(i, metadata[i].sqlType);
+        }
+        return row;
+    }
+
+    /**
+     * Turn a row that was returned by "readRow" in to an object.
+     */
+    public Scriptable makeRow(Context cx, Scriptable scope, Object[] values)
     {
         Scriptable row = cx.newObject(scope);
         for (int i = 1; i < metadata.length; i++) {
-            Meta md = metadata[i];
-            row.put(md.name, row, getValue(i, md.sqlType, cx, scope));
+            row.put(metadata[i].name, row, convertValue(values[i], cx, scope));
         }
         return row;
     }
 
-    private Object getValue(int i, int type, Context cx, Scriptable scope)
+    private static Object convertValue(Object v, Context cx, Scriptable scope)
+    {
+        if (v instanceof Timestamp) {
+            return cx.newObject(scope, "Date", new Object[] { Double.valueOf(((Timestamp)v).getTime()) });
+        }
+        if (v instanceof byte[]) {
+            return Buffer.BufferImpl.newBuffer(cx, scope, (byte[])v);
+        }
+        return v;
+    }
+
+    private Object getValue(int i, int type)
         throws SQLException
     {
         switch (type) {
@@ -123,20 +155,14 @@ public class ResultProcessor
 
         case Types.TIMESTAMP:
             Timestamp ts = rs.getTimestamp(i);
-            if (rs.wasNull()) {
-                return null;
-            }
-            return cx.newObject(scope, "Date", new Object[] { Double.valueOf(ts.getTime()) });
+            return (rs.wasNull() ? null : ts);
 
         case Types.BINARY:
         case Types.BLOB:
         case Types.VARBINARY:
         case Types.LONGVARBINARY:
             byte[] byv = rs.getBytes(i);
-            if (rs.wasNull()) {
-                return null;
-            }
-            return Buffer.BufferImpl.newBuffer(cx, scope, byv);
+            return (rs.wasNull() ? null : byv);
 
         case Types.NULL:
             return null;
@@ -0,0 +1,156 @@
+/**
+ * Copyright 2015 Apigee Corporation.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.apigee.trireme.util.jdbc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This keeps the most recently used prepared statements for a connection so that running the same SQL
+ * again doesn't prepare it again. A statement is taken out of the cache while it is in use, so two
+ * callers never share one -- for instance when a streaming result set is still open. With a size of zero,
+ * statements are prepared every time and closed when they are released, just as if there were no cache.
+ * Like the connection itself, it must not be used by two threads at once.
+ */
+
+public class StatementCache
+{
+    private static final Logger log = LoggerFactory.getLogger(StatementCache.class);
+
+    private final Connection conn;
+    private final int maxSize;
+    private final LinkedHashMap<String, PreparedStatement> statements;
+    private final ArrayList<PreparedStatement> evicted = new ArrayList<PreparedStatement>();
+
+    private long hits;
+    private long misses;
+
+    public StatementCache(Connection conn, final int maxSize)
+    {
+        this.conn = conn;
+        this.maxSize = maxSize;
+        this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest)
+            {
+                if (size() > maxSize) {
+                    evicted.add(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Return a statement for the SQL, either from the cache or newly prepared. It must be given back
+     * to "release" when the caller is done with it.
+     */
+    public PreparedStatement prepare(String sql)
+        throws SQLException
+    {
+        PreparedStatement st = statements.remove(sql);
+        if (st != null) {
+            hits++;
+            st.clearParameters();
+            return st;
+        }
+        misses++;
+        return conn.prepareCall(sql);
+    }
+
+    /**
+     * Put the statement back in the cache, or close it if there isn't room.
+     */
+    public void release(String sql, PreparedStatement st)
+    {
+        if (maxSize <= 0) {
+            closeStatement(st);
+            return;
+        }
+
+        try {
+            if (st.isClosed()) {
+                return;
+            }
+            st.clearBatch();
+        } catch (SQLException se) {
+            closeStatement(st);
+            return;
+        }
+
+        PreparedStatement old = statements.put(sql, st);
+        if (old != null) {
+            // Two callers used the same SQL at the same time. Keep the newer one.
+            closeStatement(old);
+        }
+        closeEvicted();
+    }
+
+    /**
+     * Close every statement in the cache.
+     */
+    public void close()
+    {
+        Iterator<PreparedStatement> it = statements.values().iterator();
+        while (it.hasNext()) {
+            closeStatement(it.next());
+            it.remove();
+        }
+    }
+
+    private void closeEvicted()
+    {
+        for (PreparedStatement st : evicted) {
+            closeStatement(st);
+        }
+        evicted.clear();
+    }
+
+    private static void closeStatement(PreparedStatement st)
+    {
+        try {
+            st.close();
+        } catch (SQLException se) {
+            if (log.isDebugEnabled()) {
+                log.debug("Error closing statement: {}", se);
+            }
+        }
+    }
+
+    public long getHitCount() {
+        return hits;
+    }
+
+    public long getMissCount() {
+        return misses;
+    }
+}
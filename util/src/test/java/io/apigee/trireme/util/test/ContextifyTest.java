@@ -1,6 +1,7 @@
 package io.apigee.trireme.util.test;
 
 import io.apigee.trireme.core.NodeEnvironment;
+import io.apigee.trireme.core.internal.BoundedClassCache;
 import io.apigee.trireme.core.NodeException;
 import io.apigee.trireme.core.NodeScript;
 import io.apigee.trireme.core.ScriptStatus;
@@ -31,12 +32,33 @@ public class ContextifyTest
         runTest("testcontextify.js");
     }
 
-    private void runTest(String name)
+    @Test
+    public void testClassCache()
+        throws NodeException, InterruptedException
+    {
+        // Compile once, then twice in a fresh environment, so that anything else that the runtime
+        // compiles is the same both times
+        BoundedClassCache once = new BoundedClassCache();
+        env.setClassCache(once);
+        runTest("testcontextifycache.js", "1");
+        env.close();
+
+        BoundedClassCache twice = new BoundedClassCache();
+        env = new NodeEnvironment();
+        env.setClassCache(twice);
+        runTest("testcontextifycache.js", "2");
+        env.close();
+
+        assertEquals(once.getLoadCount(), twice.getLoadCount());
+        assertEquals(once.getHitCount() + 1L, twice.getHitCount());
+    }
+
+    private void runTest(String name, String... args)
         throws InterruptedException, NodeException
     {
         NodeScript script = env.createScript(name,
                                              new File("./target/test-classes/testscripts/" + name),
-                                             null);
+                                             args);
         try {
             ScriptStatus status = script.execute().get();
             assertEquals(0, status.getExitCode());
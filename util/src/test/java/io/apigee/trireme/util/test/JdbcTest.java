@@ -4,6 +4,7 @@ import io.apigee.trireme.core.NodeEnvironment;
 import io.apigee.trireme.core.NodeException;
 import io.apigee.trireme.core.NodeScript;
 import io.apigee.trireme.core.ScriptStatus;
+import io.apigee.trireme.util.jdbc.JdbcPool;
 import org.junit.Before;
 import org.junit.Test;
 import org.mozilla.javascript.RhinoException;
@@ -39,6 +40,38 @@ public class JdbcTest
         runTest("teststreaming.js");
     }
 
+    @Test
+    public void poolTest()
+        throws InterruptedException, NodeException
+    {
+        runTest("testpool.js");
+    }
+
+    @Test
+    public void poolLeakTest()
+        throws InterruptedException, NodeException
+    {
+        // Keep the pool around after the script exits, as if another script were using it too
+        JdbcPool.Reference ref = JdbcPool.acquire("jdbc:hsqldb:mem:leaktest", null, 2,
+                                                  JdbcPool.DEFAULT_IDLE_TIMEOUT,
+                                                  JdbcPool.DEFAULT_STATEMENT_CACHE_SIZE);
+        try {
+            runTest("testpoolleak.js");
+
+            // Connections are given back on another thread
+            JdbcPool pool = ref.getPool();
+            long deadline = System.currentTimeMillis() + 10000L;
+            while (((pool.getSize() != pool.getIdleCount()) || (pool.getWaitingCount() > 0)) &&
+                   (System.currentTimeMillis() < deadline)) {
+                Thread.sleep(10L);
+            }
+            assertEquals(0, pool.getWaitingCount());
+            assertEquals(pool.getSize(), pool.getIdleCount());
+        } finally {
+            ref.close();
+        }
+    }
+
     private void runTest(String name)
         throws InterruptedException, NodeException
     {
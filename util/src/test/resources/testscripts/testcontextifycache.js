@@ -0,0 +1,22 @@
+var assert = require('assert');
+var contextify = require('../contextify');
+
+// Compile the same source under the same name as many times as the first argument says.
+// The Java test checks how many of them came from the class cache.
+var count = parseInt(process.argv[2]);
+var src = 'var x = 40 + 2;';
+for (var i = 0; i < count; i++) {
+  var script = new contextify.ContextifyScript(src, 'same.js');
+  var sandbox = {};
+  script.runInContext(new contextify.ContextifyContext(sandbox));
+  assert.equal(sandbox.x, 42);
+}
+
+// Syntax errors still name the file, including the second time, when the cache has seen the key
+for (i = 0; i < 2; i++) {
+  assert.throws(function() {
+    new contextify.ContextifyScript('var = ;', 'bad.js');
+  }, function(e) {
+    return ((e.fileName === 'bad.js') || /bad\.js/.test(e.message));
+  });
+}
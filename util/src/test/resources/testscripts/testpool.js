@@ -0,0 +1,178 @@
+var assert = require('assert');
+
+var jdbc = process.binding('trireme-jdbc-wrap');
+
+var URL = 'jdbc:hsqldb:mem:pooltest';
+var numRows = 1000;
+
+var pool = jdbc.createPool(URL, null, { maxConnections: 2, statementCacheSize: 10 });
+assert.equal(pool.maxConnections, 2);
+
+function withConnection(fn, done) {
+  pool.getConnection(function(err, conn) {
+    assert(!err);
+    fn(conn, function() {
+      conn.close(done);
+    });
+  });
+}
+
+function createTable(done) {
+  withConnection(function(db, finished) {
+    db.execute('create table pooled (ID integer, NAME varchar(128))', null, function(err) {
+      assert(!err);
+      finished();
+    });
+  }, done);
+}
+
+function insertBatch(done) {
+  var params = [];
+  for (var i = 0; i < numRows; i++) {
+    params.push([ i, 'Row ' + i ]);
+  }
+  withConnection(function(db, finished) {
+    db.executeBatch('insert into pooled (id, name) values (?, ?)', params, function(err, result) {
+      assert(!err);
+      assert.equal(result.updateCounts.length, numRows);
+      assert.equal(result.updateCount, numRows);
+      finished();
+    });
+  }, done);
+}
+
+function badBatch(done) {
+  withConnection(function(db, finished) {
+    db.executeBatch('insert into pooled (id, name) values (?, ?)', [ [ 1, {} ] ], function(err) {
+      assert(err);
+      finished();
+    });
+  }, done);
+}
+
+function repeatedQueries(done) {
+  // The same SQL over and over uses the same prepared statement
+  withConnection(function(db, finished) {
+    var count = 0;
+    function next() {
+      db.execute('select name from pooled where id = ?', [ count ], function(err, result, rows) {
+        assert(!err);
+        assert.equal(rows.length, 1);
+        assert.equal(rows[0]['NAME'], 'Row ' + count);
+        if (++count < 100) {
+          next();
+        } else {
+          finished();
+        }
+      });
+    }
+    next();
+  }, done);
+}
+
+function streamRows(done) {
+  withConnection(function(db, finished) {
+    db.executeStreaming('select id from pooled order by id', null, function(err, result, handle) {
+      assert(!err);
+      var expected = 0;
+      function fetch() {
+        handle.fetchRows(50, function(err, rows, eof) {
+          assert(!err);
+          assert(rows.length <= 50);
+          rows.forEach(function(row) {
+            assert.equal(row['ID'], expected);
+            expected++;
+          });
+          if (eof) {
+            assert.equal(expected, numRows);
+            handle.close();
+            finished();
+          } else {
+            // A slow consumer only ever has the next batch read ahead
+            setTimeout(fetch, 1);
+          }
+        });
+      }
+      fetch();
+    });
+  }, done);
+}
+
+function waitForConnection(done) {
+  // With two connections in use, the third caller waits until one comes back
+  pool.getConnection(function(err, c1) {
+    assert(!err);
+    pool.getConnection(function(err, c2) {
+      assert(!err);
+      assert.equal(pool.size, 2);
+      var gotThird = false;
+      pool.getConnection(function(err, c3) {
+        assert(!err);
+        gotThird = true;
+        c3.close(function() {
+          c2.close(done);
+        });
+      });
+      setTimeout(function() {
+        assert(!gotThird);
+        assert.equal(pool.waiting, 1);
+        c1.close();
+      }, 50);
+    });
+  });
+}
+
+function rollbackOnClose(done) {
+  // A connection that is given back in the middle of a transaction is rolled back
+  pool.getConnection(function(err, db) {
+    assert(!err);
+    db.setAutoCommit(false);
+    db.execute("insert into pooled (id, name) values (-1, 'Uncommitted')", null, function(err) {
+      assert(!err);
+      db.close(function() {
+        withConnection(function(db2, finished) {
+          db2.execute('select * from pooled where id = -1', null, function(err, result, rows) {
+            assert(!err);
+            assert.equal(rows.length, 0);
+            finished();
+          });
+        }, done);
+      });
+    });
+  });
+}
+
+function dropTable(done) {
+  withConnection(function(db, finished) {
+    db.execute('drop table pooled', null, function(err) {
+      assert(!err);
+      finished();
+    });
+  }, done);
+}
+
+var success = false;
+
+createTable(function() {
+  insertBatch(function() {
+    badBatch(function() {
+      repeatedQueries(function() {
+        streamRows(function() {
+          waitForConnection(function() {
+            rollbackOnClose(function() {
+              dropTable(function() {
+                assert(pool.idle > 0);
+                pool.close();
+                success = true;
+              });
+            });
+          });
+        });
+      });
+    });
+  });
+});
+
+process.on('exit', function() {
+  assert(success);
+});
@@ -0,0 +1,23 @@
+var assert = require('assert');
+
+var jdbc = process.binding('trireme-jdbc-wrap');
+
+// JdbcTest holds on to this pool so that we can see what the script left behind
+var URL = 'jdbc:hsqldb:mem:leaktest';
+
+var pool = jdbc.createPool(URL, null, { maxConnections: 2 });
+
+// Borrow every connection, wait for another one, and exit without giving any of them back
+pool.getConnection(function(err, c1) {
+  assert(!err);
+  pool.getConnection(function(err, c2) {
+    assert(!err);
+    pool.getConnection(function(err, c3) {
+      assert(false);
+    });
+    setTimeout(function() {
+      assert.equal(pool.waiting, 1);
+      process.exit(0);
+    }, 50);
+  });
+});